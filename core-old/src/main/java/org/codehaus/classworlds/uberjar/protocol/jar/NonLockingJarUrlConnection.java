@@ -46,6 +46,9 @@ package org.codehaus.classworlds.uberjar.protocol.jar;
 
  */
 
+import org.maera.plugin.classloader.JarEntryIndex;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
@@ -71,6 +74,9 @@ import java.util.zip.ZipEntry;
  * This change removes the ability for this connection class to load resources from JARs nested inside the outer
  * JAR. This is not used in Maera because the inner JAR loading is handled by
  * {@link org.maera.plugin.classloader.PluginClassLoader}.
+ * <p/>
+ * When the plugin class loader has registered a {@link JarEntryIndex} for the JAR, entries are read through it
+ * instead of constructing a new <code>JarFile</code>, which would re-read the JAR's central directory.
  */
 public class NonLockingJarUrlConnection
         extends JarURLConnection {
@@ -207,8 +213,16 @@ public class NonLockingJarUrlConnection
      */
     protected void setupPathedInputStream()
             throws IOException {
-        final JarFile jar = getJarFile();
         String entryName = segments[0].substring(1); // remove leading slash
+        final JarEntryIndex index = JarEntryIndex.get(new File(getJarFilePath()));
+        if (index != null && index.contains(entryName)) {
+            this.in = index.openStream(entryName);
+            if (this.in != null) {
+                return;
+            }
+        }
+
+        final JarFile jar = getJarFile();
         final ZipEntry zipEntry = jar.getEntry(entryName);
 
         if (zipEntry == null) {
@@ -305,13 +319,17 @@ public class NonLockingJarUrlConnection
      * @see java.net.JarURLConnection#getJarFile()
      */
     public JarFile getJarFile() throws IOException {
+        return new JarFile(getJarFilePath());
+    }
+
+    private String getJarFilePath() throws IOException {
         String url = baseResource.toExternalForm();
 
         if (url.startsWith("file:")) {
             url = url.substring(5);
         }
 
-        return new JarFile(URLDecoder.decode(url, "UTF-8"));
+        return URLDecoder.decode(url, "UTF-8");
     }
 
     private static String normalizeUrlPath(String name) {
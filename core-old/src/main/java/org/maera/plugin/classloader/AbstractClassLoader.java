@@ -1,6 +1,7 @@
 package org.maera.plugin.classloader;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -9,6 +10,18 @@ import java.util.Enumeration;
  * An abstract class loader to show what you need to implement.
  */
 abstract class AbstractClassLoader extends ClassLoader {
+
+    static {
+        // subclasses can only be parallel capable if this class is; registerAsParallelCapable() was added in Java 7
+        try {
+            final Method registerAsParallelCapable = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            registerAsParallelCapable.invoke(null);
+        }
+        catch (final Exception e) {
+            // not supported on this JVM
+        }
+    }
+
     protected AbstractClassLoader(ClassLoader parent) {
         super(parent);
     }
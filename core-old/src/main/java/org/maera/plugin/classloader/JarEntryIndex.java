@@ -0,0 +1,419 @@
+package org.maera.plugin.classloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A random access index over the entries of a jar, mapping each entry name to the offset of its data.
+ * <p/>
+ * The central directory of the jar is parsed once, when the index is created. Reading an entry afterwards opens the
+ * file, seeks straight to the entry and reads exactly its bytes, so loading a class no longer means constructing a
+ * {@link java.util.jar.JarFile} and re-reading the central directory. No file handle is kept open between reads,
+ * which means the jar is never locked and can be deleted or replaced; a replaced jar is detected by its size and
+ * modification time and re-indexed.
+ * <p/>
+ * Indexes are shared through {@link #register(File)} so that the {@link PluginClassLoader} and the jar URL
+ * connections it hands out use the same one. Registrations are counted, as several class loaders can use the same jar,
+ * and an index is only dropped once each of its registrations has been released through {@link #unregister(File)}.
+ * Jars that cannot be indexed (for example zip64 archives) are not registered, and callers fall back to
+ * {@code JarFile}.
+ *
+ * @since 0.1
+ */
+public final class JarEntryIndex {
+    private static final ConcurrentMap<File, JarEntryIndex> registry = new ConcurrentHashMap<File, JarEntryIndex>();
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY_LENGTH = 46;
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File file;
+    private volatile Snapshot snapshot;
+    /**
+     * The number of registrations of this index that have not been released, guarded by the registry
+     */
+    private int registrations;
+
+    private JarEntryIndex(final File file) throws IOException {
+        this.file = file;
+        this.snapshot = Snapshot.read(file);
+    }
+
+    /**
+     * Indexes a jar, or reuses the index already registered for it, and shares the index with later calls to
+     * {@link #get(File)}.  Each successful registration must be released with {@link #unregister(File)}.
+     *
+     * @param file the jar to index
+     * @return the index, or null if the jar cannot be indexed
+     */
+    public static JarEntryIndex register(final File file) {
+        final File key = file.getAbsoluteFile();
+        JarEntryIndex index = addRegistration(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            // the central directory is read outside the lock, so jars are indexed concurrently
+            index = new JarEntryIndex(key);
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        synchronized (registry) {
+            final JarEntryIndex raced = addRegistration(key);
+            if (raced != null) {
+                return raced;
+            }
+            index.registrations = 1;
+            registry.put(key, index);
+            return index;
+        }
+    }
+
+    private static JarEntryIndex addRegistration(final File key) {
+        synchronized (registry) {
+            final JarEntryIndex existing = registry.get(key);
+            if (existing != null) {
+                existing.registrations++;
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * @param file the jar
+     * @return the shared index of the jar, or null if it has not been registered
+     */
+    public static JarEntryIndex get(final File file) {
+        return registry.get(file.getAbsoluteFile());
+    }
+
+    /**
+     * Releases a registration of the shared index of a jar, and removes the index once no registration is left.
+     *
+     * @param file the jar
+     */
+    public static void unregister(final File file) {
+        final File key = file.getAbsoluteFile();
+        synchronized (registry) {
+            final JarEntryIndex index = registry.get(key);
+            if (index != null && --index.registrations <= 0) {
+                registry.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @param name the entry name
+     * @return true if the jar has an entry with this name
+     */
+    public boolean contains(final String name) {
+        return snapshot.entries.containsKey(name);
+    }
+
+    /**
+     * Reads a whole entry.
+     *
+     * @param name the entry name
+     * @return the uncompressed bytes of the entry, or null if there is no such entry
+     * @throws IOException if the jar cannot be read, including when it has been deleted
+     */
+    public byte[] read(final String name) throws IOException {
+        final Entry entry = current().entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // nowrap inflation needs an extra dummy byte after the compressed data
+            final byte[] data = new byte[(entry.method == STORED) ? entry.compressedSize : entry.compressedSize + 1];
+            raf.seek(dataOffset(raf, entry));
+            raf.readFully(data, 0, entry.compressedSize);
+            if (entry.method == STORED) {
+                return data;
+            }
+            return inflate(data, entry);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a stream over an entry. The jar is held open until the stream is closed.
+     *
+     * @param name the entry name
+     * @return the stream, or null if there is no such entry
+     * @throws IOException if the jar cannot be read, including when it has been deleted
+     */
+    public InputStream openStream(final String name) throws IOException {
+        final Entry entry = current().entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(dataOffset(raf, entry));
+            if (entry.method == STORED) {
+                return new RegionInputStream(raf, entry.compressedSize, false);
+            }
+            return new InflaterInputStream(new RegionInputStream(raf, entry.compressedSize, true), new Inflater(true)) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        inf.end();
+                        super.close();
+                    }
+                }
+            };
+        }
+        catch (final IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the snapshot of the jar as it is on disk now, re-indexing it if it has been replaced
+     */
+    private Snapshot current() throws IOException {
+        Snapshot current = snapshot;
+        if (current.isStale(file)) {
+            synchronized (this) {
+                current = snapshot;
+                if (current.isStale(file)) {
+                    current = Snapshot.read(file);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static long dataOffset(final RandomAccessFile raf, final Entry entry) throws IOException {
+        raf.seek(entry.headerOffset);
+        final byte[] header = new byte[LOCAL_FILE_HEADER_LENGTH];
+        raf.readFully(header);
+        if (readInt(header, 0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header for entry at offset " + entry.headerOffset);
+        }
+        return entry.headerOffset + LOCAL_FILE_HEADER_LENGTH + readShort(header, 26) + readShort(header, 28);
+    }
+
+    private static byte[] inflate(final byte[] data, final Entry entry) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            final byte[] result = new byte[entry.size];
+            int offset = 0;
+            while (offset < result.length) {
+                final int inflated = inflater.inflate(result, offset, result.length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Unexpected end of entry data");
+                }
+                offset += inflated;
+            }
+            return result;
+        }
+        catch (final DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static int readShort(final byte[] b, final int offset) {
+        return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(final byte[] b, final int offset) {
+        return readShort(b, offset) | (readShort(b, offset + 2) << 16);
+    }
+
+    private static long readUnsignedInt(final byte[] b, final int offset) {
+        return readInt(b, offset) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * The entries of a jar as they were when the jar had the recorded length and modification time.
+     */
+    private static final class Snapshot {
+        private final Map<String, Entry> entries;
+        private final long length;
+        private final long lastModified;
+
+        private Snapshot(final Map<String, Entry> entries, final long length, final long lastModified) {
+            this.entries = entries;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        boolean isStale(final File file) {
+            // a deleted file reports a length of 0, in which case reading it fails as it should
+            return file.exists() && (file.length() != length || file.lastModified() != lastModified);
+        }
+
+        static Snapshot read(final File file) throws IOException {
+            final long lastModified = file.lastModified();
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final long length = raf.length();
+                final int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH);
+                final byte[] tail = new byte[tailLength];
+                raf.seek(length - tailLength);
+                raf.readFully(tail);
+
+                int end = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH;
+                while (end >= 0 && readInt(tail, end) != END_OF_CENTRAL_DIRECTORY) {
+                    end--;
+                }
+                if (end < 0) {
+                    throw new ZipException("No end of central directory record in " + file);
+                }
+                final int count = readShort(tail, end + 10);
+                final long directorySize = readUnsignedInt(tail, end + 12);
+                final long directoryOffset = readUnsignedInt(tail, end + 16);
+                if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL
+                        || directoryOffset + directorySize > length) {
+                    throw new ZipException("Unsupported or corrupt central directory in " + file);
+                }
+
+                final byte[] directory = new byte[(int) directorySize];
+                raf.seek(directoryOffset);
+                raf.readFully(directory);
+
+                final Map<String, Entry> entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+                int pos = 0;
+                for (int i = 0; i < count; i++) {
+                    if (pos + CENTRAL_DIRECTORY_ENTRY_LENGTH > directory.length || readInt(directory, pos) != CENTRAL_DIRECTORY_ENTRY) {
+                        throw new ZipException("Corrupt central directory in " + file);
+                    }
+                    final int method = readShort(directory, pos + 10);
+                    final long compressedSize = readUnsignedInt(directory, pos + 20);
+                    final long size = readUnsignedInt(directory, pos + 24);
+                    final int nameLength = readShort(directory, pos + 28);
+                    final int extraLength = readShort(directory, pos + 30);
+                    final int commentLength = readShort(directory, pos + 32);
+                    final long headerOffset = readUnsignedInt(directory, pos + 42);
+                    if ((method != STORED && method != DEFLATED) || compressedSize >= Integer.MAX_VALUE
+                            || size >= Integer.MAX_VALUE || headerOffset == 0xFFFFFFFFL) {
+                        throw new ZipException("Unsupported entry in " + file);
+                    }
+                    final String name = new String(directory, pos + CENTRAL_DIRECTORY_ENTRY_LENGTH, nameLength, "UTF-8");
+                    if (!entries.containsKey(name)) {
+                        entries.put(name, new Entry(method, (int) compressedSize, (int) size, headerOffset));
+                    }
+                    pos += CENTRAL_DIRECTORY_ENTRY_LENGTH + nameLength + extraLength + commentLength;
+                }
+                return new Snapshot(Collections.unmodifiableMap(entries), length, lastModified);
+            }
+            finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final long headerOffset;
+
+        Entry(final int method, final int compressedSize, final int size, final long headerOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+    }
+
+    /**
+     * Reads a region of a file, starting at the current position, and closes the file when closed. A region of
+     * deflated data can be followed by the dummy byte nowrap inflation needs.
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final RandomAccessFile raf;
+        private long remaining;
+        private boolean dummyByte;
+
+        RegionInputStream(final RandomAccessFile raf, final long length, final boolean dummyByte) {
+            this.raf = raf;
+            this.remaining = length;
+            this.dummyByte = dummyByte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return readDummyByte();
+            }
+            final int b = raf.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                final int dummy = readDummyByte();
+                if (dummy < 0) {
+                    return -1;
+                }
+                b[off] = (byte) dummy;
+                return 1;
+            }
+            final int read = raf.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            remaining = 0;
+            dummyByte = false;
+            raf.close();
+        }
+
+        private int readDummyByte() {
+            if (dummyByte) {
+                dummyByte = false;
+                return 0;
+            }
+            return -1;
+        }
+    }
+}
@@ -9,24 +9,50 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
  * A class loader used to load classes and resources from a given plugin.
+ * <p/>
+ * Class loading locks on the name of the class being loaded rather than on the class loader, and the loader is
+ * registered as parallel capable where the JVM supports it, so threads loading different classes do not wait on
+ * each other. Class bytes are read through a {@link JarEntryIndex} for the plugin jar and each inner jar.
  *
  * @see PluginsClassLoader
  */
 public final class PluginClassLoader extends ClassLoader {
 
+    static {
+        // ClassLoader.registerAsParallelCapable() was added in Java 7, so it is called reflectively
+        try {
+            final Method registerAsParallelCapable = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            registerAsParallelCapable.invoke(null);
+        }
+        catch (final Exception e) {
+            // not supported on this JVM, class loading still locks per class name
+        }
+    }
+
     private static final String PLUGIN_INNER_JAR_PREFIX = "maera-test-innerjar";
     /**
-     * Mapping of <String> names (resource, or class name) to the <URL>s where the resource or class can be found.
+     * Mapping of <String> names (resource, or class name) to the jar <File>s where the resource or class can be found.
      */
-    private final Map<String, URL> entryMappings = new HashMap<String, URL>();
+    private final Map<String, File> entryMappings = new HashMap<String, File>();
+    /**
+     * The jars whose entries are indexed in {@link JarEntryIndex}
+     */
+    private final List<File> indexedJars = new ArrayList<File>();
+    /**
+     * Locks held while loading a class, by class name
+     */
+    private final ConcurrentMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
     /**
      * the list of inner jars
      */
@@ -35,6 +61,10 @@ public final class PluginClassLoader extends ClassLoader {
      * The directory used for storing extracted inner jars.
      */
     private final File tempDirectory;
+    /**
+     * The names of the packages of the classes in the plugin
+     */
+    private final Set<String> packageNames;
 
     /**
      * @param pluginFile file reference to the jar for this plugin
@@ -67,6 +97,7 @@ public final class PluginClassLoader extends ClassLoader {
             }
             pluginInnerJars = new ArrayList<File>();
             initialiseOuterJar(pluginFile);
+            packageNames = Collections.unmodifiableSet(findPackageNames());
         }
         catch (final IOException e) {
             throw new IllegalStateException(e);
@@ -74,6 +105,11 @@ public final class PluginClassLoader extends ClassLoader {
     }
 
     public void close() {
+        // each registration is released once, so closing twice doesn't release another loader's
+        for (final File indexedJar : indexedJars) {
+            JarEntryIndex.unregister(indexedJar);
+        }
+        indexedJars.clear();
         for (final File pluginInnerJar : pluginInnerJars) {
             FileUtils.deleteQuietly(pluginInnerJar);
         }
@@ -103,7 +139,7 @@ public final class PluginClassLoader extends ClassLoader {
     @Override
     public URL getResource(final String name) {
         if (isEntryInPlugin(name)) {
-            return entryMappings.get(name);
+            return getUrlOfResourceInJar(name, entryMappings.get(name));
         } else {
             return super.getResource(name);
         }
@@ -120,24 +156,39 @@ public final class PluginClassLoader extends ClassLoader {
      * @throws ClassNotFoundException if the class cannot be found in this class loader or its parent
      */
     @Override
-    protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
-        // First check if it's already been loaded
-        final Class<?> c = findLoadedClass(name);
-        if (c != null) {
-            return c;
-        }
-
-        // If not, look inside the plugin before searching the parent.
-        final String path = name.replace('.', '/').concat(".class");
-        if (isEntryInPlugin(path)) {
-            try {
-                return loadClassFromPlugin(name, path);
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            // First check if it's already been loaded
+            final Class<?> c = findLoadedClass(name);
+            if (c != null) {
+                return c;
             }
-            catch (final IOException e) {
-                throw new ClassNotFoundException("Unable to load class [ " + name + " ] from PluginClassLoader", e);
+
+            // If not, look inside the plugin before searching the parent.
+            final String path = name.replace('.', '/').concat(".class");
+            if (isEntryInPlugin(path)) {
+                try {
+                    return loadClassFromPlugin(name, path);
+                }
+                catch (final IOException e) {
+                    throw new ClassNotFoundException("Unable to load class [ " + name + " ] from PluginClassLoader", e);
+                }
             }
+            return super.loadClass(name, resolve);
         }
-        return super.loadClass(name, resolve);
+    }
+
+    /**
+     * Returns the lock held while loading the named class.  On Java 7 and later this overrides
+     * {@code ClassLoader.getClassLoadingLock(String)}, so the parent's delegation locks on the same object.
+     *
+     * @param className the name of the class being loaded
+     * @return the lock object for the class name
+     */
+    protected Object getClassLoadingLock(final String className) {
+        final Object lock = new Object();
+        final Object existing = classLoadingLocks.putIfAbsent(className, lock);
+        return (existing != null) ? existing : lock;
     }
 
     private void addEntryMapping(final JarEntry jarEntry, final File jarFile, final boolean overrideExistingEntries) {
@@ -151,7 +202,13 @@ public final class PluginClassLoader extends ClassLoader {
     }
 
     private void addEntryUrl(final JarEntry jarEntry, final File jarFile) {
-        entryMappings.put(jarEntry.getName(), getUrlOfResourceInJar(jarEntry.getName(), jarFile));
+        entryMappings.put(jarEntry.getName(), jarFile);
+    }
+
+    private void indexJar(final File jarFile) {
+        if (JarEntryIndex.register(jarFile) != null) {
+            indexedJars.add(jarFile);
+        }
     }
 
     private URL getUrlOfResourceInJar(final String name, final File jarFile) {
@@ -185,6 +242,7 @@ public final class PluginClassLoader extends ClassLoader {
             }
 
             pluginInnerJars.add(innerJarFile);
+            indexJar(innerJarFile);
         }
         finally {
             IOUtils.closeQuietly(inputStream);
@@ -214,6 +272,7 @@ public final class PluginClassLoader extends ClassLoader {
         finally {
             jarFile.close();
         }
+        indexJar(file);
     }
 
     /**
@@ -229,7 +288,12 @@ public final class PluginClassLoader extends ClassLoader {
             // Check if package already loaded.
             final Package pkg = getPackage(pkgname);
             if (pkg == null) {
-                definePackage(pkgname, null, null, null, null, null, null, null);
+                try {
+                    definePackage(pkgname, null, null, null, null, null, null, null);
+                }
+                catch (final IllegalArgumentException e) {
+                    // defined concurrently by another thread loading a class from the same package
+                }
             }
         }
     }
@@ -243,19 +307,50 @@ public final class PluginClassLoader extends ClassLoader {
     }
 
     private Class<?> loadClassFromPlugin(final String className, final String path) throws IOException {
+        final byte[] bytez = readEntry(path);
+        initializePackage(className);
+        return defineClass(className, bytez, 0, bytez.length);
+    }
+
+    private byte[] readEntry(final String path) throws IOException {
+        final File jarFile = entryMappings.get(path);
+        final JarEntryIndex index = JarEntryIndex.get(jarFile);
+        if (index != null) {
+            final byte[] bytez = index.read(path);
+            if (bytez == null) {
+                throw new IOException("Unable to locate entry: " + path + ", in JAR file: " + jarFile);
+            }
+            return bytez;
+        }
+
         InputStream inputStream = null;
         try {
-            final URL resourceURL = entryMappings.get(path);
-            inputStream = resourceURL.openStream();
-            final byte[] bytez = IOUtils.toByteArray(inputStream);
-            initializePackage(className);
-            return defineClass(className, bytez, 0, bytez.length);
+            inputStream = getUrlOfResourceInJar(path, jarFile).openStream();
+            return IOUtils.toByteArray(inputStream);
         }
         finally {
             IOUtils.closeQuietly(inputStream);
         }
     }
 
+    /**
+     * @return the names of the packages containing classes in the plugin jar or its inner jars
+     */
+    Set<String> getPackageNames() {
+        return packageNames;
+    }
+
+    private Set<String> findPackageNames() {
+        final Set<String> names = new HashSet<String>();
+        for (final String entryName : entryMappings.keySet()) {
+            final int lastSlash = entryName.lastIndexOf('/');
+            if (entryName.endsWith(".class") && lastSlash > 0) {
+                names.add(entryName.substring(0, lastSlash).replace('/', '.'));
+            }
+        }
+        return names;
+    }
+
     List<File> getPluginInnerJars() {
         return new ArrayList<File>(pluginInnerJars);
     }
@@ -1,5 +1,6 @@
 package org.maera.plugin.classloader;
 
+import org.maera.plugin.ModuleDescriptor;
 import org.maera.plugin.Plugin;
 import org.maera.plugin.PluginAccessor;
 import org.maera.plugin.event.PluginEventListener;
@@ -10,27 +11,77 @@ import org.maera.plugin.event.impl.DefaultPluginEventManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.maera.plugin.util.Assertions.notNull;
 
 /**
  * A ClassLoader that will loop over all enabled Plugins, attempting to load the given class (or other resource) from
  * the ClassLoader of each plugin in turn.
+ * <p/>
+ * Once the plugins providing the package of a requested class are known, only they are asked for it, along with the
+ * plugins whose contents are unknown.  A plugin is known to provide a package if its {@link PluginClassLoader}
+ * contains classes in it, which is recorded when the plugin is enabled or first asked for a class, or if a class of
+ * that package has already been loaded from it.  The contents of plugins with other class loaders are unknown.  Every
+ * enabled plugin is only asked for classes in packages that no plugin is known to provide, such as the default
+ * package or packages that plugins import dynamically, and for resources.  Flushing all misses also forgets which
+ * plugins provide which packages, as it is used when it is unknown what was enabled.
+ * <p/>
+ * Names that no plugin could load are cached as misses, stamped with the generation at which they were looked up.
+ * Enabling a plugin (or one of its modules) moves the plugin to a new generation rather than flushing the misses, so
+ * looking up a missed name again only asks the plugins enabled since the miss.  Reflective frameworks probing for
+ * absent classes therefore do not pay for a scan of every plugin each time anything is enabled.
  *
  * @see org.maera.plugin.classloader.PluginClassLoader
  */
 public class PluginsClassLoader extends AbstractClassLoader {
     private static final Logger log = LoggerFactory.getLogger(PluginsClassLoader.class);
 
+    static {
+        // ClassLoader.registerAsParallelCapable() was added in Java 7, so it is called reflectively
+        try {
+            final Method registerAsParallelCapable = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            registerAsParallelCapable.invoke(null);
+        }
+        catch (final Exception e) {
+            // not supported on this JVM
+        }
+    }
+
     private final PluginAccessor pluginAccessor;
 
-    private final Map<String, Plugin> pluginResourceIndex = new HashMap<String, Plugin>();
-    private final Map<String, Plugin> pluginClassIndex = new HashMap<String, Plugin>();
+    private final ConcurrentMap<String, Plugin> pluginResourceIndex = new ConcurrentHashMap<String, Plugin>();
+    private final ConcurrentMap<String, Plugin> pluginClassIndex = new ConcurrentHashMap<String, Plugin>();
+    /**
+     * The plugins known to provide classes of each package
+     */
+    private final ConcurrentMap<String, Set<Plugin>> packageIndex = new ConcurrentHashMap<String, Set<Plugin>>();
+    /**
+     * The class loaders whose contained packages have been added to {@link #packageIndex}
+     */
+    private final Map<ClassLoader, Boolean> indexedClassLoaders = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Boolean>());
 
-    private final Set<String> missedPluginResource = new HashSet<String>();
-    private final Set<String> missedPluginClass = new HashSet<String>();
+    /**
+     * Missed names, mapped to the generation at which every enabled plugin had been asked for them
+     */
+    private final ConcurrentMap<String, Long> missedPluginResource = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Long> missedPluginClass = new ConcurrentHashMap<String, Long>();
+    /**
+     * The generation at which each plugin, by key, was last enabled.  Plugins that are not in the map are treated as
+     * having been enabled before any miss was cached.
+     */
+    private final ConcurrentMap<String, Long> pluginGenerations = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * Misses cached before this generation are ignored
+     */
+    private volatile long flushedGeneration;
     private ClassLoader parentClassLoader;
 
     public PluginsClassLoader(final PluginAccessor pluginAccessor) {
@@ -59,10 +110,7 @@ public class PluginsClassLoader extends AbstractClassLoader {
 
     @Override
     protected URL findResource(final String name) {
-        final Plugin indexedPlugin;
-        synchronized (this) {
-            indexedPlugin = pluginResourceIndex.get(name);
-        }
+        final Plugin indexedPlugin = pluginResourceIndex.get(name);
         final URL result;
         if (isPluginEnabled(indexedPlugin)) {
             result = indexedPlugin.getClassLoader().getResource(name);
@@ -77,10 +125,7 @@ public class PluginsClassLoader extends AbstractClassLoader {
 
     @Override
     protected Class<?> findClass(final String className) throws ClassNotFoundException {
-        final Plugin indexedPlugin;
-        synchronized (this) {
-            indexedPlugin = pluginClassIndex.get(className);
-        }
+        final Plugin indexedPlugin = pluginClassIndex.get(className);
 
         final Class<?> result;
         if (isPluginEnabled(indexedPlugin)) {
@@ -99,14 +144,13 @@ public class PluginsClassLoader extends AbstractClassLoader {
     }
 
     private Class<?> loadClassFromPlugins(final String className) {
-        final boolean isMissedClassName;
-        synchronized (this) {
-            isMissedClassName = missedPluginClass.contains(className);
-        }
-        if (isMissedClassName) {
+        final Long missedAt = getMiss(missedPluginClass, className);
+        if (missedAt != null && missedAt == generation.get()) {
             return null;
         }
-        final Collection<Plugin> plugins = pluginAccessor.getEnabledPlugins();
+        final long lookupGeneration = generation.get();
+        final String packageName = getPackageName(className);
+        final Collection<Plugin> plugins = getCandidatePlugins(missedAt, getPackageOwners(packageName));
         if (log.isDebugEnabled()) {
             log.debug("loadClassFromPlugins (" + className + ") looping through plugins...");
         }
@@ -114,12 +158,14 @@ public class PluginsClassLoader extends AbstractClassLoader {
             if (log.isDebugEnabled()) {
                 log.debug("loadClassFromPlugins (" + className + ") looking in plugin '" + plugin.getKey() + "'.");
             }
+            final ClassLoader pluginClassLoader = plugin.getClassLoader();
+            indexContainedPackages(plugin, pluginClassLoader);
             try {
-                final Class<?> result = plugin.getClassLoader().loadClass(className);
+                final Class<?> result = pluginClassLoader.loadClass(className);
                 //loadClass should never return null
-                synchronized (this) {
-                    pluginClassIndex.put(className, plugin);
-                }
+                pluginClassIndex.put(className, plugin);
+                addPackageOwner(packageName, plugin);
+                missedPluginClass.remove(className);
                 if (log.isDebugEnabled()) {
                     log.debug("loadClassFromPlugins (" + className + ") found in plugin '" + plugin.getKey() + "'.");
                 }
@@ -132,42 +178,114 @@ public class PluginsClassLoader extends AbstractClassLoader {
         if (log.isDebugEnabled()) {
             log.debug("loadClassFromPlugins (" + className + ") not found - caching the miss.");
         }
-        synchronized (this) {
-            missedPluginClass.add(className);
-        }
+        missedPluginClass.put(className, lookupGeneration);
         return null;
     }
 
     private URL getResourceFromPlugins(final String name) {
-        final boolean isMissedResource;
-        synchronized (this) {
-            isMissedResource = missedPluginResource.contains(name);
-        }
-        if (isMissedResource) {
+        final Long missedAt = getMiss(missedPluginResource, name);
+        if (missedAt != null && missedAt == generation.get()) {
             return null;
         }
-        final Collection<Plugin> plugins = pluginAccessor.getEnabledPlugins();
+        final long lookupGeneration = generation.get();
+        final Collection<Plugin> plugins = getCandidatePlugins(missedAt, null);
         for (final Plugin plugin : plugins) {
             final URL resource = plugin.getClassLoader().getResource(name);
             if (resource != null) {
-                synchronized (this) {
-                    pluginResourceIndex.put(name, plugin);
-                }
+                pluginResourceIndex.put(name, plugin);
+                missedPluginResource.remove(name);
                 return resource;
             }
         }
-        synchronized (this) {
-            missedPluginResource.add(name);
-        }
+        missedPluginResource.put(name, lookupGeneration);
         return null;
     }
 
+    /**
+     * @return the generation of a cached miss, or null if the name has not been missed since the last flush
+     */
+    private Long getMiss(final ConcurrentMap<String, Long> misses, final String name) {
+        final Long missedAt = misses.get(name);
+        return (missedAt != null && missedAt >= flushedGeneration) ? missedAt : null;
+    }
+
+    /**
+     * @return the plugins known to provide classes of the package, or null if there are none
+     */
+    private Set<Plugin> getPackageOwners(final String packageName) {
+        if (packageName.length() == 0) {
+            return null;
+        }
+        final Set<Plugin> owners = packageIndex.get(packageName);
+        return (owners == null || owners.isEmpty()) ? null : owners;
+    }
+
+    /**
+     * Returns the enabled plugins to ask for a name.  If the plugins providing the name's package are known, those are
+     * the owners, followed by the plugins whose contents are unknown.  Otherwise they are all enabled plugins.  If the
+     * name has been missed, only the plugins enabled since the miss are returned, as the others have already been
+     * asked.
+     *
+     * @param missedAt the generation of the cached miss, or null
+     * @param owners   the plugins known to provide the name's package, or null
+     */
+    private Collection<Plugin> getCandidatePlugins(final Long missedAt, final Set<Plugin> owners) {
+        final Collection<Plugin> enabledPlugins = pluginAccessor.getEnabledPlugins();
+        if (missedAt == null && owners == null) {
+            return enabledPlugins;
+        }
+        final List<Plugin> first = new ArrayList<Plugin>();
+        final List<Plugin> rest = new ArrayList<Plugin>();
+        for (final Plugin plugin : enabledPlugins) {
+            if (missedAt != null && !isEnabledSince(plugin, missedAt)) {
+                continue;
+            }
+            if (owners != null && owners.contains(plugin)) {
+                first.add(plugin);
+            } else if (owners == null || !indexedClassLoaders.containsKey(plugin.getClassLoader())) {
+                rest.add(plugin);
+            }
+        }
+        first.addAll(rest);
+        return first;
+    }
+
+    private boolean isEnabledSince(final Plugin plugin, final long missedAt) {
+        final Long pluginGeneration = pluginGenerations.get(plugin.getKey());
+        return (pluginGeneration != null) && (pluginGeneration > missedAt);
+    }
+
+    private void indexContainedPackages(final Plugin plugin, final ClassLoader pluginClassLoader) {
+        if (pluginClassLoader instanceof PluginClassLoader && !indexedClassLoaders.containsKey(pluginClassLoader)) {
+            indexedClassLoaders.put(pluginClassLoader, Boolean.TRUE);
+            for (final String packageName : ((PluginClassLoader) pluginClassLoader).getPackageNames()) {
+                addPackageOwner(packageName, plugin);
+            }
+        }
+    }
+
+    private void addPackageOwner(final String packageName, final Plugin plugin) {
+        Set<Plugin> owners = packageIndex.get(packageName);
+        if (owners == null) {
+            final Set<Plugin> newOwners = new CopyOnWriteArraySet<Plugin>();
+            owners = packageIndex.putIfAbsent(packageName, newOwners);
+            if (owners == null) {
+                owners = newOwners;
+            }
+        }
+        owners.add(plugin);
+    }
+
+    private static String getPackageName(final String className) {
+        final int i = className.lastIndexOf('.');
+        return (i < 0) ? "" : className.substring(0, i);
+    }
+
     private boolean isPluginEnabled(final Plugin plugin) {
         return (plugin != null) && pluginAccessor.isPluginEnabled(plugin.getKey());
     }
 
-    public synchronized void notifyUninstallPlugin(final Plugin plugin) {
-        flushMissesCaches();
+    public void notifyUninstallPlugin(final Plugin plugin) {
         for (final Iterator<Map.Entry<String, Plugin>> it = pluginResourceIndex.entrySet().iterator(); it.hasNext();) {
             final Map.Entry<String, Plugin> resourceEntry = it.next();
             final Plugin pluginForResource = resourceEntry.getValue();
@@ -182,6 +300,17 @@ public class PluginsClassLoader extends AbstractClassLoader {
                 it.remove();
             }
         }
+        // the packages the plugin provided are looked up in every plugin again, as other plugins may provide them too
+        for (final Iterator<Set<Plugin>> it = packageIndex.values().iterator(); it.hasNext();) {
+            for (final Plugin owner : it.next()) {
+                if (plugin.getKey().equals(owner.getKey())) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+        indexedClassLoaders.remove(plugin.getClassLoader());
+        pluginGenerations.remove(plugin.getKey());
     }
 
     /**
@@ -194,10 +323,7 @@ public class PluginsClassLoader extends AbstractClassLoader {
      * @since 2.3
      */
     public Plugin getPluginForClass(String className) {
-        Plugin indexedPlugin;
-        synchronized (this) {
-            indexedPlugin = pluginClassIndex.get(className);
-        }
+        Plugin indexedPlugin = pluginClassIndex.get(className);
 
         if (isPluginEnabled(indexedPlugin)) {
             return indexedPlugin;
@@ -213,12 +339,9 @@ public class PluginsClassLoader extends AbstractClassLoader {
             // Class could not be loaded - so return null.
             return null;
         }
-        synchronized (this) {
-            // if we get here, then loadClassFromPlugins() has returned a non-null class, and the side effect is that
-            // the plugin for the class name is cached in pluginClassIndex.
-            indexedPlugin = pluginClassIndex.get(className);
-        }
-        return indexedPlugin;
+        // if we get here, then loadClassFromPlugins() has returned a non-null class, and the side effect is that
+        // the plugin for the class name is cached in pluginClassIndex.
+        return pluginClassIndex.get(className);
     }
 
     private boolean isSystemClass(final String className) {
@@ -240,7 +363,7 @@ public class PluginsClassLoader extends AbstractClassLoader {
                     return false;
                 }
             } else {
-                // parentClassLoader == null. This is normal. 
+                // parentClassLoader == null. This is normal.
                 return false;
             }
         }
@@ -248,20 +371,40 @@ public class PluginsClassLoader extends AbstractClassLoader {
 
     @PluginEventListener
     public void onPluginEnabled(PluginEnabledEvent event) {
-        notifyPluginOrModuleEnabled();
+        notifyPluginEnabled(event.getPlugin());
     }
 
     @PluginEventListener
     public void onPluginModuleEnabled(PluginModuleEnabledEvent event) {
-        notifyPluginOrModuleEnabled();
+        final ModuleDescriptor<?> module = event.getModule();
+        notifyPluginEnabled((module != null) ? module.getPlugin() : null);
     }
 
-    public synchronized void notifyPluginOrModuleEnabled() {
-        flushMissesCaches();
+    /**
+     * Moves the plugin to a new generation, so that names missed before are looked up in it again, and records the
+     * packages its class loader contains.
+     *
+     * @param plugin the plugin that was enabled, or had a module enabled.  If null, all misses are flushed.
+     * @since 0.1
+     */
+    public void notifyPluginEnabled(final Plugin plugin) {
+        if (plugin == null || plugin.getKey() == null) {
+            notifyPluginOrModuleEnabled();
+        } else {
+            indexContainedPackages(plugin, plugin.getClassLoader());
+            pluginGenerations.put(plugin.getKey(), generation.incrementAndGet());
+        }
     }
 
-    private void flushMissesCaches() {
+    /**
+     * Flushes all cached misses, and which plugins are known to provide which packages.  Prefer
+     * {@link #notifyPluginEnabled(Plugin)} when the plugin is known.
+     */
+    public void notifyPluginOrModuleEnabled() {
+        flushedGeneration = generation.incrementAndGet();
         missedPluginClass.clear();
         missedPluginResource.clear();
+        packageIndex.clear();
+        indexedClassLoaders.clear();
     }
 }
@@ -0,0 +1,19 @@
+package org.maera.plugin.event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a listener method, or all the listener methods of a class, as happy to receive events asynchronously.  The
+ * events are delivered in the order they were broadcast, but on another thread, so a slow listener doesn't hold up the
+ * code broadcasting the event.  Exceptions thrown by asynchronous listeners are logged rather than passed to the
+ * broadcaster.
+ *
+ * @since 0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface AsynchronousListener {
+}
@@ -0,0 +1,227 @@
+package org.maera.plugin.event.impl;
+
+import com.atlassian.event.spi.EventDispatcher;
+import com.atlassian.event.spi.ListenerInvoker;
+import com.google.common.collect.MapMaker;
+import org.maera.plugin.event.AsynchronousListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to the listener methods marked with {@link AsynchronousListener} on a small pool of threads, and
+ * hands every other invocation to a delegate dispatcher on the caller's thread.
+ * <p/>
+ * Each listener has its own queue, drained by at most one thread at a time, so a listener receives events in the order
+ * they were broadcast.  The number of queued events is bounded: once the limit is reached, broadcasting blocks until
+ * the listeners catch up.  Events broadcast by the asynchronous listeners themselves are always queued, as blocking
+ * the threads the listeners catch up on would never end.  {@link #awaitQueuedEvents(long, TimeUnit)} waits until every
+ * queued event has been delivered.
+ * <p/>
+ * Idle threads stop after a minute, and {@link #shutdown()} stops them for good, after which asynchronous events are
+ * delivered on the caller's thread.
+ *
+ * @since 0.1
+ */
+final class AsynchronousListenerDispatcher implements EventDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(AsynchronousListenerDispatcher.class);
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final EventDispatcher delegate;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore queuePermits;
+    private final ConcurrentMap<Object, ListenerQueue> queues = new MapMaker().weakKeys().makeMap();
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private final Object deliveredLock = new Object();
+    private volatile boolean shutdown;
+
+    /**
+     * @param delegate       the dispatcher for synchronous invocations
+     * @param threads        the number of threads delivering asynchronous events
+     * @param maxQueueLength the maximum number of asynchronous events waiting to be delivered
+     */
+    AsynchronousListenerDispatcher(EventDispatcher delegate, int threads, int maxQueueLength) {
+        this.delegate = checkNotNull(delegate);
+        this.queuePermits = new Semaphore(maxQueueLength);
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new DeliveryThread(r, "PluginEventManager:AsynchronousListener-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void dispatch(final ListenerInvoker invoker, final Object event) {
+        if (!(invoker instanceof MethodSelectorListenerHandler.MethodListenerInvoker)
+                || !((MethodSelectorListenerHandler.MethodListenerInvoker) invoker).isAsynchronous()) {
+            delegate.dispatch(invoker, event);
+            return;
+        }
+        if (shutdown) {
+            invoker.invoke(event);
+            return;
+        }
+
+        // a listener broadcasting while the queue is full would otherwise wait for itself
+        final boolean permitted = !isDeliveryThread();
+        if (permitted) {
+            try {
+                queuePermits.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.debug("Interrupted while waiting for queue space, delivering " + event + " synchronously");
+                invoker.invoke(event);
+                return;
+            }
+        }
+        queuedEvents.incrementAndGet();
+        queueFor(((MethodSelectorListenerHandler.MethodListenerInvoker) invoker).getListener()).add(new Runnable() {
+            public void run() {
+                try {
+                    invoker.invoke(event);
+                }
+                catch (RuntimeException e) {
+                    log.error("Asynchronous listener failed to handle " + event, e);
+                }
+                finally {
+                    if (permitted) {
+                        queuePermits.release();
+                    }
+                    if (queuedEvents.decrementAndGet() == 0) {
+                        synchronized (deliveredLock) {
+                            deliveredLock.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all the events queued so far, and any queued while waiting, have been delivered.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all the events were delivered, false if the timeout expired first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitQueuedEvents(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (deliveredLock) {
+            while (queuedEvents.get() > 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(deliveredLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the delivery threads once the events already queued have been delivered.  Events dispatched afterwards are
+     * delivered on the caller's thread.
+     */
+    void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+    }
+
+    /**
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if the delivery threads stopped, false if the timeout expired first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private boolean isDeliveryThread() {
+        final Thread thread = Thread.currentThread();
+        return thread instanceof DeliveryThread && ((DeliveryThread) thread).getDispatcher() == this;
+    }
+
+    private ListenerQueue queueFor(Object listener) {
+        ListenerQueue queue = queues.get(listener);
+        if (queue == null) {
+            queue = new ListenerQueue();
+            final ListenerQueue existing = queues.putIfAbsent(listener, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * The events waiting to be delivered to a single listener, drained by one thread at a time
+     */
+    private final class ListenerQueue implements Runnable {
+        private final Queue<Runnable> deliveries = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(Runnable delivery) {
+            deliveries.add(delivery);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException e) {
+                    // shut down since the delivery was added
+                    run();
+                }
+            }
+        }
+
+        public void run() {
+            Runnable delivery;
+            while ((delivery = deliveries.poll()) != null) {
+                delivery.run();
+            }
+            scheduled.set(false);
+            // a delivery may have been added after the queue was found empty but before it was unscheduled
+            if (!deliveries.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * A thread delivering events for this dispatcher
+     */
+    private final class DeliveryThread extends Thread {
+        DeliveryThread(Runnable target, String name) {
+            super(target, name);
+        }
+
+        AsynchronousListenerDispatcher getDispatcher() {
+            return AsynchronousListenerDispatcher.this;
+        }
+    }
+}
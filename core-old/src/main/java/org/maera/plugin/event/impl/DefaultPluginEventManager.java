@@ -3,10 +3,8 @@ package org.maera.plugin.event.impl;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.event.config.EventThreadPoolConfiguration;
-import com.atlassian.event.config.ListenerHandlersConfiguration;
 import com.atlassian.event.internal.AsynchronousAbleEventDispatcher;
 import com.atlassian.event.internal.EventExecutorFactoryImpl;
-import com.atlassian.event.internal.EventPublisherImpl;
 import com.atlassian.event.internal.EventThreadPoolConfigurationImpl;
 import com.atlassian.event.spi.EventDispatcher;
 import com.atlassian.event.spi.EventExecutorFactory;
@@ -16,13 +14,23 @@ import org.maera.plugin.event.PluginEventManager;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple, synchronous event manager that uses one or more method selectors to determine event listeners.  The default
  * method selectors are {@link MethodNameListenerMethodSelector} and {@link AnnotationListenerMethodSelector}.
+ * <p/>
+ * Listeners found by the selectors are dispatched through an index of listener invokers by event class, so a
+ * broadcast doesn't have to consider every registered listener.  Listener methods, or listener classes, marked with
+ * {@link org.maera.plugin.event.AsynchronousListener} receive their events in order on a small pool of threads instead
+ * of the broadcasting thread.  Call {@link #shutdown()} once the manager is no longer needed to stop those threads.
  */
 public class DefaultPluginEventManager implements PluginEventManager {
+    private static final int ASYNCHRONOUS_LISTENER_THREADS = 2;
+    private static final int MAX_QUEUED_ASYNCHRONOUS_EVENTS = 1000;
+
     private final EventPublisher publisher;
+    private final AsynchronousListenerDispatcher asynchronousDispatcher;
 
     /**
      * Constructor that looks for an arbitrary selectors
@@ -30,20 +38,25 @@ public class DefaultPluginEventManager implements PluginEventManager {
      * @param selectors List of selectors that determine which are listener methods
      */
     public DefaultPluginEventManager(final ListenerMethodSelector[] selectors) {
-        ListenerHandlersConfiguration configuration = new ListenerHandlersConfiguration() {
-            public List<ListenerHandler> getListenerHandlers() {
-                List<ListenerHandler> handlers = new ArrayList<ListenerHandler>(selectors.length);
-                for (ListenerMethodSelector selector : selectors) {
-                    handlers.add(new MethodSelectorListenerHandler(selector));
-                }
-                return handlers;
-            }
-        };
+        this(selectors, MAX_QUEUED_ASYNCHRONOUS_EVENTS);
+    }
+
+    /**
+     * @param selectors                   List of selectors that determine which are listener methods
+     * @param maxQueuedAsynchronousEvents the number of events waiting for asynchronous listeners before broadcasting
+     *                                    blocks
+     */
+    DefaultPluginEventManager(final ListenerMethodSelector[] selectors, int maxQueuedAsynchronousEvents) {
+        List<ListenerHandler> handlers = new ArrayList<ListenerHandler>(selectors.length);
+        for (ListenerMethodSelector selector : selectors) {
+            handlers.add(new MethodSelectorListenerHandler(selector));
+        }
 
         EventThreadPoolConfiguration threadPoolConfiguration = new EventThreadPoolConfigurationImpl();
         EventExecutorFactory factory = new EventExecutorFactoryImpl(threadPoolConfiguration);
         EventDispatcher dispatcher = new AsynchronousAbleEventDispatcher(factory);
-        publisher = new EventPublisherImpl(dispatcher, configuration);
+        asynchronousDispatcher = new AsynchronousListenerDispatcher(dispatcher, ASYNCHRONOUS_LISTENER_THREADS, maxQueuedAsynchronousEvents);
+        publisher = new IndexedEventPublisher(asynchronousDispatcher, handlers);
     }
 
     public DefaultPluginEventManager() {
@@ -55,6 +68,7 @@ public class DefaultPluginEventManager implements PluginEventManager {
      */
     public DefaultPluginEventManager(EventPublisher publisher) {
         this.publisher = publisher;
+        this.asynchronousDispatcher = null;
     }
 
     public void register(Object listener) {
@@ -79,4 +93,36 @@ public class DefaultPluginEventManager implements PluginEventManager {
             throw new NotificationException(e);
         }
     }
+
+    /**
+     * Waits until the events broadcast so far have been delivered to the asynchronous listeners.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if the events were delivered, false if the timeout expired first
+     * @throws InterruptedException if interrupted while waiting
+     * @since 0.1
+     */
+    public boolean awaitAsynchronousEvents(long timeout, TimeUnit unit) throws InterruptedException {
+        return asynchronousDispatcher == null || asynchronousDispatcher.awaitQueuedEvents(timeout, unit);
+    }
+
+    /**
+     * Stops the threads delivering events to the asynchronous listeners, once the events already broadcast have been
+     * delivered.  Events broadcast afterwards are delivered to the asynchronous listeners on the broadcasting thread.
+     *
+     * @since 0.1
+     */
+    public void shutdown() {
+        if (asynchronousDispatcher != null) {
+            asynchronousDispatcher.shutdown();
+        }
+    }
+
+    /**
+     * @return the dispatcher delivering events to the asynchronous listeners, or null if events are published elsewhere
+     */
+    AsynchronousListenerDispatcher getAsynchronousDispatcher() {
+        return asynchronousDispatcher;
+    }
 }
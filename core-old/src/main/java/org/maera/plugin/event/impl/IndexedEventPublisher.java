@@ -0,0 +1,139 @@
+package org.maera.plugin.event.impl;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.event.spi.EventDispatcher;
+import com.atlassian.event.spi.ListenerHandler;
+import com.atlassian.event.spi.ListenerInvoker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An event publisher that indexes the listener invokers by the concrete class of the events they accept, so publishing
+ * an event is a single map lookup followed by a loop over an array of invokers.
+ * <p/>
+ * An invoker accepts an event if one of its supported event types is a supertype or interface of the event's class,
+ * or if it supports every type.  The index is filled in lazily, one event class at a time, and is discarded whenever a
+ * listener is registered or unregistered.  Invokers are called in the order their listeners were registered.
+ *
+ * @since 0.1
+ */
+final class IndexedEventPublisher implements EventPublisher {
+    private static final ListenerInvoker[] NO_INVOKERS = new ListenerInvoker[0];
+
+    private final EventDispatcher dispatcher;
+    private final List<ListenerHandler> listenerHandlers;
+
+    /**
+     * The invokers of every registered listener, in registration order, guarded by this
+     */
+    private final Map<Object, ListenerInvoker[]> listeners = new LinkedHashMap<Object, ListenerInvoker[]>();
+    private volatile Index index = new Index(NO_INVOKERS);
+
+    IndexedEventPublisher(EventDispatcher dispatcher, List<ListenerHandler> listenerHandlers) {
+        this.dispatcher = checkNotNull(dispatcher);
+        this.listenerHandlers = new ArrayList<ListenerHandler>(checkNotNull(listenerHandlers));
+    }
+
+    public void publish(Object event) {
+        checkNotNull(event);
+        for (ListenerInvoker invoker : index.getInvokers(event.getClass())) {
+            dispatcher.dispatch(invoker, event);
+        }
+    }
+
+    public void register(Object listener) {
+        checkNotNull(listener);
+        final List<ListenerInvoker> invokers = new ArrayList<ListenerInvoker>();
+        for (ListenerHandler handler : listenerHandlers) {
+            invokers.addAll(handler.getInvokers(listener));
+        }
+        if (invokers.isEmpty()) {
+            throw new IllegalArgumentException("No listener invokers were found for listener <" + listener + ">");
+        }
+        synchronized (this) {
+            listeners.remove(listener);
+            listeners.put(listener, invokers.toArray(new ListenerInvoker[invokers.size()]));
+            reindex();
+        }
+    }
+
+    public void unregister(Object listener) {
+        checkNotNull(listener);
+        synchronized (this) {
+            if (listeners.remove(listener) != null) {
+                reindex();
+            }
+        }
+    }
+
+    public void unregisterAll() {
+        synchronized (this) {
+            listeners.clear();
+            reindex();
+        }
+    }
+
+    private void reindex() {
+        final List<ListenerInvoker> invokers = new ArrayList<ListenerInvoker>();
+        for (ListenerInvoker[] listenerInvokers : listeners.values()) {
+            Collections.addAll(invokers, listenerInvokers);
+        }
+        index = new Index(invokers.toArray(new ListenerInvoker[invokers.size()]));
+    }
+
+    /**
+     * An immutable set of invokers, with the subsets that accept each event class published so far
+     */
+    private static final class Index {
+        private final ListenerInvoker[] invokers;
+        private final ConcurrentMap<Class<?>, ListenerInvoker[]> invokersByEventClass = new ConcurrentHashMap<Class<?>, ListenerInvoker[]>();
+
+        Index(ListenerInvoker[] invokers) {
+            this.invokers = invokers;
+        }
+
+        ListenerInvoker[] getInvokers(Class<?> eventClass) {
+            ListenerInvoker[] accepting = invokersByEventClass.get(eventClass);
+            if (accepting == null) {
+                accepting = findInvokers(eventClass);
+                final ListenerInvoker[] existing = invokersByEventClass.putIfAbsent(eventClass, accepting);
+                if (existing != null) {
+                    accepting = existing;
+                }
+            }
+            return accepting;
+        }
+
+        private ListenerInvoker[] findInvokers(Class<?> eventClass) {
+            final List<ListenerInvoker> accepting = new ArrayList<ListenerInvoker>();
+            for (ListenerInvoker invoker : invokers) {
+                if (accepts(invoker, eventClass)) {
+                    accepting.add(invoker);
+                }
+            }
+            return accepting.isEmpty() ? NO_INVOKERS : accepting.toArray(new ListenerInvoker[accepting.size()]);
+        }
+
+        private static boolean accepts(ListenerInvoker invoker, Class<?> eventClass) {
+            final Set<Class<?>> supportedEventTypes = invoker.getSupportedEventTypes();
+            if (supportedEventTypes.isEmpty()) {
+                return true;
+            }
+            for (Class<?> type : supportedEventTypes) {
+                if (type.isAssignableFrom(eventClass)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
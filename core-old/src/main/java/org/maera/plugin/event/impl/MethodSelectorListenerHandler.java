@@ -2,12 +2,13 @@ package org.maera.plugin.event.impl;
 
 import com.atlassian.event.spi.ListenerHandler;
 import com.atlassian.event.spi.ListenerInvoker;
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import org.maera.plugin.event.AsynchronousListener;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -29,37 +30,11 @@ final class MethodSelectorListenerHandler implements ListenerHandler {
     public List<? extends ListenerInvoker> getInvokers(final Object listener) {
         final List<Method> validMethods = getValidMethods(checkNotNull(listener));
 
-        return Lists.transform(validMethods, new Function<Method, ListenerInvoker>() {
-            public ListenerInvoker apply(final Method method) {
-                return new ListenerInvoker() {
-                    public Set<Class<?>> getSupportedEventTypes() {
-                        return Sets.newHashSet(method.getParameterTypes());
-                    }
-
-                    public void invoke(Object event) {
-                        try {
-                            method.invoke(listener, event);
-                        }
-                        catch (IllegalAccessException e) {
-                            throw new RuntimeException(e);
-                        }
-                        catch (InvocationTargetException e) {
-                            if (e.getCause() == null) {
-                                throw new RuntimeException(e);
-                            } else if (e.getCause().getMessage() == null) {
-                                throw new RuntimeException(e.getCause());
-                            } else {
-                                throw new RuntimeException(e.getCause().getMessage(), e);
-                            }
-                        }
-                    }
-
-                    public boolean supportAsynchronousEvents() {
-                        return true;
-                    }
-                };
-            }
-        });
+        final List<ListenerInvoker> invokers = new ArrayList<ListenerInvoker>(validMethods.size());
+        for (Method method : validMethods) {
+            invokers.add(new MethodListenerInvoker(listener, method));
+        }
+        return invokers;
     }
 
     private List<Method> getValidMethods(Object listener) {
@@ -88,4 +63,66 @@ final class MethodSelectorListenerHandler implements ListenerHandler {
     private boolean hasOneAndOnlyOneParameter(Method method) {
         return method.getParameterTypes().length == 1;
     }
+
+    /**
+     * Invokes a listener method, which is bound to its listener and made accessible once, when the listener is
+     * registered, so the access checks are skipped on every invocation.
+     */
+    static final class MethodListenerInvoker implements ListenerInvoker {
+        private final Object listener;
+        private final Method method;
+        private final Set<Class<?>> supportedEventTypes;
+        private final boolean asynchronous;
+
+        MethodListenerInvoker(Object listener, Method method) {
+            this.listener = listener;
+            this.method = method;
+            this.supportedEventTypes = Collections.<Class<?>>singleton(method.getParameterTypes()[0]);
+            this.asynchronous = method.isAnnotationPresent(AsynchronousListener.class)
+                    || listener.getClass().isAnnotationPresent(AsynchronousListener.class);
+            try {
+                method.setAccessible(true);
+            }
+            catch (SecurityException e) {
+                // fall back to checked invocations
+            }
+        }
+
+        public Set<Class<?>> getSupportedEventTypes() {
+            return supportedEventTypes;
+        }
+
+        public void invoke(Object event) {
+            try {
+                method.invoke(listener, event);
+            }
+            catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+            catch (InvocationTargetException e) {
+                if (e.getCause() == null) {
+                    throw new RuntimeException(e);
+                } else if (e.getCause().getMessage() == null) {
+                    throw new RuntimeException(e.getCause());
+                } else {
+                    throw new RuntimeException(e.getCause().getMessage(), e);
+                }
+            }
+        }
+
+        public boolean supportAsynchronousEvents() {
+            return true;
+        }
+
+        Object getListener() {
+            return listener;
+        }
+
+        /**
+         * @return true if the method or its class is marked with {@link AsynchronousListener}
+         */
+        boolean isAsynchronous() {
+            return asynchronous;
+        }
+    }
 }
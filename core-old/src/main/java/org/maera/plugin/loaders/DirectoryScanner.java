@@ -7,18 +7,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Scans the filesystem for changed or added plugin files and stores a map of the currently known ones.  Files beginning
  * with "." are ignored.
+ * <p/>
+ * A file whose modification time changed is only reported again if its contents changed too, so touching or copying
+ * over a plugin with an identical one doesn't redeploy it.  Jars are compared by the names, sizes and CRCs in their
+ * central directory, which is cheap to read, and other files by a digest of their contents.  A jar that was modified
+ * in the last couple of seconds and can't be opened yet is assumed to be still being written, and is left for the
+ * next scan.
  *
  * @since 2.1.0
  */
 class DirectoryScanner implements org.maera.plugin.loaders.classloading.Scanner {
     private static Logger log = LoggerFactory.getLogger(DirectoryScanner.class);
 
+    /**
+     * How long after its last modification an unreadable jar is assumed to be still being written
+     */
+    static final long WRITE_QUIET_PERIOD = 2000;
+
     /**
      * Tracks the classloading
      */
@@ -29,6 +48,11 @@ class DirectoryScanner implements org.maera.plugin.loaders.classloading.Scanner
      */
     private final Map<String, DeploymentUnit> scannedDeploymentUnits = new TreeMap<String, DeploymentUnit>();
 
+    /**
+     * A Map of {@link String} absolute file paths to fingerprints of the contents of the scanned files.
+     */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+
 
     /**
      * Constructor for scanner.
@@ -75,6 +99,7 @@ class DirectoryScanner implements org.maera.plugin.loaders.classloading.Scanner
      */
     public void clear(File file) {
         scannedDeploymentUnits.remove(file.getAbsolutePath());
+        fingerprints.remove(file.getAbsolutePath());
     }
 
     /**
@@ -110,20 +135,91 @@ class DirectoryScanner implements org.maera.plugin.loaders.classloading.Scanner
 
         Arrays.sort(files); // sorts by filename for deterministic load order
         for (File file : files) {
-            if (isScanned(file) && isModified(file)) {
-                clear(file);
-                DeploymentUnit unit = createAndStoreDeploymentUnit(file);
-                if (unit != null)
-                    result.add(unit);
-            } else if (!isScanned(file)) {
-                DeploymentUnit unit = createAndStoreDeploymentUnit(file);
-                if (unit != null)
-                    result.add(unit);
+            boolean scanned = isScanned(file);
+            if (scanned && !isModified(file)) {
+                continue;
+            }
+
+            String fingerprint = fingerprint(file);
+            if (fingerprint == null && isArchive(file) && isBeingWritten(file)) {
+                log.debug("Plugin file " + file + " is still being written, leaving it for the next scan");
+                continue;
+            }
+            if (scanned && fingerprint != null && fingerprint.equals(fingerprints.get(file.getAbsolutePath()))) {
+                log.debug("Plugin file " + file + " was touched but its contents are unchanged");
+                scannedDeploymentUnits.put(file.getAbsolutePath(), new DeploymentUnit(file));
+                continue;
+            }
+
+            clear(file);
+            DeploymentUnit unit = createAndStoreDeploymentUnit(file);
+            if (unit != null) {
+                if (fingerprint != null) {
+                    fingerprints.put(file.getAbsolutePath(), fingerprint);
+                }
+                result.add(unit);
             }
         }
         return result;
     }
 
+    private static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase(Locale.ENGLISH);
+        return file.isFile() && (name.endsWith(".jar") || name.endsWith(".zip"));
+    }
+
+    private static boolean isBeingWritten(File file) {
+        return System.currentTimeMillis() - file.lastModified() < WRITE_QUIET_PERIOD;
+    }
+
+    /**
+     * @return a fingerprint of the file's contents, or null for directories and for files that can't be read, which
+     *         includes jars that haven't been completely written yet
+     */
+    private static String fingerprint(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        try {
+            if (isArchive(file)) {
+                ZipFile zip = new ZipFile(file);
+                try {
+                    for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                        ZipEntry entry = entries.nextElement();
+                        digest.update((entry.getName() + '|' + entry.getSize() + '|' + entry.getCrc() + '\n').getBytes("UTF-8"));
+                    }
+                }
+                finally {
+                    zip.close();
+                }
+            } else {
+                InputStream in = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, len);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            log.debug("Unable to read plugin file " + file, e);
+            return null;
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
     private boolean isModified(File file) {
         DeploymentUnit unit = locateDeploymentUnit(file);
         return file.lastModified() > unit.lastModified();
@@ -149,6 +245,7 @@ class DirectoryScanner implements org.maera.plugin.loaders.classloading.Scanner
      */
     public void reset() {
         scannedDeploymentUnits.clear();
+        fingerprints.clear();
     }
 
     public void remove(DeploymentUnit unit) throws PluginException {
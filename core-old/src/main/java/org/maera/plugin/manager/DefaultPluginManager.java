@@ -1,7 +1,6 @@
 package org.maera.plugin.manager;
 
 import com.atlassian.util.concurrent.CopyOnWriteMap;
-import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import org.apache.commons.lang.time.StopWatch;
 import org.maera.plugin.*;
@@ -60,6 +59,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
     private final PluginsClassLoader classLoader;
     private final PluginEnabler pluginEnabler = new PluginEnabler(this, this);
     private final StateTracker tracker = new StateTracker();
+    private final EnabledModuleDescriptorIndex enabledModuleIndex = new EnabledModuleDescriptorIndex();
 
     /**
      * Installer used for storing plugins. Used by
@@ -136,6 +136,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
             log.error("At least one error occured while broadcasting the PluginFrameworkShutdownEvent. We will continue to shutdown the Plugin Manager anyway.");
         }
         plugins.clear();
+        enabledModuleIndex.clear();
         pluginEventManager.unregister(this);
         tracker.setState(StateTracker.State.SHUTDOWN);
     }
@@ -181,6 +182,16 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
         notifyModuleDisabled(event.getModule());
     }
 
+    @PluginEventListener
+    public void onPluginContainerRefreshed(PluginContainerRefreshedEvent event) {
+        pluginEnabler.pluginStateChanged();
+    }
+
+    @PluginEventListener
+    public void onPluginContainerFailed(PluginContainerFailedEvent event) {
+        pluginEnabler.pluginStateChanged();
+    }
+
     @PluginEventListener
     public void onPluginContainerUnavailable(PluginContainerUnavailableEvent event) {
         disablePluginWithoutPersisting(event.getPluginKey());
@@ -633,7 +644,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
      * @since 0.17
      */
     public <M> Collection<M> getModules(final ModuleDescriptorPredicate<M> moduleDescriptorPredicate) {
-        return toList(getModules(getModuleDescriptors(moduleDescriptorPredicate)));
+        return getModules(getModuleDescriptors(getPlugins(), moduleDescriptorPredicate));
     }
 
     /**
@@ -641,7 +652,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
      * @since 0.17
      */
     public <M> Collection<ModuleDescriptor<M>> getModuleDescriptors(final ModuleDescriptorPredicate<M> moduleDescriptorPredicate) {
-        return toList(getModuleDescriptors(getPlugins(), moduleDescriptorPredicate));
+        return getModuleDescriptors(getPlugins(), moduleDescriptorPredicate);
     }
 
     /**
@@ -653,35 +664,22 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
      * type by itself.
      *
      * @param plugins a collection of {@link Plugin}s
-     * @return a collection of {@link ModuleDescriptor descriptors}
+     * @return a list of {@link ModuleDescriptor descriptors}
      */
-    private <M> Iterable<ModuleDescriptor<M>> getModuleDescriptors(final Collection<Plugin> plugins, final ModuleDescriptorPredicate<M> predicate) {
-        // hack way to get typed descriptors from plugin and
-        // keep generics happy
-        final Function<ModuleDescriptor<?>, ModuleDescriptor<M>> coercer = new Function<ModuleDescriptor<?>, ModuleDescriptor<M>>() {
-            public ModuleDescriptor<M> apply(final ModuleDescriptor<?> input) {
+    private <M> List<ModuleDescriptor<M>> getModuleDescriptors(final Collection<Plugin> plugins, final ModuleDescriptorPredicate<M> predicate) {
+        final List<ModuleDescriptor<M>> result = new ArrayList<ModuleDescriptor<M>>();
+        for (final Plugin plugin : plugins) {
+            for (final ModuleDescriptor<?> descriptor : plugin.getModuleDescriptors()) {
+                // hack way to get typed descriptors from plugin and
+                // keep generics happy
                 @SuppressWarnings("unchecked")
-                final ModuleDescriptor<M> result = (ModuleDescriptor<M>) input;
-                return result;
-            }
-        };
-
-        // google predicate adapter
-        final Predicate<ModuleDescriptor<M>> adapter = new Predicate<ModuleDescriptor<M>>() {
-            public boolean apply(final ModuleDescriptor<M> input) {
-                return predicate.matches(input);
-            }
-        };
-
-        // get the filtered module descriptors from a plugin
-        final Function<Plugin, Iterable<ModuleDescriptor<M>>> descriptorExtractor = new Function<Plugin, Iterable<ModuleDescriptor<M>>>() {
-            public Iterable<ModuleDescriptor<M>> apply(final Plugin plugin) {
-                return filter(transform(plugin.getModuleDescriptors(), coercer), adapter);
+                final ModuleDescriptor<M> typedDescriptor = (ModuleDescriptor<M>) descriptor;
+                if (predicate.matches(typedDescriptor)) {
+                    result.add(typedDescriptor);
+                }
             }
-        };
-
-        // concatenate all the descriptor iterables into one
-        return concat(transform(plugins, descriptorExtractor));
+        }
+        return result;
     }
 
     /**
@@ -697,19 +695,20 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
     private <M> List<M> getModules(final Iterable<ModuleDescriptor<M>> moduleDescriptors) {
         final Set<String> pluginsToDisable = new HashSet<String>();
         try {
-            return toList(transform(moduleDescriptors, new Function<ModuleDescriptor<M>, M>() {
-                public M apply(final ModuleDescriptor<M> input) {
-                    M result = null;
-                    try {
-                        result = input.getModule();
+            final List<M> result = new ArrayList<M>();
+            for (final ModuleDescriptor<M> descriptor : moduleDescriptors) {
+                try {
+                    final M module = descriptor.getModule();
+                    if (module != null) {
+                        result.add(module);
                     }
-                    catch (final RuntimeException ex) {
-                        log.error("Exception when retrieving plugin module " + input.getKey() + ", will disable plugin " + input.getPlugin().getKey(), ex);
-                        pluginsToDisable.add(input.getPlugin().getKey());
-                    }
-                    return result;
                 }
-            }));
+                catch (final RuntimeException ex) {
+                    log.error("Exception when retrieving plugin module " + descriptor.getKey() + ", will disable plugin " + descriptor.getPlugin().getKey(), ex);
+                    pluginsToDisable.add(descriptor.getPlugin().getKey());
+                }
+            }
+            return result;
         }
         finally {
             for (final String badPluginKey : pluginsToDisable) {
@@ -793,50 +792,48 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
      * @return a collection of {@link ModuleDescriptor}s
      */
     private <M> Collection<ModuleDescriptor<M>> getEnabledModuleDescriptorsByModuleClass(final Class<M> moduleClass) {
-        final ModuleOfClassPredicate<M> ofType = new ModuleOfClassPredicate<M>(moduleClass);
-        final EnabledModulePredicate<M> enabled = new EnabledModulePredicate<M>(this);
-        return toList(getModuleDescriptors(getEnabledPlugins(), new ModuleDescriptorPredicate<M>() {
-            public boolean matches(final ModuleDescriptor<? extends M> moduleDescriptor) {
-                return ofType.matches(moduleDescriptor) && enabled.matches(moduleDescriptor);
-            }
-        }));
+        return this.<ModuleDescriptor<M>>getIndexedEnabledModuleDescriptors(enabledModuleIndex.getByModuleClass(moduleClass));
     }
 
     /**
-     * This method has been reverted to pre PLUG-40 to fix performance issues
-     * that were encountered during load testing. This should be reverted to the
-     * state it was in at 54639 when the fundamental issue leading to this
-     * slowdown has been corrected (that is, slowness of PluginClassLoader).
+     * Answered from the index of enabled module descriptors, so the cost is
+     * proportional to the number of matching descriptors rather than the
+     * number of installed modules.
      *
      * @see PluginAccessor#getEnabledModuleDescriptorsByClass(Class)
      */
     public <D extends ModuleDescriptor<?>> List<D> getEnabledModuleDescriptorsByClass(final Class<D> descriptorClazz) {
-        final List<D> result = new LinkedList<D>();
-        for (final Plugin plugin : plugins.values()) {
-            // Skip disabled plugins
-            if (!isPluginEnabled(plugin.getKey())) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Plugin [" + plugin.getKey() + "] is disabled.");
-                }
-                continue;
-            }
+        return getIndexedEnabledModuleDescriptors(enabledModuleIndex.getByDescriptorClass(descriptorClazz));
+    }
 
-            for (final ModuleDescriptor<?> module : plugin.getModuleDescriptors()) {
-                if (descriptorClazz.isInstance(module)) {
-                    if (isPluginModuleEnabled(module.getCompleteKey())) {
-                        @SuppressWarnings("unchecked")
-                        final D moduleDescriptor = (D) module;
-                        result.add(moduleDescriptor);
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Module [" + module.getCompleteKey() + "] is disabled.");
-                    }
-                }
+    /**
+     * Copies the indexed descriptors into a new list, skipping any whose plugin
+     * or persisted module state no longer says enabled.
+     */
+    private <D extends ModuleDescriptor<?>> List<D> getIndexedEnabledModuleDescriptors(final ModuleDescriptor<?>[] candidates) {
+        final List<D> result = new ArrayList<D>(candidates.length);
+        for (final ModuleDescriptor<?> module : candidates) {
+            if (isIndexedModuleEnabled(module)) {
+                @SuppressWarnings("unchecked")
+                final D moduleDescriptor = (D) module;
+                result.add(moduleDescriptor);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Module [" + module.getCompleteKey() + "] is disabled.");
             }
         }
-
         return result;
     }
 
+    private boolean isIndexedModuleEnabled(final ModuleDescriptor<?> module) {
+        final String pluginKey = module.getPluginKey();
+        if ((pluginKey == null) || !isPluginEnabled(pluginKey)) {
+            return false;
+        }
+        // guard against a descriptor of a plugin that has since been replaced
+        final Plugin plugin = plugins.get(pluginKey);
+        return (plugin != null) && (plugin.getModuleDescriptor(module.getKey()) == module) && getState().isEnabled(module);
+    }
+
     public <D extends ModuleDescriptor<?>> List<D> getEnabledModuleDescriptorsByClass(final Class<D> descriptorClazz, final boolean verbose) {
         return getEnabledModuleDescriptorsByClass(descriptorClazz);
     }
@@ -849,13 +846,11 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
      */
     @Deprecated
     public <M> List<ModuleDescriptor<M>> getEnabledModuleDescriptorsByType(final String type) throws PluginParseException, IllegalArgumentException {
-        final ModuleDescriptorOfTypePredicate<M> ofType = new ModuleDescriptorOfTypePredicate<M>(moduleDescriptorFactory, type);
-        final EnabledModulePredicate<M> enabled = new EnabledModulePredicate<M>(this);
-        return toList(getModuleDescriptors(getEnabledPlugins(), new ModuleDescriptorPredicate<M>() {
-            public boolean matches(final ModuleDescriptor<? extends M> moduleDescriptor) {
-                return ofType.matches(moduleDescriptor) && enabled.matches(moduleDescriptor);
-            }
-        }));
+        final Class<?> descriptorClass = moduleDescriptorFactory.getModuleDescriptorClass(type);
+        if (descriptorClass == null) {
+            return new ArrayList<ModuleDescriptor<M>>();
+        }
+        return getIndexedEnabledModuleDescriptors(enabledModuleIndex.getByDescriptorClass(descriptorClass));
     }
 
     /**
@@ -1090,6 +1085,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
             log.debug("Disabling " + module.getKey());
         }
 
+        enabledModuleIndex.remove(module);
         if (module instanceof StateAware) {
             ((StateAware) module).disabled();
         }
@@ -1131,6 +1127,7 @@ public class DefaultPluginManager implements PluginController, PluginAccessor, P
         if (module instanceof StateAware) {
             ((StateAware) module).enabled();
         }
+        enabledModuleIndex.add(module);
         pluginEventManager.broadcast(new PluginModuleEnabledEvent(module));
     }
 
@@ -68,7 +68,7 @@ public final class DefaultPluginPersistentState implements Serializable, PluginP
      */
 
     public Map<String, Boolean> getMap() {
-        return Collections.unmodifiableMap(map);
+        return map;
     }
 
     /* (non-Javadoc)
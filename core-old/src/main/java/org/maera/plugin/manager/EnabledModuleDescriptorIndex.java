@@ -0,0 +1,170 @@
+package org.maera.plugin.manager;
+
+import org.maera.plugin.ModuleDescriptor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the module descriptors the {@link DefaultPluginManager} has enabled, used to answer the
+ * "enabled modules of this class" family of queries without walking every plugin and module.
+ * <p/>
+ * The index is updated as modules are enabled and disabled. Lookups by descriptor class and by module class are
+ * cached the first time a class is asked for, and those cached results are then kept up to date by every later
+ * enable and disable. All results are immutable arrays published through concurrent maps, so readers never lock
+ * and pay O(result) per lookup. Writers serialise on a single lock and copy the affected arrays.
+ * <p/>
+ * Results are in the order the descriptors were enabled.
+ *
+ * @since 0.1
+ */
+final class EnabledModuleDescriptorIndex {
+    private static final ModuleDescriptor<?>[] EMPTY = new ModuleDescriptor<?>[0];
+
+    private final Object lock = new Object();
+    private final ConcurrentMap<Class<?>, ModuleDescriptor<?>[]> byDescriptorClass = new ConcurrentHashMap<Class<?>, ModuleDescriptor<?>[]>();
+    private final ConcurrentMap<Class<?>, ModuleDescriptor<?>[]> byModuleClass = new ConcurrentHashMap<Class<?>, ModuleDescriptor<?>[]>();
+    private volatile ModuleDescriptor<?>[] enabled = EMPTY;
+
+    /**
+     * Records a descriptor as enabled. Adding a descriptor that is already indexed has no effect.
+     */
+    void add(final ModuleDescriptor<?> descriptor) {
+        synchronized (lock) {
+            if (indexOf(enabled, descriptor) >= 0) {
+                return;
+            }
+            enabled = append(enabled, descriptor);
+            for (final Map.Entry<Class<?>, ModuleDescriptor<?>[]> entry : byDescriptorClass.entrySet()) {
+                if (entry.getKey().isInstance(descriptor)) {
+                    entry.setValue(append(entry.getValue(), descriptor));
+                }
+            }
+            final Class<?> moduleClass = descriptor.getModuleClass();
+            if (moduleClass != null) {
+                for (final Map.Entry<Class<?>, ModuleDescriptor<?>[]> entry : byModuleClass.entrySet()) {
+                    if (entry.getKey().isAssignableFrom(moduleClass)) {
+                        entry.setValue(append(entry.getValue(), descriptor));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a descriptor from the index. Cached lookups keyed by classes from the descriptor's plugin class loader
+     * are dropped as well, so the index does not pin the class loaders of uninstalled plugins.
+     */
+    void remove(final ModuleDescriptor<?> descriptor) {
+        synchronized (lock) {
+            if (indexOf(enabled, descriptor) < 0) {
+                return;
+            }
+            enabled = without(enabled, descriptor);
+            final ClassLoader pluginClassLoader = (descriptor.getPlugin() != null) ? descriptor.getPlugin().getClassLoader() : null;
+            removeFrom(byDescriptorClass, descriptor, pluginClassLoader);
+            removeFrom(byModuleClass, descriptor, pluginClassLoader);
+        }
+    }
+
+    void clear() {
+        synchronized (lock) {
+            enabled = EMPTY;
+            byDescriptorClass.clear();
+            byModuleClass.clear();
+        }
+    }
+
+    /**
+     * @return the enabled descriptors that are instances of the given class. The array must not be modified.
+     */
+    ModuleDescriptor<?>[] getByDescriptorClass(final Class<?> descriptorClass) {
+        final ModuleDescriptor<?>[] result = byDescriptorClass.get(descriptorClass);
+        if (result != null) {
+            return result;
+        }
+        synchronized (lock) {
+            ModuleDescriptor<?>[] computed = byDescriptorClass.get(descriptorClass);
+            if (computed == null) {
+                final List<ModuleDescriptor<?>> matches = new ArrayList<ModuleDescriptor<?>>();
+                for (final ModuleDescriptor<?> descriptor : enabled) {
+                    if (descriptorClass.isInstance(descriptor)) {
+                        matches.add(descriptor);
+                    }
+                }
+                computed = matches.toArray(new ModuleDescriptor<?>[matches.size()]);
+                byDescriptorClass.put(descriptorClass, computed);
+            }
+            return computed;
+        }
+    }
+
+    /**
+     * @return the enabled descriptors whose module class is assignable to the given class. The array must not be
+     *         modified.
+     */
+    ModuleDescriptor<?>[] getByModuleClass(final Class<?> moduleClass) {
+        final ModuleDescriptor<?>[] result = byModuleClass.get(moduleClass);
+        if (result != null) {
+            return result;
+        }
+        synchronized (lock) {
+            ModuleDescriptor<?>[] computed = byModuleClass.get(moduleClass);
+            if (computed == null) {
+                final List<ModuleDescriptor<?>> matches = new ArrayList<ModuleDescriptor<?>>();
+                for (final ModuleDescriptor<?> descriptor : enabled) {
+                    final Class<?> descriptorModuleClass = descriptor.getModuleClass();
+                    if ((descriptorModuleClass != null) && moduleClass.isAssignableFrom(descriptorModuleClass)) {
+                        matches.add(descriptor);
+                    }
+                }
+                computed = matches.toArray(new ModuleDescriptor<?>[matches.size()]);
+                byModuleClass.put(moduleClass, computed);
+            }
+            return computed;
+        }
+    }
+
+    private static void removeFrom(final ConcurrentMap<Class<?>, ModuleDescriptor<?>[]> index, final ModuleDescriptor<?> descriptor,
+                                   final ClassLoader pluginClassLoader) {
+        for (final Iterator<Map.Entry<Class<?>, ModuleDescriptor<?>[]>> it = index.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Class<?>, ModuleDescriptor<?>[]> entry = it.next();
+            if ((pluginClassLoader != null) && (entry.getKey().getClassLoader() == pluginClassLoader)) {
+                it.remove();
+            } else if (indexOf(entry.getValue(), descriptor) >= 0) {
+                entry.setValue(without(entry.getValue(), descriptor));
+            }
+        }
+    }
+
+    private static int indexOf(final ModuleDescriptor<?>[] descriptors, final ModuleDescriptor<?> descriptor) {
+        for (int i = 0; i < descriptors.length; i++) {
+            if (descriptors[i] == descriptor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ModuleDescriptor<?>[] append(final ModuleDescriptor<?>[] descriptors, final ModuleDescriptor<?> descriptor) {
+        final ModuleDescriptor<?>[] result = new ModuleDescriptor<?>[descriptors.length + 1];
+        System.arraycopy(descriptors, 0, result, 0, descriptors.length);
+        result[descriptors.length] = descriptor;
+        return result;
+    }
+
+    private static ModuleDescriptor<?>[] without(final ModuleDescriptor<?>[] descriptors, final ModuleDescriptor<?> descriptor) {
+        final int index = indexOf(descriptors, descriptor);
+        if (index < 0) {
+            return descriptors;
+        }
+        final ModuleDescriptor<?>[] result = new ModuleDescriptor<?>[descriptors.length - 1];
+        System.arraycopy(descriptors, 0, result, 0, index);
+        System.arraycopy(descriptors, index + 1, result, index, descriptors.length - index - 1);
+        return result;
+    }
+}
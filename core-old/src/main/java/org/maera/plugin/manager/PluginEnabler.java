@@ -6,17 +6,26 @@ import org.maera.plugin.PluginAccessor;
 import org.maera.plugin.PluginController;
 import org.maera.plugin.PluginState;
 import org.maera.plugin.util.PluginUtils;
-import org.maera.plugin.util.WaitUntil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper class that handles the problem of enabling a set of plugins at once.  This functionality is used for both
  * the initial plugin loading and manual plugin enabling.  The system waits 60 seconds for all dependencies to be
  * resolved, then resets the timer to 5 seconds if only one remains.
+ * <p/>
+ * Plugins are started in dependency order: a plugin is only enabled once every plugin it requires from the same
+ * batch has been enabled, and plugins that do not depend on each other are enabled concurrently on a bounded number
+ * of threads (see {@link PluginUtils#getDefaultEnablingThreadCount()}).  Plugins that are left in the
+ * {@link PluginState#ENABLING} state are then waited for; the wait is woken by {@link #pluginStateChanged()} rather
+ * than by sleeping between retries.
  *
  * @since 2.2.0
  */
@@ -25,8 +34,17 @@ class PluginEnabler {
     private static final long LAST_PLUGIN_TIMEOUT = 30 * 1000;
     private static final long LAST_PLUGIN_WARN_TIMEOUT = 5 * 1000;
 
+    /**
+     * The longest time to wait for a state change notification before checking the plugins again, to cover
+     * plugins whose state changes without a notification
+     */
+    private static final long STATE_CHECK_INTERVAL = 100;
+    private static final long PROGRESS_LOG_INTERVAL = 1000;
+
     private final PluginAccessor pluginAccessor;
     private final PluginController pluginController;
+    private final Object stateChangeLock = new Object();
+    private long stateChanges;
 
     public PluginEnabler(PluginAccessor pluginAccessor, PluginController pluginController) {
         this.pluginAccessor = pluginAccessor;
@@ -42,7 +60,7 @@ class PluginEnabler {
      */
     Collection<Plugin> enableAllRecursively(Collection<Plugin> plugins) {
         Collection<Plugin> pluginsToEnable = new ArrayList<Plugin>();
-        Set<String> dependentKeys = new HashSet<String>();
+        Set<String> dependentKeys = new LinkedHashSet<String>();
 
         for (Plugin plugin : plugins) {
             scanDependencies(plugin, dependentKeys);
@@ -69,98 +87,328 @@ class PluginEnabler {
      * @param plugins The plugins to enable
      */
     void enable(Collection<Plugin> plugins) {
-        final Set<Plugin> pluginsInEnablingState = new HashSet<Plugin>();
-        for (final Plugin plugin : plugins) {
-            try {
-                plugin.enable();
-                if (plugin.getPluginState() == PluginState.ENABLING) {
-                    pluginsInEnablingState.add(plugin);
+        final Set<Plugin> pluginsInEnablingState = startInDependencyOrder(plugins);
+
+        if (!pluginsInEnablingState.isEmpty()) {
+            // Now wait for the plugins that are still enabling, probably because their containers are being created
+            awaitEnabled(pluginsInEnablingState);
+
+            // Disable any plugins that aren't enabled by now
+            if (!pluginsInEnablingState.isEmpty()) {
+                final StringBuilder sb = new StringBuilder();
+                for (final Plugin plugin : pluginsInEnablingState) {
+                    sb.append(plugin.getKey()).append(',');
+                    pluginController.disablePluginWithoutPersisting(plugin.getKey());
                 }
-            }
-            catch (final RuntimeException ex) {
-                log.error("Unable to enable plugin " + plugin.getKey(), ex);
+                sb.deleteCharAt(sb.length() - 1);
+                log.error("Unable to start the following plugins due to timeout while waiting for plugin to enable: " + sb.toString());
             }
         }
+    }
 
-        if (!pluginsInEnablingState.isEmpty()) {
-            // Now try to enable plugins that weren't enabled before, probably due to dependency ordering issues
-            WaitUntil.invoke(new WaitUntil.WaitCondition() {
-                private long singlePluginTimeout;
-                private long singlePluginWarn;
-
-                public boolean isFinished() {
-                    if (singlePluginTimeout > 0 && singlePluginTimeout < System.currentTimeMillis()) {
-                        return true;
-                    }
-                    for (final Iterator<Plugin> i = pluginsInEnablingState.iterator(); i.hasNext();) {
-                        final Plugin plugin = i.next();
-                        if (plugin.getPluginState() != PluginState.ENABLING) {
-                            i.remove();
+    /**
+     * Wakes up any thread waiting for plugins to leave the {@link PluginState#ENABLING} state, so it checks them
+     * again.  Called when a plugin container has been created or has failed.
+     */
+    void pluginStateChanged() {
+        synchronized (stateChangeLock) {
+            stateChanges++;
+            stateChangeLock.notifyAll();
+        }
+    }
+
+    /**
+     * Enables the plugins in dependency order, using the calling thread plus up to
+     * {@link PluginUtils#getDefaultEnablingThreadCount()} - 1 pooled threads.
+     *
+     * @param plugins The plugins to enable
+     * @return the plugins that were left in the {@link PluginState#ENABLING} state
+     */
+    private Set<Plugin> startInDependencyOrder(final Collection<Plugin> plugins) {
+        final Set<Plugin> pluginsInEnablingState = Collections.synchronizedSet(new LinkedHashSet<Plugin>());
+        final DependencySchedule schedule = new DependencySchedule(plugins);
+        final Runnable worker = new Runnable() {
+            public void run() {
+                Plugin plugin;
+                while ((plugin = schedule.take()) != null) {
+                    try {
+                        if (start(plugin)) {
+                            pluginsInEnablingState.add(plugin);
                         }
                     }
-                    if (isAtlassianDevMode() && pluginsInEnablingState.size() == 1) {
-                        final long currentTime = System.currentTimeMillis();
-                        if (singlePluginTimeout == 0) {
-                            log.info("Only one plugin left not enabled. Resetting the timeout to " +
-                                    (LAST_PLUGIN_TIMEOUT / 1000) + " seconds.");
-
-                            singlePluginWarn = currentTime + LAST_PLUGIN_WARN_TIMEOUT;
-                            singlePluginTimeout = currentTime + LAST_PLUGIN_TIMEOUT;
-                        } else if (singlePluginWarn <= currentTime) {
-                            //PLUG-617: Warn people when it takes a long time to enable a plugin when in dev mode. We bumped
-                            //this timeout from 5 to 30 seconds because the gadget publisher in JIRA can take this long to
-                            //load when running java in DEBUG mode. We are also now going to log a message about slow startup
-                            //since 30 seconds is a long time to wait for your plugin to fail.
-                            final Plugin plugin = pluginsInEnablingState.iterator().next();
-                            final long remainingWait = Math.max(0, Math.round((singlePluginTimeout - currentTime) / 1000.0));
-
-                            log.warn("Plugin '" + plugin + "' did not enable within " + (LAST_PLUGIN_WARN_TIMEOUT / 1000) + " seconds."
-                                    + "The plugin should not take this long to enable. Will only attempt to load plugin for another '"
-                                    + remainingWait + "' seconds.");
-                            singlePluginWarn = Long.MAX_VALUE;
-                        }
+                    finally {
+                        schedule.started(plugin);
                     }
-                    return pluginsInEnablingState.isEmpty();
                 }
+            }
+        };
+
+        final int threads = Math.min(PluginUtils.getDefaultEnablingThreadCount(), schedule.size());
+        if (threads <= 1) {
+            worker.run();
+            return pluginsInEnablingState;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads - 1, new EnablerThreadFactory());
+        try {
+            for (int i = 1; i < threads; i++) {
+                executor.execute(worker);
+            }
+            worker.run();
+            schedule.awaitCompletion();
+        }
+        finally {
+            executor.shutdown();
+        }
+        return pluginsInEnablingState;
+    }
+
+    /**
+     * @return true if the plugin was left in the {@link PluginState#ENABLING} state
+     */
+    private boolean start(final Plugin plugin) {
+        try {
+            plugin.enable();
+            return plugin.getPluginState() == PluginState.ENABLING;
+        }
+        catch (final RuntimeException ex) {
+            log.error("Unable to enable plugin " + plugin.getKey(), ex);
+            return false;
+        }
+    }
 
-                public String getWaitMessage() {
-                    return "Plugins that have yet to be enabled: " + pluginsInEnablingState;
+    /**
+     * Waits until none of the plugins is in the {@link PluginState#ENABLING} state, or until the enabling wait period
+     * has passed.  Plugins are removed from the set as they leave the enabling state.
+     */
+    private void awaitEnabled(final Set<Plugin> pluginsInEnablingState) {
+        final boolean devMode = Boolean.getBoolean(PluginUtils.MAERA_DEV_MODE);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(PluginUtils.getDefaultEnablingWaitPeriod());
+        long singlePluginWarn = 0;
+        long nextProgressLog = 0;
+
+        for (; ;) {
+            final long observedStateChanges = getStateChanges();
+            for (final Iterator<Plugin> i = pluginsInEnablingState.iterator(); i.hasNext();) {
+                final Plugin plugin = i.next();
+                if (plugin.getPluginState() != PluginState.ENABLING) {
+                    i.remove();
                 }
+            }
+            if (pluginsInEnablingState.isEmpty()) {
+                return;
+            }
+
+            final long currentTime = System.currentTimeMillis();
+            if (devMode && pluginsInEnablingState.size() == 1) {
+                if (singlePluginWarn == 0) {
+                    log.info("Only one plugin left not enabled. Resetting the timeout to " +
+                            (LAST_PLUGIN_TIMEOUT / 1000) + " seconds.");
+
+                    singlePluginWarn = currentTime + LAST_PLUGIN_WARN_TIMEOUT;
+                    deadline = Math.min(deadline, currentTime + LAST_PLUGIN_TIMEOUT);
+                } else if (singlePluginWarn <= currentTime) {
+                    //PLUG-617: Warn people when it takes a long time to enable a plugin when in dev mode. We bumped
+                    //this timeout from 5 to 30 seconds because the gadget publisher in JIRA can take this long to
+                    //load when running java in DEBUG mode. We are also now going to log a message about slow startup
+                    //since 30 seconds is a long time to wait for your plugin to fail.
+                    final Plugin plugin = pluginsInEnablingState.iterator().next();
+                    final long remainingWait = Math.max(0, Math.round((deadline - currentTime) / 1000.0));
 
-                private boolean isAtlassianDevMode() {
-                    return Boolean.getBoolean(PluginUtils.MAERA_DEV_MODE);
+                    log.warn("Plugin '" + plugin + "' did not enable within " + (LAST_PLUGIN_WARN_TIMEOUT / 1000) + " seconds."
+                            + "The plugin should not take this long to enable. Will only attempt to load plugin for another '"
+                            + remainingWait + "' seconds.");
+                    singlePluginWarn = Long.MAX_VALUE;
                 }
-            }, PluginUtils.getDefaultEnablingWaitPeriod(), TimeUnit.SECONDS, 1);
+            }
 
-            // Disable any plugins that aren't enabled by now
-            if (!pluginsInEnablingState.isEmpty()) {
-                final StringBuilder sb = new StringBuilder();
-                for (final Plugin plugin : pluginsInEnablingState) {
-                    sb.append(plugin.getKey()).append(',');
-                    pluginController.disablePluginWithoutPersisting(plugin.getKey());
+            if (currentTime >= deadline) {
+                return;
+            }
+            if (currentTime >= nextProgressLog && log.isInfoEnabled()) {
+                log.info("Plugins that have yet to be enabled: " + pluginsInEnablingState + ", " +
+                        TimeUnit.MILLISECONDS.toSeconds(deadline - currentTime) + " seconds remaining");
+                nextProgressLog = currentTime + PROGRESS_LOG_INTERVAL;
+            }
+            if (!awaitStateChange(observedStateChanges, Math.min(deadline - currentTime, STATE_CHECK_INTERVAL))) {
+                return;
+            }
+        }
+    }
+
+    private long getStateChanges() {
+        synchronized (stateChangeLock) {
+            return stateChanges;
+        }
+    }
+
+    /**
+     * @return false if the waiting thread was interrupted
+     */
+    private boolean awaitStateChange(final long observedStateChanges, final long timeout) {
+        final long until = System.currentTimeMillis() + timeout;
+        synchronized (stateChangeLock) {
+            long remaining = timeout;
+            while (stateChanges == observedStateChanges && remaining > 0) {
+                try {
+                    stateChangeLock.wait(remaining);
                 }
-                sb.deleteCharAt(sb.length() - 1);
-                log.error("Unable to start the following plugins due to timeout while waiting for plugin to enable: " + sb.toString());
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = until - System.currentTimeMillis();
             }
         }
+        return true;
     }
 
     /**
-     * Scans, recursively, to build a set of plugin dependencies for the target plugin
+     * Scans, iteratively, to build a set of plugin dependencies for the target plugin
      *
      * @param plugin        The plugin to scan
      * @param dependentKeys The set of keys collected so far
      */
     private void scanDependencies(Plugin plugin, Set<String> dependentKeys) {
+        final LinkedList<Plugin> toScan = new LinkedList<Plugin>();
+        toScan.add(plugin);
         dependentKeys.add(plugin.getKey());
 
-        // Ensure dependent plugins are enabled first
-        for (String dependencyKey : plugin.getRequiredPlugins()) {
-            if (!dependentKeys.contains(dependencyKey) &&
-                    (pluginAccessor.getPlugin(dependencyKey) != null) &&
-                    !pluginAccessor.isPluginEnabled(dependencyKey)) {
-                scanDependencies(pluginAccessor.getPlugin(dependencyKey), dependentKeys);
+        while (!toScan.isEmpty()) {
+            // Ensure dependent plugins are enabled first
+            for (String dependencyKey : toScan.removeFirst().getRequiredPlugins()) {
+                if (!dependentKeys.contains(dependencyKey) &&
+                        (pluginAccessor.getPlugin(dependencyKey) != null) &&
+                        !pluginAccessor.isPluginEnabled(dependencyKey)) {
+                    dependentKeys.add(dependencyKey);
+                    toScan.add(pluginAccessor.getPlugin(dependencyKey));
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands out plugins once every plugin they require from the same batch has been started.  If the remaining
+     * plugins only wait on each other (a dependency cycle) and nothing is running that could release them, the
+     * first of them is released regardless.
+     */
+    private static final class DependencySchedule {
+        private final Map<Plugin, Integer> unstartedDependencies = new HashMap<Plugin, Integer>();
+        private final Map<String, List<Plugin>> dependents = new HashMap<String, List<Plugin>>();
+        private final Set<Plugin> waiting = new LinkedHashSet<Plugin>();
+        private final LinkedList<Plugin> ready = new LinkedList<Plugin>();
+        private final int size;
+        private int running;
+
+        DependencySchedule(final Collection<Plugin> plugins) {
+            final Map<String, Plugin> pluginsByKey = new HashMap<String, Plugin>();
+            for (final Plugin plugin : plugins) {
+                pluginsByKey.put(plugin.getKey(), plugin);
+            }
+            final Set<Plugin> scheduled = new LinkedHashSet<Plugin>(plugins);
+            for (final Plugin plugin : scheduled) {
+                int count = 0;
+                for (final String dependencyKey : plugin.getRequiredPlugins()) {
+                    final Plugin dependency = pluginsByKey.get(dependencyKey);
+                    if (dependency != null && dependency != plugin) {
+                        List<Plugin> list = dependents.get(dependencyKey);
+                        if (list == null) {
+                            list = new ArrayList<Plugin>();
+                            dependents.put(dependencyKey, list);
+                        }
+                        list.add(plugin);
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    ready.add(plugin);
+                } else {
+                    unstartedDependencies.put(plugin, count);
+                    waiting.add(plugin);
+                }
+            }
+            size = scheduled.size();
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the next plugin to start, blocking until one is available, or null once every plugin has been
+         *         handed out
+         */
+        synchronized Plugin take() {
+            while (ready.isEmpty()) {
+                if (waiting.isEmpty()) {
+                    return null;
+                }
+                if (running == 0) {
+                    final Plugin plugin = waiting.iterator().next();
+                    log.debug("Plugin '" + plugin.getKey() + "' is part of a dependency cycle, enabling it without waiting for its dependencies");
+                    release(plugin);
+                } else {
+                    try {
+                        wait();
+                    }
+                    catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
             }
+            running++;
+            return ready.removeFirst();
+        }
+
+        synchronized void started(final Plugin plugin) {
+            running--;
+            final List<Plugin> list = dependents.get(plugin.getKey());
+            if (list != null) {
+                for (final Plugin dependent : list) {
+                    final Integer count = unstartedDependencies.get(dependent);
+                    if (count == null) {
+                        continue;
+                    }
+                    if (count == 1) {
+                        release(dependent);
+                    } else {
+                        unstartedDependencies.put(dependent, count - 1);
+                    }
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * Blocks until every plugin has been handed out and started.
+         */
+        synchronized void awaitCompletion() {
+            while (running > 0 || !ready.isEmpty() || !waiting.isEmpty()) {
+                try {
+                    wait();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void release(final Plugin plugin) {
+            unstartedDependencies.remove(plugin);
+            waiting.remove(plugin);
+            ready.add(plugin);
+        }
+    }
+
+    private static final class EnablerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "PluginEnabler:thread-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
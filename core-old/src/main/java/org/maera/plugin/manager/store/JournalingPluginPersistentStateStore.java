@@ -0,0 +1,429 @@
+package org.maera.plugin.manager.store;
+
+import org.apache.commons.io.IOUtils;
+import org.maera.plugin.PluginException;
+import org.maera.plugin.manager.PluginPersistentState;
+import org.maera.plugin.manager.PluginPersistentStateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.maera.plugin.util.Assertions.isTrue;
+import static org.maera.plugin.util.Assertions.notNull;
+
+/**
+ * A durable plugin state store that records every change as a transaction appended to a journal file.
+ * <p/>
+ * Each call to {@link #save(PluginPersistentState)} appends only the keys that differ from the previous state,
+ * followed by a commit record carrying the transaction version and a checksum, and then forces the journal to disk.
+ * On startup the journal is replayed; a trailing transaction without a valid commit record (a write interrupted by
+ * a crash) is discarded and truncated away. Once the journal holds enough superseded records it is compacted by
+ * writing the current state to a temporary file, moving the journal aside to a backup and renaming the temporary file
+ * in its place. If the rename fails the backup is restored, and a compaction interrupted by a crash is finished or
+ * undone when the store is next opened, so a complete copy of the state is always on disk.
+ * <p/>
+ * {@link #load()} never touches the disk: it returns the last committed immutable state, published through a
+ * volatile field, so callers on the request path can read it without locking.
+ *
+ * @since 0.1
+ */
+public class JournalingPluginPersistentStateStore implements PluginPersistentStateStore {
+    private static final Logger log = LoggerFactory.getLogger(JournalingPluginPersistentStateStore.class);
+
+    /**
+     * The default number of journal records tolerated before the journal is compacted.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    private static final String ENCODING = "UTF-8";
+    private static final char PUT = '+';
+    private static final char REMOVE = '-';
+    private static final char COMMIT = '#';
+
+    private final File journalFile;
+    private final int compactionThreshold;
+    private final Object writeLock = new Object();
+
+    private volatile Snapshot snapshot;
+    private FileOutputStream journal;
+    private int journalRecords;
+
+    /**
+     * Creates a store backed by the given journal file, using the {@link #DEFAULT_COMPACTION_THRESHOLD}.
+     *
+     * @param journalFile the journal file, created if it does not exist
+     * @throws PluginException if the journal cannot be read or opened for writing
+     */
+    public JournalingPluginPersistentStateStore(final File journalFile) {
+        this(journalFile, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param journalFile         the journal file, created if it does not exist
+     * @param compactionThreshold the number of journal records after which the journal is compacted
+     * @throws PluginException if the journal cannot be read or opened for writing
+     */
+    public JournalingPluginPersistentStateStore(final File journalFile, final int compactionThreshold) {
+        this.journalFile = notNull("journalFile", journalFile);
+        isTrue("compactionThreshold must be positive", compactionThreshold > 0);
+        this.compactionThreshold = compactionThreshold;
+
+        try {
+            recover();
+            journal = new FileOutputStream(journalFile, true);
+        }
+        catch (final IOException e) {
+            throw new PluginException("Unable to open plugin state journal " + journalFile, e);
+        }
+    }
+
+    /**
+     * Returns the last committed state. This is a single volatile read; the returned state is immutable.
+     */
+    public PluginPersistentState load() {
+        return snapshot.state;
+    }
+
+    /**
+     * @return the version of the last committed state, incremented by every save that changed the state
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Appends the differences between the last committed state and the given state to the journal, forces them to
+     * disk and then publishes the new state to readers.
+     *
+     * @throws PluginException if the journal cannot be written
+     */
+    public void save(final PluginPersistentState state) {
+        notNull("state", state);
+        synchronized (writeLock) {
+            final Snapshot current = snapshot;
+            final Map<String, Boolean> oldMap = current.state.getMap();
+            final Map<String, Boolean> newMap = state.getMap();
+            final StringBuilder records = new StringBuilder();
+            int count = 0;
+            for (final Map.Entry<String, Boolean> entry : newMap.entrySet()) {
+                if (!entry.getValue().equals(oldMap.get(entry.getKey()))) {
+                    appendPut(records, entry.getKey(), entry.getValue());
+                    count++;
+                }
+            }
+            for (final String key : oldMap.keySet()) {
+                if (!newMap.containsKey(key)) {
+                    appendRemove(records, key);
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+
+            final long version = current.version + 1;
+            try {
+                writeTransaction(journal, records, version);
+            }
+            catch (final IOException e) {
+                throw new PluginException("Unable to write plugin state journal " + journalFile, e);
+            }
+            journalRecords += count + 1;
+            snapshot = new Snapshot(PluginPersistentState.Builder.create(state).toState(), version);
+
+            if (journalRecords > compactionThreshold && journalRecords > 2 * newMap.size()) {
+                try {
+                    compact();
+                }
+                catch (final PluginException e) {
+                    // the new state is already durable, so the save succeeded; a later save reports a journal that
+                    // can no longer be written to
+                    log.error("Unable to compact plugin state journal " + journalFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the journal. The store must not be saved to afterwards.
+     */
+    public void close() {
+        synchronized (writeLock) {
+            IOUtils.closeQuietly(journal);
+        }
+    }
+
+    /**
+     * Rewrites the journal so it holds a single transaction containing the current state.
+     */
+    void compact() {
+        synchronized (writeLock) {
+            final Snapshot current = snapshot;
+            final StringBuilder records = new StringBuilder();
+            for (final Map.Entry<String, Boolean> entry : current.state.getMap().entrySet()) {
+                appendPut(records, entry.getKey(), entry.getValue());
+            }
+
+            final File compacted = compactFile();
+            final File backup = backupFile();
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(compacted);
+                writeTransaction(out, records, current.version);
+                out.close();
+            }
+            catch (final IOException e) {
+                log.error("Unable to compact plugin state journal " + journalFile + ", continuing with the existing journal", e);
+                IOUtils.closeQuietly(out);
+                compacted.delete();
+                return;
+            }
+
+            // the journal is moved aside rather than deleted, so there is always a complete copy of the state on disk
+            IOUtils.closeQuietly(journal);
+            backup.delete();
+            if (!renameFile(journalFile, backup)) {
+                log.error("Unable to rename " + journalFile + " to " + backup + ", continuing with the existing journal");
+                compacted.delete();
+            } else if (!renameFile(compacted, journalFile)) {
+                if (!renameFile(backup, journalFile)) {
+                    // the journal isn't reopened, so an empty one can't take the place of the copies left for recover()
+                    throw new PluginException("Unable to rename " + compacted + " or " + backup + " to " + journalFile);
+                }
+                log.error("Unable to rename " + compacted + " to " + journalFile + ", continuing with the existing journal");
+                compacted.delete();
+            } else {
+                backup.delete();
+                journalRecords = current.state.getMap().size() + 1;
+            }
+
+            try {
+                journal = new FileOutputStream(journalFile, true);
+            }
+            catch (final IOException e) {
+                throw new PluginException("Unable to reopen plugin state journal " + journalFile, e);
+            }
+        }
+    }
+
+    /**
+     * Renames a file, as used to swap the compacted journal in.
+     *
+     * @return true if the file was renamed
+     */
+    protected boolean renameFile(final File from, final File to) {
+        return from.renameTo(to);
+    }
+
+    private File compactFile() {
+        return new File(journalFile.getPath() + ".compact");
+    }
+
+    private File backupFile() {
+        return new File(journalFile.getPath() + ".bak");
+    }
+
+    /**
+     * Finishes or undoes a compaction that was interrupted while the journal was being swapped.  A compacted journal is
+     * complete once the journal has been moved aside, so it is preferred to the backup.
+     */
+    private void recoverCompaction() throws IOException {
+        final File compacted = compactFile();
+        final File backup = backupFile();
+        if (!journalFile.exists()) {
+            if (compacted.exists() && renameFile(compacted, journalFile)) {
+                log.warn("Recovered plugin state journal " + journalFile + " from an interrupted compaction");
+            } else if (backup.exists() && renameFile(backup, journalFile)) {
+                log.warn("Restored plugin state journal " + journalFile + " from " + backup);
+            } else if (compacted.exists() || backup.exists()) {
+                throw new IOException("Unable to recover plugin state journal " + journalFile + " from " + compacted + " or " + backup);
+            }
+        }
+        // left over from a compaction that either finished or never got as far as moving the journal
+        compacted.delete();
+        backup.delete();
+    }
+
+    /**
+     * Replays the journal into the initial snapshot and truncates any uncommitted tail.
+     */
+    private void recover() throws IOException {
+        final File parent = journalFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        recoverCompaction();
+        if (!journalFile.exists() && !journalFile.createNewFile()) {
+            throw new IOException("Unable to create " + journalFile);
+        }
+
+        final byte[] bytes;
+        final FileInputStream in = new FileInputStream(journalFile);
+        try {
+            bytes = IOUtils.toByteArray(in);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        final Map<String, Boolean> state = new HashMap<String, Boolean>();
+        final Map<String, Boolean> pending = new LinkedHashMap<String, Boolean>();
+        final CRC32 crc = new CRC32();
+        long version = 0;
+        int committedOffset = 0;
+        int records = 0;
+        int pendingRecords = 0;
+
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            final String line = new String(bytes, start, i - start, ENCODING);
+            if (line.length() > 0 && line.charAt(0) == COMMIT) {
+                final long committedVersion = parseCommit(line, crc.getValue());
+                if (committedVersion < 0) {
+                    break;
+                }
+                for (final Map.Entry<String, Boolean> entry : pending.entrySet()) {
+                    if (entry.getValue() == null) {
+                        state.remove(entry.getKey());
+                    } else {
+                        state.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                records += pendingRecords + 1;
+                version = committedVersion;
+                committedOffset = i + 1;
+                pending.clear();
+                pendingRecords = 0;
+                crc.reset();
+            } else if (line.length() > 1 && line.charAt(0) == PUT) {
+                pending.put(unescape(line.substring(2)), line.charAt(1) == '1');
+                pendingRecords++;
+                crc.update(bytes, start, i - start + 1);
+            } else if (line.length() > 0 && line.charAt(0) == REMOVE) {
+                // the key of a removal may be empty, leaving only the marker
+                pending.put(unescape(line.substring(1)), null);
+                pendingRecords++;
+                crc.update(bytes, start, i - start + 1);
+            } else {
+                break;
+            }
+            start = i + 1;
+        }
+
+        if (committedOffset < bytes.length) {
+            log.warn("Discarding " + (bytes.length - committedOffset) + " bytes of uncommitted plugin state from " + journalFile);
+            final RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            try {
+                raf.setLength(committedOffset);
+                raf.getFD().sync();
+            }
+            finally {
+                raf.close();
+            }
+        }
+
+        journalRecords = records;
+        snapshot = new Snapshot(PluginPersistentState.Builder.create().addState(state).toState(), version);
+    }
+
+    /**
+     * @return the committed version, or -1 if the commit record is malformed or its checksum does not match
+     */
+    private static long parseCommit(final String line, final long expectedCrc) {
+        final int separator = line.indexOf(' ');
+        if (separator < 0) {
+            return -1;
+        }
+        try {
+            final long version = Long.parseLong(line.substring(1, separator));
+            final long crc = Long.parseLong(line.substring(separator + 1), 16);
+            return (crc == expectedCrc) ? version : -1;
+        }
+        catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeTransaction(final FileOutputStream out, final StringBuilder records, final long version) throws IOException {
+        final byte[] recordBytes = records.toString().getBytes(ENCODING);
+        final CRC32 crc = new CRC32();
+        crc.update(recordBytes);
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(recordBytes.length + 32);
+        buffer.write(recordBytes);
+        buffer.write((COMMIT + Long.toString(version) + ' ' + Long.toHexString(crc.getValue()) + '\n').getBytes(ENCODING));
+        out.write(buffer.toByteArray());
+        out.flush();
+        out.getFD().sync();
+    }
+
+    private static void appendPut(final StringBuilder records, final String key, final Boolean value) {
+        records.append(PUT).append(value ? '1' : '0');
+        escape(records, key);
+        records.append('\n');
+    }
+
+    private static void appendRemove(final StringBuilder records, final String key) {
+        records.append(REMOVE);
+        escape(records, key);
+        records.append('\n');
+    }
+
+    private static void escape(final StringBuilder out, final String key) {
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(final String key) {
+        if (key.indexOf('\\') < 0) {
+            return key;
+        }
+        final StringBuilder out = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c == '\\' && i + 1 < key.length()) {
+                final char next = key.charAt(++i);
+                out.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * An immutable state paired with the version of the transaction that produced it.
+     */
+    private static final class Snapshot {
+        private final PluginPersistentState state;
+        private final long version;
+
+        Snapshot(final PluginPersistentState state, final long version) {
+            this.state = state;
+            this.version = version;
+        }
+    }
+}
@@ -25,6 +25,14 @@ public class PluginUtils {
      */
     public static final String MAERA_PLUGINS_ENABLE_WAIT = "maera.plugins.enable.wait";
 
+    /**
+     * System property for storing and retrieving the number of threads the plugin system will use to enable plugins
+     * that do not depend on each other
+     *
+     * @since 0.1
+     */
+    public static final String MAERA_PLUGINS_ENABLE_THREADS = "maera.plugins.enable.threads";
+
     /**
      * Determines if a plugin requires a restart after being installed at runtime.  Looks for the annotation
      * {@link RequiresRestart} on the plugin's module descriptors.
@@ -88,4 +96,14 @@ public class PluginUtils {
     public static int getDefaultEnablingWaitPeriod() {
         return Integer.parseInt(System.getProperty(MAERA_PLUGINS_ENABLE_WAIT, "60"));
     }
+
+    /**
+     * @return The number of threads used to enable independent plugins concurrently, defaulting to the number of
+     *         available processors, at most 4
+     * @since 0.1
+     */
+    public static int getDefaultEnablingThreadCount() {
+        final int defaultThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Integer.getInteger(MAERA_PLUGINS_ENABLE_THREADS, defaultThreads));
+    }
 }
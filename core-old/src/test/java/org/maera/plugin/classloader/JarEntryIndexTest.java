@@ -0,0 +1,134 @@
+package org.maera.plugin.classloader;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class JarEntryIndexTest {
+
+    private File tmpDir;
+    private File jar;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = new File("target/" + getClass().getName()).getAbsoluteFile();
+        tmpDir.mkdirs();
+        jar = new File(tmpDir, "test.jar");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        JarEntryIndex.unregister(jar);
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testReadsStoredAndDeflatedEntries() throws IOException {
+        final byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 7);
+        }
+        writeJar("stored.txt", "stored content".getBytes("UTF-8"), ZipEntry.STORED,
+                "deflated.bin", large, ZipEntry.DEFLATED);
+
+        final JarEntryIndex index = JarEntryIndex.register(jar);
+        assertNotNull(index);
+        assertSame(index, JarEntryIndex.get(jar));
+        assertTrue(index.contains("stored.txt"));
+        assertFalse(index.contains("missing.txt"));
+
+        assertEquals("stored content", new String(index.read("stored.txt"), "UTF-8"));
+        assertArrayEquals(large, index.read("deflated.bin"));
+        assertNull(index.read("missing.txt"));
+
+        final InputStream in = index.openStream("deflated.bin");
+        try {
+            assertArrayEquals(large, IOUtils.toByteArray(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testIndexIsKeptUntilEveryRegistrationIsReleased() throws IOException {
+        writeJar("a.txt", "content".getBytes("UTF-8"), ZipEntry.DEFLATED);
+        final JarEntryIndex index = JarEntryIndex.register(jar);
+        assertSame(index, JarEntryIndex.register(jar));
+
+        JarEntryIndex.unregister(jar);
+        assertSame(index, JarEntryIndex.get(jar));
+
+        JarEntryIndex.unregister(jar);
+        assertNull(JarEntryIndex.get(jar));
+    }
+
+    @Test
+    public void testReplacedJarIsReindexed() throws IOException {
+        writeJar("a.txt", "first".getBytes("UTF-8"), ZipEntry.DEFLATED);
+        final JarEntryIndex index = JarEntryIndex.register(jar);
+        assertEquals("first", new String(index.read("a.txt"), "UTF-8"));
+
+        writeJar("a.txt", "second version".getBytes("UTF-8"), ZipEntry.DEFLATED, "b.txt", new byte[0], ZipEntry.STORED);
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertEquals("second version", new String(index.read("a.txt"), "UTF-8"));
+        assertEquals(0, index.read("b.txt").length);
+    }
+
+    @Test
+    public void testDeletedJarCannotBeRead() throws IOException {
+        writeJar("a.txt", "content".getBytes("UTF-8"), ZipEntry.DEFLATED);
+        final JarEntryIndex index = JarEntryIndex.register(jar);
+        assertTrue(jar.delete());
+        try {
+            index.read("a.txt");
+            fail("the jar was deleted");
+        }
+        catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNonJarIsNotRegistered() throws IOException {
+        FileUtils.writeStringToFile(jar, "not a jar");
+        assertNull(JarEntryIndex.register(jar));
+        assertNull(JarEntryIndex.get(jar));
+    }
+
+    private void writeJar(final Object... namesContentsAndMethods) throws IOException {
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (int i = 0; i < namesContentsAndMethods.length; i += 3) {
+                final byte[] content = (byte[]) namesContentsAndMethods[i + 1];
+                final ZipEntry entry = new ZipEntry((String) namesContentsAndMethods[i]);
+                entry.setMethod((Integer) namesContentsAndMethods[i + 2]);
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -11,10 +11,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -41,6 +48,7 @@ public class PluginClassLoaderTest {
 
     @After
     public void tearDown() throws Exception {
+        pluginClassLoader.close();
         FileUtils.deleteDirectory(tmpDir);
     }
 
@@ -55,6 +63,22 @@ public class PluginClassLoaderTest {
         }
     }
 
+    @Test
+    public void testClosingOneLoaderKeepsTheJarIndexedForAnother() throws Exception {
+        final File jar = new File(getClass().getClassLoader().getResource(PluginTestUtils.SIMPLE_TEST_JAR).getFile());
+        final PluginClassLoader other = new PluginClassLoader(jar, getClass().getClassLoader(), tmpDir);
+        try {
+            pluginClassLoader.close();
+            pluginClassLoader.close();
+
+            assertNotNull(JarEntryIndex.get(jar));
+            assertSame(other, other.loadClass("org.maera.plugin.simpletest.TestClassOne").getClassLoader());
+        }
+        finally {
+            other.close();
+        }
+    }
+
     @Test
     public void testPluginClassLoaderDoesNotLockTheJarsPermanently() throws Exception {
         //N.B This will probably never fail on a non Windows machine
@@ -140,4 +164,32 @@ public class PluginClassLoaderTest {
         assertEquals("PluginClassLoader is searching the parent classloader for classes before inner JARs",
                 2, value);
     }
+
+    @Test
+    public void testPluginClassLoaderLoadsClassesConcurrently() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Class<?>>> results = new ArrayList<Future<Class<?>>>();
+            for (int i = 0; i < threads; i++) {
+                final String className = (i % 2 == 0) ? "org.maera.plugin.simpletest.TestClassOne" : "org.maera.plugin.mock.MockVersionedClass";
+                results.add(executor.submit(new Callable<Class<?>>() {
+                    public Class<?> call() throws Exception {
+                        start.await();
+                        return pluginClassLoader.loadClass(className);
+                    }
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < threads; i++) {
+                final Class<?> c = results.get(i).get();
+                assertSame(pluginClassLoader, c.getClassLoader());
+                assertSame(results.get(i % 2).get(), c);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
 }
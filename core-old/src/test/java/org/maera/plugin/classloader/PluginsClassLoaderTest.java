@@ -9,7 +9,9 @@ import org.maera.plugin.MockPlugin;
 import org.maera.plugin.MockPluginAccessor;
 import org.maera.plugin.Plugin;
 import org.maera.plugin.PluginAccessor;
+import org.maera.plugin.test.PluginJarBuilder;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
@@ -172,6 +174,98 @@ public class PluginsClassLoaderTest {
         assertEquals(null, pluginsClassLoader.getPluginForClass("java.lang.String"));
     }
 
+    @Test
+    public void testMissIsOnlyRetriedInPluginsEnabledSince() throws Exception {
+        final MockPluginAccessor mockPluginAccessor = new MockPluginAccessor();
+        PluginsClassLoader pluginsClassLoader = new PluginsClassLoader(mockPluginAccessor);
+        CountingClassLoader classLoaderA = new CountingClassLoader();
+        MockPlugin pluginA = new MockPlugin("A", classLoaderA);
+        mockPluginAccessor.addPlugin(pluginA);
+        pluginA.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginA);
+
+        assertNull(pluginsClassLoader.getPluginForClass("com.acme.Late"));
+        assertNull(pluginsClassLoader.getPluginForClass("com.acme.Late"));
+        assertEquals(1, classLoaderA.getFindClassCount());
+
+        // enabling a plugin that doesn't have the class only asks that plugin
+        CountingClassLoader classLoaderB = new CountingClassLoader();
+        MockPlugin pluginB = new MockPlugin("B", classLoaderB);
+        mockPluginAccessor.addPlugin(pluginB);
+        pluginB.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginB);
+        assertNull(pluginsClassLoader.getPluginForClass("com.acme.Late"));
+        assertEquals(1, classLoaderA.getFindClassCount());
+        assertEquals(1, classLoaderB.getFindClassCount());
+
+        // enabling a plugin that has the class makes it visible
+        CountingClassLoader classLoaderC = new CountingClassLoader();
+        classLoaderC.register("com.acme.Late", String.class);
+        MockPlugin pluginC = new MockPlugin("C", classLoaderC);
+        mockPluginAccessor.addPlugin(pluginC);
+        pluginC.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginC);
+        assertEquals(pluginC, pluginsClassLoader.getPluginForClass("com.acme.Late"));
+        assertEquals(1, classLoaderA.getFindClassCount());
+        assertEquals(1, classLoaderB.getFindClassCount());
+    }
+
+    @Test
+    public void testPluginProvidingPackageIsAskedFirst() throws Exception {
+        final MockPluginAccessor mockPluginAccessor = new MockPluginAccessor();
+        PluginsClassLoader pluginsClassLoader = new PluginsClassLoader(mockPluginAccessor);
+        CountingClassLoader classLoaderA = new CountingClassLoader();
+        MockPlugin pluginA = new MockPlugin("A", classLoaderA);
+        mockPluginAccessor.addPlugin(pluginA);
+        CountingClassLoader classLoaderB = new CountingClassLoader();
+        classLoaderB.register("com.acme.First", String.class);
+        classLoaderB.register("com.acme.Second", String.class);
+        MockPlugin pluginB = new MockPlugin("B", classLoaderB);
+        mockPluginAccessor.addPlugin(pluginB);
+        pluginA.enable();
+        pluginB.enable();
+
+        assertEquals(pluginB, pluginsClassLoader.getPluginForClass("com.acme.First"));
+        assertEquals(1, classLoaderA.getFindClassCount());
+
+        assertEquals(pluginB, pluginsClassLoader.getPluginForClass("com.acme.Second"));
+        assertEquals(1, classLoaderA.getFindClassCount());
+    }
+
+    @Test
+    public void testOnlyPluginsProvidingPackageAreAsked() throws Exception {
+        final MockPluginAccessor mockPluginAccessor = new MockPluginAccessor();
+        PluginsClassLoader pluginsClassLoader = new PluginsClassLoader(mockPluginAccessor);
+        // plugin A would find com.acme.Hidden through its parent if it were asked
+        MockClassLoader parentA = new MockClassLoader();
+        parentA.register("com.acme.Hidden", String.class);
+        final File jarA = new PluginJarBuilder("plugin-a").addJava("com.other.Other", "package com.other; public class Other {}").build();
+        MockPlugin pluginA = new MockPlugin("A", new PluginClassLoader(jarA, parentA));
+        mockPluginAccessor.addPlugin(pluginA);
+        final File jarB = new PluginJarBuilder("plugin-b").addJava("com.acme.First", "package com.acme; public class First {}").build();
+        MockPlugin pluginB = new MockPlugin("B", new PluginClassLoader(jarB, getClass().getClassLoader()));
+        mockPluginAccessor.addPlugin(pluginB);
+        pluginA.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginA);
+        pluginB.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginB);
+
+        assertEquals(pluginB, pluginsClassLoader.getPluginForClass("com.acme.First"));
+        assertNull(pluginsClassLoader.getPluginForClass("com.acme.Hidden"));
+        // packages that no plugin provides are looked up in every plugin
+        parentA.register("com.unknown.Hidden", String.class);
+        assertEquals(pluginA, pluginsClassLoader.getPluginForClass("com.unknown.Hidden"));
+
+        // plugins with class loaders whose contents are unknown are asked too
+        MockClassLoader classLoaderC = new MockClassLoader();
+        classLoaderC.register("com.acme.Visible", String.class);
+        MockPlugin pluginC = new MockPlugin("C", classLoaderC);
+        mockPluginAccessor.addPlugin(pluginC);
+        pluginC.enable();
+        pluginsClassLoader.notifyPluginEnabled(pluginC);
+        assertEquals(pluginC, pluginsClassLoader.getPluginForClass("com.acme.Visible"));
+    }
+
     private void loadPluginClass(ClassLoader stubClassLoader) throws ClassNotFoundException {
         mockPluginAccessor.expectAndReturn("getEnabledPlugins", Collections.singleton(mockPlugin.proxy()));
         mockPlugin.expectAndReturn("getClassLoader", stubClassLoader);
@@ -184,6 +278,20 @@ public class PluginsClassLoaderTest {
         pluginsClassLoader.findResource(TEST_RESOURCE);
     }
 
+    private static final class CountingClassLoader extends MockClassLoader {
+
+        private int findClassCount;
+
+        protected Class findClass(final String className) throws ClassNotFoundException {
+            findClassCount++;
+            return super.findClass(className);
+        }
+
+        public int getFindClassCount() {
+            return findClassCount;
+        }
+    }
+
     private static final class StubClassLoader extends AbstractClassLoader {
 
         private final Collection<String> findClassNames = new LinkedList<String>();
@@ -4,11 +4,18 @@ import com.atlassian.event.api.EventListener;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.maera.plugin.event.AsynchronousListener;
 import org.maera.plugin.event.PluginEventListener;
 
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class PluginEventManagerImplTest {
@@ -22,6 +29,7 @@ public class PluginEventManagerImplTest {
 
     @After
     public void tearDown() {
+        eventManager.shutdown();
         eventManager = null;
     }
 
@@ -137,6 +145,105 @@ public class PluginEventManagerImplTest {
         assertEquals(1, methodTestListener.called);
     }
 
+    @Test
+    public void testRegisterAfterBroadcast() {
+        MethodTestListener first = new MethodTestListener();
+        eventManager.register(first);
+        eventManager.broadcast(new Object());
+
+        MethodTestListener second = new MethodTestListener();
+        eventManager.register(second);
+        eventManager.broadcast(new Object());
+        assertEquals(2, first.called);
+        assertEquals(1, second.called);
+    }
+
+    @Test
+    public void testRegisterWithBroadcastInterface() {
+        InterfaceTestListener listener = new InterfaceTestListener();
+        eventManager.register(listener);
+        eventManager.broadcast("jim");
+        eventManager.broadcast(new StringBuilder("bob"));
+        eventManager.broadcast(1);
+        assertEquals(2, listener.called);
+    }
+
+    @Test
+    public void testAsynchronousListenerDoesNotBlockBroadcast() throws InterruptedException {
+        AsynchronousTestListener listener = new AsynchronousTestListener();
+        MethodTestListener synchronousListener = new MethodTestListener();
+        eventManager.register(listener);
+        eventManager.register(synchronousListener);
+
+        eventManager.broadcast("jim");
+        assertEquals(1, synchronousListener.called);
+        assertFalse(eventManager.awaitAsynchronousEvents(100, TimeUnit.MILLISECONDS));
+        assertTrue(listener.received.isEmpty());
+
+        listener.release.countDown();
+        assertTrue(eventManager.awaitAsynchronousEvents(10, TimeUnit.SECONDS));
+        assertEquals(1, listener.received.size());
+        assertTrue(listener.threads.get(0) != Thread.currentThread());
+    }
+
+    @Test
+    public void testAsynchronousListenerReceivesEventsInOrder() throws InterruptedException {
+        AsynchronousTestListener listener = new AsynchronousTestListener();
+        listener.release.countDown();
+        eventManager.register(listener);
+        for (int x = 0; x < 100; x++) {
+            eventManager.broadcast(String.valueOf(x));
+        }
+
+        assertTrue(eventManager.awaitAsynchronousEvents(10, TimeUnit.SECONDS));
+        assertEquals(100, listener.received.size());
+        for (int x = 0; x < 100; x++) {
+            assertEquals(String.valueOf(x), listener.received.get(x));
+        }
+    }
+
+    @Test
+    public void testAsynchronousListenerMethod() throws InterruptedException {
+        AsynchronousMethodTestListener listener = new AsynchronousMethodTestListener();
+        eventManager.register(listener);
+        eventManager.broadcast("jim");
+        assertEquals(1, listener.synchronousCalled);
+
+        assertTrue(eventManager.awaitAsynchronousEvents(10, TimeUnit.SECONDS));
+        assertEquals(1, listener.asynchronousCalled);
+    }
+
+    @Test
+    public void testAsynchronousListenerCanBroadcastWhenTheQueueIsFull() throws InterruptedException {
+        eventManager.shutdown();
+        eventManager = new DefaultPluginEventManager(new ListenerMethodSelector[]{new AnnotationListenerMethodSelector()}, 1);
+        RebroadcastingTestListener listener = new RebroadcastingTestListener(eventManager);
+        eventManager.register(listener);
+
+        eventManager.broadcast("jim");
+        assertTrue(eventManager.awaitAsynchronousEvents(10, TimeUnit.SECONDS));
+        assertEquals(5, listener.received.size());
+        for (int x = 0; x < 5; x++) {
+            assertEquals(Integer.valueOf(x), listener.received.get(x));
+        }
+    }
+
+    @Test
+    public void testShutdownStopsTheAsynchronousListenerThreads() throws InterruptedException {
+        AsynchronousTestListener listener = new AsynchronousTestListener();
+        listener.release.countDown();
+        eventManager.register(listener);
+        eventManager.broadcast("jim");
+
+        eventManager.shutdown();
+        assertTrue(eventManager.getAsynchronousDispatcher().awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, listener.received.size());
+
+        eventManager.broadcast("bob");
+        assertEquals(2, listener.received.size());
+        assertTrue(listener.threads.get(1) == Thread.currentThread());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testUnregisterNull() {
         eventManager.unregister(null);
@@ -158,6 +265,71 @@ public class PluginEventManagerImplTest {
         }
     }
 
+    public static class InterfaceTestListener {
+
+        int called = 0;
+
+        @PluginEventListener
+        public void onCharSequence(CharSequence obj) {
+            ++called;
+        }
+    }
+
+    @AsynchronousListener
+    public static class AsynchronousTestListener {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+        @PluginEventListener
+        public void onString(String event) throws InterruptedException {
+            release.await();
+            threads.add(Thread.currentThread());
+            received.add(event);
+        }
+    }
+
+    @AsynchronousListener
+    public static class RebroadcastingTestListener {
+
+        final DefaultPluginEventManager eventManager;
+        final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+
+        RebroadcastingTestListener(DefaultPluginEventManager eventManager) {
+            this.eventManager = eventManager;
+        }
+
+        @PluginEventListener
+        public void onString(String event) {
+            for (int x = 0; x < 5; x++) {
+                eventManager.broadcast(x);
+            }
+        }
+
+        @PluginEventListener
+        public void onInteger(Integer event) {
+            received.add(event);
+        }
+    }
+
+    public static class AsynchronousMethodTestListener {
+
+        volatile int asynchronousCalled = 0;
+        int synchronousCalled = 0;
+
+        @AsynchronousListener
+        @PluginEventListener
+        public void onAsynchronous(String event) {
+            ++asynchronousCalled;
+        }
+
+        @PluginEventListener
+        public void onSynchronous(String event) {
+            ++synchronousCalled;
+        }
+    }
+
     public static class BadListener {
 
         int called = 0;
@@ -8,6 +8,8 @@ import org.maera.plugin.loaders.classloading.DeploymentUnit;
 import org.maera.plugin.loaders.classloading.Scanner;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -156,4 +158,48 @@ public class DirectoryScannerTest extends AbstractClassLoaderTest {
         unit = (DeploymentUnit) iterator.next();
         assertEquals("pooh-test-plugin.jar", unit.getPath().getName());
     }
+
+    @Test
+    public void testTouchedJarWithSameContentsIsNotRedeployed() throws Exception {
+        File testTempDirectory = createCleanTempDirectory("TouchedJar");
+        File paddington = new File(testTempDirectory, "paddington-test-plugin.jar");
+        FileUtils.copyFile(new File(pluginsTestDir, "paddington-test-plugin.jar"), paddington);
+
+        DirectoryScanner scanner = new DirectoryScanner(testTempDirectory);
+        assertEquals(1, scanner.scan().size());
+
+        paddington.setLastModified(paddington.lastModified() + 2000);
+        assertTrue(scanner.scan().isEmpty());
+        assertEquals(paddington.lastModified(), scanner.locateDeploymentUnit(paddington).lastModified());
+
+        FileUtils.copyFile(new File(pluginsTestDir, "pooh-test-plugin.jar"), paddington);
+        paddington.setLastModified(paddington.lastModified() + 4000);
+        assertEquals(1, scanner.scan().size());
+    }
+
+    @Test
+    public void testPartiallyWrittenJarIsLeftForNextScan() throws Exception {
+        File testTempDirectory = createCleanTempDirectory("PartialJar");
+        byte[] contents = FileUtils.readFileToByteArray(new File(pluginsTestDir, "paddington-test-plugin.jar"));
+        File paddington = new File(testTempDirectory, "paddington-test-plugin.jar");
+        FileOutputStream out = new FileOutputStream(paddington);
+        out.write(contents, 0, contents.length / 2);
+        out.close();
+
+        DirectoryScanner scanner = new DirectoryScanner(testTempDirectory);
+        assertTrue(scanner.scan().isEmpty());
+        assertNull(scanner.locateDeploymentUnit(paddington));
+
+        FileUtils.writeByteArrayToFile(paddington, contents);
+        assertEquals(1, scanner.scan().size());
+    }
+
+    private File createCleanTempDirectory(String name) throws IOException {
+        File dir = new File("target/plugins-temp/" + name);
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        return dir;
+    }
 }
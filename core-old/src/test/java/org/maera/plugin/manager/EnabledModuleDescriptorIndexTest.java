@@ -0,0 +1,82 @@
+package org.maera.plugin.manager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.maera.plugin.MockModuleDescriptor;
+import org.maera.plugin.ModuleDescriptor;
+import org.maera.plugin.impl.StaticPlugin;
+import org.maera.plugin.mock.MockAnimal;
+import org.maera.plugin.mock.MockBear;
+import org.maera.plugin.mock.MockGold;
+import org.maera.plugin.mock.MockMineral;
+import org.maera.plugin.mock.MockThing;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EnabledModuleDescriptorIndexTest {
+
+    private EnabledModuleDescriptorIndex index;
+    private MockModuleDescriptor<MockBear> bear;
+    private MockModuleDescriptor<MockGold> gold;
+
+    @Before
+    public void setUp() {
+        final StaticPlugin plugin = new StaticPlugin();
+        plugin.setKey("test.plugin");
+        index = new EnabledModuleDescriptorIndex();
+        bear = new MockModuleDescriptor<MockBear>(plugin, "bear", new MockBear());
+        gold = new MockModuleDescriptor<MockGold>(plugin, "gold", new MockGold());
+    }
+
+    @Test
+    public void testLookupByModuleClass() {
+        index.add(bear);
+        index.add(gold);
+
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(bear), Arrays.asList(index.getByModuleClass(MockAnimal.class)));
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(gold), Arrays.asList(index.getByModuleClass(MockMineral.class)));
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(bear, gold), Arrays.asList(index.getByModuleClass(MockThing.class)));
+    }
+
+    @Test
+    public void testLookupByDescriptorClass() {
+        index.add(bear);
+
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(bear), Arrays.asList(index.getByDescriptorClass(MockModuleDescriptor.class)));
+        assertEquals(0, index.getByDescriptorClass(StaticPlugin.class).length);
+    }
+
+    @Test
+    public void testCachedLookupsFollowEnableAndDisable() {
+        index.add(bear);
+        final ModuleDescriptor<?>[] before = index.getByModuleClass(MockThing.class);
+        assertSame(before, index.getByModuleClass(MockThing.class));
+
+        index.add(gold);
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(bear, gold), Arrays.asList(index.getByModuleClass(MockThing.class)));
+        assertEquals(1, before.length);
+
+        index.remove(bear);
+        assertEquals(Arrays.<ModuleDescriptor<?>>asList(gold), Arrays.asList(index.getByModuleClass(MockThing.class)));
+        assertEquals(0, index.getByModuleClass(MockAnimal.class).length);
+    }
+
+    @Test
+    public void testAddingTwiceIndexesOnce() {
+        index.add(bear);
+        index.add(bear);
+        assertEquals(1, index.getByModuleClass(MockBear.class).length);
+    }
+
+    @Test
+    public void testClear() {
+        index.add(bear);
+        index.getByModuleClass(MockBear.class);
+        index.clear();
+        assertEquals(Collections.emptyList(), Arrays.asList(index.getByModuleClass(MockBear.class)));
+    }
+}
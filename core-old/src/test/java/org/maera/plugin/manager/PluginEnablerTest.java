@@ -7,8 +7,11 @@ import org.maera.plugin.*;
 import org.maera.plugin.impl.StaticPlugin;
 import org.maera.plugin.util.PluginUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -78,6 +81,59 @@ public class PluginEnablerTest {
         }
     }
 
+    @Test
+    public void testEnableStartsDependenciesFirstWhenConcurrent() {
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final Plugin plugin = new RecordingPlugin(started, "foo", "foo2", "bar");
+        final Plugin plugin2 = new RecordingPlugin(started, "foo2", "foo3");
+        final Plugin plugin3 = new RecordingPlugin(started, "foo3");
+        final Plugin bar = new RecordingPlugin(started, "bar");
+
+        try {
+            System.setProperty(PluginUtils.MAERA_PLUGINS_ENABLE_THREADS, "4");
+            enabler.enable(Arrays.asList(plugin, plugin2, plugin3, bar));
+        }
+        finally {
+            System.clearProperty(PluginUtils.MAERA_PLUGINS_ENABLE_THREADS);
+        }
+
+        assertEquals(4, started.size());
+        assertTrue(started.indexOf("foo3") < started.indexOf("foo2"));
+        assertTrue(started.indexOf("foo2") < started.indexOf("foo"));
+        assertTrue(started.indexOf("bar") < started.indexOf("foo"));
+        assertEquals(PluginState.ENABLED, plugin.getPluginState());
+        assertEquals(PluginState.ENABLED, bar.getPluginState());
+    }
+
+    @Test
+    public void testEnableWakesUpWhenEnablingPluginChangesState() throws InterruptedException {
+        final MyPlugin plugin = new MyPlugin("foo") {
+
+            @Override
+            protected PluginState enableInternal() throws PluginException {
+                return PluginState.ENABLING;
+            }
+        };
+        final Thread container = new Thread() {
+            @Override
+            public void run() {
+                while (plugin.getPluginState() != PluginState.ENABLING) {
+                    Thread.yield();
+                }
+                plugin.setPluginState(PluginState.ENABLED);
+                enabler.pluginStateChanged();
+            }
+        };
+        container.start();
+
+        final long start = System.currentTimeMillis();
+        enabler.enable(Arrays.<Plugin>asList(plugin));
+        container.join();
+
+        assertEquals(PluginState.ENABLED, plugin.getPluginState());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
     @Test
     public void testRecursiveCircular() {
         Plugin plugin = new MyPlugin("foo", "foo2");
@@ -116,5 +172,26 @@ public class PluginEnablerTest {
         public Set<String> getRequiredPlugins() {
             return deps;
         }
+
+        @Override
+        public void setPluginState(PluginState state) {
+            super.setPluginState(state);
+        }
+    }
+
+    public static class RecordingPlugin extends MyPlugin {
+
+        private final List<String> started;
+
+        public RecordingPlugin(List<String> started, String key, String... deps) {
+            super(key, deps);
+            this.started = started;
+        }
+
+        @Override
+        protected PluginState enableInternal() throws PluginException {
+            started.add(getKey());
+            return super.enableInternal();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package org.maera.plugin.store;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.maera.plugin.manager.PluginPersistentState;
+import org.maera.plugin.manager.store.JournalingPluginPersistentStateStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class JournalingPluginStateStoreTest {
+
+    private File tmpDir;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = new File("target/temp/journal").getAbsoluteFile();
+        if (tmpDir.exists()) {
+            FileUtils.cleanDirectory(tmpDir);
+        }
+        tmpDir.mkdirs();
+        journalFile = new File(tmpDir, "plugins.journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testStateSurvivesReopen() {
+        JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile);
+        store.save(state("foo", false, "foo:bar", true));
+        store.save(state("foo", true));
+        store.close();
+
+        store = new JournalingPluginPersistentStateStore(journalFile);
+        assertEquals(state("foo", true).getMap(), store.load().getMap());
+        assertEquals(2, store.getVersion());
+        store.close();
+    }
+
+    @Test
+    public void testUnchangedStateIsNotJournaled() {
+        final JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile);
+        store.save(state("foo", false));
+        final long length = journalFile.length();
+        store.save(state("foo", false));
+        assertEquals(length, journalFile.length());
+        assertEquals(1, store.getVersion());
+        store.close();
+    }
+
+    @Test
+    public void testTornTransactionIsDiscarded() throws IOException {
+        JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile);
+        store.save(state("foo", false));
+        store.close();
+        final long committedLength = journalFile.length();
+
+        final FileOutputStream out = new FileOutputStream(journalFile, true);
+        out.write("+0bar\n#2 ".getBytes("UTF-8"));
+        out.close();
+
+        store = new JournalingPluginPersistentStateStore(journalFile);
+        assertEquals(state("foo", false).getMap(), store.load().getMap());
+        assertEquals(committedLength, journalFile.length());
+
+        store.save(state("foo", false, "baz", false));
+        store.close();
+        store = new JournalingPluginPersistentStateStore(journalFile);
+        assertEquals(state("foo", false, "baz", false).getMap(), store.load().getMap());
+        store.close();
+    }
+
+    @Test
+    public void testCompactionPreservesState() {
+        JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile, 10);
+        for (int i = 0; i < 20; i++) {
+            store.save(state("foo", i % 2 == 0, "bar", true));
+        }
+        final long compactedLength = journalFile.length();
+        store.close();
+        assertTrue("journal should have been compacted", compactedLength < 200);
+
+        store = new JournalingPluginPersistentStateStore(journalFile, 10);
+        assertEquals(state("foo", false, "bar", true).getMap(), store.load().getMap());
+        assertEquals(20, store.getVersion());
+        store.close();
+    }
+
+    @Test
+    public void testFailedCompactionRenameKeepsTheJournal() {
+        final FailingRenameStore store = new FailingRenameStore(journalFile, 10);
+        store.failedRenames.add(".compact");
+        for (int i = 0; i < 20; i++) {
+            store.save(state("foo", i % 2 == 0, "bar", true));
+        }
+        assertTrue("compaction should have been attempted", store.renameAttempts > 0);
+        assertFalse(new File(journalFile.getPath() + ".compact").exists());
+        assertFalse(new File(journalFile.getPath() + ".bak").exists());
+
+        store.save(state("foo", true));
+        store.close();
+
+        final JournalingPluginPersistentStateStore reopened = new JournalingPluginPersistentStateStore(journalFile, 10);
+        assertEquals(state("foo", true).getMap(), reopened.load().getMap());
+        assertEquals(21, reopened.getVersion());
+        reopened.close();
+    }
+
+    @Test
+    public void testFailedCompactionDoesNotFailTheSave() {
+        final FailingRenameStore store = new FailingRenameStore(journalFile, 10);
+        store.failedRenames.add(".compact");
+        store.failedRenames.add(".bak");
+        int saves = 0;
+        while (store.renameAttempts == 0) {
+            store.save(state("foo", saves % 2 == 0, "bar", true));
+            saves++;
+        }
+        assertEquals(saves, store.getVersion());
+        assertEquals(state("foo", saves % 2 == 1, "bar", true).getMap(), store.load().getMap());
+        store.close();
+
+        final JournalingPluginPersistentStateStore reopened = new JournalingPluginPersistentStateStore(journalFile, 10);
+        assertEquals(state("foo", saves % 2 == 1, "bar", true).getMap(), reopened.load().getMap());
+        assertEquals(saves, reopened.getVersion());
+        reopened.close();
+    }
+
+    @Test
+    public void testRemovalOfEmptyKeyIsReplayed() {
+        JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile);
+        store.save(state("", true, "foo", true));
+        store.save(state("foo", true));
+        store.save(state("foo", false));
+        store.close();
+
+        store = new JournalingPluginPersistentStateStore(journalFile);
+        assertEquals(state("foo", false).getMap(), store.load().getMap());
+        assertEquals(3, store.getVersion());
+        store.close();
+    }
+
+    @Test
+    public void testInterruptedCompactionIsRecovered() throws IOException {
+        JournalingPluginPersistentStateStore store = new JournalingPluginPersistentStateStore(journalFile);
+        store.save(state("foo", false));
+        store.save(state("foo", true, "bar", false));
+        store.close();
+
+        // as if the store crashed after moving the journal aside and before renaming the compacted copy
+        FileUtils.copyFile(journalFile, new File(journalFile.getPath() + ".compact"));
+        assertTrue(journalFile.renameTo(new File(journalFile.getPath() + ".bak")));
+
+        store = new JournalingPluginPersistentStateStore(journalFile);
+        assertEquals(state("foo", true, "bar", false).getMap(), store.load().getMap());
+        assertEquals(2, store.getVersion());
+        assertFalse(new File(journalFile.getPath() + ".compact").exists());
+        assertFalse(new File(journalFile.getPath() + ".bak").exists());
+        store.close();
+    }
+
+    private static PluginPersistentState state(final Object... keysAndValues) {
+        final Map<String, Boolean> map = new HashMap<String, Boolean>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], (Boolean) keysAndValues[i + 1]);
+        }
+        return PluginPersistentState.Builder.create().addState(map).toState();
+    }
+
+    private static class FailingRenameStore extends JournalingPluginPersistentStateStore {
+        final Set<String> failedRenames = new HashSet<String>();
+        int renameAttempts;
+
+        FailingRenameStore(final File journalFile, final int compactionThreshold) {
+            super(journalFile, compactionThreshold);
+        }
+
+        @Override
+        protected boolean renameFile(final File from, final File to) {
+            for (final String failedRename : failedRenames) {
+                if (from.getName().endsWith(failedRename)) {
+                    renameAttempts++;
+                    return false;
+                }
+            }
+            return super.renameFile(from, to);
+        }
+    }
+}
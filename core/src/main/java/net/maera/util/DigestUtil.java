@@ -0,0 +1,94 @@
+package net.maera.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utilities to compute the SHA-1 digests used to key caches and to detect changed files
+ *
+ * @since 0.1
+ */
+public class DigestUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * @param file The file to digest
+     * @return The hex encoded SHA-1 digest of the file's contents
+     * @throws IOException If the file cannot be read
+     */
+    public static String sha1Hex(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return sha1Hex(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @param url The url to digest
+     * @return The hex encoded SHA-1 digest of the contents at the url
+     * @throws IOException If the url cannot be read
+     */
+    public static String sha1Hex(URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            return sha1Hex(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @param in The stream to digest, which is read to the end but not closed
+     * @return The hex encoded SHA-1 digest of the stream's contents
+     * @throws IOException If the stream cannot be read
+     */
+    public static String sha1Hex(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, len);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param value The text to digest
+     * @return The hex encoded SHA-1 digest of the UTF-8 encoding of the text
+     */
+    public static String sha1Hex(String value) {
+        try {
+            return toHex(newDigest().digest(value.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
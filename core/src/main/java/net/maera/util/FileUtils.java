@@ -1,17 +1,26 @@
 package net.maera.util;
 
 import net.maera.util.zip.UrlUnzipper;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.Properties;
 
 public class FileUtils {
 
     private static final Logger log = LoggerFactory.getLogger(FileUtils.class);
 
+    private static final String EXTRACTED_MARKER_FILE = ".extracted";
+    private static final String ZIP_DIGEST_KEY = ".zip.sha1";
+
     /**
      * Extract the zip from the URL into the destination directory, but only if the contents haven't already been
      * unzipped.  If the directory contains different contents than the zip, the directory is cleaned out
@@ -29,4 +38,72 @@ public class FileUtils {
             log.error("Found " + zipUrl + ", but failed to read file", e);
         }
     }
+
+    /**
+     * Extract the zip from the URL into the destination directory, unless the directory still holds what was extracted
+     * from an identical zip.  The SHA-1 digest of the zip and the names and sizes of the extracted files are recorded
+     * in a marker file in the destination directory.  Digesting the zip is cheaper than inflating all of its entries to
+     * compare them with the directory, which is what {@link #conditionallyExtractZipFile(URL, File)} does.
+     *
+     * @param zipUrl  The zip url
+     * @param destDir The destination directory for the zip contents
+     * @throws IOException If the zip cannot be read or extracted
+     */
+    public static void extractZipFileUnlessUnchanged(URL zipUrl, File destDir) throws IOException {
+        extractZipFileUnlessUnchanged(zipUrl, destDir, DigestUtil.sha1Hex(zipUrl));
+    }
+
+    /**
+     * Same as {@link #extractZipFileUnlessUnchanged(URL, File)}, for callers that have already digested the zip.
+     *
+     * @param zipUrl    The zip url
+     * @param destDir   The destination directory for the zip contents
+     * @param zipDigest The SHA-1 digest of the zip, as computed by {@link DigestUtil#sha1Hex(URL)}
+     * @throws IOException If the zip cannot be read or extracted
+     */
+    public static void extractZipFileUnlessUnchanged(URL zipUrl, File destDir, String zipDigest) throws IOException {
+        final File markerFile = new File(destDir, EXTRACTED_MARKER_FILE);
+        if (markerFile.exists()) {
+            final Properties extracted = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(markerFile);
+                extracted.load(in);
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+            if (zipDigest.equals(extracted.remove(ZIP_DIGEST_KEY)) && extracted.equals(listExtractedFiles(destDir))) {
+                log.debug("Contents of " + destDir + " match " + zipUrl + ". Do nothing.");
+                return;
+            }
+        }
+
+        org.apache.commons.io.FileUtils.deleteDirectory(destDir);
+        new UrlUnzipper(zipUrl, destDir).unzip();
+
+        final Properties extracted = listExtractedFiles(destDir);
+        extracted.setProperty(ZIP_DIGEST_KEY, zipDigest);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(markerFile);
+            extracted.store(out, "Extracted from " + zipUrl);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private static Properties listExtractedFiles(File dir) {
+        final Properties files = new Properties();
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile() && !EXTRACTED_MARKER_FILE.equals(child.getName())) {
+                    files.setProperty(child.getName(), String.valueOf(child.length()));
+                }
+            }
+        }
+        return files;
+    }
 }
@@ -0,0 +1,109 @@
+package net.maera.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 0.1
+ */
+public class FileUtilsTest {
+
+    private File basedir;
+    private File destdir;
+    private File sourcedir;
+    private File zip;
+
+    @Before
+    public void setUp() throws Exception {
+        basedir = File.createTempFile("fileutils", "test");
+        basedir.delete();
+        basedir.mkdir();
+        destdir = new File(basedir, "dest");
+        zip = new File(basedir, "test.zip");
+        sourcedir = new File(basedir, "source");
+        sourcedir.mkdir();
+        org.apache.commons.io.FileUtils.writeStringToFile(new File(sourcedir, "source1.jar"), "source1");
+        org.apache.commons.io.FileUtils.writeStringToFile(new File(sourcedir, "source2.jar"), "source2");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(basedir);
+    }
+
+    @Test
+    public void testExtractZipFileUnlessUnchangedSkipsIdenticalZip() throws IOException {
+        zip(sourcedir, zip);
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+        assertEquals("source1", read("source1.jar"));
+
+        // same size, so only a new extraction would restore the original contents
+        org.apache.commons.io.FileUtils.writeStringToFile(new File(destdir, "source1.jar"), "touched");
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+        assertEquals("touched", read("source1.jar"));
+    }
+
+    @Test
+    public void testExtractZipFileUnlessUnchangedExtractsChangedZip() throws IOException {
+        zip(sourcedir, zip);
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+
+        new File(sourcedir, "source2.jar").delete();
+        org.apache.commons.io.FileUtils.writeStringToFile(new File(sourcedir, "source1.jar"), "source1-modified");
+        zip(sourcedir, zip);
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+
+        assertEquals("source1-modified", read("source1.jar"));
+        assertFalse(new File(destdir, "source2.jar").exists());
+    }
+
+    @Test
+    public void testExtractZipFileUnlessUnchangedExtractsMissingFiles() throws IOException {
+        zip(sourcedir, zip);
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+
+        assertTrue(new File(destdir, "source2.jar").delete());
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+        assertEquals("source2", read("source2.jar"));
+    }
+
+    @Test
+    public void testExtractZipFileUnlessUnchangedUsesTheGivenDigest() throws IOException {
+        zip(sourcedir, zip);
+        final String digest = DigestUtil.sha1Hex(zip);
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir, digest);
+        org.apache.commons.io.FileUtils.writeStringToFile(new File(destdir, "source1.jar"), "touched");
+
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir);
+        assertEquals("touched", read("source1.jar"));
+
+        FileUtils.extractZipFileUnlessUnchanged(zip.toURI().toURL(), destdir, "another digest");
+        assertEquals("source1", read("source1.jar"));
+    }
+
+    private String read(String name) throws IOException {
+        return org.apache.commons.io.FileUtils.readFileToString(new File(destdir, name));
+    }
+
+    private void zip(File basedir, File destfile) throws IOException {
+        ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(destfile));
+        for (File child : basedir.listFiles()) {
+            zout.putNextEntry(new ZipEntry(child.getName()));
+            FileInputStream input = new FileInputStream(child);
+            IOUtils.copy(input, zout);
+            input.close();
+        }
+        zout.close();
+    }
+}
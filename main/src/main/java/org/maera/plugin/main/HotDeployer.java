@@ -1,16 +1,21 @@
 package org.maera.plugin.main;
 
 import org.maera.plugin.PluginController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * A simple class that starts a hot deploy thread for scanning for new plugins
+ * A simple class that starts a hot deploy thread for scanning for new plugins.  The scans themselves ignore plugins
+ * that were only touched and jars that are still being written.
  *
  * @since 2.2.0
  */
 public class HotDeployer {
+    private static final Logger log = LoggerFactory.getLogger(HotDeployer.class);
+
     private final PluginController pluginController;
     private final Thread hotDeploy;
-    private boolean running;
+    private volatile boolean running;
 
     public HotDeployer(PluginController pluginController, final long period) {
         this.pluginController = pluginController;
@@ -20,8 +25,13 @@ public class HotDeployer {
             public void run() {
                 running = true;
                 while (running) {
-
-                    HotDeployer.this.pluginController.scanForNewPlugins();
+                    try {
+                        HotDeployer.this.pluginController.scanForNewPlugins();
+                    }
+                    catch (RuntimeException e) {
+                        // keep hot deploying, the next scan may well succeed
+                        log.error("Unable to scan for new plugins", e);
+                    }
                     try {
                         Thread.sleep(period);
                     }
@@ -30,7 +30,7 @@ import java.util.List;
  */
 public class MaeraPlugins {
     private OsgiContainerManager osgiContainerManager;
-    private PluginEventManager pluginEventManager;
+    private DefaultPluginEventManager pluginEventManager;
     private DefaultPluginManager pluginManager;
     private HotDeployer hotDeployer;
 
@@ -115,6 +115,7 @@ public class MaeraPlugins {
             hotDeployer.stop();
         }
         pluginManager.shutdown();
+        pluginEventManager.shutdown();
     }
 
     /**
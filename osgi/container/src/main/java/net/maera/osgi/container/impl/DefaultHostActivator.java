@@ -1,6 +1,8 @@
 package net.maera.osgi.container.impl;
 
 import net.maera.io.Resource;
+import net.maera.osgi.FrameworkBundleInstaller;
+import net.maera.osgi.PackageRefresher;
 import net.maera.osgi.util.OsgiHeaderUtils;
 import net.maera.util.FileUtils;
 import org.osgi.framework.Bundle;
@@ -23,8 +25,6 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 
 /**
@@ -45,6 +45,7 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
     private Resource initialBundlesLocation;
     private ClassLoader initializedClassLoader;
     private PackageAdmin packageAdmin;
+    private PackageRefresher packageRefresher;
 
     private static final FilenameFilter JAR_FILTER = new FilenameFilter() {
         @Override
@@ -136,7 +137,7 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
     }
 
     public Bundle install(final File path, final boolean uninstallOtherVersions) throws BundleException {
-        boolean bundleUninstalled = false;
+        final List<Bundle> uninstalledBundles = new ArrayList<Bundle>();
         if (uninstallOtherVersions) {
             try {
                 JarFile jar = new JarFile(path);
@@ -150,7 +151,7 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
                     if (pluginKey.equals(OsgiHeaderUtils.getPluginKey(oldBundle))) {
                         log.info("Uninstalling existing version " + oldBundle.getHeaders().get(Constants.BUNDLE_VERSION));
                         oldBundle.uninstall();
-                        bundleUninstalled = true;
+                        uninstalledBundles.add(oldBundle);
                     }
                 }
             } catch (final IOException e) {
@@ -158,8 +159,9 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
             }
         }
         final Bundle bundle = bundleContext.installBundle(path.toURI().toString());
-        if (bundleUninstalled) {
-            refreshPackages();
+        if (!uninstalledBundles.isEmpty()) {
+            //within a batch, the refresh only happens once the batch ends:
+            packageRefresher.refresh(uninstalledBundles.toArray(new Bundle[uninstalledBundles.size()]));
         }
         return bundle;
     }
@@ -173,38 +175,11 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
         }
     }
 
+    /**
+     * Refreshes the packages of all updated or uninstalled bundles, waiting for the refresh to finish.
+     */
     public void refreshPackages() {
-        final CountDownLatch latch = new CountDownLatch(1);
-
-
-        FrameworkListener refreshListener = new FrameworkListener() {
-
-            public void frameworkEvent(FrameworkEvent event) {
-                if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
-                    log.info("Packages refreshed");
-                    latch.countDown();
-                }
-            }
-        };
-
-        bundleContext.addFrameworkListener(refreshListener);
-        try {
-            packageAdmin.refreshPackages(null);
-            boolean refreshed = false;
-            try {
-                refreshed = latch.await(PACKAGE_REFRESH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                //_always_ preserve the interrupt status if you don't re-throw the InterruptedException
-                //(Java Concurrency in Practice, Section 7.1.2):
-                Thread.currentThread().interrupt();
-            }
-            if (!refreshed) {
-                log.warn("Timeout exceeded waiting for package refresh");
-            }
-        }
-        finally {
-            bundleContext.removeFrameworkListener(refreshListener);
-        }
+        packageRefresher.refresh();
     }
 
     public void start(final BundleContext context) throws Exception {
@@ -218,6 +193,7 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
         bundleContext = context;
         final ServiceReference ref = context.getServiceReference(PackageAdmin.class.getName());
         packageAdmin = (PackageAdmin) context.getService(ref);
+        packageRefresher = new PackageRefresher(context, packageAdmin, PACKAGE_REFRESH_TIMEOUT_MILLIS);
         context.addBundleListener(this);
         context.addFrameworkListener(this);
 
@@ -238,6 +214,7 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
         }
         bundleContext = null;
         packageAdmin = null;
+        packageRefresher = null;
         hostServiceReferences = null;
         //hostComponentRegistrations = null;
         //registrar = null;
@@ -266,27 +243,22 @@ public class DefaultHostActivator implements HostActivator, BundleListener, Fram
     }*/
 
     private void extractAndInstallFrameworkBundles() throws BundleException {
-        final List<Bundle> bundles = new ArrayList<Bundle>();
         File extractDir = null;
         try {
             extractDir = initialBundlesExtractionDirectory.getFile();
-            FileUtils.conditionallyExtractZipFile(initialBundlesLocation.getURL(), extractDir);
+            FileUtils.extractZipFileUnlessUnchanged(initialBundlesLocation.getURL(), extractDir);
         } catch (IOException e) {
             throw new BundleException("Unable to extract .zip [" + initialBundlesLocation + "] to directory " +
                     "[" + initialBundlesExtractionDirectory + "]", e);
         }
 
-        for( final File bundleFile : extractDir.listFiles(JAR_FILTER) ) {
-            bundles.add(install(bundleFile, false));
-        }
-
-        packageAdmin.resolveBundles(null);
-
-        for (final Bundle bundle : bundles) {
-            if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
-                bundle.start();
-            }
-        }
+        new FrameworkBundleInstaller(bundleContext, packageAdmin, packageRefresher, "FrameworkBundleInstaller")
+                .installAndStart(extractDir.listFiles(JAR_FILTER), new FrameworkBundleInstaller.BundleInstaller() {
+                    @Override
+                    public Bundle install(File bundleFile) throws BundleException {
+                        return DefaultHostActivator.this.install(bundleFile, false);
+                    }
+                });
     }
 
     public Resource getInitialBundlesExtractionDirectory() {
@@ -0,0 +1,153 @@
+package net.maera.osgi;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Installs and starts the framework bundles of a container.
+ * <p/>
+ * The bundles are installed concurrently, as most of the time goes into the framework copying each jar into its
+ * bundle cache, within one package refresh batch.  Once every bundle is installed, the bundles are resolved and then
+ * started in start level order, keeping the order of the jars for bundles with the same start level.  Fragments are
+ * not started.
+ *
+ * @since 0.1
+ */
+public class FrameworkBundleInstaller {
+
+    /**
+     * Installs a single bundle jar
+     */
+    public interface BundleInstaller {
+
+        /**
+         * @param bundleFile The bundle jar
+         * @return The installed bundle
+         * @throws BundleException If the bundle cannot be installed
+         */
+        Bundle install(File bundleFile) throws BundleException;
+    }
+
+    private final BundleContext bundleContext;
+    private final PackageAdmin packageAdmin;
+    private final PackageRefresher packageRefresher;
+    private final String threadName;
+
+    /**
+     * @param bundleContext    The system bundle context
+     * @param packageAdmin     The package admin service
+     * @param packageRefresher The refresher that the installs' package refreshes are batched in
+     * @param threadName       The name of the installing threads
+     */
+    public FrameworkBundleInstaller(final BundleContext bundleContext, final PackageAdmin packageAdmin,
+                                    final PackageRefresher packageRefresher, final String threadName) {
+        this.bundleContext = bundleContext;
+        this.packageAdmin = packageAdmin;
+        this.packageRefresher = packageRefresher;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Installs, resolves and starts the given bundles.
+     *
+     * @param bundleFiles The framework bundle jars
+     * @param installer   Installs each jar
+     * @return The installed bundles, in the same order as the jars
+     * @throws BundleException If any of the bundles cannot be installed or started
+     */
+    public List<Bundle> installAndStart(final File[] bundleFiles, final BundleInstaller installer) throws BundleException {
+        final List<Bundle> bundles;
+        packageRefresher.beginBatch();
+        try {
+            bundles = install(bundleFiles, installer);
+        } finally {
+            packageRefresher.endBatch();
+        }
+
+        packageAdmin.resolveBundles(null);
+
+        for (final Bundle bundle : sortByStartLevel(bundles)) {
+            if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
+                bundle.start();
+            }
+        }
+        return bundles;
+    }
+
+    private List<Bundle> install(final File[] bundleFiles, final BundleInstaller installer) throws BundleException {
+        final int threads = Math.max(1, Math.min(bundleFiles.length, Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<Bundle>> futures = new ArrayList<Future<Bundle>>();
+            for (final File bundleFile : bundleFiles) {
+                futures.add(executor.submit(packageRefresher.withCurrentBatch(new Callable<Bundle>() {
+                    @Override
+                    public Bundle call() throws BundleException {
+                        return installer.install(bundleFile);
+                    }
+                })));
+            }
+            final List<Bundle> bundles = new ArrayList<Bundle>();
+            for (final Future<Bundle> future : futures) {
+                bundles.add(future.get());
+            }
+            return bundles;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BundleException) {
+                throw (BundleException) e.getCause();
+            }
+            throw new BundleException("Unable to install the framework bundles", e.getCause());
+        } catch (InterruptedException e) {
+            //_always_ preserve the interrupt status if you don't re-throw the InterruptedException
+            //(Java Concurrency in Practice, Section 7.1.2):
+            Thread.currentThread().interrupt();
+            throw new BundleException("Interrupted while installing the framework bundles", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Bundle> sortByStartLevel(final List<Bundle> bundles) {
+        final ServiceReference ref = bundleContext.getServiceReference(StartLevel.class.getName());
+        if (ref == null) {
+            return bundles;
+        }
+        final StartLevel startLevel = (StartLevel) bundleContext.getService(ref);
+        final List<Bundle> sorted = new ArrayList<Bundle>(bundles);
+        try {
+            Collections.sort(sorted, new Comparator<Bundle>() {
+                @Override
+                public int compare(Bundle first, Bundle second) {
+                    return startLevel.getBundleStartLevel(first) - startLevel.getBundleStartLevel(second);
+                }
+            });
+        } finally {
+            bundleContext.ungetService(ref);
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,183 @@
+package net.maera.osgi;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes packages through {@link PackageAdmin#refreshPackages(Bundle[])}, waiting for each refresh to finish, and
+ * merges the refreshes requested during a batch into one.
+ * <p/>
+ * A refresh requested outside a batch is issued straight away, and the request only returns once the framework has
+ * finished it, as callers go on to start or enable bundles that the refresh would otherwise stop or re-resolve under
+ * them.  A refresh requested between {@link #beginBatch()} and {@link #endBatch()} on the same thread is deferred until
+ * the outermost batch ends, which then refreshes the union of the requested bundles, or every bundle if any request
+ * was for all of them, and waits for it.  Work handed to other threads can join the batch through
+ * {@link #withCurrentBatch(Callable)}.  Refreshes are issued one at a time.
+ *
+ * @since 0.1
+ */
+public class PackageRefresher {
+
+    private static final Logger log = LoggerFactory.getLogger(PackageRefresher.class);
+
+    private final BundleContext bundleContext;
+    private final PackageAdmin packageAdmin;
+    private final long timeoutMillis;
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+    /**
+     * @param bundleContext The system bundle context, used to listen for the end of a refresh
+     * @param packageAdmin  The package admin service
+     * @param timeoutMillis How long to wait for a refresh to finish
+     */
+    public PackageRefresher(final BundleContext bundleContext, final PackageAdmin packageAdmin, final long timeoutMillis) {
+        this.bundleContext = bundleContext;
+        this.packageAdmin = packageAdmin;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Refreshes the given bundles, or every bundle that has been updated or uninstalled if none are given.  Inside a
+     * batch, the refresh is deferred until the batch ends; otherwise this waits for the refresh to finish.
+     *
+     * @param bundles The bundles to refresh
+     */
+    public void refresh(final Bundle... bundles) {
+        final Batch batch = batches.get();
+        if (batch != null) {
+            batch.add(bundles);
+        } else {
+            refreshAndWait(bundles == null || bundles.length == 0 ? null : bundles);
+        }
+    }
+
+    /**
+     * Defers the refreshes requested by the current thread until the matching call to {@link #endBatch()}.  Batches
+     * can be nested.
+     */
+    public void beginBatch() {
+        final Batch batch = batches.get();
+        if (batch != null) {
+            batch.depth++;
+        } else {
+            batches.set(new Batch());
+        }
+    }
+
+    /**
+     * Ends a batch.  Once the outermost batch has ended, the bundles requested during it are refreshed, and this waits
+     * for the refresh to finish.
+     */
+    public void endBatch() {
+        final Batch batch = batches.get();
+        if (batch == null) {
+            return;
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        batches.remove();
+        final Bundle[] bundles;
+        synchronized (batch) {
+            if (!batch.requested) {
+                return;
+            }
+            bundles = batch.refreshAll ? null : batch.bundles.toArray(new Bundle[batch.bundles.size()]);
+        }
+        refreshAndWait(bundles);
+    }
+
+    /**
+     * @return True if the current thread's refreshes are being deferred until a batch ends
+     */
+    public boolean isBatching() {
+        return batches.get() != null;
+    }
+
+    /**
+     * Wraps a task so that the refreshes it requests, on whichever thread it runs, are deferred until the current
+     * thread's batch ends.  The task has to finish before the batch ends.
+     *
+     * @param task The task
+     * @return The task, joining the current batch if there is one
+     */
+    public <T> Callable<T> withCurrentBatch(final Callable<T> task) {
+        final Batch batch = batches.get();
+        if (batch == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Batch previous = batches.get();
+                batches.set(batch);
+                try {
+                    return task.call();
+                } finally {
+                    if (previous != null) {
+                        batches.set(previous);
+                    } else {
+                        batches.remove();
+                    }
+                }
+            }
+        };
+    }
+
+    private synchronized void refreshAndWait(final Bundle[] bundles) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final FrameworkListener refreshListener = new FrameworkListener() {
+            @Override
+            public void frameworkEvent(final FrameworkEvent event) {
+                if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+                    log.info("Packages refreshed");
+                    latch.countDown();
+                }
+            }
+        };
+        bundleContext.addFrameworkListener(refreshListener);
+        try {
+            packageAdmin.refreshPackages(bundles);
+            if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Timeout exceeded waiting for package refresh");
+            }
+        } catch (final InterruptedException e) {
+            //_always_ preserve the interrupt status if you don't re-throw the InterruptedException
+            //(Java Concurrency in Practice, Section 7.1.2):
+            Thread.currentThread().interrupt();
+        } finally {
+            bundleContext.removeFrameworkListener(refreshListener);
+        }
+    }
+
+    /**
+     * The refreshes requested during a batch, by the thread that began it or by the tasks joining it
+     */
+    private static final class Batch {
+        private final Set<Bundle> bundles = new LinkedHashSet<Bundle>();
+        private int depth = 1;
+        private boolean requested;
+        private boolean refreshAll;
+
+        synchronized void add(final Bundle[] requestedBundles) {
+            requested = true;
+            if (requestedBundles == null || requestedBundles.length == 0) {
+                refreshAll = true;
+            } else {
+                bundles.addAll(Arrays.asList(requestedBundles));
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.maera.osgi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 0.1
+ */
+public class FrameworkBundleInstallerTest {
+
+    private final List<Bundle> started = new CopyOnWriteArrayList<Bundle>();
+    private final Map<File, Bundle> bundles = new HashMap<File, Bundle>();
+    private BundleContext bundleContext;
+    private PackageAdmin packageAdmin;
+    private StartLevel startLevel;
+    private FrameworkBundleInstaller installer;
+
+    @Before
+    public void setUp() {
+        bundleContext = mock(BundleContext.class);
+        packageAdmin = mock(PackageAdmin.class);
+        startLevel = mock(StartLevel.class);
+        final ServiceReference startLevelRef = mock(ServiceReference.class);
+        when(bundleContext.getServiceReference(StartLevel.class.getName())).thenReturn(startLevelRef);
+        when(bundleContext.getService(startLevelRef)).thenReturn(startLevel);
+        installer = new FrameworkBundleInstaller(bundleContext, packageAdmin,
+                new PackageRefresher(bundleContext, packageAdmin, 10000), "FrameworkBundleInstallerTest");
+    }
+
+    @Test
+    public void testBundlesAreStartedByStartLevelAfterResolving() throws Exception {
+        final File first = new File("first.jar");
+        final File second = new File("second.jar");
+        final File third = new File("third.jar");
+        final File fragment = new File("fragment.jar");
+        addBundle(first, 3, false);
+        addBundle(second, 1, false);
+        addBundle(third, 3, false);
+        addBundle(fragment, 1, true);
+
+        final List<Bundle> installed = installer.installAndStart(new File[]{first, second, third, fragment}, new FrameworkBundleInstaller.BundleInstaller() {
+            public Bundle install(File bundleFile) {
+                return bundles.get(bundleFile);
+            }
+        });
+
+        assertEquals(Arrays.asList(bundles.get(first), bundles.get(second), bundles.get(third), bundles.get(fragment)), installed);
+        assertEquals(Arrays.asList(bundles.get(second), bundles.get(first), bundles.get(third)), started);
+        verify(packageAdmin).resolveBundles(null);
+        verify(bundles.get(fragment), never()).start();
+    }
+
+    @Test
+    public void testInstallFailureIsRethrown() throws Exception {
+        final BundleException failure = new BundleException("bad bundle");
+        try {
+            installer.installAndStart(new File[]{new File("bad.jar")}, new FrameworkBundleInstaller.BundleInstaller() {
+                public Bundle install(File bundleFile) throws BundleException {
+                    throw failure;
+                }
+            });
+            fail("The install should have failed");
+        } catch (BundleException e) {
+            assertSame(failure, e);
+        }
+        verify(packageAdmin, never()).resolveBundles(any(Bundle[].class));
+    }
+
+    private void addBundle(final File file, final int level, final boolean fragment) throws BundleException {
+        final Bundle bundle = mock(Bundle.class);
+        final Hashtable<String, String> headers = new Hashtable<String, String>();
+        if (fragment) {
+            headers.put(Constants.FRAGMENT_HOST, "host");
+        }
+        when(bundle.getHeaders()).thenReturn(headers);
+        when(startLevel.getBundleStartLevel(bundle)).thenReturn(level);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                started.add(bundle);
+                return null;
+            }
+        }).when(bundle).start();
+        bundles.put(file, bundle);
+    }
+}
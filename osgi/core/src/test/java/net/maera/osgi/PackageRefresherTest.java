@@ -0,0 +1,164 @@
+package net.maera.osgi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @since 0.1
+ */
+public class PackageRefresherTest {
+
+    private final List<FrameworkListener> listeners = new CopyOnWriteArrayList<FrameworkListener>();
+    private final List<Bundle[]> refreshes = new CopyOnWriteArrayList<Bundle[]>();
+    private final List<String> calls = new CopyOnWriteArrayList<String>();
+    private PackageRefresher refresher;
+
+    @Before
+    public void setUp() {
+        final BundleContext bundleContext = mock(BundleContext.class);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                listeners.add((FrameworkListener) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(bundleContext).addFrameworkListener(any(FrameworkListener.class));
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                listeners.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(bundleContext).removeFrameworkListener(any(FrameworkListener.class));
+
+        final Bundle systemBundle = mock(Bundle.class);
+        final PackageAdmin packageAdmin = mock(PackageAdmin.class);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                refreshes.add((Bundle[]) invocation.getArguments()[0]);
+                // the framework finishes the refresh on its own thread
+                final Thread frameworkThread = new Thread() {
+                    @Override
+                    public void run() {
+                        calls.add("refreshed");
+                        for (FrameworkListener listener : listeners) {
+                            listener.frameworkEvent(new FrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, systemBundle, null));
+                        }
+                    }
+                };
+                frameworkThread.start();
+                return null;
+            }
+        }).when(packageAdmin).refreshPackages(any(Bundle[].class));
+
+        refresher = new PackageRefresher(bundleContext, packageAdmin, 10000);
+    }
+
+    @Test
+    public void testRefreshWaitsForTheFramework() {
+        final Bundle bundle = mock(Bundle.class);
+        refresher.refresh(bundle);
+        calls.add("returned");
+
+        assertEquals(Arrays.asList("refreshed", "returned"), calls);
+        assertEquals(1, refreshes.size());
+        assertArrayEquals(new Bundle[]{bundle}, refreshes.get(0));
+        assertTrue(listeners.isEmpty());
+    }
+
+    @Test
+    public void testRefreshesOutsideABatchAreNotMerged() {
+        refresher.refresh(mock(Bundle.class));
+        refresher.refresh(mock(Bundle.class));
+
+        assertEquals(2, refreshes.size());
+    }
+
+    @Test
+    public void testBatchMergesRefreshesUntilTheOutermostBatchEnds() {
+        final Bundle first = mock(Bundle.class);
+        final Bundle second = mock(Bundle.class);
+        refresher.beginBatch();
+        refresher.refresh(first);
+        refresher.beginBatch();
+        refresher.refresh(second, first);
+        refresher.endBatch();
+        assertTrue(refresher.isBatching());
+        assertTrue(refreshes.isEmpty());
+
+        refresher.endBatch();
+        calls.add("returned");
+        assertFalse(refresher.isBatching());
+        assertEquals(Arrays.asList("refreshed", "returned"), calls);
+        assertEquals(1, refreshes.size());
+        assertEquals(new HashSet<Bundle>(Arrays.asList(first, second)), new HashSet<Bundle>(Arrays.asList(refreshes.get(0))));
+    }
+
+    @Test
+    public void testRefreshOfAllBundlesWins() {
+        refresher.beginBatch();
+        refresher.refresh(mock(Bundle.class));
+        refresher.refresh();
+        refresher.endBatch();
+
+        assertEquals(1, refreshes.size());
+        assertNull(refreshes.get(0));
+    }
+
+    @Test
+    public void testEmptyBatchDoesNotRefresh() {
+        refresher.beginBatch();
+        refresher.endBatch();
+
+        assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testTasksJoiningABatchAreMerged() throws Exception {
+        final Bundle bundle = mock(Bundle.class);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            refresher.beginBatch();
+            executor.submit(refresher.withCurrentBatch(new Callable<Object>() {
+                public Object call() {
+                    refresher.refresh(bundle);
+                    return null;
+                }
+            })).get();
+            assertTrue(refreshes.isEmpty());
+
+            // a task that didn't join the batch refreshes straight away
+            executor.submit(new Callable<Object>() {
+                public Object call() {
+                    refresher.refresh();
+                    return null;
+                }
+            }).get();
+            assertEquals(1, refreshes.size());
+
+            refresher.endBatch();
+            assertEquals(2, refreshes.size());
+            assertArrayEquals(new Bundle[]{bundle}, refreshes.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -33,7 +33,9 @@ public interface OsgiPersistentCache {
     void clear() throws OsgiContainerException;
 
     /**
-     * Validates the caches against a cache key.  If the key changes, the directories are wiped clean.
+     * Validates the caches against a cache key.  If the key changes, the directories are wiped clean.  If it is the
+     * same as the last time the caches were validated, the container bundle cache is kept so its bundles can be
+     * restored.  A null key always wipes the container bundle cache.
      *
      * @param cacheKey The cache key, can be anything
      */
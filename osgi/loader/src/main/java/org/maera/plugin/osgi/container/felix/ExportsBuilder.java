@@ -2,6 +2,7 @@ package org.maera.plugin.osgi.container.felix;
 
 import aQute.lib.osgi.Analyzer;
 import aQute.lib.osgi.Jar;
+import net.maera.util.DigestUtil;
 import org.apache.commons.io.IOUtils;
 import org.maera.plugin.osgi.container.PackageScannerConfiguration;
 import org.maera.plugin.osgi.hostcomponents.HostComponentRegistration;
@@ -17,14 +18,26 @@ import org.twdata.pkgscanner.PackageScanner;
 import javax.servlet.ServletContext;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.jar.Manifest;
 
 import static org.twdata.pkgscanner.PackageScanner.exclude;
@@ -33,7 +46,8 @@ import static org.twdata.pkgscanner.PackageScanner.jars;
 import static org.twdata.pkgscanner.PackageScanner.packages;
 
 /**
- * Builds the OSGi package exports string.  Uses a file to cache the scanned results, keyed by the application version.
+ * Builds the OSGi package exports string.  Uses a file to cache the scanned results, keyed by a fingerprint of the
+ * host classpath, the package scanner configuration and the host components.
  *
  * @since 0.1
  */
@@ -41,9 +55,27 @@ class ExportsBuilder {
 
     static final String JDK_PACKAGES_PATH = "jdk-packages.txt";
     static final String JDK6_PACKAGES_PATH = "jdk6-packages.txt";
+    static final String EXPORTS_CACHE_FILE = "host-exports.properties";
+    private static final String CACHE_FORMAT = "1";
     private static Logger log = LoggerFactory.getLogger(ExportsBuilder.class);
     private static String exportStringCache;
 
+    private final File cacheDir;
+
+    /**
+     * Constructs a builder that doesn't persist the exports
+     */
+    ExportsBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param cacheDir The directory to persist the exports in, or null to not persist them
+     */
+    ExportsBuilder(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
     /**
      * Gets the framework exports taking into account host components and package scanner configuration.
      * <p/>
@@ -57,11 +89,173 @@ class ExportsBuilder {
      */
     public String getExports(List<HostComponentRegistration> regs, PackageScannerConfiguration packageScannerConfig) {
         if (exportStringCache == null) {
-            exportStringCache = determineExports(regs, packageScannerConfig);
+            exportStringCache = loadOrDetermineExports(regs, packageScannerConfig);
         }
         return exportStringCache;
     }
 
+    /**
+     * Loads the exports persisted by an earlier run if nothing they depend on has changed since, otherwise determines
+     * and persists them.  The fingerprint covers every element of the host classpath, so a change to any of them
+     * causes a full scan.
+     *
+     * @param regs                 The list of host component registrations
+     * @param packageScannerConfig The configuration for the package scanning
+     * @return A list of exports, in a format compatible with OSGi headers
+     */
+    String loadOrDetermineExports(List<HostComponentRegistration> regs, PackageScannerConfiguration packageScannerConfig) {
+        if (cacheDir == null) {
+            return determineExports(regs, packageScannerConfig);
+        }
+
+        final String fingerprint = fingerprint(regs, packageScannerConfig);
+        final File cacheFile = new File(cacheDir, EXPORTS_CACHE_FILE);
+        if (fingerprint != null && cacheFile.exists()) {
+            final Properties cached = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(cacheFile);
+                cached.load(in);
+                if (fingerprint.equals(cached.getProperty("fingerprint")) && cached.getProperty("exports") != null) {
+                    log.info("Host classpath unchanged, using the package exports from " + cacheFile);
+                    return cached.getProperty("exports");
+                }
+            }
+            catch (IOException e) {
+                log.warn("Unable to read the cached package exports from " + cacheFile, e);
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        final String exports = determineExports(regs, packageScannerConfig);
+        if (fingerprint != null) {
+            final Properties cached = new Properties();
+            cached.setProperty("fingerprint", fingerprint);
+            cached.setProperty("exports", exports);
+            final File tempFile = new File(cacheDir, EXPORTS_CACHE_FILE + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(tempFile);
+                cached.store(out, "Package exports of the host application");
+                out.close();
+                if (!tempFile.renameTo(cacheFile) && !(cacheFile.delete() && tempFile.renameTo(cacheFile))) {
+                    throw new IOException("Unable to rename " + tempFile + " to " + cacheFile);
+                }
+            }
+            catch (IOException e) {
+                log.warn("Unable to cache the package exports in " + cacheFile, e);
+                IOUtils.closeQuietly(out);
+                tempFile.delete();
+            }
+        }
+        return exports;
+    }
+
+    /**
+     * Builds a digest of everything the exports depend on: the JVM, the package scanner configuration, the host
+     * components and the elements of the host classpath.  Jars are identified by their path, size and modification
+     * time, and directories by the paths and modification times of all their subdirectories, as only the packages
+     * they contain matter.
+     *
+     * @return The fingerprint, or null if the host classpath cannot be determined
+     */
+    private String fingerprint(List<HostComponentRegistration> regs, PackageScannerConfiguration packageScannerConfig) {
+        final Set<File> classpath = findClasspath();
+        if (classpath == null) {
+            log.debug("Unable to determine the host classpath, so the package exports will not be cached");
+            return null;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(CACHE_FORMAT).append('\n');
+        sb.append(System.getProperty("java.specification.version")).append('\n');
+        sb.append(packageScannerConfig.getJarIncludes()).append(packageScannerConfig.getJarExcludes()).append('\n');
+        sb.append(packageScannerConfig.getPackageIncludes()).append(packageScannerConfig.getPackageExcludes()).append('\n');
+        sb.append(new TreeMap<String, String>(packageScannerConfig.getPackageVersions())).append('\n');
+        sb.append(packageScannerConfig.getCurrentHostVersion()).append('\n');
+        final ServletContext servletContext = packageScannerConfig.getServletContext();
+        if (servletContext != null) {
+            sb.append(servletContext.getMajorVersion()).append('.').append(servletContext.getMinorVersion()).append('\n');
+        }
+        if (regs != null) {
+            final Set<String> interfaces = new TreeSet<String>();
+            for (HostComponentRegistration reg : regs) {
+                interfaces.addAll(Arrays.asList(reg.getMainInterfaces()));
+            }
+            sb.append(interfaces).append('\n');
+        }
+        for (File element : classpath) {
+            appendClasspathElement(sb, element);
+        }
+
+        return DigestUtil.sha1Hex(sb.toString());
+    }
+
+    private static void appendClasspathElement(StringBuilder sb, File element) {
+        sb.append(element.getAbsolutePath()).append('|').append(element.lastModified());
+        if (element.isDirectory()) {
+            sb.append('\n');
+            final File[] children = element.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isDirectory()) {
+                        appendClasspathElement(sb, child);
+                    }
+                }
+            }
+        } else {
+            sb.append('|').append(element.length()).append('\n');
+        }
+    }
+
+    /**
+     * Finds the elements of the classpath the package scanner sees: the system classpath and the URLs of the class
+     * loaders of this class and of the thread context.
+     *
+     * @return The classpath elements, in a stable order, or null if a class loader other than the system class loader
+     *         or its parents doesn't expose its URLs
+     */
+    private static Set<File> findClasspath() {
+        final Set<File> classpath = new TreeSet<File>();
+        for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+            if (element.length() > 0) {
+                classpath.add(new File(element).getAbsoluteFile());
+            }
+        }
+
+        final Set<ClassLoader> systemLoaders = new HashSet<ClassLoader>();
+        for (ClassLoader loader = ClassLoader.getSystemClassLoader(); loader != null; loader = loader.getParent()) {
+            systemLoaders.add(loader);
+        }
+
+        final ClassLoader[] roots = {ExportsBuilder.class.getClassLoader(), Thread.currentThread().getContextClassLoader()};
+        for (ClassLoader root : roots) {
+            for (ClassLoader loader = root; loader != null && !systemLoaders.contains(loader); loader = loader.getParent()) {
+                if (!(loader instanceof URLClassLoader)) {
+                    return null;
+                }
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    if (!"file".equals(url.getProtocol())) {
+                        return null;
+                    }
+                    try {
+                        classpath.add(new File(url.toURI()).getAbsoluteFile());
+                    }
+                    catch (URISyntaxException e) {
+                        classpath.add(new File(url.getPath()).getAbsoluteFile());
+                    }
+                    catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return classpath;
+    }
+
     /**
      * Determines framework exports taking into account host components and package scanner configuration.
      *
@@ -1,5 +1,10 @@
 package org.maera.plugin.osgi.container.felix;
 
+import net.maera.osgi.FrameworkBundleInstaller;
+import net.maera.osgi.PackageRefresher;
+import net.maera.util.DigestUtil;
+import net.maera.util.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.felix.framework.Felix;
 import org.apache.felix.framework.Logger;
@@ -9,6 +14,7 @@ import org.apache.felix.framework.util.StringMap;
 import org.maera.plugin.event.PluginEventListener;
 import org.maera.plugin.event.PluginEventManager;
 import org.maera.plugin.event.events.PluginFrameworkShutdownEvent;
+import org.maera.plugin.event.events.PluginFrameworkStartedEvent;
 import org.maera.plugin.event.events.PluginFrameworkStartingEvent;
 import org.maera.plugin.event.events.PluginFrameworkWarmRestartingEvent;
 import org.maera.plugin.event.events.PluginUninstalledEvent;
@@ -42,15 +48,21 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
@@ -71,6 +83,10 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
 
     private final OsgiPersistentCache persistentCache;
     private final URL frameworkBundlesUrl;
+    /**
+     * The digest of the framework bundles zip, computed once per start for both the cache key and the extraction
+     */
+    private String frameworkBundlesDigest;
     private final PackageScannerConfiguration packageScannerConfig;
     private final HostComponentProvider hostComponentProvider;
     private final List<ServiceTracker> trackers;
@@ -167,7 +183,7 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
         this.pluginEventManager = eventManager;
         eventManager.register(this);
         felixLogger = new FelixLoggerBridge(log);
-        exportsBuilder = new ExportsBuilder();
+        exportsBuilder = new ExportsBuilder(persistentCache.getTransformedPluginCache());
     }
 
     public void setFelixLogger(final Logger logger) {
@@ -190,6 +206,14 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
         stop();
     }
 
+    @SuppressWarnings({"UnusedDeclaration"})
+    @PluginEventListener
+    public void onPluginFrameworkStarted(final PluginFrameworkStartedEvent event) {
+        if (isRunning()) {
+            registration.uninstallUnclaimedBundles();
+        }
+    }
+
     @SuppressWarnings({"UnusedDeclaration"})
     @PluginEventListener
     public void onPluginUpgrade(PluginUpgradedEvent event) {
@@ -255,7 +279,8 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
 
         try {
             // Create host activator;
-            registration = new BundleRegistration(frameworkBundlesUrl, persistentCache.getFrameworkBundleCache(), registrar);
+            registration = new BundleRegistration(frameworkBundlesUrl, frameworkBundlesDigest, persistentCache.getFrameworkBundleCache(),
+                    persistentCache.getOsgiBundleCache(), registrar);
             final List<BundleActivator> list = new ArrayList<BundleActivator>();
             list.add(registration);
             configMap.put(FelixConstants.SYSTEMBUNDLE_ACTIVATORS_PROP, list);
@@ -325,18 +350,40 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
     }
 
     /**
-     * Validate caches based on the list of packages exported from the application.  If the list has changed, the cache
-     * directories should be cleared.
+     * Validate caches based on the list of packages exported from the application, the Felix version and the framework
+     * bundles.  If any of them has changed, the cache directories should be cleared.  Otherwise, the Felix bundle cache
+     * is kept so unchanged bundles can be restored from it.
      *
      * @param systemExports The value of system exports in the header
      */
     private void validateCaches(String systemExports) {
-        String cacheKey = String.valueOf(systemExports.hashCode());
-        persistentCache.validate(cacheKey);
+        frameworkBundlesDigest = digestFrameworkBundles();
+        persistentCache.validate(buildCacheKey(systemExports, frameworkBundlesDigest));
 
         log.debug("Using Felix bundle cache directory :" + persistentCache.getOsgiBundleCache().getAbsolutePath());
     }
 
+    String buildCacheKey(final String systemExports, final String frameworkBundlesDigest) {
+        final StringBuilder key = new StringBuilder(systemExports);
+        final Package felixPackage = Felix.class.getPackage();
+        key.append('\n').append(felixPackage != null ? felixPackage.getImplementationVersion() : null);
+        key.append('\n').append(frameworkBundlesDigest != null ? frameworkBundlesDigest : frameworkBundlesUrl.toString());
+        return DigestUtil.sha1Hex(key.toString());
+    }
+
+    /**
+     * @return The digest of the framework bundles zip, or null if it cannot be read
+     */
+    private String digestFrameworkBundles() {
+        try {
+            return DigestUtil.sha1Hex(frameworkBundlesUrl);
+        }
+        catch (final IOException e) {
+            log.debug("Unable to read the framework bundles at " + frameworkBundlesUrl, e);
+            return null;
+        }
+    }
+
     /**
      * Detects incorrect configuration of WebSphere 6.1 that leaks OSGi 4.0 jars into the application
      */
@@ -428,21 +475,36 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
     /**
      * Manages framework-level framework bundles and host components registration, and individual plugin bundle
      * installation and removal.
+     * <p/>
+     * Bundles restored by Felix from its bundle cache are stopped when the framework starts, and are reused when a
+     * bundle with the same location and contents is installed.  The contents are compared using the digests recorded
+     * in an index file in the bundle cache.  Restored bundles nobody claimed are uninstalled once the plugin framework
+     * has started.
      */
     static class BundleRegistration implements BundleActivator, BundleListener, FrameworkListener {
+        static final String BUNDLE_DIGESTS_FILE = "maera-bundles.properties";
+
         private BundleContext bundleContext;
         private DefaultComponentRegistrar registrar;
         private List<ServiceRegistration> hostServicesReferences;
         private List<HostComponentRegistration> hostComponentRegistrations;
         private final URL frameworkBundlesUrl;
+        private final String frameworkBundlesDigest;
         private final File frameworkBundlesDir;
+        private final File bundleDigestsFile;
+        private final Properties bundleDigests = new Properties();
+        private final Map<String, Bundle> restoredBundles = new HashMap<String, Bundle>();
         private ClassLoader initializedClassLoader;
         private PackageAdmin packageAdmin;
+        private PackageRefresher packageRefresher;
 
-        public BundleRegistration(final URL frameworkBundlesUrl, final File frameworkBundlesDir, final DefaultComponentRegistrar registrar) {
+        public BundleRegistration(final URL frameworkBundlesUrl, final String frameworkBundlesDigest, final File frameworkBundlesDir,
+                                  final File bundleCacheDir, final DefaultComponentRegistrar registrar) {
             this.registrar = registrar;
             this.frameworkBundlesUrl = frameworkBundlesUrl;
+            this.frameworkBundlesDigest = frameworkBundlesDigest;
             this.frameworkBundlesDir = frameworkBundlesDir;
+            this.bundleDigestsFile = new File(bundleCacheDir, BUNDLE_DIGESTS_FILE);
             this.initializedClassLoader = Thread.currentThread().getContextClassLoader();
         }
 
@@ -450,15 +512,19 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
             bundleContext = context;
             final ServiceReference ref = context.getServiceReference(org.osgi.service.packageadmin.PackageAdmin.class.getName());
             packageAdmin = (PackageAdmin) context.getService(ref);
+            packageRefresher = new PackageRefresher(context, packageAdmin, TimeUnit.SECONDS.toMillis(REFRESH_TIMEOUT));
 
             context.addBundleListener(this);
             context.addFrameworkListener(this);
 
+            loadBundleDigests();
+            collectRestoredBundles();
             loadHostComponents(registrar);
             extractAndInstallFrameworkBundles();
         }
 
         public void stop(final BundleContext ctx) throws Exception {
+            storeBundleDigests();
             ctx.removeBundleListener(this);
             ctx.removeFrameworkListener(this);
             if (hostServicesReferences != null) {
@@ -468,6 +534,7 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
             }
             bundleContext = null;
             packageAdmin = null;
+            packageRefresher = null;
             hostServicesReferences = null;
             hostComponentRegistrations = null;
             registrar = null;
@@ -498,7 +565,23 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
         }
 
         public Bundle install(final File path, final boolean uninstallOtherVersions) throws BundleException {
-            boolean bundleUninstalled = false;
+            final String location = path.toURI().toString();
+            final String digest = digest(path);
+            final List<Bundle> uninstalledBundles = new ArrayList<Bundle>();
+
+            Bundle reusedBundle = null;
+            final Bundle restoredBundle = claimRestoredBundle(location);
+            if (restoredBundle != null) {
+                if (digest != null && digest.equals(bundleDigests.getProperty(location))) {
+                    log.debug("Reusing cached bundle " + restoredBundle.getSymbolicName() + " from " + location);
+                    reusedBundle = restoredBundle;
+                } else {
+                    log.info("Reinstalling changed bundle " + restoredBundle.getSymbolicName() + " from " + location);
+                    restoredBundle.uninstall();
+                    uninstalledBundles.add(restoredBundle);
+                }
+            }
+
             if (uninstallOtherVersions) {
                 try {
                     JarFile jar = new JarFile(path);
@@ -510,10 +593,11 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
                         jar.close();
                     }
                     for (final Bundle oldBundle : bundleContext.getBundles()) {
-                        if (pluginKey.equals(OsgiHeaderUtil.getPluginKey(oldBundle))) {
+                        if (oldBundle != reusedBundle && pluginKey.equals(OsgiHeaderUtil.getPluginKey(oldBundle))) {
                             log.info("Uninstalling existing version " + oldBundle.getHeaders().get(Constants.BUNDLE_VERSION));
+                            claimRestoredBundle(oldBundle.getLocation());
                             oldBundle.uninstall();
-                            bundleUninstalled = true;
+                            uninstalledBundles.add(oldBundle);
                         }
                     }
                 }
@@ -521,13 +605,134 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
                     throw new BundleException("Invalid bundle format", e);
                 }
             }
-            final Bundle bundle = bundleContext.installBundle(path.toURI().toString());
-            if (bundleUninstalled) {
-                refreshPackages();
+
+            final Bundle bundle;
+            if (reusedBundle != null) {
+                bundle = reusedBundle;
+            } else {
+                bundle = bundleContext.installBundle(location);
+                if (digest != null) {
+                    bundleDigests.setProperty(location, digest);
+                }
+            }
+            if (!uninstalledBundles.isEmpty()) {
+                // within a batch, the refresh only happens once the batch ends
+                packageRefresher.refresh(uninstalledBundles.toArray(new Bundle[uninstalledBundles.size()]));
             }
             return bundle;
         }
 
+        /**
+         * Uninstalls the bundles restored from the bundle cache that were not installed again, as they belong to
+         * plugins that are no longer there, and records the digests of the remaining bundles.
+         */
+        void uninstallUnclaimedBundles() {
+            final List<Bundle> unclaimed;
+            synchronized (restoredBundles) {
+                unclaimed = new ArrayList<Bundle>(restoredBundles.values());
+                restoredBundles.clear();
+            }
+            final List<Bundle> uninstalledBundles = new ArrayList<Bundle>();
+            for (final Bundle bundle : unclaimed) {
+                if (bundle.getState() != Bundle.UNINSTALLED) {
+                    try {
+                        log.info("Uninstalling cached bundle " + bundle.getSymbolicName() + " that is no longer installed");
+                        bundle.uninstall();
+                        uninstalledBundles.add(bundle);
+                    }
+                    catch (final BundleException e) {
+                        log.warn("Unable to uninstall cached bundle " + bundle.getSymbolicName(), e);
+                    }
+                }
+            }
+            if (!uninstalledBundles.isEmpty()) {
+                packageRefresher.refresh(uninstalledBundles.toArray(new Bundle[uninstalledBundles.size()]));
+            }
+            storeBundleDigests();
+        }
+
+        private void collectRestoredBundles() {
+            synchronized (restoredBundles) {
+                for (final Bundle bundle : bundleContext.getBundles()) {
+                    if (bundle.getBundleId() == 0) {
+                        continue;
+                    }
+                    restoredBundles.put(bundle.getLocation(), bundle);
+                    // keep Felix from starting the bundle before it has been installed again
+                    if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
+                        try {
+                            bundle.stop();
+                        }
+                        catch (final BundleException e) {
+                            log.warn("Unable to stop cached bundle " + bundle.getSymbolicName(), e);
+                        }
+                    }
+                }
+            }
+            if (!restoredBundles.isEmpty()) {
+                log.info("Restored " + restoredBundles.size() + " bundles from the bundle cache");
+            }
+        }
+
+        private Bundle claimRestoredBundle(final String location) {
+            synchronized (restoredBundles) {
+                return restoredBundles.remove(location);
+            }
+        }
+
+        private static String digest(final File path) {
+            try {
+                return DigestUtil.sha1Hex(path);
+            }
+            catch (final IOException e) {
+                log.debug("Unable to digest bundle " + path, e);
+                return null;
+            }
+        }
+
+        private void loadBundleDigests() {
+            bundleDigests.clear();
+            if (!bundleDigestsFile.exists()) {
+                return;
+            }
+            InputStream in = null;
+            try {
+                in = new FileInputStream(bundleDigestsFile);
+                bundleDigests.load(in);
+            }
+            catch (final IOException e) {
+                log.warn("Unable to read the bundle digests " + bundleDigestsFile + ", cached bundles will be reinstalled", e);
+                bundleDigests.clear();
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        private void storeBundleDigests() {
+            if (bundleContext == null || !bundleDigestsFile.getParentFile().exists()) {
+                return;
+            }
+            final Properties current = new Properties();
+            for (final Bundle bundle : bundleContext.getBundles()) {
+                final String digest = bundleDigests.getProperty(bundle.getLocation());
+                if (digest != null) {
+                    current.setProperty(bundle.getLocation(), digest);
+                }
+            }
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(bundleDigestsFile);
+                current.store(out, "Digests of the bundles in the Felix bundle cache, by location");
+            }
+            catch (final IOException e) {
+                log.warn("Unable to write the bundle digests " + bundleDigestsFile, e);
+            }
+            finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+
         public Bundle[] getBundles() {
             return bundleContext.getBundles();
         }
@@ -562,53 +767,36 @@ public class FelixOsgiContainerManager implements OsgiContainerManager {
         }
 
         private void extractAndInstallFrameworkBundles() throws BundleException {
-            final List<Bundle> bundles = new ArrayList<Bundle>();
-            org.maera.plugin.util.FileUtils.conditionallyExtractZipFile(frameworkBundlesUrl, frameworkBundlesDir);
-            for (final File bundleFile : frameworkBundlesDir.listFiles(new FilenameFilter() {
-                public boolean accept(final File file, final String s) {
-                    return s.endsWith(".jar");
+            try {
+                if (frameworkBundlesDigest != null) {
+                    FileUtils.extractZipFileUnlessUnchanged(frameworkBundlesUrl, frameworkBundlesDir, frameworkBundlesDigest);
+                } else {
+                    FileUtils.extractZipFileUnlessUnchanged(frameworkBundlesUrl, frameworkBundlesDir);
                 }
-            })) {
-                bundles.add(install(bundleFile, false));
             }
-
-            packageAdmin.resolveBundles(null);
-
-            for (final Bundle bundle : bundles) {
-                if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
-                    bundle.start();
-                }
+            catch (final IOException e) {
+                throw new BundleException("Unable to extract the framework bundles from " + frameworkBundlesUrl, e);
             }
+            new FrameworkBundleInstaller(bundleContext, packageAdmin, packageRefresher, "Felix:FrameworkBundleInstaller")
+                    .installAndStart(frameworkBundlesDir.listFiles(new FilenameFilter() {
+                        public boolean accept(final File file, final String s) {
+                            return s.endsWith(".jar");
+                        }
+                    }), new FrameworkBundleInstaller.BundleInstaller() {
+                        public Bundle install(final File bundleFile) throws BundleException {
+                            return BundleRegistration.this.install(bundleFile, false);
+                        }
+                    });
         }
 
+        /**
+         * Refreshes the packages of all updated or uninstalled bundles, waiting for the refresh to finish, so plugins
+         * enabled afterwards aren't stopped or re-resolved by it.
+         */
         public void refreshPackages() {
-            final CountDownLatch latch = new CountDownLatch(1);
-            FrameworkListener refreshListener = new FrameworkListener() {
-
-                public void frameworkEvent(FrameworkEvent event) {
-                    if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
-                        log.info("Packages refreshed");
-                        latch.countDown();
-                    }
-                }
-            };
-
-            bundleContext.addFrameworkListener(refreshListener);
-            try {
-                packageAdmin.refreshPackages(null);
-                boolean refreshed = false;
-                try {
-                    refreshed = latch.await(REFRESH_TIMEOUT, TimeUnit.SECONDS);
-                }
-                catch (InterruptedException e) {
-                    // ignore
-                }
-                if (!refreshed) {
-                    log.warn("Timeout exceeded waiting for package refresh");
-                }
-            }
-            finally {
-                bundleContext.removeFrameworkListener(refreshListener);
+            final PackageRefresher refresher = packageRefresher;
+            if (refresher != null) {
+                refresher.refresh();
             }
         }
 
@@ -12,6 +12,9 @@ import java.io.IOException;
 
 /**
  * Default implementation of persistent cache.  Handles clearing of directories if an upgrade has been detected.
+ * <p/>
+ * The container bundle cache is kept for as long as the cache key stays the same, so the container can restore its
+ * bundles on a restart instead of installing them again.
  *
  * @since 0.1
  */
@@ -33,7 +36,9 @@ public class DefaultOsgiPersistentCache implements OsgiPersistentCache {
         osgiBundleCache = new File(baseDir, "felix");
         frameworkBundleCache = new File(baseDir, "framework-bundles");
         transformedPluginCache = new File(baseDir, "transformed-plugins");
-        validate(null);
+        ensureDirectoryExists(frameworkBundleCache);
+        ensureDirectoryExists(osgiBundleCache);
+        ensureDirectoryExists(transformedPluginCache);
     }
 
     /**
@@ -74,37 +79,45 @@ public class DefaultOsgiPersistentCache implements OsgiPersistentCache {
         ensureDirectoryExists(osgiBundleCache);
         ensureDirectoryExists(transformedPluginCache);
 
-        try {
-            FileUtils.cleanDirectory(osgiBundleCache);
-        }
-        catch (final IOException e) {
-            throw new OsgiContainerException("Unable to clean the cache directory: " + osgiBundleCache, e);
+        if (cacheValidationKey == null) {
+            cleanOsgiBundleCache();
+            return;
         }
 
-        if (cacheValidationKey != null) {
-            final File versionFile = new File(transformedPluginCache, "cache.key");
-            if (versionFile.exists()) {
-                String oldVersion = null;
-                try {
-                    oldVersion = FileUtils.readFileToString(versionFile);
-                }
-                catch (final IOException e) {
-                    log.debug("Unable to read cache key file", e);
-                }
-                if (!cacheValidationKey.equals(oldVersion)) {
-                    log.info("Application upgrade detected, clearing OSGi cache directories");
-                    clear();
-                } else {
-                    return;
-                }
-            }
-
+        final File versionFile = new File(transformedPluginCache, "cache.key");
+        if (versionFile.exists()) {
+            String oldVersion = null;
             try {
-                FileUtils.writeStringToFile(versionFile, cacheValidationKey);
+                oldVersion = FileUtils.readFileToString(versionFile);
             }
             catch (final IOException e) {
-                log.warn("Unable to write cache key file, so will be unable to detect upgrades", e);
+                log.debug("Unable to read cache key file", e);
+            }
+            if (cacheValidationKey.equals(oldVersion)) {
+                log.debug("Cache key unchanged, reusing the container bundle cache");
+                return;
             }
+            log.info("Application upgrade detected, clearing OSGi cache directories");
+            clear();
+        } else {
+            // without a key there is no telling what the container bundle cache was built against
+            cleanOsgiBundleCache();
+        }
+
+        try {
+            FileUtils.writeStringToFile(versionFile, cacheValidationKey);
+        }
+        catch (final IOException e) {
+            log.warn("Unable to write cache key file, so will be unable to detect upgrades", e);
+        }
+    }
+
+    private void cleanOsgiBundleCache() {
+        try {
+            FileUtils.cleanDirectory(osgiBundleCache);
+        }
+        catch (final IOException e) {
+            throw new OsgiContainerException("Unable to clean the cache directory: " + osgiBundleCache, e);
         }
     }
 
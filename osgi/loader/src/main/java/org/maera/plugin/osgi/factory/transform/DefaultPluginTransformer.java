@@ -1,5 +1,6 @@
 package org.maera.plugin.osgi.factory.transform;
 
+import net.maera.util.DigestUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
 import org.maera.plugin.JarPluginArtifact;
@@ -19,19 +20,23 @@ import org.maera.plugin.util.PluginUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
@@ -44,6 +49,12 @@ public class DefaultPluginTransformer implements PluginTransformer {
     
     private static final Logger log = LoggerFactory.getLogger(DefaultPluginTransformer.class);
 
+    /**
+     * The system property for the maximum size, in megabytes, of the transformed plugin cache
+     */
+    public static final String TRANSFORM_CACHE_SIZE = "maera.plugins.transform.cache.size";
+    private static final long DEFAULT_TRANSFORM_CACHE_SIZE = 256;
+
     private final String pluginDescriptorPath;
     private final List<TransformStage> stages;
     private final File bundleCacheDir;
@@ -51,6 +62,7 @@ public class DefaultPluginTransformer implements PluginTransformer {
     private final Set<String> applicationKeys;
     private final OsgiPersistentCache osgiCache;
     private final OsgiContainerManager osgiContainerManager;
+    private final TransformCache transformCache;
 
     /**
      * Constructs a transformer with the default stages
@@ -93,9 +105,23 @@ public class DefaultPluginTransformer implements PluginTransformer {
         this.bundleCacheDir = cache.getTransformedPluginCache();
         this.systemExports = systemExports;
         this.applicationKeys = applicationKeys;
+        this.transformCache = new TransformCache(bundleCacheDir, getTransformCacheSize());
         persistTimeout();
     }
 
+    private static long getTransformCacheSize() {
+        final String size = System.getProperty(TRANSFORM_CACHE_SIZE);
+        if (size != null) {
+            try {
+                return Long.parseLong(size.trim()) * 1024 * 1024;
+            }
+            catch (NumberFormatException e) {
+                log.warn("Invalid transformed plugin cache size '" + size + "' in system property '" + TRANSFORM_CACHE_SIZE + "'");
+            }
+        }
+        return DEFAULT_TRANSFORM_CACHE_SIZE * 1024 * 1024;
+    }
+
     private void persistTimeout() {
         final File timeoutFile = new File(bundleCacheDir.getAbsoluteFile().getParentFile(), ".properties");
         final String timeout = System.getProperty(PluginUtils.MAERA_PLUGINS_ENABLE_WAIT);
@@ -176,8 +202,10 @@ public class DefaultPluginTransformer implements PluginTransformer {
         File artifactFile = pluginArtifact.toFile();
 
         // Look in cache first
-        File cachedPlugin = getFromCache(artifactFile);
+        final String cacheKey = generateCacheKey(artifactFile, regs);
+        File cachedPlugin = transformCache.get(cacheKey);
         if (cachedPlugin != null) {
+            log.debug("Using cached transformation of " + pluginArtifact);
             return cachedPlugin;
         }
 
@@ -200,59 +228,111 @@ public class DefaultPluginTransformer implements PluginTransformer {
                 }
                 log.debug(sb.toString());
             }
-            return addFilesToExistingZip(artifactFile, context.getFileOverrides());
+            final File transformedPlugin = addFilesToExistingZip(artifactFile, context.getFileOverrides(), cacheKey);
+            transformCache.put(cacheKey, transformedPlugin);
+            return transformedPlugin;
         }
         catch (IOException e) {
             throw new PluginTransformationException("Unable to add files to plugin jar");
         }
     }
 
-    private File getFromCache(File artifact) {
-        String name = generateCacheName(artifact);
-        for (File child : bundleCacheDir.listFiles()) {
-            if (child.getName().equals(name))
-                return child;
+    /**
+     * Generates the key of a transformed plugin in the cache from a digest of the plugin jar's contents and everything
+     * else that goes into the transformation: the stages, the host components, the system exports, the application
+     * keys and the descriptor path.
+     *
+     * @param artifactFile The plugin jar
+     * @param regs         The list of registered host components
+     * @return The cache key
+     * @throws PluginTransformationException If the plugin jar cannot be read
+     */
+    private String generateCacheKey(File artifactFile, List<HostComponentRegistration> regs) throws PluginTransformationException {
+        final StringBuilder config = new StringBuilder();
+        config.append(pluginDescriptorPath).append('\n');
+        for (TransformStage stage : stages) {
+            config.append(stage.getClass().getName()).append('\n');
+        }
+        config.append(systemExports).append('\n');
+        if (applicationKeys != null) {
+            final Set<String> sortedKeys = new TreeSet<String>();
+            for (String applicationKey : applicationKeys) {
+                sortedKeys.add(String.valueOf(applicationKey));
+            }
+            config.append(sortedKeys).append('\n');
+        }
+        // host components are sorted so that the key doesn't depend on the order they were registered in
+        final Set<String> hostComponents = new TreeSet<String>();
+        for (HostComponentRegistration reg : regs) {
+            final Map<String, String> properties = new TreeMap<String, String>();
+            for (Enumeration<String> keys = reg.getProperties().keys(); keys.hasMoreElements();) {
+                final String key = keys.nextElement();
+                properties.put(key, reg.getProperties().get(key));
+            }
+            hostComponents.add(Arrays.asList(reg.getMainInterfaces()) + " " + properties);
+        }
+        for (String hostComponent : hostComponents) {
+            config.append(hostComponent).append('\n');
+        }
+
+        try {
+            return transformCache.digest(artifactFile) + "-" + DigestUtil.sha1Hex(config.toString());
+        }
+        catch (IOException e) {
+            throw new PluginTransformationException("Unable to read plugin jar " + artifactFile, e);
         }
-        return null;
     }
 
     /**
-     * Generate a cache name that incorporates the timestap and preserves the extension
+     * Generate a cache name that incorporates the cache key and preserves the extension, so transformations of jars
+     * with the same name but different contents or configuration never share a file
      *
-     * @param file The original file to cache
+     * @param file     The original file to cache
+     * @param cacheKey The key of the transformation in the cache
      * @return The new file name
      */
-    static String generateCacheName(File file) {
+    static String generateCacheName(File file, String cacheKey) {
         int dotPos = file.getName().lastIndexOf('.');
         if (dotPos > 0 && file.getName().length() - 1 > dotPos) {
-            return file.getName().substring(0, dotPos) + "_" + file.lastModified() + file.getName().substring(dotPos);
+            return file.getName().substring(0, dotPos) + "_" + cacheKey + file.getName().substring(dotPos);
         } else {
-            return file.getName() + "_" + file.lastModified();
+            return file.getName() + "_" + cacheKey;
         }
     }
 
 
     /**
-     * Creates a new jar by overriding the specified files in the existing one
+     * Creates a new jar by overriding the specified files in the existing one.  The compressed bytes of the entries
+     * that aren't overridden are copied as they are, unless the jar is in a format that can only be read through
+     * {@link ZipInputStream}.
      *
-     * @param zipFile The existing zip file
-     * @param files   The files to override
+     * @param zipFile  The existing zip file
+     * @param files    The files to override
+     * @param cacheKey The key of the transformation in the cache
      * @return The new zip
      * @throws IOException If there are any problems processing the streams
      */
     File addFilesToExistingZip(File zipFile,
-                               Map<String, byte[]> files) throws IOException {
-        // get a temp file
-        File tempFile = new File(bundleCacheDir, generateCacheName(zipFile));
-        // delete it, otherwise you cannot rename your existing zip to it.
-        byte[] buf = new byte[1024];
+                               Map<String, byte[]> files, String cacheKey) throws IOException {
+        File tempFile = new File(bundleCacheDir, generateCacheName(zipFile, cacheKey));
+        try {
+            ZipRewriter.rewrite(zipFile, files, tempFile);
+        }
+        catch (ZipException e) {
+            log.debug("Unable to copy the entries of " + zipFile + " verbatim, recompressing them instead: " + e.getMessage());
+            copyEntriesAndAddFiles(zipFile, files, tempFile);
+        }
+        return tempFile;
+    }
 
+    private void copyEntriesAndAddFiles(File zipFile, Map<String, byte[]> files, File tempFile) throws IOException {
+        byte[] buf = new byte[8192];
 
         ZipInputStream zin = null;
         ZipOutputStream out = null;
         try {
             zin = new ZipInputStream(new FileInputStream(zipFile));
-            out = new ZipOutputStream(new FileOutputStream(tempFile));
+            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
 
             ZipEntry entry = zin.getNextEntry();
             while (entry != null) {
@@ -271,22 +351,9 @@ public class DefaultPluginTransformer implements PluginTransformer {
             zin.close();
             // Compress the files
             for (Map.Entry<String, byte[]> fentry : files.entrySet()) {
-                InputStream in = null;
-                try {
-                    in = new ByteArrayInputStream(fentry.getValue());
-                    // Add ZIP entry to output stream.
-                    out.putNextEntry(new ZipEntry(fentry.getKey()));
-                    // Transfer bytes from the file to the ZIP file
-                    int len;
-                    while ((len = in.read(buf)) > 0) {
-                        out.write(buf, 0, len);
-                    }
-                    // Complete the entry
-                    out.closeEntry();
-                }
-                finally {
-                    IOUtils.closeQuietly(in);
-                }
+                out.putNextEntry(new ZipEntry(fentry.getKey()));
+                out.write(fentry.getValue());
+                out.closeEntry();
             }
             // Complete the ZIP file
             out.close();
@@ -296,7 +363,6 @@ public class DefaultPluginTransformer implements PluginTransformer {
             IOUtils.closeQuietly(zin);
             IOUtils.closeQuietly(out);
         }
-        return tempFile;
     }
 
 }
@@ -0,0 +1,239 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import org.apache.commons.io.IOUtils;
+import org.maera.plugin.osgi.util.Clazz;
+import org.osgi.framework.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * An immutable view of a plugin jar, read in a single pass and shared by all the stages of a transformation.
+ * <p/>
+ * The entries and the manifest are read when the instance is created, along with the bytes of the classes in the
+ * jar and in the inner jars on its Bundle-ClassPath.  The classes are only parsed the first time
+ * {@link #getClasses()} is called, after which the bytes are released.
+ *
+ * @since 0.1
+ */
+public class PluginJarContents {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Manifest manifest;
+    private final List<JarEntry> entries;
+    private final Map<String, JarEntry> entriesByName;
+    private final Set<String> innerJarPaths;
+
+    private Map<String, byte[]> classBytes = new LinkedHashMap<String, byte[]>();
+    private Map<String, byte[]> innerJarBytes = new LinkedHashMap<String, byte[]>();
+    private List<ClassMetadata> classes;
+
+    /**
+     * Reads the jar
+     *
+     * @param jar The plugin jar
+     * @throws IOException If the jar cannot be read
+     */
+    public PluginJarContents(final File jar) throws IOException {
+        final List<JarEntry> entries = new ArrayList<JarEntry>();
+        final Map<String, JarEntry> entriesByName = new HashMap<String, JarEntry>();
+        Manifest manifest = null;
+        Set<String> manifestJarPaths = null;
+
+        ZipInputStream zin = null;
+        try {
+            zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(jar)));
+            ZipEntry zipEntry;
+            while ((zipEntry = zin.getNextEntry()) != null) {
+                final String name = zipEntry.getName();
+                final JarEntry entry = new JarEntry(zipEntry);
+                entries.add(entry);
+                entriesByName.put(name, entry);
+
+                if (JarFile.MANIFEST_NAME.equalsIgnoreCase(name)) {
+                    manifest = new Manifest(zin);
+                    manifestJarPaths = findInnerJarPaths(manifest);
+                } else if (name.endsWith(CLASS_SUFFIX)) {
+                    classBytes.put(name, IOUtils.toByteArray(zin));
+                } else if (name.endsWith(".jar") && (manifestJarPaths == null || manifestJarPaths.contains(name))) {
+                    // the manifest is normally the first entry, but if it isn't, inner jars are filtered afterwards
+                    innerJarBytes.put(name, IOUtils.toByteArray(zin));
+                }
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(zin);
+        }
+
+        this.manifest = manifest != null ? manifest : new Manifest();
+        this.entries = Collections.unmodifiableList(entries);
+        this.entriesByName = entriesByName;
+        this.innerJarPaths = findInnerJarPaths(this.manifest);
+        innerJarBytes.keySet().retainAll(innerJarPaths);
+    }
+
+    /**
+     * @return The manifest of the jar, or an empty manifest if it has none
+     */
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return All the entries of the jar, in the order they appear in it
+     */
+    public List<JarEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Looks up an entry the same way {@link java.util.zip.ZipFile#getEntry(String)} does, so a directory can be found
+     * without its trailing slash.
+     *
+     * @param path The path of the entry
+     * @return The entry, or null if the jar doesn't contain it
+     */
+    public JarEntry getEntry(final String path) {
+        JarEntry entry = entriesByName.get(path);
+        if (entry == null && !path.endsWith("/")) {
+            entry = entriesByName.get(path + "/");
+        }
+        return entry;
+    }
+
+    /**
+     * @return The paths of the inner jars on the Bundle-ClassPath of the jar's manifest
+     */
+    public Set<String> getInnerJarPaths() {
+        return innerJarPaths;
+    }
+
+    /**
+     * Parses the classes in the jar and in the inner jars on its Bundle-ClassPath, the first time it is called.
+     *
+     * @return The classes of the plugin
+     * @throws IOException If a class or inner jar cannot be parsed
+     */
+    public synchronized List<ClassMetadata> getClasses() throws IOException {
+        if (classes == null) {
+            final List<ClassMetadata> parsed = new ArrayList<ClassMetadata>();
+            for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+                parsed.add(new ClassMetadata(entry.getKey(), new ByteArrayInputStream(entry.getValue()), null));
+            }
+            for (Map.Entry<String, byte[]> innerJar : innerJarBytes.entrySet()) {
+                parseInnerJar(innerJar.getKey(), innerJar.getValue(), parsed);
+            }
+            classes = Collections.unmodifiableList(parsed);
+            classBytes = null;
+            innerJarBytes = null;
+        }
+        return classes;
+    }
+
+    private static void parseInnerJar(final String innerJarPath, final byte[] bytes, final List<ClassMetadata> parsed) throws IOException {
+        final ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bytes));
+        try {
+            ZipEntry zipEntry;
+            while ((zipEntry = zin.getNextEntry()) != null) {
+                if (zipEntry.getName().endsWith(CLASS_SUFFIX)) {
+                    // the class parser closes the stream it is given
+                    parsed.add(new ClassMetadata(zipEntry.getName(), new ByteArrayInputStream(IOUtils.toByteArray(zin)), innerJarPath));
+                }
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(zin);
+        }
+    }
+
+    private static Set<String> findInnerJarPaths(final Manifest manifest) {
+        final Set<String> paths = new HashSet<String>();
+        final String cp = manifest.getMainAttributes().getValue(Constants.BUNDLE_CLASSPATH);
+        if (cp != null) {
+            for (String entry : cp.split(",")) {
+                entry = entry.trim();
+                if (entry.length() != 1 && entry.endsWith(".jar")) {
+                    paths.add(entry);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The parts of a class file the transform stages are interested in
+     */
+    public static final class ClassMetadata {
+        private final String path;
+        private final String innerJarPath;
+        private final String superClassName;
+        private final Set<String> referredClassNames;
+
+        ClassMetadata(final String path, final InputStream in, final String innerJarPath) throws IOException {
+            final Clazz clazz = new Clazz(path, in);
+            this.path = path;
+            this.innerJarPath = innerJarPath;
+            this.superClassName = clazz.getSuperClassName();
+
+            final Set<String> names = new HashSet<String>();
+            for (Object ref : clazz.getReferredClasses()) {
+                final String refPath = (String) ref;
+                names.add(refPath.substring(0, refPath.length() - CLASS_SUFFIX.length()).replace('/', '.'));
+            }
+            this.referredClassNames = Collections.unmodifiableSet(names);
+        }
+
+        /**
+         * @return The path of the class file, relative to the root of the jar that contains it
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The internal name of the class, such as <code>java/lang/Object</code>
+         */
+        public String getInternalName() {
+            return path.substring(0, path.length() - CLASS_SUFFIX.length());
+        }
+
+        /**
+         * @return The path of the inner jar the class is in, or null if it is in the plugin jar itself
+         */
+        public String getInnerJarPath() {
+            return innerJarPath;
+        }
+
+        /**
+         * @return The internal name of the super class, or null for <code>java.lang.Object</code>
+         */
+        public String getSuperClassName() {
+            return superClassName;
+        }
+
+        /**
+         * @return The fully qualified names of the classes the class refers to
+         */
+        public Set<String> getReferredClassNames() {
+            return referredClassNames;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import net.maera.util.DigestUtil;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A persistent cache of transformed plugin jars, keyed by a digest of the original jar's contents combined with a
+ * fingerprint of the transformer configuration.
+ * <p/>
+ * The cache is described by an index file in the cache directory that maps each key to the transformed jar and its
+ * size, in least recently used order.  When the total size of the cached jars exceeds the configured maximum, the
+ * least recently used jars are deleted.  Because keys do not depend on the name or timestamp of the original jar, a
+ * touched, copied or renamed jar with the same contents is a cache hit, while a changed jar or configuration is a
+ * miss.  The transformed jars are named after their keys, so two keys never share a jar.
+ * <p/>
+ * The index is only written when entries are added or removed, not on every hit, so the least recently used order
+ * survives a restart as of the last change.  The digests of the original jars are remembered per path for as long as
+ * their length and modification time stay the same, for at most {@value #MAX_DIGESTS} paths.
+ *
+ * @since 0.1
+ */
+class TransformCache {
+    private static final Logger log = LoggerFactory.getLogger(TransformCache.class);
+
+    static final String INDEX_FILE_NAME = "transform-cache.index";
+    private static final String INDEX_HEADER = "# transformed plugin cache v1";
+    private static final String ENCODING = "UTF-8";
+    static final int MAX_DIGESTS = 1000;
+
+    private final File cacheDir;
+    private final File indexFile;
+    private final long maxSize;
+
+    /**
+     * Cache entries by key, in access order
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /**
+     * Content digests of the jars seen by this cache, by path, in access order
+     */
+    private final Map<String, Digest> digests = new LinkedHashMap<String, Digest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Digest> eldest) {
+            return size() > MAX_DIGESTS;
+        }
+    };
+    private long size;
+    private boolean loaded;
+
+    /**
+     * @param cacheDir the directory holding the transformed jars and the index
+     * @param maxSize  the maximum total size of the cached jars, in bytes
+     */
+    TransformCache(final File cacheDir, final long maxSize) {
+        this.cacheDir = cacheDir;
+        this.indexFile = new File(cacheDir, INDEX_FILE_NAME);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached transformed jar, or null if there is none
+     */
+    synchronized File get(final String key) {
+        load();
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        final File file = new File(cacheDir, entry.fileName);
+        if (!file.exists() || file.length() != entry.size) {
+            remove(key);
+            writeIndex();
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Records a transformed jar, which must be in the cache directory, and evicts the least recently used jars if the
+     * cache has grown too large.
+     *
+     * @param key         the cache key
+     * @param transformed the transformed jar
+     */
+    synchronized void put(final String key, final File transformed) {
+        load();
+        remove(key);
+        final Entry entry = new Entry(transformed.getName(), transformed.length());
+        entries.put(key, entry);
+        size += entry.size;
+
+        for (final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); size > maxSize && it.hasNext();) {
+            final Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == entry) {
+                break;
+            }
+            log.debug("Evicting transformed plugin " + eldest.getValue().fileName + " from the cache");
+            new File(cacheDir, eldest.getValue().fileName).delete();
+            size -= eldest.getValue().size;
+            it.remove();
+        }
+        writeIndex();
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of a jar's contents.  Digests are remembered for as long as the jar keeps
+     * the same length and modification time.
+     *
+     * @param file the jar
+     * @return the digest
+     * @throws IOException if the jar cannot be read
+     */
+    synchronized String digest(final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        Digest digest = digests.get(path);
+        if (digest == null || digest.length != length || digest.lastModified != lastModified) {
+            digest = new Digest(DigestUtil.sha1Hex(file), length, lastModified);
+            digests.put(path, digest);
+        }
+        return digest.value;
+    }
+
+    private void remove(final String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.size;
+        }
+    }
+
+    private void load() {
+        if (loaded && indexFile.exists()) {
+            return;
+        }
+        // the cache directory may have been cleared since the index was last read
+        entries.clear();
+        size = 0;
+        loaded = true;
+        if (!indexFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+            if (!INDEX_HEADER.equals(reader.readLine())) {
+                log.info("Ignoring transformed plugin cache index in an unknown format: " + indexFile);
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    continue;
+                }
+                final File file = new File(cacheDir, fields[1]);
+                final long entrySize = Long.parseLong(fields[2]);
+                if (file.exists() && file.length() == entrySize) {
+                    entries.put(fields[0], new Entry(fields[1], entrySize));
+                    size += entrySize;
+                }
+            }
+        }
+        catch (final IOException e) {
+            log.warn("Unable to read the transformed plugin cache index " + indexFile + ", starting with an empty cache", e);
+            entries.clear();
+            size = 0;
+        }
+        catch (final NumberFormatException e) {
+            log.warn("Corrupt transformed plugin cache index " + indexFile + ", starting with an empty cache", e);
+            entries.clear();
+            size = 0;
+        }
+        finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private void writeIndex() {
+        final File tempFile = new File(cacheDir, INDEX_FILE_NAME + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING);
+            writer.write(INDEX_HEADER);
+            writer.write('\n');
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + '\t' + entry.getValue().fileName + '\t' + entry.getValue().size + '\n');
+            }
+            writer.close();
+            // File.renameTo will not replace an existing file on every platform
+            if (!tempFile.renameTo(indexFile) && !(indexFile.delete() && tempFile.renameTo(indexFile))) {
+                throw new IOException("Unable to rename " + tempFile + " to " + indexFile);
+            }
+        }
+        catch (final IOException e) {
+            log.warn("Unable to write the transformed plugin cache index " + indexFile, e);
+            IOUtils.closeQuietly(writer);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * The content digest of a jar, along with the length and modification time it was calculated for
+     */
+    private static final class Digest {
+        private final String value;
+        private final long length;
+        private final long lastModified;
+
+        Digest(final String value, final long length, final long lastModified) {
+            this.value = value;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class Entry {
+        private final String fileName;
+        private final long size;
+
+        Entry(final String fileName, final long size) {
+            this.fileName = fileName;
+            this.size = size;
+        }
+    }
+}
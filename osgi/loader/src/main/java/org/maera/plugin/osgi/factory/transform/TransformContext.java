@@ -17,14 +17,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
@@ -35,6 +33,7 @@ import java.util.jar.Manifest;
 public class TransformContext {
     
 //    private final JarFile pluginJar;
+    private final PluginJarContents pluginJarContents;
     private final Manifest manifest;
     private final List<HostComponentRegistration> regs;
     private final Map<String, byte[]> fileOverrides;
@@ -63,21 +62,13 @@ public class TransformContext {
         this.pluginArtifact = pluginArtifact;
         this.applicationKeys = (applicationKeys == null ? Collections.<String>emptySet() : applicationKeys);
 
-        JarFile jarFile = null;
         try {
-            jarFile = new JarFile(pluginArtifact.toFile());
-            Manifest manifest = jarFile.getManifest();
-            if (manifest == null) {
-                this.manifest = new Manifest();
-            } else {
-                this.manifest = manifest;
-            }
+            this.pluginJarContents = new PluginJarContents(pluginArtifact.toFile());
         }
         catch (final IOException e) {
             throw new IllegalArgumentException("File must be a jar", e);
-        } finally {
-            closeJarQuietly(jarFile);
         }
+        this.manifest = pluginJarContents.getManifest();
         fileOverrides = new HashMap<String, byte[]>();
         bndInstructions = new HashMap<String, String>();
         this.descriptorDocument = retrieveDocFromJar(pluginArtifact, descriptorPath);
@@ -196,44 +187,18 @@ public class TransformContext {
     }
 
     public List<JarEntry> getPluginJarEntries() {
-        final List<JarEntry> list = new ArrayList<JarEntry>();
-        JarFile jarFile = null;
-        try {
-            jarFile = new JarFile(pluginArtifact.toFile());
-            final Enumeration<JarEntry> entries = jarFile.entries();
-            for (final Enumeration<JarEntry> e = entries; e.hasMoreElements();) {
-                final JarEntry entry = e.nextElement();
-                list.add(entry);
-            }
-            return list;
-        }
-        catch (final IOException e) {
-            throw new IllegalArgumentException("File must be a jar", e);
-        } finally {
-            closeJarQuietly(jarFile);
-        }
+        return pluginJarContents.getEntries();
     }
 
     public Object getPluginJarEntry(final String path) {
-        JarFile jarFile = null;
-        try {
-            jarFile = new JarFile(pluginArtifact.toFile());
-            return jarFile.getEntry(path);
-        }
-        catch (final IOException e) {
-            throw new IllegalArgumentException("File must be a jar", e);
-        } finally {
-            closeJarQuietly(jarFile);
-        }
+        return pluginJarContents.getEntry(path);
     }
 
-    private void closeJarQuietly(final JarFile jarFile) {
-        if (jarFile != null)
-            try {
-                jarFile.close();
-            } catch (final IOException e) {
-                // ignore
-            }
+    /**
+     * @return The contents of the plugin jar, read once and shared by all stages
+     */
+    public PluginJarContents getPluginJarContents() {
+        return pluginJarContents;
     }
 
     public void addRequiredHostComponent(HostComponentRegistration hostComponent) {
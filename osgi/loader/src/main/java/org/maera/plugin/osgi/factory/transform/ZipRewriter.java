@@ -0,0 +1,370 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Rewrites a zip file with some entries added or replaced, copying the compressed bytes of every other entry verbatim.
+ * <p/>
+ * Unchanged entries are neither inflated nor deflated: their local header, data and data descriptor are copied as
+ * they are, and their central directory record is copied with only the offset of the local header changed.  Only
+ * the added or replaced entries are compressed.  Zip64 files are not supported and cause a {@link ZipException}, so
+ * the caller can fall back to copying the entries through the streams of <code>java.util.zip</code>.
+ *
+ * @since 0.1
+ */
+class ZipRewriter {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_LENGTH = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private ZipRewriter() {
+    }
+
+    /**
+     * Writes a copy of the source zip with the given files added or replaced.  The unchanged entries keep their order
+     * and come first, followed by the given files.
+     *
+     * @param source The existing zip file
+     * @param files  The contents of the files to add or replace, by path
+     * @param target The file to write
+     * @throws ZipException If the source is not a zip this class can copy, such as a Zip64 file
+     * @throws IOException  If there are any problems reading or writing the files
+     */
+    static void rewrite(final File source, final Map<String, byte[]> files, final File target) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(source, "r");
+        try {
+            final List<CentralRecord> records = readCentralDirectory(in);
+            final CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(target), 64 * 1024));
+            try {
+                final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+                final Set<String> written = new HashSet<String>();
+                final byte[] buffer = new byte[64 * 1024];
+                int count = 0;
+
+                for (final CentralRecord record : records) {
+                    if (files.containsKey(record.name) || !written.add(record.name)) {
+                        continue;
+                    }
+                    final long offset = out.getCount();
+                    copyLocalEntry(in, record, out, buffer);
+                    record.writeTo(centralDirectory, offset);
+                    count++;
+                }
+
+                final long dosTime = toDosTime(System.currentTimeMillis());
+                for (final Map.Entry<String, byte[]> file : files.entrySet()) {
+                    final long offset = out.getCount();
+                    final byte[] header = writeNewEntry(file.getKey(), file.getValue(), dosTime, out);
+                    writeCentralRecord(centralDirectory, header, offset);
+                    count++;
+                }
+
+                if (count > 0xFFFF || out.getCount() > 0xFFFFFFFFL) {
+                    throw new ZipException("Too many entries or too large for a zip file without Zip64 extensions: " + target);
+                }
+                final long centralDirectoryOffset = out.getCount();
+                centralDirectory.writeTo(out);
+
+                final byte[] end = new byte[END_LENGTH];
+                putInt(end, 0, END_SIG);
+                putShort(end, 8, count);
+                putShort(end, 10, count);
+                putInt(end, 12, (int) centralDirectory.size());
+                putInt(end, 16, (int) centralDirectoryOffset);
+                out.write(end);
+                out.close();
+            }
+            finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static List<CentralRecord> readCentralDirectory(final RandomAccessFile in) throws IOException {
+        final long length = in.length();
+        final int tailLength = (int) Math.min(length, END_LENGTH + MAX_COMMENT_LENGTH);
+        final byte[] tail = new byte[tailLength];
+        in.seek(length - tailLength);
+        in.readFully(tail);
+
+        int end = -1;
+        for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+            if (getInt(tail, i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("No end of central directory record found");
+        }
+        final int diskEntries = getShort(tail, end + 8);
+        final int totalEntries = getShort(tail, end + 10);
+        final long size = getInt(tail, end + 12) & 0xFFFFFFFFL;
+        final long offset = getInt(tail, end + 16) & 0xFFFFFFFFL;
+        if (diskEntries != totalEntries || totalEntries == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL
+                || offset + size > length) {
+            throw new ZipException("Spanned, Zip64 or corrupt zip files are not supported");
+        }
+
+        final byte[] directory = new byte[(int) size];
+        in.seek(offset);
+        in.readFully(directory);
+
+        final List<CentralRecord> records = new ArrayList<CentralRecord>(totalEntries);
+        int pos = 0;
+        for (int i = 0; i < totalEntries; i++) {
+            if (pos + CENTRAL_HEADER_LENGTH > directory.length || getInt(directory, pos) != CENTRAL_HEADER_SIG) {
+                throw new ZipException("Corrupt central directory");
+            }
+            final int recordLength = CENTRAL_HEADER_LENGTH + getShort(directory, pos + 28) + getShort(directory, pos + 30)
+                    + getShort(directory, pos + 32);
+            if (pos + recordLength > directory.length) {
+                throw new ZipException("Corrupt central directory");
+            }
+            final byte[] record = new byte[recordLength];
+            System.arraycopy(directory, pos, record, 0, recordLength);
+            records.add(new CentralRecord(record));
+            pos += recordLength;
+        }
+        return records;
+    }
+
+    private static void copyLocalEntry(final RandomAccessFile in, final CentralRecord record, final OutputStream out, final byte[] buffer)
+            throws IOException {
+        final byte[] header = new byte[LOCAL_HEADER_LENGTH];
+        in.seek(record.localHeaderOffset);
+        in.readFully(header);
+        if (getInt(header, 0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Corrupt local header for " + record.name);
+        }
+        long remaining = LOCAL_HEADER_LENGTH + getShort(header, 26) + getShort(header, 28) + record.compressedSize;
+        if ((record.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            // the descriptor may or may not start with a signature
+            final byte[] signature = new byte[4];
+            in.seek(record.localHeaderOffset + remaining);
+            in.readFully(signature);
+            remaining += getInt(signature, 0) == DATA_DESCRIPTOR_SIG ? 16 : 12;
+        }
+
+        in.seek(record.localHeaderOffset);
+        while (remaining > 0) {
+            final int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (len < 0) {
+                throw new ZipException("Unexpected end of zip file in " + record.name);
+            }
+            out.write(buffer, 0, len);
+            remaining -= len;
+        }
+    }
+
+    /**
+     * Writes the local header and data of a new entry
+     *
+     * @return The local header, from which the central directory record is built
+     */
+    private static byte[] writeNewEntry(final String name, final byte[] contents, final long dosTime, final OutputStream out) throws IOException {
+        final byte[] nameBytes = encodeName(name);
+        final CRC32 crc = new CRC32();
+        crc.update(contents);
+
+        byte[] data = contents;
+        int method = METHOD_STORED;
+        if (contents.length > 0) {
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(contents);
+                deflater.finish();
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+                final byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+                data = compressed.toByteArray();
+                method = METHOD_DEFLATED;
+            }
+            finally {
+                deflater.end();
+            }
+        }
+
+        final byte[] header = new byte[LOCAL_HEADER_LENGTH + nameBytes.length];
+        putInt(header, 0, LOCAL_HEADER_SIG);
+        putShort(header, 4, method == METHOD_DEFLATED ? 20 : 10);
+        putShort(header, 6, isAscii(name) ? 0 : FLAG_UTF8);
+        putShort(header, 8, method);
+        putInt(header, 10, (int) dosTime);
+        putInt(header, 14, (int) crc.getValue());
+        putInt(header, 18, data.length);
+        putInt(header, 22, contents.length);
+        putShort(header, 26, nameBytes.length);
+        System.arraycopy(nameBytes, 0, header, LOCAL_HEADER_LENGTH, nameBytes.length);
+
+        out.write(header);
+        out.write(data);
+        return header;
+    }
+
+    private static void writeCentralRecord(final ByteArrayOutputStream centralDirectory, final byte[] localHeader, final long offset)
+            throws IOException {
+        final int nameLength = localHeader.length - LOCAL_HEADER_LENGTH;
+        final byte[] record = new byte[CENTRAL_HEADER_LENGTH + nameLength];
+        putInt(record, 0, CENTRAL_HEADER_SIG);
+        putShort(record, 4, getShort(localHeader, 4));
+        // version needed, flags, method, time, crc and sizes are laid out the same way in both headers
+        System.arraycopy(localHeader, 4, record, 6, 22);
+        putShort(record, 28, nameLength);
+        putInt(record, 42, (int) offset);
+        System.arraycopy(localHeader, LOCAL_HEADER_LENGTH, record, CENTRAL_HEADER_LENGTH, nameLength);
+        centralDirectory.write(record);
+    }
+
+    private static byte[] encodeName(final String name) {
+        try {
+            return name.getBytes("UTF-8");
+        }
+        catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isAscii(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toDosTime(final long time) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        final int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (cal.get(Calendar.MONTH) + 1) << 21 | cal.get(Calendar.DAY_OF_MONTH) << 16
+                | cal.get(Calendar.HOUR_OF_DAY) << 11 | cal.get(Calendar.MINUTE) << 5 | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    private static int getShort(final byte[] b, final int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(final byte[] b, final int off) {
+        return getShort(b, off) | getShort(b, off + 2) << 16;
+    }
+
+    private static void putShort(final byte[] b, final int off, final int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(final byte[] b, final int off, final int value) {
+        putShort(b, off, value);
+        putShort(b, off + 2, value >> 16);
+    }
+
+    /**
+     * A central directory record of the source zip, kept as raw bytes
+     */
+    private static final class CentralRecord {
+        private final byte[] bytes;
+        private final String name;
+        private final int flags;
+        private final long compressedSize;
+        private final long localHeaderOffset;
+
+        CentralRecord(final byte[] bytes) throws ZipException {
+            this.bytes = bytes;
+            this.flags = getShort(bytes, 8);
+            this.compressedSize = getInt(bytes, 20) & 0xFFFFFFFFL;
+            this.localHeaderOffset = getInt(bytes, 42) & 0xFFFFFFFFL;
+            if (compressedSize == 0xFFFFFFFFL || (getInt(bytes, 24) & 0xFFFFFFFFL) == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 entries are not supported");
+            }
+            final int nameLength = getShort(bytes, 28);
+            try {
+                // decoded the way java.util.zip decodes names, so they match the paths of the files being replaced
+                this.name = new String(bytes, CENTRAL_HEADER_LENGTH, nameLength, "UTF-8");
+            }
+            catch (final UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeTo(final ByteArrayOutputStream out, final long newOffset) {
+            final byte[] copy = bytes.clone();
+            putInt(copy, 42, (int) newOffset);
+            out.write(copy, 0, copy.length);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream delegate;
+        private long count;
+
+        CountingOutputStream(final OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
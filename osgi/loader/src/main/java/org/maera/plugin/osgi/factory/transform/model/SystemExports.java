@@ -14,6 +14,7 @@ import java.util.Map;
 public class SystemExports {
     
     private final Map<String, Map<String, String>> exports;
+    private final String exportsLine;
 
     public static final SystemExports NONE = new SystemExports("");
 
@@ -26,6 +27,7 @@ public class SystemExports {
         if (exportsLine == null) {
             exportsLine = "";
         }
+        this.exportsLine = exportsLine;
         this.exports = Collections.unmodifiableMap(OsgiHeaderUtil.parseHeader(exportsLine));
     }
 
@@ -55,4 +57,12 @@ public class SystemExports {
     public boolean isExported(String pkg) {
         return exports.containsKey(pkg);
     }
+
+    /**
+     * @return The Export-Package header value these exports were parsed from
+     */
+    @Override
+    public String toString() {
+        return exportsLine;
+    }
 }
@@ -1,9 +1,9 @@
 package org.maera.plugin.osgi.factory.transform.stage;
 
-import org.apache.commons.io.IOUtils;
 import org.dom4j.Document;
 import org.dom4j.Element;
 import org.maera.plugin.PluginParseException;
+import org.maera.plugin.osgi.factory.transform.PluginJarContents;
 import org.maera.plugin.osgi.factory.transform.PluginTransformationException;
 import org.maera.plugin.osgi.factory.transform.TransformContext;
 import org.maera.plugin.osgi.factory.transform.TransformStage;
@@ -12,7 +12,6 @@ import org.maera.plugin.osgi.factory.transform.model.SystemExports;
 import org.maera.plugin.osgi.hostcomponents.ComponentRegistrar;
 import org.maera.plugin.osgi.hostcomponents.HostComponentRegistration;
 import org.maera.plugin.osgi.hostcomponents.PropertyBuilder;
-import org.maera.plugin.osgi.util.Clazz;
 import org.maera.plugin.osgi.util.OsgiHeaderUtil;
 import org.maera.plugin.util.ClassLoaderUtils;
 import org.maera.plugin.util.PluginUtils;
@@ -20,19 +19,14 @@ import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * @since 0.1
@@ -51,18 +45,13 @@ public class HostComponentSpringStage implements TransformStage {
             Document doc = SpringHelper.createSpringDocument();
             Set<String> hostComponentInterfaceNames = convertRegistrationsToSet(context.getHostComponentRegistrations());
             Set<String> matchedInterfaceNames = new HashSet<String>();
-            List<String> innerJarPaths = findJarPaths(context.getManifest());
-            InputStream pluginStream = null;
+            warnAboutNonJarClassPathElements(context.getManifest());
             try {
-                pluginStream = new FileInputStream(context.getPluginFile());
-                findUsedHostComponents(hostComponentInterfaceNames, matchedInterfaceNames, innerJarPaths, pluginStream);
+                findUsedHostComponents(hostComponentInterfaceNames, matchedInterfaceNames, context.getPluginJarContents());
             }
             catch (IOException e) {
                 throw new PluginParseException("Unable to scan for host components in plugin classes", e);
             }
-            finally {
-                IOUtils.closeQuietly(pluginStream);
-            }
 
             List<HostComponentRegistration> matchedRegistrations = new ArrayList<HostComponentRegistration>();
             Element root = doc.getRootElement();
@@ -154,37 +143,20 @@ public class HostComponentSpringStage implements TransformStage {
         return interfaceNames;
     }
 
-    private void findUsedHostComponents(Set<String> allHostComponents, Set<String> matchedHostComponents, List<String> innerJarPaths, InputStream
-            jarStream) throws IOException {
+    private void findUsedHostComponents(Set<String> allHostComponents, Set<String> matchedHostComponents, PluginJarContents jarContents)
+            throws IOException {
 
         Set<String> entries = new HashSet<String>();
         Set<String> superClassNames = new HashSet<String>();
-        ZipInputStream zin = null;
-        try {
-            zin = new ZipInputStream(jarStream);
-            ZipEntry zipEntry;
-            while ((zipEntry = zin.getNextEntry()) != null) {
-                String path = zipEntry.getName();
-                if (path.endsWith(".class")) {
-                    entries.add(path.substring(0, path.length() - ".class".length()));
-                    Clazz cls = new Clazz(path, new UnclosableInputStream(zin));
-                    superClassNames.add(cls.getSuperClassName());
-                    Set<String> referredClasses = cls.getReferredClasses();
-                    for (String ref : referredClasses) {
-                        String name = ref.replaceAll("/", ".").substring(0, ref.length() - ".class".length());
-                        if (allHostComponents.contains(name)) {
-                            matchedHostComponents.add(name);
-                        }
-
-                    }
-                } else if (path.endsWith(".jar") && innerJarPaths.contains(path)) {
-                    findUsedHostComponents(allHostComponents, matchedHostComponents, Collections.<String>emptyList(), new UnclosableInputStream(zin));
+        for (PluginJarContents.ClassMetadata cls : jarContents.getClasses()) {
+            entries.add(cls.getInternalName());
+            superClassNames.add(cls.getSuperClassName());
+            for (String name : cls.getReferredClassNames()) {
+                if (allHostComponents.contains(name)) {
+                    matchedHostComponents.add(name);
                 }
             }
         }
-        finally {
-            IOUtils.closeQuietly(zin);
-        }
 
         addHostComponentsUsedInSuperClasses(allHostComponents, matchedHostComponents, entries, superClassNames);
     }
@@ -227,40 +199,16 @@ public class HostComponentSpringStage implements TransformStage {
         }
     }
 
-    private List<String> findJarPaths(Manifest mf) {
-        List<String> paths = new ArrayList<String>();
+    private void warnAboutNonJarClassPathElements(Manifest mf) {
         String cp = mf.getMainAttributes().getValue(Constants.BUNDLE_CLASSPATH);
         if (cp != null) {
             for (String entry : cp.split(",")) {
                 entry = entry.trim();
-                if (entry.length() != 1 && entry.endsWith(".jar")) {
-                    paths.add(entry);
-                } else if (!".".equals(entry)) {
+                if ((entry.length() == 1 || !entry.endsWith(".jar")) && !".".equals(entry)) {
                     log.warn("Non-jar classpath elements not supported: " + entry);
                 }
             }
         }
-        return paths;
-    }
-
-    /**
-     * Wrapper for the zip input stream to prevent clients from closing it when reading entries
-     */
-    private static class UnclosableInputStream extends InputStream {
-        private final InputStream delegate;
-
-        public UnclosableInputStream(InputStream delegate) {
-            this.delegate = delegate;
-        }
-
-        public int read() throws IOException {
-            return delegate.read();
-        }
-
-        @Override
-        public void close() throws IOException {
-            // do nothing
-        }
     }
 
     private String determineId(Set<String> hostComponentNames, String beanName, int iteration) {
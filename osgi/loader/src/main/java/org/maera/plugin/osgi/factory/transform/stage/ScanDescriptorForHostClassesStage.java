@@ -1,8 +1,7 @@
 package org.maera.plugin.osgi.factory.transform.stage;
 
 import org.dom4j.Attribute;
-import org.dom4j.DocumentHelper;
-import org.dom4j.XPath;
+import org.dom4j.Element;
 import org.maera.plugin.osgi.factory.transform.PluginTransformationException;
 import org.maera.plugin.osgi.factory.transform.TransformContext;
 import org.maera.plugin.osgi.factory.transform.TransformStage;
@@ -14,8 +13,10 @@ import org.slf4j.LoggerFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Scans the plugin descriptor for any "class" attribute, and ensures that it will be imported, if appropriate.
@@ -26,14 +27,20 @@ public class ScanDescriptorForHostClassesStage implements TransformStage {
     
     private static final Logger log = LoggerFactory.getLogger(ScanDescriptorForHostClassesStage.class);
 
-    @SuppressWarnings("unchecked")
     public void execute(TransformContext context) throws PluginTransformationException {
-        XPath xpath = DocumentHelper.createXPath("//@class");
-        List<Attribute> attributes = xpath.selectNodes(context.getDescriptorDocument());
-        for (Attribute attr : attributes) {
-            String className = attr.getValue();
+        // a class is often named by several modules, so it is only scanned once
+        Set<String> classNames = new LinkedHashSet<String>();
+        collectClassAttributes(context.getDescriptorDocument().getRootElement(), classNames);
+
+        Map<Class<?>, HostComponentRegistration> hostComponentInterfaces = new HashMap<Class<?>, HostComponentRegistration>();
+        for (HostComponentRegistration registration : context.getHostComponentRegistrations()) {
+            for (Class<?> cls : registration.getMainInterfaceClasses()) {
+                hostComponentInterfaces.put(cls, registration);
+            }
+        }
 
-            scanForHostComponents(context, className);
+        for (String className : classNames) {
+            scanForHostComponents(context, hostComponentInterfaces, className);
 
             int dotpos = className.lastIndexOf(".");
             if (dotpos > -1) {
@@ -54,19 +61,27 @@ public class ScanDescriptorForHostClassesStage implements TransformStage {
         }
     }
 
-    private void scanForHostComponents(TransformContext context, String className) {
+    /**
+     * Collects the values of all "class" attributes in document order, which is what the "//@class" XPath expression
+     * selects
+     */
+    @SuppressWarnings("unchecked")
+    private void collectClassAttributes(Element element, Set<String> classNames) {
+        Attribute attr = element.attribute("class");
+        if (attr != null) {
+            classNames.add(attr.getValue());
+        }
+        for (Element child : (List<Element>) element.elements()) {
+            collectClassAttributes(child, classNames);
+        }
+    }
+
+    private void scanForHostComponents(TransformContext context, Map<Class<?>, HostComponentRegistration> hostComponentInterfaces, String className) {
         // Class name can be prefixed with 'bean:' to reference a spring bean, in this case don't attempt to load it. 
         if (className != null && className.indexOf(":") != -1) {
             return;
         }
 
-        Map<Class<?>, HostComponentRegistration> hostComponentInterfaces = new HashMap<Class<?>, HostComponentRegistration>();
-        for (HostComponentRegistration registration : context.getHostComponentRegistrations()) {
-            for (Class<?> cls : registration.getMainInterfaceClasses()) {
-                hostComponentInterfaces.put(cls, registration);
-            }
-        }
-
         Class cls;
         try {
             cls = ClassLoaderUtils.loadClass(className, getClass());
@@ -11,10 +11,6 @@ import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,6 +27,7 @@ public class DefaultComponentRegistrar implements ComponentRegistrar {
     private static final Logger log = LoggerFactory.getLogger(DefaultComponentRegistrar.class);
 
     private final List<HostComponentRegistration> registry = new CopyOnWriteArrayList<HostComponentRegistration>();
+    private final HostComponentProxyFactory proxyFactory = new HostComponentProxyFactory(getClass().getClassLoader());
 
     public InstanceBuilder register(final Class<?>... mainInterfaces) {
         final Registration reg = new Registration(mainInterfaces);
@@ -86,40 +83,13 @@ public class DefaultComponentRegistrar implements ComponentRegistrar {
 
     /**
      * Wraps the service in a dynamic proxy that ensures all methods are executed with the object class's class loader
-     * as the context class loader
+     * as the context class loader.  The context class loader is left alone if it is already the right one.
      *
      * @param interfaces The interfaces to proxy
      * @param service    The instance to proxy
      * @return A proxy that wraps the service
      */
     protected Object wrapService(final Class<?>[] interfaces, final Object service) {
-        return Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, new ContextClassLoaderSettingInvocationHandler(service));
-    }
-
-    /**
-     * InvocationHandler for a dynamic proxy that ensures all methods are executed with the
-     * object class's class loader as the context class loader.
-     */
-    private static class ContextClassLoaderSettingInvocationHandler implements InvocationHandler {
-        private final Object service;
-
-        ContextClassLoaderSettingInvocationHandler(final Object service) {
-            this.service = service;
-        }
-
-        public Object invoke(final Object o, final Method method, final Object[] objects) throws Throwable {
-            final Thread thread = Thread.currentThread();
-            final ClassLoader ccl = thread.getContextClassLoader();
-            try {
-                thread.setContextClassLoader(service.getClass().getClassLoader());
-                return method.invoke(service, objects);
-            }
-            catch (final InvocationTargetException e) {
-                throw e.getTargetException();
-            }
-            finally {
-                thread.setContextClassLoader(ccl);
-            }
-        }
+        return proxyFactory.createProxy(interfaces, service);
     }
 }
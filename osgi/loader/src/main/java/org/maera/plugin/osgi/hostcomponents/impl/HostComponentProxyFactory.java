@@ -0,0 +1,162 @@
+package org.maera.plugin.osgi.hostcomponents.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the proxies that host components are registered as, which run every method with the service's class loader
+ * as the context class loader.
+ * <p/>
+ * Host components are called constantly from plugin code, so the proxies avoid as much work per call as they can.  The
+ * proxy constructor is looked up once per set of interfaces rather than once per component.  Each interface method is
+ * resolved once per service class to the implementing method, made accessible so invoking it skips the access checks,
+ * and the resolved methods are shared by every component of that class.  The context class loader is only swapped,
+ * and restored afterwards, if it isn't already the service's class loader.
+ *
+ * @since 0.1
+ */
+class HostComponentProxyFactory {
+
+    private final ClassLoader proxyClassLoader;
+    private final ConcurrentMap<List<Class<?>>, Constructor<?>> proxyConstructors = new ConcurrentHashMap<List<Class<?>>, Constructor<?>>();
+    private final ConcurrentMap<Class<?>, DispatchTable> dispatchTables = new ConcurrentHashMap<Class<?>, DispatchTable>();
+
+    /**
+     * @param proxyClassLoader The class loader to define the proxy classes in
+     */
+    HostComponentProxyFactory(final ClassLoader proxyClassLoader) {
+        this.proxyClassLoader = proxyClassLoader;
+    }
+
+    /**
+     * @param interfaces The interfaces to proxy
+     * @param service    The instance to proxy
+     * @return A proxy that wraps the service
+     */
+    Object createProxy(final Class<?>[] interfaces, final Object service) {
+        final InvocationHandler handler = new ContextClassLoaderSettingInvocationHandler(service, getDispatchTable(service.getClass()));
+        try {
+            return getProxyConstructor(interfaces).newInstance(handler);
+        }
+        catch (final InstantiationException e) {
+            throw new IllegalStateException("Unable to create a proxy for " + service, e);
+        }
+        catch (final IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create a proxy for " + service, e);
+        }
+        catch (final InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create a proxy for " + service, e.getTargetException());
+        }
+    }
+
+    private Constructor<?> getProxyConstructor(final Class<?>[] interfaces) {
+        final List<Class<?>> key = Arrays.<Class<?>>asList(interfaces.clone());
+        Constructor<?> constructor = proxyConstructors.get(key);
+        if (constructor == null) {
+            try {
+                constructor = Proxy.getProxyClass(proxyClassLoader, interfaces).getConstructor(InvocationHandler.class);
+            }
+            catch (final NoSuchMethodException e) {
+                throw new IllegalStateException("Proxy class for " + key + " has no invocation handler constructor", e);
+            }
+            proxyConstructors.putIfAbsent(key, constructor);
+        }
+        return constructor;
+    }
+
+    private DispatchTable getDispatchTable(final Class<?> serviceClass) {
+        DispatchTable table = dispatchTables.get(serviceClass);
+        if (table == null) {
+            table = new DispatchTable(serviceClass);
+            final DispatchTable existing = dispatchTables.putIfAbsent(serviceClass, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * The implementing methods of a service class, by the interface methods they implement, resolved as they are called
+     */
+    private static final class DispatchTable {
+        private final Class<?> serviceClass;
+        private final ConcurrentMap<Method, Method> targets = new ConcurrentHashMap<Method, Method>();
+
+        DispatchTable(final Class<?> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+
+        Method getTarget(final Method method) {
+            Method target = targets.get(method);
+            if (target == null) {
+                target = findTarget(method);
+                targets.putIfAbsent(method, target);
+            }
+            return target;
+        }
+
+        private Method findTarget(final Method method) {
+            try {
+                final Method target = serviceClass.getMethod(method.getName(), method.getParameterTypes());
+                target.setAccessible(true);
+                return target;
+            }
+            catch (final NoSuchMethodException e) {
+                return method;
+            }
+            catch (final SecurityException e) {
+                // fall back to the interface method, which is always accessible
+                return method;
+            }
+        }
+    }
+
+    /**
+     * InvocationHandler for a dynamic proxy that ensures all methods are executed with the
+     * object class's class loader as the context class loader.
+     */
+    private static final class ContextClassLoaderSettingInvocationHandler implements InvocationHandler {
+        private final Object service;
+        private final ClassLoader serviceClassLoader;
+        private final DispatchTable dispatchTable;
+
+        ContextClassLoaderSettingInvocationHandler(final Object service, final DispatchTable dispatchTable) {
+            this.service = service;
+            this.serviceClassLoader = service.getClass().getClassLoader();
+            this.dispatchTable = dispatchTable;
+        }
+
+        public Object invoke(final Object o, final Method method, final Object[] objects) throws Throwable {
+            final Method target = dispatchTable.getTarget(method);
+            final Thread thread = Thread.currentThread();
+            final ClassLoader ccl = thread.getContextClassLoader();
+            if (ccl == serviceClassLoader) {
+                return invokeTarget(target, objects);
+            }
+            try {
+                thread.setContextClassLoader(serviceClassLoader);
+                return invokeTarget(target, objects);
+            }
+            finally {
+                thread.setContextClassLoader(ccl);
+            }
+        }
+
+        private Object invokeTarget(final Method target, final Object[] objects) throws Throwable {
+            try {
+                return target.invoke(service, objects);
+            }
+            catch (final InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -55,4 +55,29 @@ public class DefaultOsgiPersistentCacheTest {
         String txt = FileUtils.readFileToString(versionFile);
         assertEquals("1.0", txt);
     }
+
+    @Test
+    public void testOsgiBundleCacheKeptWhileKeyUnchanged() throws IOException {
+        DefaultOsgiPersistentCache cache = new DefaultOsgiPersistentCache(tmpDir);
+        cache.validate("1.0");
+        File bundle = File.createTempFile("bundle", ".jar", cache.getOsgiBundleCache());
+        cache.validate("1.0");
+        assertTrue(bundle.exists());
+        cache.validate("2.0");
+        assertFalse(bundle.exists());
+    }
+
+    @Test
+    public void testOsgiBundleCacheCleanedWithoutKey() throws IOException {
+        DefaultOsgiPersistentCache cache = new DefaultOsgiPersistentCache(tmpDir);
+        cache.validate("1.0");
+        File bundle = File.createTempFile("bundle", ".jar", cache.getOsgiBundleCache());
+        cache.validate(null);
+        assertFalse(bundle.exists());
+
+        bundle = File.createTempFile("bundle", ".jar", cache.getOsgiBundleCache());
+        new File(cache.getTransformedPluginCache(), "cache.key").delete();
+        cache.validate("1.0");
+        assertFalse(bundle.exists());
+    }
 }
@@ -2,9 +2,11 @@ package org.maera.plugin.osgi.container.felix;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.maera.plugin.osgi.container.PackageScannerConfiguration;
 import org.maera.plugin.osgi.container.impl.DefaultPackageScannerConfiguration;
 import org.maera.plugin.osgi.hostcomponents.HostComponentRegistration;
 import org.maera.plugin.osgi.hostcomponents.impl.MockRegistration;
+import org.maera.plugin.test.PluginTestUtils;
 import org.twdata.pkgscanner.ExportPackage;
 
 import javax.print.attribute.AttributeSet;
@@ -161,4 +163,35 @@ public class ExportsBuilderTest {
         }
         assertEquals(0, pkgsToFind);
     }
+
+    @Test
+    public void testExportsArePersistedUntilConfigurationChanges() throws Exception {
+        File cacheDir = PluginTestUtils.createTempDirectory(ExportsBuilderTest.class);
+        final int[] scans = new int[1];
+        class CountingExportsBuilder extends ExportsBuilder {
+            CountingExportsBuilder(File cacheDir) {
+                super(cacheDir);
+            }
+
+            @Override
+            String determineExports(List<HostComponentRegistration> regs, PackageScannerConfiguration packageScannerConfig) {
+                scans[0]++;
+                return "foo.bar;version=" + scans[0];
+            }
+        }
+        DefaultPackageScannerConfiguration config = new DefaultPackageScannerConfiguration("1.0");
+        List<HostComponentRegistration> regs = new ArrayList<HostComponentRegistration>();
+
+        assertEquals("foo.bar;version=1", new CountingExportsBuilder(cacheDir).loadOrDetermineExports(regs, config));
+        assertEquals("foo.bar;version=1", new CountingExportsBuilder(cacheDir).loadOrDetermineExports(regs, config));
+        assertEquals(1, scans[0]);
+
+        config.setPackageIncludes(Arrays.asList("org.*"));
+        assertEquals("foo.bar;version=2", new CountingExportsBuilder(cacheDir).loadOrDetermineExports(regs, config));
+
+        regs.add(new MockRegistration(new DefaultTableModel(), TableModel.class));
+        assertEquals("foo.bar;version=3", new CountingExportsBuilder(cacheDir).loadOrDetermineExports(regs, config));
+        assertEquals("foo.bar;version=3", new CountingExportsBuilder(cacheDir).loadOrDetermineExports(regs, config));
+        assertEquals(3, scans[0]);
+    }
 }
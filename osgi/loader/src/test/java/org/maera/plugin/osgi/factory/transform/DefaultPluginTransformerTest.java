@@ -1,5 +1,7 @@
 package org.maera.plugin.osgi.factory.transform;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.maera.plugin.JarPluginArtifact;
@@ -17,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.Attributes;
@@ -31,11 +34,12 @@ import static org.mockito.Mockito.when;
 public class DefaultPluginTransformerTest {
 
     private File tmpDir;
+    private OsgiContainerManager osgiContainerManager;
     private DefaultPluginTransformer transformer;
 
     @Before
     public void setUp() throws Exception {
-        OsgiContainerManager osgiContainerManager = mock(OsgiContainerManager.class);
+        osgiContainerManager = mock(OsgiContainerManager.class);
         when(osgiContainerManager.getRegisteredServices()).thenReturn(new ServiceReference[0]);
         tmpDir = PluginTestUtils.createTempDirectory("plugin-transformer");
         transformer = new DefaultPluginTransformer(new DefaultOsgiPersistentCache(tmpDir), SystemExports.NONE, null, PluginAccessor.Descriptor.FILENAME, osgiContainerManager);
@@ -51,7 +55,7 @@ public class DefaultPluginTransformerTest {
                 put("foo", "bar".getBytes());
             }
         };
-        final File copy = transformer.addFilesToExistingZip(file, files);
+        final File copy = transformer.addFilesToExistingZip(file, files, "key");
         assertNotNull(copy);
         assertTrue(!copy.getName().equals(file.getName()));
         assertTrue(copy.length() != file.length());
@@ -64,15 +68,17 @@ public class DefaultPluginTransformerTest {
     @Test
     public void testGenerateCacheName() throws IOException {
         File tmp = File.createTempFile("asdf", ".jar", tmpDir);
-        assertTrue(DefaultPluginTransformer.generateCacheName(tmp).endsWith(".jar"));
+        assertTrue(DefaultPluginTransformer.generateCacheName(tmp, "key").endsWith("_key.jar"));
         tmp = File.createTempFile("asdf", "asdf", tmpDir);
-        assertTrue(DefaultPluginTransformer.generateCacheName(tmp).endsWith(String.valueOf(tmp.lastModified())));
+        assertTrue(DefaultPluginTransformer.generateCacheName(tmp, "key").endsWith("_key"));
 
         tmp = File.createTempFile("asdf", "asdf.", tmpDir);
-        assertTrue(DefaultPluginTransformer.generateCacheName(tmp).endsWith(String.valueOf(tmp.lastModified())));
+        assertTrue(DefaultPluginTransformer.generateCacheName(tmp, "key").endsWith("_key"));
 
         tmp = File.createTempFile("asdf", "asdf.s", tmpDir);
-        assertTrue(DefaultPluginTransformer.generateCacheName(tmp).endsWith(String.valueOf(".s")));
+        assertTrue(DefaultPluginTransformer.generateCacheName(tmp, "key").endsWith("_key.s"));
+
+        assertFalse(DefaultPluginTransformer.generateCacheName(tmp, "key").equals(DefaultPluginTransformer.generateCacheName(tmp, "other")));
     }
 
     @Test
@@ -94,7 +100,7 @@ public class DefaultPluginTransformerTest {
         });
 
         assertNotNull(copy);
-        assertTrue(copy.getName().contains(String.valueOf(file.lastModified())));
+        assertTrue(copy.getName().startsWith(file.getName().substring(0, file.getName().lastIndexOf('.')) + "_"));
         assertTrue(copy.getName().endsWith(".jar"));
         assertEquals(tmpDir.getAbsolutePath(), copy.getParentFile().getParentFile().getAbsolutePath());
         final JarFile jar = new JarFile(copy);
@@ -104,4 +110,48 @@ public class DefaultPluginTransformerTest {
 
         assertNotNull(jar.getEntry("META-INF/spring/maera-plugins-host-components.xml"));
     }
+
+    @Test
+    public void testTransformReusesCachedTransformationOfIdenticalJar() throws Exception {
+        final CountingStage stage = new CountingStage();
+        final File file = new PluginJarBuilder().addPluginInformation("foo", "foo", "1.1").build();
+        final File renamed = new File(file.getParentFile(), "renamed-" + file.getName());
+        FileUtils.copyFile(file, renamed);
+        renamed.setLastModified(file.lastModified() + 60000);
+
+        final File copy = newTransformer(stage).transform(file, Collections.<HostComponentRegistration>emptyList());
+        assertEquals(copy, newTransformer(stage).transform(renamed, Collections.<HostComponentRegistration>emptyList()));
+        assertEquals(1, stage.count);
+
+        newTransformer(stage).transform(renamed, Collections.<HostComponentRegistration>singletonList(new StubHostComponentRegistration(Fooable.class)));
+        assertEquals(2, stage.count);
+    }
+
+    @Test
+    public void testTransformIgnoresCachedTransformationOfChangedJar() throws Exception {
+        final CountingStage stage = new CountingStage();
+        final DefaultPluginTransformer transformer = newTransformer(stage);
+        final File file = new PluginJarBuilder().addPluginInformation("foo", "foo", "1.1").build();
+        transformer.transform(file, Collections.<HostComponentRegistration>emptyList());
+
+        final File changed = new PluginJarBuilder().addPluginInformation("foo", "foo", "1.2").build();
+        FileUtils.copyFile(changed, file);
+        final File copy = transformer.transform(file, Collections.<HostComponentRegistration>emptyList());
+        assertEquals(2, stage.count);
+        final JarFile jar = new JarFile(copy);
+        assertTrue(IOUtils.toString(jar.getInputStream(jar.getEntry(PluginAccessor.Descriptor.FILENAME))).contains("1.2"));
+    }
+
+    private DefaultPluginTransformer newTransformer(TransformStage stage) {
+        return new DefaultPluginTransformer(new DefaultOsgiPersistentCache(tmpDir), SystemExports.NONE, null, PluginAccessor.Descriptor.FILENAME,
+                osgiContainerManager, Collections.<TransformStage>singletonList(stage));
+    }
+
+    private static class CountingStage implements TransformStage {
+        private int count;
+
+        public void execute(TransformContext context) throws PluginTransformationException {
+            count++;
+        }
+    }
 }
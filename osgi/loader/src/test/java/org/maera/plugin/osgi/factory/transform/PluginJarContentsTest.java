@@ -0,0 +1,71 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import org.junit.Test;
+import org.maera.plugin.test.PluginJarBuilder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PluginJarContentsTest {
+
+    @Test
+    public void testEntriesAndManifest() throws Exception {
+        final File jar = new PluginJarBuilder()
+                .addResource("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\nBundle-SymbolicName: my.plugin\n")
+                .addResource("META-INF/spring/", "")
+                .addResource("foo.txt", "bar")
+                .build();
+
+        final PluginJarContents contents = new PluginJarContents(jar);
+        assertEquals("my.plugin", contents.getManifest().getMainAttributes().getValue("Bundle-SymbolicName"));
+        assertNotNull(contents.getEntry("foo.txt"));
+        assertNotNull(contents.getEntry("META-INF/spring"));
+        assertNull(contents.getEntry("bar.txt"));
+        assertTrue(contents.getEntries().contains(contents.getEntry("foo.txt")));
+    }
+
+    @Test
+    public void testMissingManifest() throws Exception {
+        final File jar = new PluginJarBuilder().addResource("foo.txt", "bar").buildWithNoManifest();
+
+        assertTrue(new PluginJarContents(jar).getManifest().getMainAttributes().isEmpty());
+    }
+
+    @Test
+    public void testClassesIncludeInnerJarsOnBundleClassPath() throws Exception {
+        final File innerJar = new PluginJarBuilder("inner")
+                .addFormattedJava("my.inner.Bar",
+                        "package my.inner;",
+                        "public class Bar {}")
+                .build();
+        final File otherJar = new PluginJarBuilder("other")
+                .addFormattedJava("my.other.Baz",
+                        "package my.other;",
+                        "public class Baz {}")
+                .build();
+        final File jar = new PluginJarBuilder()
+                .addFormattedJava("my.Foo",
+                        "package my;",
+                        "public class Foo extends java.util.ArrayList {",
+                        "  public org.maera.plugin.osgi.factory.transform.Fooable fooable;",
+                        "}")
+                .addResource("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\nBundle-ClassPath: .,META-INF/lib/inner.jar\n")
+                .addFile("META-INF/lib/inner.jar", innerJar)
+                .addFile("META-INF/lib/other.jar", otherJar)
+                .build();
+
+        final Map<String, PluginJarContents.ClassMetadata> classes = new HashMap<String, PluginJarContents.ClassMetadata>();
+        for (PluginJarContents.ClassMetadata cls : new PluginJarContents(jar).getClasses()) {
+            classes.put(cls.getInternalName(), cls);
+        }
+
+        assertEquals(2, classes.size());
+        assertEquals("java/util/ArrayList", classes.get("my/Foo").getSuperClassName());
+        assertNull(classes.get("my/Foo").getInnerJarPath());
+        assertTrue(classes.get("my/Foo").getReferredClassNames().contains(Fooable.class.getName()));
+        assertEquals("META-INF/lib/inner.jar", classes.get("my/inner/Bar").getInnerJarPath());
+    }
+}
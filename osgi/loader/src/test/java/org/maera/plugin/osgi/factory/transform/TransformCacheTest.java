@@ -0,0 +1,106 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.maera.plugin.test.PluginTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TransformCacheTest {
+
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = PluginTestUtils.createTempDirectory(TransformCacheTest.class);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 100);
+        final File file = createFile("a.jar", 10);
+        cache.put("a", file);
+
+        assertEquals(file, cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testIndexIsPersistent() throws IOException {
+        final File file = createFile("a.jar", 10);
+        new TransformCache(tmpDir, 100).put("a", file);
+
+        assertEquals(file, new TransformCache(tmpDir, 100).get("a"));
+        file.delete();
+        assertNull(new TransformCache(tmpDir, 100).get("a"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 25);
+        final File a = createFile("a.jar", 10);
+        final File b = createFile("b.jar", 10);
+        final File c = createFile("c.jar", 10);
+        cache.put("a", a);
+        cache.put("b", b);
+        cache.get("a");
+        cache.put("c", c);
+
+        assertEquals(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertFalse(b.exists());
+        assertEquals(c, new TransformCache(tmpDir, 25).get("c"));
+    }
+
+    @Test
+    public void testClearedDirectoryEmptiesCache() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 100);
+        cache.put("a", createFile("a.jar", 10));
+        FileUtils.cleanDirectory(tmpDir);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testDigestDependsOnContentsOnly() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 100);
+        final File a = createFile("a.jar", 10);
+        final File b = createFile("b.jar", 10);
+        final File c = createFile("c.jar", 11);
+
+        assertEquals(cache.digest(a), cache.digest(b));
+        assertFalse(cache.digest(a).equals(cache.digest(c)));
+    }
+
+    @Test
+    public void testGetDoesNotWriteTheIndex() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 100);
+        cache.put("a", createFile("a.jar", 10));
+        final File index = new File(tmpDir, TransformCache.INDEX_FILE_NAME);
+        assertTrue(index.setLastModified(1000000L));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1000000L, index.lastModified());
+    }
+
+    @Test
+    public void testDigestIsRecalculatedWhenTheFileChanges() throws IOException {
+        final TransformCache cache = new TransformCache(tmpDir, 100);
+        final File a = createFile("a.jar", 10);
+        final String digest = cache.digest(a);
+        FileUtils.writeByteArrayToFile(a, new byte[11]);
+
+        assertFalse(digest.equals(cache.digest(a)));
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        final File file = new File(tmpDir, name);
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+        return file;
+    }
+}
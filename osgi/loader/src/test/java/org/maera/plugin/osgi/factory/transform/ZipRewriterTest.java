@@ -0,0 +1,113 @@
+package org.maera.plugin.osgi.factory.transform;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.maera.plugin.test.PluginTestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipRewriterTest {
+
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = PluginTestUtils.createTempDirectory(ZipRewriterTest.class);
+    }
+
+    @Test
+    public void testUnchangedEntriesAreCopiedVerbatim() throws IOException {
+        final File source = new File(tmpDir, "source.jar");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source));
+        // deflated entries written by ZipOutputStream use data descriptors
+        putEntry(out, "a.txt", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", ZipEntry.DEFLATED);
+        putEntry(out, "dir/", "", ZipEntry.STORED);
+        putEntry(out, "dir/b.txt", "bbb", ZipEntry.STORED);
+        putEntry(out, "c.txt", "old", ZipEntry.DEFLATED);
+        out.close();
+
+        final Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        files.put("c.txt", "new".getBytes());
+        files.put("META-INF/spring/", new byte[0]);
+        files.put("d.xml", "<beans/>".getBytes());
+        final File target = new File(tmpDir, "target.jar");
+        ZipRewriter.rewrite(source, files, target);
+
+        final Map<String, String> contents = readWithStream(target);
+        assertEquals("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", contents.get("a.txt"));
+        assertEquals("", contents.get("dir/"));
+        assertEquals("bbb", contents.get("dir/b.txt"));
+        assertEquals("new", contents.get("c.txt"));
+        assertEquals("", contents.get("META-INF/spring/"));
+        assertEquals("<beans/>", contents.get("d.xml"));
+        assertEquals(6, contents.size());
+
+        final ZipFile sourceZip = new ZipFile(source);
+        final ZipFile targetZip = new ZipFile(target);
+        try {
+            assertEquals(6, targetZip.size());
+            assertEquals(sourceZip.getEntry("a.txt").getCompressedSize(), targetZip.getEntry("a.txt").getCompressedSize());
+            assertEquals(sourceZip.getEntry("a.txt").getTime(), targetZip.getEntry("a.txt").getTime());
+            assertEquals("new", IOUtils.toString(targetZip.getInputStream(targetZip.getEntry("c.txt"))));
+            assertEquals("<beans/>", IOUtils.toString(targetZip.getInputStream(targetZip.getEntry("d.xml"))));
+            assertTrue(targetZip.getEntry("META-INF/spring/").isDirectory());
+        }
+        finally {
+            sourceZip.close();
+            targetZip.close();
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testNotAZip() throws IOException {
+        final File source = new File(tmpDir, "source.txt");
+        FileUtils.writeStringToFile(source, "not a zip");
+        ZipRewriter.rewrite(source, new HashMap<String, byte[]>(), new File(tmpDir, "target.jar"));
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, String contents, int method) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            final CRC32 crc = new CRC32();
+            crc.update(contents.getBytes());
+            entry.setSize(contents.length());
+            entry.setCompressedSize(contents.length());
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents.getBytes());
+        out.closeEntry();
+    }
+
+    private static Map<String, String> readWithStream(File zip) throws IOException {
+        final Map<String, String> contents = new HashMap<String, String>();
+        final ZipInputStream in = new ZipInputStream(new FileInputStream(zip));
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                contents.put(entry.getName(), IOUtils.toString(in));
+            }
+        }
+        finally {
+            in.close();
+        }
+        return contents;
+    }
+}
@@ -8,10 +8,14 @@ import org.maera.plugin.hostcontainer.HostContainer;
 import org.maera.plugin.osgi.hostcomponents.HostComponentRegistration;
 import org.osgi.framework.BundleContext;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
 
 import static org.junit.Assert.*;
 
@@ -109,6 +113,54 @@ public class DefaultComponentRegistrarTest {
         assertEquals(0, registrar.getRegistry().size());
     }
 
+    @Test
+    public void testWrapServiceSetsContextClassLoader() throws Exception {
+        final ClassLoader serviceClassLoader = getClass().getClassLoader();
+        final ClassLoader otherClassLoader = new URLClassLoader(new URL[0], null);
+        Callable<?> service = (Callable<?>) new DefaultComponentRegistrar().wrapService(new Class[]{Callable.class}, new ContextClassLoaderCallable());
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader original = thread.getContextClassLoader();
+        try {
+            thread.setContextClassLoader(otherClassLoader);
+            assertSame(serviceClassLoader, service.call());
+            assertSame(otherClassLoader, thread.getContextClassLoader());
+
+            thread.setContextClassLoader(serviceClassLoader);
+            assertSame(serviceClassLoader, service.call());
+            assertSame(serviceClassLoader, thread.getContextClassLoader());
+        }
+        finally {
+            thread.setContextClassLoader(original);
+        }
+    }
+
+    @Test
+    public void testWrapServiceThrowsOriginalException() {
+        Callable<?> service = (Callable<?>) new DefaultComponentRegistrar().wrapService(new Class[]{Callable.class}, new Callable<Object>() {
+            public Object call() throws Exception {
+                throw new IOException("bad");
+            }
+        });
+        try {
+            service.call();
+            fail("Should have thrown the service's exception");
+        }
+        catch (Exception e) {
+            assertTrue(e instanceof IOException);
+            assertEquals("bad", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testWrapServiceSharesProxyClass() {
+        DefaultComponentRegistrar registrar = new DefaultComponentRegistrar();
+        Object first = registrar.wrapService(new Class[]{Callable.class}, new ContextClassLoaderCallable());
+        Object second = registrar.wrapService(new Class[]{Callable.class}, new ContextClassLoaderCallable());
+        assertNotSame(first, second);
+        assertSame(first.getClass(), second.getClass());
+    }
+
     private void registerInMock(Mock mockBundleContext, Class[] ifs, Object instance, String name) {
         Dictionary<String, String> properties = new Hashtable<String, String>();
         properties.put(DefaultPropertyBuilder.BEAN_NAME, name);
@@ -150,4 +202,10 @@ public class DefaultComponentRegistrarTest {
             return false;
         }
     }
+
+    static class ContextClassLoaderCallable implements Callable<ClassLoader> {
+        public ClassLoader call() {
+            return Thread.currentThread().getContextClassLoader();
+        }
+    }
 }
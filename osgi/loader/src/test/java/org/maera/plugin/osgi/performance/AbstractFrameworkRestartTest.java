@@ -6,18 +6,26 @@ import org.junit.Test;
 import org.maera.plugin.DefaultModuleDescriptorFactory;
 import org.maera.plugin.hostcontainer.DefaultHostContainer;
 import org.maera.plugin.osgi.AbstractPluginInContainerTest;
+import org.maera.plugin.osgi.Callable2;
 import org.maera.plugin.osgi.DummyModuleDescriptor;
 import org.maera.plugin.osgi.SomeInterface;
 import org.maera.plugin.osgi.hostcomponents.ComponentRegistrar;
 import org.maera.plugin.osgi.hostcomponents.HostComponentProvider;
 import org.osgi.framework.Bundle;
+import org.osgi.util.tracker.ServiceTracker;
 
 import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests the plugin framework handling restarts correctly
@@ -25,6 +33,7 @@ import static org.junit.Assert.assertEquals;
 public abstract class AbstractFrameworkRestartTest extends AbstractPluginInContainerTest {
     private static final int NUM_HOST_COMPONENTS = 200;
     private static final int NUM_PLUGINS = 50;
+    private static final int NUM_HOST_COMPONENT_CALLS = 10000;
     HostComponentProvider prov = null;
     DefaultModuleDescriptorFactory factory = null;
 
@@ -37,8 +46,7 @@ public abstract class AbstractFrameworkRestartTest extends AbstractPluginInConta
         prov = new HostComponentProvider() {
             public void provide(final ComponentRegistrar registrar) {
                 for (int x = 0; x < NUM_HOST_COMPONENTS; x++) {
-                    registrar.register(SomeInterface.class).forInstance(new SomeInterface() {
-                    });
+                    registrar.register(SomeInterface.class, Callable2.class).forInstance(new HostComponent(x));
                 }
             }
         };
@@ -86,4 +94,58 @@ public abstract class AbstractFrameworkRestartTest extends AbstractPluginInConta
         startPluginFramework();
         pluginManager.shutdown();
     }
+
+    @Test
+    public void testHostComponentCalls() throws Exception {
+        startPluginFramework();
+        ServiceTracker tracker = osgiContainerManager.getServiceTracker(Callable2.class.getName());
+        Object[] services = tracker.getServices();
+        assertEquals(NUM_HOST_COMPONENTS, services.length);
+
+        // calls from plugin code, whose context class loader has to be swapped, and from host code, whose hasn't
+        final ClassLoader[] callerClassLoaders = {new URLClassLoader(new URL[0], null), HostComponent.class.getClassLoader()};
+        final Thread thread = Thread.currentThread();
+        final ClassLoader originalClassLoader = thread.getContextClassLoader();
+        final Set<String> results = new HashSet<String>();
+        try {
+            for (ClassLoader callerClassLoader : callerClassLoaders) {
+                thread.setContextClassLoader(callerClassLoader);
+                for (int x = 0; x < NUM_HOST_COMPONENT_CALLS; x++) {
+                    for (Object service : services) {
+                        results.add(((Callable2) service).call());
+                    }
+                }
+                assertSame(callerClassLoader, thread.getContextClassLoader());
+            }
+        }
+        finally {
+            thread.setContextClassLoader(originalClassLoader);
+        }
+
+        assertEquals(NUM_HOST_COMPONENTS, results.size());
+        for (int x = 0; x < NUM_HOST_COMPONENTS; x++) {
+            assertTrue(results.contains("component" + x));
+        }
+        tracker.close();
+        pluginManager.shutdown();
+    }
+
+    /**
+     * A host component that can only be called with its own class loader as the context class loader
+     */
+    public static class HostComponent implements SomeInterface, Callable2 {
+        private final String name;
+
+        public HostComponent(int id) {
+            this.name = "component" + id;
+        }
+
+        public String call() {
+            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            if (contextClassLoader != getClass().getClassLoader()) {
+                throw new IllegalStateException(name + " called with context class loader " + contextClassLoader);
+            }
+            return name;
+        }
+    }
 }
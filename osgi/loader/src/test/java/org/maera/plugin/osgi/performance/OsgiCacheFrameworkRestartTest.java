@@ -1,5 +1,15 @@
 package org.maera.plugin.osgi.performance;
 
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Tests the plugin framework handling restarts correctly
  */
@@ -8,4 +18,50 @@ public class OsgiCacheFrameworkRestartTest extends OsgiNoCacheFrameworkRestartTe
     protected void startPluginFramework() throws Exception {
         initPluginManager(prov, factory, "1.0");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWarmRestartReusesBundleCache() throws Exception {
+        startPluginFramework();
+        final Map<String, Long> installedIds = getBundleIds();
+        final Map<String, Long> installedTimes = getBundleInstallTimes();
+        pluginManager.shutdown();
+        assertTrue(installedIds.size() > 1);
+
+        // restored bundles keep their ids and install times instead of being installed again
+        startPluginFramework();
+        assertEquals(installedIds, getBundleIds());
+        assertEquals(installedTimes, getBundleInstallTimes());
+        pluginManager.shutdown();
+
+        // a changed cache key throws the bundle cache away, so every bundle is installed again
+        assertTrue(new File(new File(cacheDir, "transformed-plugins"), "cache.key").delete());
+        startPluginFramework();
+        final Map<String, Long> reinstalledTimes = getBundleInstallTimes();
+        pluginManager.shutdown();
+        assertEquals(installedTimes.keySet(), reinstalledTimes.keySet());
+        for (Map.Entry<String, Long> entry : installedTimes.entrySet()) {
+            assertTrue(entry.getKey(), reinstalledTimes.get(entry.getKey()) > entry.getValue());
+        }
+    }
+
+    private Map<String, Long> getBundleIds() {
+        final Map<String, Long> ids = new HashMap<String, Long>();
+        for (Bundle bundle : osgiContainerManager.getBundles()) {
+            ids.put(bundle.getLocation(), bundle.getBundleId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return the install times of the bundles by location, leaving out the system bundle
+     */
+    private Map<String, Long> getBundleInstallTimes() {
+        final Map<String, Long> times = new HashMap<String, Long>();
+        for (Bundle bundle : osgiContainerManager.getBundles()) {
+            if (bundle.getBundleId() != 0) {
+                times.put(bundle.getLocation(), bundle.getLastModified());
+            }
+        }
+        return times;
+    }
+}
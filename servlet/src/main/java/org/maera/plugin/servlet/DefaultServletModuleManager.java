@@ -33,6 +33,11 @@ import static org.maera.plugin.servlet.descriptors.ServletFilterModuleDescriptor
 /**
  * A simple servletModuleManager to track and retrieve the loaded servlet plugin
  * modules.
+ * <p/>
+ * The servlet and filter modules are kept in registries that are replaced, rather than modified, whenever a module is
+ * added or removed, so requests read them without locking.  Modules are added and removed one at a time, and a
+ * module's descriptor is registered before its paths are mapped, and its paths unmapped before its descriptor is
+ * unregistered, so a path never maps to a module a request can't find.
  *
  * @since 2.1.0
  */
@@ -40,13 +45,19 @@ public class DefaultServletModuleManager implements ServletModuleManager {
     private static final Logger log = LoggerFactory.getLogger(DefaultServletModuleManager.class);
 
     private final PathMapper servletMapper;
-    private final Map<String, ServletModuleDescriptor> servletDescriptors = new HashMap<String, ServletModuleDescriptor>();
+    private final DescriptorRegistry<ServletModuleDescriptor> servletDescriptors = new DescriptorRegistry<ServletModuleDescriptor>();
     private final ConcurrentMap<String, LazyReference<HttpServlet>> servletRefs = new ConcurrentHashMap<String, LazyReference<HttpServlet>>();
 
     private final PathMapper filterMapper;
-    private final Map<String, ServletFilterModuleDescriptor> filterDescriptors = new HashMap<String, ServletFilterModuleDescriptor>();
+    private final DescriptorRegistry<ServletFilterModuleDescriptor> filterDescriptors = new DescriptorRegistry<ServletFilterModuleDescriptor>();
     private final ConcurrentMap<String, LazyReference<Filter>> filterRefs = new ConcurrentHashMap<String, LazyReference<Filter>>();
 
+    // the resolved filters, rebuilt when a filter module is added or removed
+    private volatile FilterChains filterChains = new FilterChains();
+
+    // held while adding or removing modules, so the registries and path mappers are changed one module at a time
+    private final Object moduleLock = new Object();
+
     private final ConcurrentMap<Plugin, ContextLifecycleReference> pluginContextRefs = new ConcurrentHashMap<Plugin, ContextLifecycleReference>();
 
     /**
@@ -92,15 +103,18 @@ public class DefaultServletModuleManager implements ServletModuleManager {
     }
 
     public void addServletModule(final ServletModuleDescriptor descriptor) {
-        servletDescriptors.put(descriptor.getCompleteKey(), descriptor);
-
-        // for some reason the JDK complains about getPaths not returning a
-        // List<String> ?!?!?
-        final List<String> paths = descriptor.getPaths();
-        for (final String path : paths) {
-            servletMapper.put(descriptor.getCompleteKey(), path);
+        final LazyReference<HttpServlet> servletRef;
+        synchronized (moduleLock) {
+            servletDescriptors.put(descriptor.getCompleteKey(), descriptor);
+
+            // for some reason the JDK complains about getPaths not returning a
+            // List<String> ?!?!?
+            final List<String> paths = descriptor.getPaths();
+            for (final String path : paths) {
+                servletMapper.put(descriptor.getCompleteKey(), path);
+            }
+            servletRef = servletRefs.remove(descriptor.getCompleteKey());
         }
-        final LazyReference<HttpServlet> servletRef = servletRefs.remove(descriptor.getCompleteKey());
         if (servletRef != null) {
             servletRef.get().destroy();
         }
@@ -125,22 +139,28 @@ public class DefaultServletModuleManager implements ServletModuleManager {
     }
 
     public void removeServletModule(final ServletModuleDescriptor descriptor) {
-        servletDescriptors.remove(descriptor.getCompleteKey());
-        servletMapper.put(descriptor.getCompleteKey(), null);
-
-        final LazyReference<HttpServlet> servletRef = servletRefs.remove(descriptor.getCompleteKey());
+        final LazyReference<HttpServlet> servletRef;
+        synchronized (moduleLock) {
+            servletMapper.put(descriptor.getCompleteKey(), null);
+            servletDescriptors.remove(descriptor.getCompleteKey());
+            servletRef = servletRefs.remove(descriptor.getCompleteKey());
+        }
         if (servletRef != null) {
             servletRef.get().destroy();
         }
     }
 
     public void addFilterModule(final ServletFilterModuleDescriptor descriptor) {
-        filterDescriptors.put(descriptor.getCompleteKey(), descriptor);
+        final LazyReference<Filter> filterRef;
+        synchronized (moduleLock) {
+            filterDescriptors.put(descriptor.getCompleteKey(), descriptor);
 
-        for (final String path : descriptor.getPaths()) {
-            filterMapper.put(descriptor.getCompleteKey(), path);
+            for (final String path : descriptor.getPaths()) {
+                filterMapper.put(descriptor.getCompleteKey(), path);
+            }
+            filterRef = filterRefs.remove(descriptor.getCompleteKey());
+            filterChains = new FilterChains();
         }
-        final LazyReference<Filter> filterRef = filterRefs.remove(descriptor.getCompleteKey());
         if (filterRef != null) {
             filterRef.get().destroy();
         }
@@ -150,12 +170,45 @@ public class DefaultServletModuleManager implements ServletModuleManager {
         return getFilters(location, path, filterConfig, FilterDispatcherCondition.REQUEST);
     }
 
+    /**
+     * Returns the filters for the location, path and dispatcher condition, sorted by weight.
+     * <p/>
+     * The filters are resolved once for each path and remembered, up to a thousand paths for each
+     * location and condition, until a filter module is added or removed.  The returned list is shared and
+     * unmodifiable.
+     */
     public Iterable<Filter> getFilters(FilterLocation location, String path, FilterConfig filterConfig, FilterDispatcherCondition condition) throws ServletException {
         Validate.notNull(condition);
+        final ConcurrentMap<String, List<Filter>> chains = filterChains.get(location, condition);
+        List<Filter> filters = path == null ? null : chains.get(path);
+        if (filters == null) {
+            final List<Filter> resolved = new ArrayList<Filter>();
+            filters = Collections.unmodifiableList(resolved);
+            if (resolveFilters(location, path, filterConfig, condition, resolved) && path != null) {
+                if (chains.size() >= FilterChains.MAX_CACHED_PATHS) {
+                    chains.clear();
+                }
+                chains.put(path, filters);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Adds the filters for the location, path and dispatcher condition to the given list, sorted by weight.
+     *
+     * @return false if any of the filters couldn't be created, in which case they shouldn't be remembered
+     */
+    private boolean resolveFilters(FilterLocation location, String path, FilterConfig filterConfig, FilterDispatcherCondition condition,
+                                   List<Filter> filters) {
         final List<ServletFilterModuleDescriptor> matchingFilterDescriptors = new ArrayList<ServletFilterModuleDescriptor>();
 
         for (final String completeKey : filterMapper.getAll(path)) {
             final ServletFilterModuleDescriptor descriptor = filterDescriptors.get(completeKey);
+            if (descriptor == null) {
+                // the module was removed after its path was matched
+                continue;
+            }
             if (!descriptor.getDispatcherConditions().contains(condition)) {
                 if (log.isTraceEnabled()) {
                     log.trace("Skipping filter " + descriptor.getCompleteKey() + " as condition " + condition +
@@ -168,17 +221,18 @@ public class DefaultServletModuleManager implements ServletModuleManager {
                 sortedInsert(matchingFilterDescriptors, descriptor, byWeight);
             }
         }
-        final List<Filter> filters = new LinkedList<Filter>();
+        boolean complete = true;
         for (final ServletFilterModuleDescriptor descriptor : matchingFilterDescriptors) {
             final Filter filter = getFilter(descriptor, filterConfig);
             if (filter == null) {
                 filterRefs.remove(descriptor.getCompleteKey());
+                complete = false;
             } else {
-                filters.add(getFilter(descriptor, filterConfig));
+                filters.add(filter);
             }
         }
 
-        return filters;
+        return complete;
     }
 
     static <T> void sortedInsert(final List<T> list, final T e, final Comparator<T> comparator) {
@@ -198,10 +252,13 @@ public class DefaultServletModuleManager implements ServletModuleManager {
     }
 
     public void removeFilterModule(final ServletFilterModuleDescriptor descriptor) {
-        filterDescriptors.remove(descriptor.getCompleteKey());
-        filterMapper.put(descriptor.getCompleteKey(), null);
-
-        final LazyReference<Filter> filterRef = filterRefs.remove(descriptor.getCompleteKey());
+        final LazyReference<Filter> filterRef;
+        synchronized (moduleLock) {
+            filterMapper.put(descriptor.getCompleteKey(), null);
+            filterDescriptors.remove(descriptor.getCompleteKey());
+            filterRef = filterRefs.remove(descriptor.getCompleteKey());
+            filterChains = new FilterChains();
+        }
         if (filterRef != null) {
             filterRef.get().destroy();
         }
@@ -329,6 +386,55 @@ public class DefaultServletModuleManager implements ServletModuleManager {
         return pluginContextRef.get().servletContext;
     }
 
+    /**
+     * The module descriptors by complete key, in a map that is replaced on every change so it can be read without
+     * locking
+     */
+    private static final class DescriptorRegistry<D extends ModuleDescriptor<?>> {
+        private volatile Map<String, D> descriptors = Collections.emptyMap();
+
+        D get(final String completeKey) {
+            return descriptors.get(completeKey);
+        }
+
+        synchronized void put(final String completeKey, final D descriptor) {
+            final Map<String, D> updated = new HashMap<String, D>(descriptors);
+            updated.put(completeKey, descriptor);
+            descriptors = updated;
+        }
+
+        synchronized void remove(final String completeKey) {
+            if (descriptors.containsKey(completeKey)) {
+                final Map<String, D> updated = new HashMap<String, D>(descriptors);
+                updated.remove(completeKey);
+                descriptors = updated;
+            }
+        }
+    }
+
+    /**
+     * The resolved filters by path, for each location and dispatcher condition
+     */
+    private static final class FilterChains {
+        static final int MAX_CACHED_PATHS = 1000;
+
+        private final ConcurrentMap<String, List<Filter>>[][] chains;
+
+        @SuppressWarnings("unchecked")
+        FilterChains() {
+            chains = new ConcurrentMap[FilterLocation.values().length][FilterDispatcherCondition.values().length];
+            for (final ConcurrentMap<String, List<Filter>>[] chainsByCondition : chains) {
+                for (int i = 0; i < chainsByCondition.length; i++) {
+                    chainsByCondition[i] = new ConcurrentHashMap<String, List<Filter>>();
+                }
+            }
+        }
+
+        ConcurrentMap<String, List<Filter>> get(final FilterLocation location, final FilterDispatcherCondition condition) {
+            return chains[location.ordinal()][condition.ordinal()];
+        }
+    }
+
     private static final class LazyLoadedFilterReference extends LazyReference<Filter> {
         private final ServletFilterModuleDescriptor descriptor;
         private final ServletContext servletContext;
@@ -25,16 +25,19 @@ public class DelegatingPluginServlet extends HttpServlet {
 
     private final HttpServlet servlet;
 
+    private final PluginHttpRequestWrapper.BasePaths basePaths;
+
     public DelegatingPluginServlet(final ServletModuleDescriptor descriptor) {
         this.descriptor = descriptor;
         servlet = descriptor.getModule();
+        basePaths = new PluginHttpRequestWrapper.BasePaths(descriptor);
     }
 
     @Override
     public void service(final HttpServletRequest req, final HttpServletResponse res) throws ServletException, IOException {
         ClassLoaderStack.push(descriptor.getPlugin().getClassLoader());
         try {
-            servlet.service(new PluginHttpRequestWrapper(req, descriptor), res);
+            servlet.service(basePaths.wrap(req), res);
         }
         finally {
             ClassLoaderStack.pop();
@@ -5,16 +5,23 @@ import org.maera.plugin.servlet.descriptors.BaseServletModuleDescriptor;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A request wrapper for requests bound for servlets declared in plugins.  Does the necessary path
  * munging for requests so that they look like they are
  * <p/>
  * Also wraps the HttpSession in order to work around the Weblogic Session Attribute serialization problem (see PLUG-515)
+ * <p/>
+ * The delegating servlets and filters wrap every request they handle, so they work out their module's base paths once,
+ * as {@link BasePaths}, and use it to wrap each request with its base path already matched.  The session wrapper is
+ * created once per request rather than on every call to {@link #getSession}.
  */
 public class PluginHttpRequestWrapper extends HttpServletRequestWrapper {
     private final String basePath;
     private HttpServletRequest delegate;
+    private PluginHttpSessionWrapper sessionWrapper;
 
     public PluginHttpRequestWrapper(HttpServletRequest request, BaseServletModuleDescriptor<?> descriptor) {
         super(request);
@@ -22,6 +29,12 @@ public class PluginHttpRequestWrapper extends HttpServletRequestWrapper {
         this.basePath = findBasePath(descriptor);
     }
 
+    private PluginHttpRequestWrapper(HttpServletRequest request, String basePath) {
+        super(request);
+        this.delegate = request;
+        this.basePath = basePath;
+    }
+
     public String getServletPath() {
         String servletPath = super.getServletPath();
         if (basePath != null) {
@@ -61,27 +74,14 @@ public class PluginHttpRequestWrapper extends HttpServletRequestWrapper {
      * move onto the next one.
      */
     private String findBasePath(BaseServletModuleDescriptor<?> descriptor) {
-        String pathInfo = super.getPathInfo();
-        if (pathInfo != null) {
-            for (String basePath : descriptor.getPaths()) {
-                if (isPathMapping(basePath)) {
-                    if (pathInfo.startsWith(getMappingRootPath(basePath))) {
-                        return getMappingRootPath(basePath);
-                    }
-                } else if (basePath.equals(pathInfo)) {
-                    // Exact match
-                    return basePath;
-                }
-            }
-        }
-        return null;
+        return new BasePaths(descriptor).find(super.getPathInfo());
     }
 
-    private boolean isPathMapping(String path) {
+    private static boolean isPathMapping(String path) {
         return path.startsWith("/") && path.endsWith("/*");
     }
 
-    private String getMappingRootPath(String pathMapping) {
+    private static String getMappingRootPath(String pathMapping) {
         return pathMapping.substring(0, pathMapping.length() - 2);
     }
 
@@ -96,9 +96,67 @@ public class PluginHttpRequestWrapper extends HttpServletRequestWrapper {
         if (session == null) {
             // The delegate returned a null session - so do we.
             return null;
+        } else if (session instanceof PluginHttpSessionWrapper) {
+            // Already wrapped by a plugin request further up the chain, and wrapping it again would pop the class
+            // loader stack twice
+            return session;
         } else {
-            // Wrap this non-null HttpSession
-            return new PluginHttpSessionWrapper(session);
+            // Wrap this non-null HttpSession, once for as long as the request has the same session
+            PluginHttpSessionWrapper wrapper = sessionWrapper;
+            if (wrapper == null || !wrapper.wraps(session)) {
+                wrapper = new PluginHttpSessionWrapper(session);
+                sessionWrapper = wrapper;
+            }
+            return wrapper;
+        }
+    }
+
+    /**
+     * The base paths of a servlet or filter module, worked out from its paths once so that matching a request against
+     * them doesn't allocate.  Only path mappings, such as <code>/servlet/*</code>, and exact paths have a base path,
+     * and they are matched in the order they were declared.
+     *
+     * @since 0.1
+     */
+    public static final class BasePaths {
+        private final String[] basePaths;
+        private final boolean[] pathMappings;
+
+        public BasePaths(BaseServletModuleDescriptor<?> descriptor) {
+            List<String> paths = descriptor == null ? null : descriptor.getPaths();
+            if (paths == null) {
+                paths = Collections.emptyList();
+            }
+            basePaths = new String[paths.size()];
+            pathMappings = new boolean[paths.size()];
+            for (int x = 0; x < basePaths.length; x++) {
+                final String path = paths.get(x);
+                pathMappings[x] = isPathMapping(path);
+                basePaths[x] = pathMappings[x] ? getMappingRootPath(path) : path;
+            }
+        }
+
+        /**
+         * @param pathInfo the path info of the request, may be null
+         * @return the base path the path info falls under, or null if there isn't one
+         */
+        public String find(String pathInfo) {
+            if (pathInfo != null) {
+                for (int x = 0; x < basePaths.length; x++) {
+                    if (pathMappings[x] ? pathInfo.startsWith(basePaths[x]) : basePaths[x].equals(pathInfo)) {
+                        return basePaths[x];
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param request the request bound for the module
+         * @return the request, wrapped with the base path it falls under
+         */
+        public PluginHttpRequestWrapper wrap(HttpServletRequest request) {
+            return new PluginHttpRequestWrapper(request, find(request.getPathInfo()));
         }
     }
 }
@@ -23,6 +23,10 @@ public class PluginHttpSessionWrapper implements HttpSession {
         this.delegate = session;
     }
 
+    boolean wraps(final HttpSession session) {
+        return delegate == session;
+    }
+
     public Object getAttribute(final String name) {
         // Trick WLS by putting the WebAppClassLoader back into this thread's ContextClassLoader for the duration of the
         //  getAttribute() call. See PLUG-515.
@@ -15,16 +15,23 @@ import java.io.IOException;
  * <li>set the Threads classloader to the plugins classloader)</li>
  * <li>wrap the request so that path info is right for the filters</li>
  * </ul>
+ * <p/>
+ * When the plugin's classloader is already the Threads classloader, the request is passed straight through to the
+ * filter with the same chain.  This happens when code of the plugin, such as one of its servlets, forwards or includes
+ * a request that this filter is mapped for.  It does not happen for filters of the same plugin further up the chain,
+ * as they put the previous classloader back before the rest of the chain runs.
  *
  * @since 2.1.0
  */
 public class DelegatingPluginFilter implements Filter {
     private final ServletFilterModuleDescriptor descriptor;
     private final Filter filter;
+    private final PluginHttpRequestWrapper.BasePaths basePaths;
 
     public DelegatingPluginFilter(ServletFilterModuleDescriptor descriptor) {
         this.descriptor = descriptor;
         this.filter = descriptor.getModule();
+        this.basePaths = new PluginHttpRequestWrapper.BasePaths(descriptor);
     }
 
     public void init(FilterConfig filterConfig) throws ServletException {
@@ -37,24 +44,21 @@ public class DelegatingPluginFilter implements Filter {
         }
     }
 
-    public void doFilter(ServletRequest request, ServletResponse response, final FilterChain chain)
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
             throws IOException, ServletException {
-        ClassLoaderStack.push(descriptor.getPlugin().getClassLoader());
+        final ClassLoader pluginClassLoader = descriptor.getPlugin().getClassLoader();
+        final PluginHttpRequestWrapper wrappedRequest = basePaths.wrap((HttpServletRequest) request);
+        if (pluginClassLoader == null || pluginClassLoader == Thread.currentThread().getContextClassLoader()) {
+            // a forward or include from the plugin's own code: the chain already runs with the plugin's classloader
+            filter.doFilter(wrappedRequest, response, chain);
+            return;
+        }
+
+        ClassLoaderStack.push(pluginClassLoader);
         try {
             // Reset the classloader during chain execution to prevent plugin's classloader being used for the duration
             // of the request
-            FilterChain resetContextClassLoaderChain = new FilterChain() {
-                public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse) throws IOException, ServletException {
-                    ClassLoaderStack.pop();
-                    try {
-                        chain.doFilter(servletRequest, servletResponse);
-                    }
-                    finally {
-                        ClassLoaderStack.push(descriptor.getPlugin().getClassLoader());
-                    }
-                }
-            };
-            filter.doFilter(new PluginHttpRequestWrapper((HttpServletRequest) request, descriptor), response, resetContextClassLoaderChain);
+            filter.doFilter(wrappedRequest, response, new ResetContextClassLoaderChain(chain, pluginClassLoader));
         }
         finally {
             ClassLoaderStack.pop();
@@ -74,4 +78,27 @@ public class DelegatingPluginFilter implements Filter {
     public Filter getDelegatingFilter() {
         return filter;
     }
+
+    /**
+     * Puts the classloader from before the plugin's filter back while the rest of the chain runs
+     */
+    private static final class ResetContextClassLoaderChain implements FilterChain {
+        private final FilterChain chain;
+        private final ClassLoader pluginClassLoader;
+
+        ResetContextClassLoaderChain(FilterChain chain, ClassLoader pluginClassLoader) {
+            this.chain = chain;
+            this.pluginClassLoader = pluginClassLoader;
+        }
+
+        public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse) throws IOException, ServletException {
+            ClassLoaderStack.pop();
+            try {
+                chain.doFilter(servletRequest, servletResponse);
+            }
+            finally {
+                ClassLoaderStack.push(pluginClassLoader);
+            }
+        }
+    }
 }
@@ -3,6 +3,7 @@ package org.maera.plugin.servlet.filter;
 import javax.servlet.*;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This FilterChain passes control from the first Filter in an iterator to the last.  When the last iterator
@@ -12,7 +13,9 @@ import java.util.Iterator;
  */
 public final class IteratingFilterChain implements FilterChain {
     private final Iterator<Filter> iterator;
+    private final List<Filter> filters;
     private final FilterChain chain;
+    private int index;
 
     /**
      * Create a new IteratingFilterChain which iterates over the Filters in the supplied Iterator and then returns
@@ -24,11 +27,33 @@ public final class IteratingFilterChain implements FilterChain {
      */
     public IteratingFilterChain(Iterator<Filter> iterator, FilterChain chain) {
         this.iterator = iterator;
+        this.filters = null;
+        this.chain = chain;
+    }
+
+    /**
+     * Create a new IteratingFilterChain which steps through the Filters in the supplied list by index, without an
+     * iterator, and then returns control to the main FilterChain.  The list should support fast random access.
+     *
+     * @param filters The Filters to apply
+     * @param chain   FilterChain to return control to after the last Filter in the list has called the
+     *                chain.doFilter(request, response) method.
+     * @since 0.1
+     */
+    public IteratingFilterChain(List<Filter> filters, FilterChain chain) {
+        this.iterator = null;
+        this.filters = filters;
         this.chain = chain;
     }
 
     public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
-        if (iterator.hasNext()) {
+        if (filters != null) {
+            if (index < filters.size()) {
+                filters.get(index++).doFilter(request, response, this);
+            } else {
+                chain.doFilter(request, response);
+            }
+        } else if (iterator.hasNext()) {
             Filter filter = iterator.next();
             filter.doFilter(request, response, this);
         } else {
@@ -11,6 +11,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Applications need to create a concrete subclass of this for use in their filter stack.  This filters responsiblity
@@ -61,7 +63,18 @@ public class ServletFilterModuleContainerFilter implements Filter {
         }
 
         final Iterable<Filter> filters = getServletModuleManager().getFilters(location, getUri(request), filterConfig, condition);
-        FilterChain pluginFilterChain = new IteratingFilterChain(filters.iterator(), chain);
+        final FilterChain pluginFilterChain;
+        if (filters instanceof List && filters instanceof RandomAccess) {
+            @SuppressWarnings("unchecked")
+            final List<Filter> filterList = (List<Filter>) filters;
+            if (filterList.isEmpty()) {
+                chain.doFilter(request, response);
+                return;
+            }
+            pluginFilterChain = new IteratingFilterChain(filterList, chain);
+        } else {
+            pluginFilterChain = new IteratingFilterChain(filters.iterator(), chain);
+        }
         pluginFilterChain.doFilter(request, response);
     }
 
@@ -1,10 +1,9 @@
 package org.maera.plugin.servlet.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Pattern;
 
 /**
  * Originally copied from Atlassian Seraph 1.0
@@ -14,38 +13,33 @@ import java.util.regex.Pattern;
  * path, while the getAll() method returns the aggregate matches.
  * <p/>
  * In practice, matching a servlet path should use the get() method and matching filters should use the getAll() method.
+ * <p/>
+ * The patterns are compiled into an immutable lookup structure whenever they change, which is published
+ * through a volatile field so lookups never lock.  Complex patterns are indexed in a trie by the literal characters
+ * before their first wildcard, and patterns that are a wildcard followed by literal characters, such as
+ * {@code *.xml}, in a trie of their reversed suffixes.  A lookup walks each trie once along the path, so its cost
+ * depends on the length of the path rather than the number of patterns; only patterns with wildcards after their
+ * literal prefix are checked further.  When several complex patterns match, they are returned in the order they were
+ * added.
  *
  * @since 2.1.0
  */
 public class DefaultPathMapper implements Serializable, PathMapper {
 
-    private static final Pattern REDUNDANT_SLASHES = Pattern.compile("//+");
     private static final String[] DEFAULT_KEYS = {"/", "*", "/*"};
 
-    private final Map<String, Collection<String>> mappings = new HashMap<String, Collection<String>>();
-    private final Set<String> complexPaths = new HashSet<String>();
-
-    private final KeyMatcher matcher = new KeyMatcher();
+    // the mappings in the order the patterns were added, guarded by this
+    private final Map<String, Collection<String>> mappings = new LinkedHashMap<String, Collection<String>>();
 
-    // common use of this class is reentrant read-mostly (quite expensive calls too)
-    // we don't want these reads to block each other so use a RWLock
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private transient volatile CompiledMappings compiled = CompiledMappings.EMPTY;
 
-    public void put(final String key, final String pattern) {
-        lock.writeLock().lock();
-        try {
-            if (pattern == null) {
-                removeMappingsForKey(key);
-                return;
-            }
+    public synchronized void put(final String key, final String pattern) {
+        if (pattern == null) {
+            removeMappingsForKey(key);
+        } else {
             addMapping(pattern, key);
-            if ((pattern.indexOf('?') > -1) || ((pattern.indexOf("*") > -1) && (pattern.length() > 1))) {
-                complexPaths.add(pattern);
-            }
-        }
-        finally {
-            lock.writeLock().unlock();
         }
+        compiled = new CompiledMappings(mappings);
     }
 
     private void addMapping(String pattern, String key) {
@@ -57,13 +51,10 @@ public class DefaultPathMapper implements Serializable, PathMapper {
         keys.add(key);
     }
 
-    // must be called under lock
-
     private void removeMappingsForKey(final String key) {
         for (final Iterator<Map.Entry<String, Collection<String>>> it = mappings.entrySet().iterator(); it.hasNext();) {
             final Map.Entry<String, Collection<String>> entry = it.next();
             if (entry.getValue().remove(key) && entry.getValue().isEmpty()) {
-                complexPaths.remove(entry.getKey());
                 it.remove();
             }
         }
@@ -71,24 +62,24 @@ public class DefaultPathMapper implements Serializable, PathMapper {
 
     public String get(String path) {
         path = removeRedundantSlashes(path);
-        lock.readLock().lock();
-        try {
-            if (path == null) {
-                path = "/";
-            }
-            final String mapped = matcher.findKey(path, mappings, complexPaths);
-            if (mapped == null) {
-                return null;
-            }
-            Collection<String> keys = mappings.get(mapped);
-            if (keys.isEmpty()) {
-                return null;
+        if (path == null) {
+            path = "/";
+        }
+        final CompiledMappings current = compiled;
+        Collection<String> keys = current.exact.get(path);
+        if (keys == null) {
+            final ComplexPattern complex = current.findFirstComplexPattern(path);
+            if (complex != null) {
+                keys = complex.keys;
             }
-            return keys.iterator().next();
         }
-        finally {
-            lock.readLock().unlock();
+        if (keys == null && !current.defaults.isEmpty()) {
+            keys = current.defaults.get(0);
+        }
+        if (keys == null || keys.isEmpty()) {
+            return null;
         }
+        return keys.iterator().next();
     }
 
     /*
@@ -97,34 +88,25 @@ public class DefaultPathMapper implements Serializable, PathMapper {
 
     public Collection<String> getAll(String path) {
         path = removeRedundantSlashes(path);
-        lock.readLock().lock();
-        try {
-            if (path == null) {
-                path = "/";
-            }
-            final Set<String> matches = new LinkedHashSet<String>();
-            // find exact keys
-            final String exactKey = matcher.findExactKey(path, mappings);
-            if (exactKey != null) {
-                matches.addAll(mappings.get(exactKey));
-            }
-            // find complex keys
-            for (final Iterator<String> iterator = matcher.findComplexKeys(path, complexPaths).iterator(); iterator.hasNext();) {
-                final String mapped = iterator.next();
-                if (mappings.containsKey(mapped)) {
-                    matches.addAll(mappings.get(mapped));
-                }
-            }
-            // find default keys
-            for (final Iterator<String> iterator = matcher.findDefaultKeys(mappings).iterator(); iterator.hasNext();) {
-                final String mapped = iterator.next();
-                matches.addAll(mappings.get(mapped));
-            }
-            return Collections.unmodifiableCollection(matches);
+        if (path == null) {
+            path = "/";
+        }
+        final CompiledMappings current = compiled;
+        final Set<String> matches = new LinkedHashSet<String>();
+        // find exact keys
+        final Collection<String> exactKeys = current.exact.get(path);
+        if (exactKeys != null) {
+            matches.addAll(exactKeys);
+        }
+        // find complex keys
+        for (final ComplexPattern complex : current.findComplexPatterns(path)) {
+            matches.addAll(complex.keys);
         }
-        finally {
-            lock.readLock().unlock();
+        // find default keys
+        for (final Collection<String> defaultKeys : current.defaults) {
+            matches.addAll(defaultKeys);
         }
+        return Collections.unmodifiableCollection(matches);
     }
 
     /**
@@ -138,102 +120,209 @@ public class DefaultPathMapper implements Serializable, PathMapper {
      *         consecutive slash removed (e.g. {@code "foo/bar"})
      */
     protected String removeRedundantSlashes(final String path) {
-        return path == null ? null : REDUNDANT_SLASHES.matcher(path).replaceAll("/");
+        if (path == null) {
+            return null;
+        }
+        final int first = path.indexOf("//");
+        if (first < 0) {
+            // the common case, which returns the path itself
+            return path;
+        }
+        final StringBuilder normalised = new StringBuilder(path.length() - 1);
+        normalised.append(path, 0, first + 1);
+        for (int i = first + 2; i < path.length(); i++) {
+            final char ch = path.charAt(i);
+            if (ch != '/' || path.charAt(i - 1) != '/') {
+                normalised.append(ch);
+            }
+        }
+        return normalised.toString();
     }
 
-    public String toString() {
-        final StringBuffer sb = new StringBuffer(30 * (mappings.size() + complexPaths.size()));
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        compiled = new CompiledMappings(mappings);
+    }
+
+    public synchronized String toString() {
+        final CompiledMappings current = compiled;
+        final StringBuffer sb = new StringBuffer(30 * (mappings.size() + current.complexPatterns.size()));
         sb.append("Mappings:\n");
         for (final Iterator<String> iterator = mappings.keySet().iterator(); iterator.hasNext();) {
             final String key = (String) iterator.next();
             sb.append(key).append("=").append(mappings.get(key)).append("\n");
         }
         sb.append("Complex Paths:\n");
-        for (final Iterator<String> iterator = complexPaths.iterator(); iterator.hasNext();) {
-            final String path = (String) iterator.next();
-            sb.append(path).append("\n");
+        for (final Iterator<ComplexPattern> iterator = current.complexPatterns.iterator(); iterator.hasNext();) {
+            final ComplexPattern path = iterator.next();
+            sb.append(path.pattern).append("\n");
         }
 
         return sb.toString();
     }
 
-    private final class KeyMatcher {
-        /**
-         * Find exact key in mappings.
-         */
-        String findKey(final String path, final Map<String, Collection<String>> mappings, final Set<String> keys) {
-            String result = findExactKey(path, mappings);
-            if (result == null) {
-                result = findComplexKey(path, keys);
+    private static boolean isComplex(final String pattern) {
+        return (pattern.indexOf('?') > -1) || ((pattern.indexOf("*") > -1) && (pattern.length() > 1));
+    }
+
+    /**
+     * An immutable, compiled copy of the mappings
+     */
+    private static final class CompiledMappings {
+        static final CompiledMappings EMPTY = new CompiledMappings(Collections.<String, Collection<String>>emptyMap());
+
+        final Map<String, Collection<String>> exact = new HashMap<String, Collection<String>>();
+        final List<Collection<String>> defaults = new ArrayList<Collection<String>>(DEFAULT_KEYS.length);
+        final List<ComplexPattern> complexPatterns = new ArrayList<ComplexPattern>();
+        private final CharNode prefixes = new CharNode();
+        private final CharNode suffixes = new CharNode();
+
+        CompiledMappings(final Map<String, Collection<String>> mappings) {
+            for (final Map.Entry<String, Collection<String>> entry : mappings.entrySet()) {
+                final Collection<String> keys = Collections.unmodifiableList(new ArrayList<String>(entry.getValue()));
+                exact.put(entry.getKey(), keys);
+                if (isComplex(entry.getKey())) {
+                    final ComplexPattern complex = new ComplexPattern(entry.getKey(), complexPatterns.size(), keys);
+                    complexPatterns.add(complex);
+                    index(complex);
+                }
             }
-            if (result == null) {
-                result = findDefaultKey(mappings);
+            for (final String defaultKey : DEFAULT_KEYS) {
+                if (exact.containsKey(defaultKey)) {
+                    defaults.add(exact.get(defaultKey));
+                }
             }
-            return result;
         }
 
-        /**
-         * Check if path matches exact pattern ( /blah/blah.jsp ).
-         */
-        String findExactKey(final String path, final Map<String, Collection<String>> mappings) {
-            if (mappings.containsKey(path)) {
-                return path;
+        private void index(final ComplexPattern complex) {
+            final String pattern = complex.pattern;
+            int wildcard = 0;
+            while (pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?') {
+                wildcard++;
+            }
+            final String rest = pattern.substring(wildcard);
+            if (wildcard == 0 && rest.charAt(0) == '*' && isLiteral(rest, 1)) {
+                // a wildcard followed by a literal suffix, like *.xml
+                CharNode node = suffixes;
+                for (int i = pattern.length() - 1; i > 0; i--) {
+                    node = node.child(pattern.charAt(i));
+                }
+                node.matches.add(complex);
+                return;
+            }
+
+            CharNode node = prefixes;
+            for (int i = 0; i < wildcard; i++) {
+                node = node.child(pattern.charAt(i));
+            }
+            if (rest.replace("*", "").length() == 0) {
+                // a literal prefix followed only by *'s, like /mydir/*
+                node.matches.add(complex);
+            } else {
+                node.candidates.add(complex);
             }
-            return null;
         }
 
-        /**
-         * Find single matching complex key
-         */
-        String findComplexKey(final String path, final Set<String> complexPaths) {
-            for (String key : complexPaths) {
-                if (match(key, path, false)) {
-                    return key;
+        private static boolean isLiteral(final String pattern, final int start) {
+            for (int i = start; i < pattern.length(); i++) {
+                if (pattern.charAt(i) == '*' || pattern.charAt(i) == '?') {
+                    return false;
                 }
             }
-            return null;
+            return true;
         }
 
-        /**
-         * Find all matching complex keys
-         */
-        Collection<String> findComplexKeys(final String path, final Set<String> complexPaths) {
-            final List<String> matches = new ArrayList<String>();
-            for (String key : complexPaths) {
-                if (match(key, path, false)) {
-                    matches.add(key);
+        ComplexPattern findFirstComplexPattern(final String path) {
+            ComplexPattern first = null;
+            for (final ComplexPattern complex : findComplexPatterns(path)) {
+                if (first == null || complex.order < first.order) {
+                    first = complex;
                 }
             }
-            return matches;
+            return first;
         }
 
-        /**
-         * Look for root pattern ( / ).
-         */
-        String findDefaultKey(final Map<String, Collection<String>> mappings) {
-            for (int i = 0; i < DefaultPathMapper.DEFAULT_KEYS.length; i++) {
-                if (mappings.containsKey(DefaultPathMapper.DEFAULT_KEYS[i])) {
-                    return DefaultPathMapper.DEFAULT_KEYS[i];
+        List<ComplexPattern> findComplexPatterns(final String path) {
+            if (complexPatterns.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<ComplexPattern> found = new ArrayList<ComplexPattern>(4);
+            CharNode node = prefixes;
+            for (int i = 0; node != null; i++) {
+                found.addAll(node.matches);
+                for (final ComplexPattern candidate : node.candidates) {
+                    if (candidate.matches(path)) {
+                        found.add(candidate);
+                    }
                 }
+                node = i < path.length() ? node.get(path.charAt(i)) : null;
             }
-            return null;
+            node = suffixes;
+            for (int i = path.length() - 1; node != null; i--) {
+                found.addAll(node.matches);
+                node = i >= 0 ? node.get(path.charAt(i)) : null;
+            }
+            if (found.size() > 1) {
+                Collections.sort(found);
+            }
+            return found;
         }
+    }
 
-        /**
-         * Look for root patterns ( / ).
-         */
-        Collection<String> findDefaultKeys(final Map<String, Collection<String>> mappings) {
-            final List<String> matches = new ArrayList<String>();
-
-            for (int i = 0; i < DefaultPathMapper.DEFAULT_KEYS.length; i++) {
-                if (mappings.containsKey(DefaultPathMapper.DEFAULT_KEYS[i])) {
-                    matches.add(DefaultPathMapper.DEFAULT_KEYS[i]);
-                }
+    /**
+     * A node of a trie of case insensitive characters
+     */
+    private static final class CharNode {
+        private final Map<Character, CharNode> children = new HashMap<Character, CharNode>(4);
+        // the patterns that match any path reaching this node
+        final List<ComplexPattern> matches = new ArrayList<ComplexPattern>(1);
+        // the patterns that may match a path reaching this node, which need to be checked against the whole path
+        final List<ComplexPattern> candidates = new ArrayList<ComplexPattern>(1);
+
+        CharNode child(final char ch) {
+            final Character key = Character.toUpperCase(ch);
+            CharNode child = children.get(key);
+            if (child == null) {
+                child = new CharNode();
+                children.put(key, child);
             }
+            return child;
+        }
 
-            return matches;
+        CharNode get(final char ch) {
+            return children.get(Character.toUpperCase(ch));
         }
+    }
 
+    /**
+     * A pattern containing wildcards, and the order it was added in
+     */
+    private static final class ComplexPattern implements Comparable<ComplexPattern> {
+        private static final KeyMatcher matcher = new KeyMatcher();
+
+        final String pattern;
+        final int order;
+        final Collection<String> keys;
+
+        ComplexPattern(final String pattern, final int order, final Collection<String> keys) {
+            this.pattern = pattern;
+            this.order = order;
+            this.keys = keys;
+        }
+
+        boolean matches(final String path) {
+            return matcher.match(pattern, path, false);
+        }
+
+        public int compareTo(final ComplexPattern other) {
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * Matches a path against a pattern containing * and ? wildcards
+     */
+    private static final class KeyMatcher {
         boolean match(final String pattern, final String str, final boolean isCaseSensitive) {
             final char[] patArr = pattern.toCharArray();
             final char[] strArr = str.toCharArray();
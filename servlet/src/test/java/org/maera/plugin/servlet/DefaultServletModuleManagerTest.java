@@ -20,6 +20,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
@@ -124,6 +127,153 @@ public class DefaultServletModuleManagerTest {
         }
     }
 
+    @Test
+    public void testFiltersAreRememberedUntilFilterModulesChange() throws Exception {
+        ServletContext servletContext = mock(ServletContext.class);
+        FilterConfig filterConfig = mock(FilterConfig.class);
+        when(filterConfig.getServletContext()).thenReturn(servletContext);
+        when(servletContext.getInitParameterNames()).thenReturn(new Vector().elements());
+        Plugin plugin = new PluginBuilder().build();
+
+        ServletFilterModuleDescriptor filterDescriptor = new ServletFilterModuleDescriptorBuilder()
+                .with(plugin)
+                .withKey("foo")
+                .with(new FilterAdapter())
+                .withPath("/foo/*")
+                .with(servletModuleManager)
+                .build();
+        servletModuleManager.addFilterModule(filterDescriptor);
+
+        Iterable<Filter> filters = servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", filterConfig, REQUEST);
+        assertEquals(1, Iterables.size(filters));
+        assertSame(filters, servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", filterConfig, REQUEST));
+        assertEquals(0, Iterables.size(servletModuleManager.getFilters(FilterLocation.AFTER_ENCODING, "/foo/bar", filterConfig, REQUEST)));
+
+        ServletFilterModuleDescriptor filterDescriptor2 = new ServletFilterModuleDescriptorBuilder()
+                .with(plugin)
+                .withKey("bar")
+                .with(new FilterAdapter())
+                .withPath("/foo/*")
+                .with(servletModuleManager)
+                .build();
+        servletModuleManager.addFilterModule(filterDescriptor2);
+        assertEquals(2, Iterables.size(servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", filterConfig, REQUEST)));
+
+        servletModuleManager.removeFilterModule(filterDescriptor);
+        servletModuleManager.removeFilterModule(filterDescriptor2);
+        assertEquals(0, Iterables.size(servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", filterConfig, REQUEST)));
+    }
+
+    @Test
+    public void testRequestsWhileModulesAreCycled() throws Exception {
+        final ServletContext servletContext = mock(ServletContext.class);
+        when(servletContext.getInitParameterNames()).thenReturn(Collections.enumeration(Collections.emptyList()));
+        final FilterConfig filterConfig = mock(FilterConfig.class);
+        when(filterConfig.getServletContext()).thenReturn(servletContext);
+        final ServletConfig servletConfig = mock(ServletConfig.class);
+        when(servletConfig.getServletContext()).thenReturn(servletContext);
+        Plugin plugin = new PluginBuilder().build();
+
+        final ServletFilterModuleDescriptor filterDescriptor = new ServletFilterModuleDescriptorBuilder()
+                .with(plugin)
+                .withKey("filter")
+                .with(new FilterAdapter())
+                .withPath("/foo/*")
+                .with(servletModuleManager)
+                .build();
+        final ServletModuleDescriptor servletDescriptor = new ServletModuleDescriptorBuilder()
+                .with(plugin)
+                .withKey("servlet")
+                .with(new TestHttpServlet())
+                .withPath("/foo/*")
+                .with(servletModuleManager)
+                .build();
+        servletModuleManager.addFilterModule(filterDescriptor);
+        servletModuleManager.addServletModule(servletDescriptor);
+        // create the plugin's servlet context up front, so the mocks are only called from this thread
+        assertEquals(1, Iterables.size(servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", filterConfig, REQUEST)));
+        assertNotNull(servletModuleManager.getServlet("/foo/bar", servletConfig));
+
+        final FilterConfig threadSafeFilterConfig = new FilterConfig() {
+            public String getFilterName() {
+                return "filter";
+            }
+
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+
+            public String getInitParameter(String name) {
+                return null;
+            }
+
+            public Enumeration getInitParameterNames() {
+                return Collections.enumeration(Collections.emptyList());
+            }
+        };
+        final ServletConfig threadSafeServletConfig = new ServletConfig() {
+            public String getServletName() {
+                return "servlet";
+            }
+
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+
+            public String getInitParameter(String name) {
+                return null;
+            }
+
+            public Enumeration getInitParameterNames() {
+                return Collections.enumeration(Collections.emptyList());
+            }
+        };
+
+        final int readers = 4;
+        final AtomicBoolean cycling = new AtomicBoolean(true);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        final CountDownLatch started = new CountDownLatch(readers);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < readers; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        while (cycling.get()) {
+                            final int filters = Iterables.size(servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", threadSafeFilterConfig, REQUEST));
+                            if (filters > 1) {
+                                throw new AssertionError("Found " + filters + " filters");
+                            }
+                            servletModuleManager.getServlet("/foo/bar", threadSafeServletConfig);
+                        }
+                    }
+                    catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        started.await();
+
+        for (int i = 0; i < 2000 && failures.isEmpty(); i++) {
+            servletModuleManager.removeFilterModule(filterDescriptor);
+            servletModuleManager.removeServletModule(servletDescriptor);
+            servletModuleManager.addFilterModule(filterDescriptor);
+            servletModuleManager.addServletModule(servletDescriptor);
+        }
+        cycling.set(false);
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        assertEquals(Collections.<Throwable>emptyList(), failures);
+        assertEquals(1, Iterables.size(servletModuleManager.getFilters(FilterLocation.BEFORE_DISPATCH, "/foo/bar", threadSafeFilterConfig, REQUEST)));
+        assertNotNull(servletModuleManager.getServlet("/foo/bar", threadSafeServletConfig));
+    }
+
     @Test
     public void testGettingFilter() {
         getFilterTwice(false);
@@ -41,6 +41,52 @@ public class PluginHttpRequestWrapperTest {
         assertEquals("bar", wrappedSession.getAttribute("foo"));
     }
 
+    @Test
+    public void testSessionIsWrappedOncePerRequest() throws Exception {
+        HttpSession realSession = (HttpSession) new Mock(HttpSession.class).proxy();
+        Mock mockWrappedRequest = new Mock(HttpServletRequest.class);
+        mockWrappedRequest.matchAndReturn("getPathInfo", null);
+        mockWrappedRequest.matchAndReturn("getSession", true, realSession);
+        mockWrappedRequest.matchAndReturn("getSession", false, realSession);
+        PluginHttpRequestWrapper request = new PluginHttpRequestWrapper((HttpServletRequest) mockWrappedRequest.proxy(), null);
+
+        HttpSession wrappedSession = request.getSession();
+        assertSame(wrappedSession, request.getSession(true));
+        assertSame(wrappedSession, request.getSession(false));
+    }
+
+    @Test
+    public void testWrappedSessionIsNotWrappedAgain() throws Exception {
+        HttpSession wrappedSession = new PluginHttpSessionWrapper((HttpSession) new Mock(HttpSession.class).proxy());
+        Mock mockWrappedRequest = new Mock(HttpServletRequest.class);
+        mockWrappedRequest.matchAndReturn("getPathInfo", null);
+        mockWrappedRequest.matchAndReturn("getSession", true, wrappedSession);
+        PluginHttpRequestWrapper request = new PluginHttpRequestWrapper((HttpServletRequest) mockWrappedRequest.proxy(), null);
+
+        assertSame(wrappedSession, request.getSession());
+    }
+
+    @Test
+    public void testBasePathsAreMatchedInTheOrderDeclared() {
+        PluginHttpRequestWrapper.BasePaths basePaths = new PluginHttpRequestWrapper.BasePaths(new ServletModuleDescriptorBuilder()
+                .withPath("/plugin/exact")
+                .withPath("/plugin/*")
+                .withPath("/plugin/servlet/*")
+                .build());
+
+        assertEquals("/plugin/exact", basePaths.find("/plugin/exact"));
+        assertEquals("/plugin", basePaths.find("/plugin/servlet/path"));
+        assertNull(basePaths.find("/other"));
+        assertNull(basePaths.find(null));
+
+        Mock mockWrappedRequest = new Mock(HttpServletRequest.class);
+        mockWrappedRequest.matchAndReturn("getServletPath", "/context/plugins");
+        mockWrappedRequest.matchAndReturn("getPathInfo", "/plugin/servlet/path");
+        PluginHttpRequestWrapper request = basePaths.wrap((HttpServletRequest) mockWrappedRequest.proxy());
+        assertEquals("/servlet/path", request.getPathInfo());
+        assertEquals("/context/plugins/plugin", request.getServletPath());
+    }
+
     @Test
     public void testGetSessionFalse() throws Exception {
         Mock mockWrappedRequest = new Mock(HttpServletRequest.class);
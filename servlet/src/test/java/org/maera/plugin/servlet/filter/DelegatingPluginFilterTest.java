@@ -6,6 +6,7 @@ import org.maera.plugin.Plugin;
 import org.maera.plugin.PluginArtifact;
 import org.maera.plugin.classloader.PluginClassLoader;
 import org.maera.plugin.impl.DefaultDynamicPlugin;
+import org.maera.plugin.servlet.PluginBuilder;
 import org.maera.plugin.servlet.descriptors.ServletFilterModuleDescriptor;
 import org.maera.plugin.servlet.descriptors.ServletFilterModuleDescriptorBuilder;
 import org.maera.plugin.servlet.filter.FilterTestUtils.FilterAdapter;
@@ -41,6 +42,37 @@ public class DelegatingPluginFilterTest {
         createClassLoaderCheckingFilter("filter").doFilter((HttpServletRequest) mockRequest.proxy(), (HttpServletResponse) mockResponse.proxy(), chain);
     }
 
+    @Test
+    public void testChainIsPassedStraightThroughWhenPluginClassLoaderIsAlreadyTheContextClassLoader() throws Exception {
+        Mock mockRequest = new Mock(HttpServletRequest.class);
+        mockRequest.expectAndReturn("getPathInfo", "/servlet");
+        Mock mockResponse = new Mock(HttpServletResponse.class);
+
+        final Plugin plugin = new PluginBuilder().build();
+        final FilterChain chain = emptyChain;
+        ServletFilterModuleDescriptor filterDescriptor = new ServletFilterModuleDescriptorBuilder()
+                .with(new FilterAdapter() {
+                    @Override
+                    public void doFilter(ServletRequest request, ServletResponse response, FilterChain filterChain) throws IOException, ServletException {
+                        assertSame(chain, filterChain);
+                        assertSame(plugin.getClassLoader(), Thread.currentThread().getContextClassLoader());
+                    }
+                })
+                .with(plugin)
+                .build();
+
+        // as when a servlet of the plugin forwards or includes the request
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(plugin.getClassLoader());
+        try {
+            new DelegatingPluginFilter(filterDescriptor).doFilter((HttpServletRequest) mockRequest.proxy(), (HttpServletResponse) mockResponse.proxy(), chain);
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(cl);
+        }
+        mockRequest.verify();
+    }
+
     @Test
     public void testPluginClassLoaderIsRestoredProperlyWhenAnExceptionIsThrownFromFilter() throws Exception {
         Mock mockRequest = new Mock(HttpServletRequest.class);
@@ -55,6 +55,24 @@ public class IteratingFilterChainTest {
         }
     }
 
+    @Test
+    public void testFiltersInListAreCalledInOrder() throws IOException, ServletException {
+        final List<Integer> filterCallOrder = new LinkedList<Integer>();
+        List<Filter> filters = new ArrayList<Filter>();
+        for (int i = 0; i < 3; i++) {
+            filters.add(new SoundOffFilter(filterCallOrder, i));
+        }
+
+        FilterChain chain = new IteratingFilterChain(filters, singletonFilterChain(new SoundOffFilter(filterCallOrder, 100)));
+
+        Mock mockRequest = new Mock(HttpServletRequest.class);
+        mockRequest.matchAndReturn("getPathInfo", "some/path");
+        Mock mockResponse = new Mock(HttpServletResponse.class);
+
+        chain.doFilter((HttpServletRequest) mockRequest.proxy(), (HttpServletResponse) mockResponse.proxy());
+        assertEquals(newList(0, 1, 2, 100, 100, 2, 1, 0), filterCallOrder);
+    }
+
     @Test
     public void testFilterCanAbortChain() throws IOException, ServletException {
         final List<Integer> filterCallOrder = new LinkedList<Integer>();
@@ -3,6 +3,9 @@ package org.maera.plugin.servlet.util;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 public class PathMapperTest extends Assert {
 
     /**
@@ -56,4 +59,63 @@ public class PathMapperTest extends Assert {
         assertEquals("foo/bar/", pathMapper.removeRedundantSlashes("foo////bar/"));
         assertEquals("/f oo/b/ar/", pathMapper.removeRedundantSlashes("//f oo////b/ar//"));
     }
+
+    @Test
+    public void testPatterns() {
+        final PathMapper pathMapper = new DefaultPathMapper();
+
+        pathMapper.put("one", "/");
+        pathMapper.put("two", "/mydir/*");
+        pathMapper.put("three", "*.xml");
+        pathMapper.put("four", "/myexactfile.html");
+        pathMapper.put("five", "/*/admin/*.??ml");
+        pathMapper.put("six", "/file?.txt");
+
+        assertEquals("two", pathMapper.get("/mydir/myfile.xml"));
+        assertEquals("two", pathMapper.get("/MyDir/other/file"));
+        assertEquals("three", pathMapper.get("/otherdir/myfile.xml"));
+        assertEquals("three", pathMapper.get("/otherdir/myfile.XML"));
+        assertEquals("four", pathMapper.get("/myexactfile.html"));
+        assertEquals("five", pathMapper.get("/mydir2/otherdir/admin/myfile.html"));
+        assertEquals("six", pathMapper.get("/file1.txt"));
+        assertEquals("one", pathMapper.get("/file12.txt"));
+        assertEquals("one", pathMapper.get("/myexactfile.htm"));
+        assertEquals("one", pathMapper.get("/xml"));
+        assertEquals("one", pathMapper.get(null));
+    }
+
+    @Test
+    public void testGetAllReturnsComplexMatchesInTheOrderAdded() {
+        final PathMapper pathMapper = new DefaultPathMapper();
+
+        pathMapper.put("default", "/");
+        pathMapper.put("suffix", "*.html");
+        pathMapper.put("prefix", "/foo/*");
+        pathMapper.put("wildcards", "/f?o/*.h*");
+        pathMapper.put("exact", "/foo/bar.html");
+        pathMapper.put("other", "/bar/*");
+
+        assertEquals("exact", pathMapper.get("/foo/bar.html"));
+        assertEquals(Arrays.asList("exact", "suffix", "prefix", "wildcards", "default"),
+                new ArrayList<String>(pathMapper.getAll("/foo/bar.html")));
+        assertEquals("suffix", pathMapper.get("/foo/baz.html"));
+        assertEquals(Arrays.asList("suffix", "prefix", "wildcards", "default"),
+                new ArrayList<String>(pathMapper.getAll("/foo//baz.html")));
+        assertEquals(Arrays.asList("default"), new ArrayList<String>(pathMapper.getAll("/baz/foo")));
+    }
+
+    @Test
+    public void testManyPatterns() {
+        final PathMapper pathMapper = new DefaultPathMapper();
+
+        for (int i = 0; i < 1000; i++) {
+            pathMapper.put("prefix" + i, "/prefix" + i + "/*");
+            pathMapper.put("suffix" + i, "*.suffix" + i);
+        }
+
+        assertEquals("prefix500", pathMapper.get("/prefix500/foo"));
+        assertEquals("suffix500", pathMapper.get("/foo.suffix500"));
+        assertEquals(Arrays.asList("suffix5", "prefix50"), new ArrayList<String>(pathMapper.getAll("/prefix50/foo.suffix5")));
+        assertNull(pathMapper.get("/prefix/foo.suffix"));
+    }
 }
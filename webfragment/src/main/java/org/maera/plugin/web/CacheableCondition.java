@@ -0,0 +1,22 @@
+package org.maera.plugin.web;
+
+import java.util.Map;
+
+/**
+ * A condition whose result only depends on part of the context, such as the current user, so the result can be
+ * remembered across requests for contexts that have the same part.
+ * <p/>
+ * The remembered results are forgotten whenever the web interface manager is refreshed, which happens when web
+ * fragment modules are enabled or disabled.  Conditions whose results also depend on state outside the context
+ * shouldn't implement this interface.
+ *
+ * @since 0.1
+ */
+public interface CacheableCondition extends Condition {
+    /**
+     * @param context the context the condition is being evaluated for
+     * @return a key identifying everything in the context that the result depends on, implementing equals and
+     *         hashCode, or null if the result can't be remembered for this context
+     */
+    Object getCacheKey(Map<String, Object> context);
+}
@@ -0,0 +1,284 @@
+package org.maera.plugin.web;
+
+import org.maera.plugin.web.conditions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Evaluates the display conditions of web fragments, compiling each condition tree once and remembering the results of
+ * the conditions in it.
+ * <p/>
+ * A condition tree is compiled the first time it is evaluated: nested and and or conditions of the same type are
+ * flattened, inverted inversions are removed and the always and never display conditions are folded away, so each
+ * composite stops at the first child that decides it.  The children are still evaluated in the order they were
+ * declared, as a condition often relies on an earlier one, such as a permission check behind a logged in check.
+ * <p/>
+ * The other conditions are identified by their class and the parameters they were declared with, or by the condition
+ * itself if they weren't declared in a module descriptor.  Their results are remembered for an {@link Evaluation}, and
+ * the results of {@link CacheableCondition}s are also remembered by cache key for as long as the evaluator is used.
+ * <p/>
+ * The compiled trees are kept by condition identity and refer to the conditions they were compiled from, so they are
+ * only dropped along with the evaluator.  This relies on {@link DefaultWebInterfaceManager#refresh()} replacing the
+ * evaluator whenever web fragments are enabled or disabled, which is when their conditions are created or discarded.
+ *
+ * @since 0.1
+ */
+final class ConditionEvaluator {
+    static final int MAX_CACHED_RESULTS = 1000;
+
+    private final Map<Condition, Node> compiledConditions = Collections.synchronizedMap(new IdentityHashMap<Condition, Node>());
+    private final ConcurrentMap<CachedResultKey, Boolean> cachedResults = new ConcurrentHashMap<CachedResultKey, Boolean>();
+
+    /**
+     * @param context the context the conditions are evaluated for, which shouldn't change during the evaluation
+     * @return an evaluation that remembers the condition results for the context
+     */
+    Evaluation newEvaluation(Map<String, Object> context) {
+        return new Evaluation(context);
+    }
+
+    private Node getCompiled(Condition condition) {
+        Node node = compiledConditions.get(condition);
+        if (node == null) {
+            node = compile(condition);
+            compiledConditions.put(condition, node);
+        }
+        return node;
+    }
+
+    private Node compile(Condition condition) {
+        final Class<?> conditionClass = condition.getClass();
+        if (conditionClass == AlwaysDisplayCondition.class) {
+            return Constant.TRUE;
+        } else if (conditionClass == NeverDisplayCondition.class) {
+            return Constant.FALSE;
+        } else if (conditionClass == InvertedCondition.class) {
+            final Node wrapped = compile(((InvertedCondition) condition).getWrappedCondition());
+            if (wrapped instanceof Constant) {
+                return Constant.valueOf(!((Constant) wrapped).value);
+            } else if (wrapped instanceof Not) {
+                return ((Not) wrapped).node;
+            }
+            return new Not(wrapped);
+        } else if (conditionClass == AndCompositeCondition.class) {
+            return compile(((AndCompositeCondition) condition).getConditions(), true);
+        } else if (conditionClass == OrCompositeCondition.class) {
+            return compile(((OrCompositeCondition) condition).getConditions(), false);
+        }
+
+        final Map<String, String> params = ConditionParameters.get(condition);
+        return new Leaf(condition, params == null ? condition : new LeafKey(conditionClass, params));
+    }
+
+    /**
+     * @param all true for an and condition, false for an or condition
+     */
+    private Node compile(List<Condition> conditions, boolean all) {
+        final List<Node> nodes = new ArrayList<Node>(conditions.size());
+        for (Condition condition : conditions) {
+            final Node node = compile(condition);
+            if (node instanceof Constant) {
+                if (((Constant) node).value != all) {
+                    // decides the composite whatever the other children are
+                    return node;
+                }
+            } else if (node instanceof Composite && ((Composite) node).all == all) {
+                for (Node child : ((Composite) node).nodes) {
+                    nodes.add(child);
+                }
+            } else {
+                nodes.add(node);
+            }
+        }
+
+        if (nodes.isEmpty()) {
+            return Constant.valueOf(all);
+        } else if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        return new Composite(all, nodes.toArray(new Node[nodes.size()]));
+    }
+
+    /**
+     * The evaluation of conditions for one context, remembering the result of each condition
+     */
+    final class Evaluation {
+        private final Map<String, Object> context;
+        private final Map<Object, Boolean> results = new HashMap<Object, Boolean>();
+
+        private Evaluation(Map<String, Object> context) {
+            this.context = context;
+        }
+
+        /**
+         * @param condition the condition, which may be a tree of conditions
+         * @return whether the condition is met, as returned by {@link Condition#shouldDisplay}
+         */
+        boolean shouldDisplay(Condition condition) {
+            return getCompiled(condition).evaluate(this);
+        }
+
+        private boolean evaluate(Leaf leaf) {
+            Boolean result = results.get(leaf.key);
+            if (result == null) {
+                result = evaluateUncached(leaf);
+                results.put(leaf.key, result);
+            }
+            return result;
+        }
+
+        private Boolean evaluateUncached(Leaf leaf) {
+            if (leaf.condition instanceof CacheableCondition) {
+                final Object cacheKey = ((CacheableCondition) leaf.condition).getCacheKey(context);
+                if (cacheKey != null) {
+                    final CachedResultKey key = new CachedResultKey(leaf.key, cacheKey);
+                    Boolean result = cachedResults.get(key);
+                    if (result == null) {
+                        result = leaf.condition.shouldDisplay(context);
+                        if (cachedResults.size() >= MAX_CACHED_RESULTS) {
+                            cachedResults.clear();
+                        }
+                        cachedResults.put(key, result);
+                    }
+                    return result;
+                }
+            }
+            return leaf.condition.shouldDisplay(context);
+        }
+    }
+
+    /**
+     * A compiled condition, which is never modified once created
+     */
+    private static abstract class Node {
+        abstract boolean evaluate(Evaluation evaluation);
+    }
+
+    private static final class Constant extends Node {
+        static final Constant TRUE = new Constant(true);
+        static final Constant FALSE = new Constant(false);
+
+        final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        static Constant valueOf(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        boolean evaluate(Evaluation evaluation) {
+            return value;
+        }
+    }
+
+    private static final class Not extends Node {
+        final Node node;
+
+        Not(Node node) {
+            this.node = node;
+        }
+
+        boolean evaluate(Evaluation evaluation) {
+            return !node.evaluate(evaluation);
+        }
+    }
+
+    private static final class Composite extends Node {
+        final boolean all;
+        final Node[] nodes;
+
+        Composite(boolean all, Node[] nodes) {
+            this.all = all;
+            this.nodes = nodes;
+        }
+
+        boolean evaluate(Evaluation evaluation) {
+            for (Node node : nodes) {
+                if (node.evaluate(evaluation) != all) {
+                    return !all;
+                }
+            }
+            return all;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Condition condition;
+        final Object key;
+
+        Leaf(Condition condition, Object key) {
+            this.condition = condition;
+            this.key = key;
+        }
+
+        boolean evaluate(Evaluation evaluation) {
+            return evaluation.evaluate(this);
+        }
+    }
+
+    /**
+     * Identifies a condition by its class and the parameters it was declared with
+     */
+    private static final class LeafKey {
+        private final Class<?> conditionClass;
+        private final Map<String, String> params;
+
+        LeafKey(Class<?> conditionClass, Map<String, String> params) {
+            this.conditionClass = conditionClass;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LeafKey)) {
+                return false;
+            }
+            final LeafKey other = (LeafKey) o;
+            return conditionClass == other.conditionClass && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * conditionClass.hashCode() + params.hashCode();
+        }
+    }
+
+    private static final class CachedResultKey {
+        private final Object leafKey;
+        private final Object cacheKey;
+
+        CachedResultKey(Object leafKey, Object cacheKey) {
+            this.leafKey = leafKey;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CachedResultKey)) {
+                return false;
+            }
+            final CachedResultKey other = (CachedResultKey) o;
+            return leafKey.equals(other.leafKey) && cacheKey.equals(other.cacheKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * leafKey.hashCode() + cacheKey.hashCode();
+        }
+    }
+}
@@ -13,6 +13,10 @@ import java.util.*;
 
 /**
  * Stores and manages flexible web interface sections available in the system.
+ * <p/>
+ * The display conditions of the fragments are compiled once, and each condition is only evaluated once when filtering
+ * a list of fragments, however many fragments share it.  See {@link CacheableCondition} for conditions whose results
+ * can be remembered across requests.
  */
 public class DefaultWebInterfaceManager implements WebInterfaceManager {
     private PluginAccessor pluginAccessor;
@@ -20,6 +24,7 @@ public class DefaultWebInterfaceManager implements WebInterfaceManager {
     private Map<String, List<WebSectionModuleDescriptor>> sections;
     private Map<String, List<WebItemModuleDescriptor>> items;
     private Map<String, List<DefaultWebPanelModuleDescriptor>> panels;
+    private ConditionEvaluator conditionEvaluator;
     private static final Logger log = LoggerFactory.getLogger(DefaultWebInterfaceManager.class);
 
     public static final WeightedDescriptorComparator WEIGHTED_DESCRIPTOR_COMPARATOR = new WeightedDescriptorComparator();
@@ -136,17 +141,16 @@ public class DefaultWebInterfaceManager implements WebInterfaceManager {
             return relevantItems;
         }
 
-        List<T> result = new ArrayList<T>(relevantItems);
-        for (Iterator<T> iterator = result.iterator(); iterator.hasNext();) {
-            ConditionalDescriptor descriptor = iterator.next();
+        final ConditionEvaluator.Evaluation evaluation = conditionEvaluator.newEvaluation(context);
+        List<T> result = new ArrayList<T>(relevantItems.size());
+        for (T descriptor : relevantItems) {
             try {
-                if (descriptor.getCondition() != null && !descriptor.getCondition().shouldDisplay(context)) {
-                    iterator.remove();
+                if (descriptor.getCondition() == null || evaluation.shouldDisplay(descriptor.getCondition())) {
+                    result.add(descriptor);
                 }
             }
             catch (Throwable t) {
                 log.error("Could not evaluate condition '" + descriptor.getCondition() + "' for descriptor: " + descriptor, t);
-                iterator.remove();
             }
         }
 
@@ -157,6 +161,8 @@ public class DefaultWebInterfaceManager implements WebInterfaceManager {
         sections = Collections.synchronizedMap(new HashMap());
         items = Collections.synchronizedMap(new HashMap());
         panels = Collections.synchronizedMap(new HashMap());
+        // the conditions are recreated when fragments are enabled, and cacheable condition results may be out of date
+        conditionEvaluator = new ConditionEvaluator();
     }
 
     /**
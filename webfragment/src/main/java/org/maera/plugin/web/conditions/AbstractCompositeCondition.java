@@ -4,6 +4,7 @@ import org.maera.plugin.PluginParseException;
 import org.maera.plugin.web.Condition;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +18,14 @@ public abstract class AbstractCompositeCondition implements Condition {
         this.conditions.add(condition);
     }
 
+    /**
+     * @return the conditions this condition is composed of, in the order they were added
+     * @since 0.1
+     */
+    public List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
     public void init(Map<String, String> params) throws PluginParseException {
     }
 
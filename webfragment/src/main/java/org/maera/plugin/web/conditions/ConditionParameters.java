@@ -0,0 +1,39 @@
+package org.maera.plugin.web.conditions;
+
+import com.google.common.collect.MapMaker;
+import org.maera.plugin.web.Condition;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the parameters that conditions declared in module descriptors were initialised with, so conditions of the
+ * same class and parameters, declared by different web fragments, can be recognised as the same condition.  The
+ * conditions are only weakly referenced.
+ *
+ * @since 0.1
+ */
+public final class ConditionParameters {
+    private static final ConcurrentMap<Condition, Map<String, String>> parameters = new MapMaker().weakKeys().makeMap();
+
+    private ConditionParameters() {
+    }
+
+    /**
+     * @param condition the condition, after it has been initialised
+     * @param params    the parameters it was initialised with
+     */
+    public static void register(Condition condition, Map<String, String> params) {
+        parameters.put(condition, Collections.unmodifiableMap(new HashMap<String, String>(params)));
+    }
+
+    /**
+     * @param condition the condition
+     * @return the parameters the condition was initialised with, or null if they weren't registered
+     */
+    public static Map<String, String> get(Condition condition) {
+        return parameters.get(condition);
+    }
+}
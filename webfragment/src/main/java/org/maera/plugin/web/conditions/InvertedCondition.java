@@ -12,6 +12,14 @@ public class InvertedCondition implements Condition {
         this.wrappedCondition = wrappedCondition;
     }
 
+    /**
+     * @return the condition this condition inverts
+     * @since 0.1
+     */
+    public Condition getWrappedCondition() {
+        return wrappedCondition;
+    }
+
     public void init(Map<String, String> params) throws PluginParseException {
     }
 
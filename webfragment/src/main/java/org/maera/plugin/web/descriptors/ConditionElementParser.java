@@ -11,6 +11,7 @@ import org.maera.plugin.web.conditions.*;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class contains the logic for constructing
@@ -110,7 +111,9 @@ class ConditionElementParser {
     public Condition makeCondition(final Plugin plugin, final Element element) throws PluginParseException {
         try {
             final Condition condition = webFragmentHelper.loadCondition(element.attributeValue("class"), plugin);
-            condition.init(LoaderUtils.getParams(element));
+            final Map<String, String> params = LoaderUtils.getParams(element);
+            condition.init(params);
+            ConditionParameters.register(condition, params);
 
             if ((element.attribute("invert") != null) && "true".equals(element.attributeValue("invert"))) {
                 return new InvertedCondition(condition);
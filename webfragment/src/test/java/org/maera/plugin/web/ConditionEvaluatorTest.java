@@ -0,0 +1,108 @@
+package org.maera.plugin.web;
+
+import org.junit.Test;
+import org.maera.plugin.web.conditions.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConditionEvaluatorTest {
+
+    private final ConditionEvaluator evaluator = new ConditionEvaluator();
+    private final Map<String, Object> context = new HashMap<String, Object>();
+
+    @Test
+    public void testConditionsWithTheSameParametersAreEvaluatedOncePerEvaluation() {
+        CountingCondition condition = newCountingCondition("same");
+        CountingCondition sameCondition = newCountingCondition("same");
+        CountingCondition otherCondition = newCountingCondition("other");
+
+        ConditionEvaluator.Evaluation evaluation = evaluator.newEvaluation(context);
+        assertTrue(evaluation.shouldDisplay(condition));
+        assertTrue(evaluation.shouldDisplay(sameCondition));
+        assertTrue(evaluation.shouldDisplay(otherCondition));
+        assertEquals(1, condition.count + sameCondition.count);
+        assertEquals(1, otherCondition.count);
+
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(sameCondition));
+        assertEquals(2, condition.count + sameCondition.count);
+    }
+
+    @Test
+    public void testCompositesStopAtTheFirstDecidingCondition() {
+        CountingCondition counting = new CountingCondition();
+
+        assertFalse(evaluator.newEvaluation(context).shouldDisplay(and(new NeverDisplayCondition(), counting)));
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(or(new InvertedCondition(new NeverDisplayCondition()), counting)));
+        assertFalse(evaluator.newEvaluation(context).shouldDisplay(and(counting, or(new NeverDisplayCondition(), new InvertedCondition(counting)))));
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(new InvertedCondition(new InvertedCondition(and(new AlwaysDisplayCondition(), counting)))));
+        assertEquals(2, counting.count);
+
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(new AndCompositeCondition()));
+        assertFalse(evaluator.newEvaluation(context).shouldDisplay(new OrCompositeCondition()));
+    }
+
+    @Test
+    public void testCacheableConditionsAreRememberedAcrossEvaluationsByCacheKey() {
+        CacheableCountingCondition condition = new CacheableCountingCondition();
+
+        context.put("user", "fred");
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(condition));
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(condition));
+        assertEquals(1, condition.count);
+
+        context.put("user", "barney");
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(condition));
+        assertEquals(2, condition.count);
+
+        context.remove("user");
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(condition));
+        assertTrue(evaluator.newEvaluation(context).shouldDisplay(condition));
+        assertEquals(4, condition.count);
+    }
+
+    private CountingCondition newCountingCondition(String value) {
+        CountingCondition condition = new CountingCondition();
+        Map<String, String> params = Collections.singletonMap("param", value);
+        condition.init(params);
+        ConditionParameters.register(condition, params);
+        return condition;
+    }
+
+    private Condition and(Condition... conditions) {
+        AndCompositeCondition composite = new AndCompositeCondition();
+        for (Condition condition : conditions) {
+            composite.addCondition(condition);
+        }
+        return composite;
+    }
+
+    private Condition or(Condition... conditions) {
+        OrCompositeCondition composite = new OrCompositeCondition();
+        for (Condition condition : conditions) {
+            composite.addCondition(condition);
+        }
+        return composite;
+    }
+
+    private static class CountingCondition implements Condition {
+        int count;
+
+        public void init(Map<String, String> params) {
+        }
+
+        public boolean shouldDisplay(Map<String, Object> context) {
+            count++;
+            return true;
+        }
+    }
+
+    private static class CacheableCountingCondition extends CountingCondition implements CacheableCondition {
+        public Object getCacheKey(Map<String, Object> context) {
+            return context.get("user");
+        }
+    }
+}
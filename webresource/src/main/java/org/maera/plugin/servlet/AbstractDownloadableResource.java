@@ -14,7 +14,10 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This base class is used to provide the ability to server minified versions of
@@ -31,6 +34,20 @@ abstract class AbstractDownloadableResource implements DownloadableResource {
      */
     private static final String MAERA_WEBRESOURCE_DISABLE_MINIFICATION = "maera.webresource.disable.minification";
 
+    private static final int MAX_CONTENT_ETAGS = 2000;
+
+    /**
+     * Entity tags calculated from the content of resources, by plugin, plugin load time and location.  Resources are
+     * created for each request, so the tags are shared between them; as plugins can't be modified after they've been
+     * loaded, a tag never has to be recalculated until its plugin is reloaded.
+     */
+    private static final Map<String, String> contentEtags = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > MAX_CONTENT_ETAGS;
+        }
+    });
+
     /* the following protected fields are marked final since 2.5 */
 
     protected final Plugin plugin;
@@ -123,19 +140,56 @@ abstract class AbstractDownloadableResource implements DownloadableResource {
     }
 
     /**
-     * Checks any "If-Modified-Since" header from the request against the
-     * plugin's loading time, since plugins can't be modified after they've been
-     * loaded this is a good way to determine if a plugin resource has been
-     * modified or not. If this method returns true, don't do any more
-     * processing on the request -- the response code has already been set to
-     * "304 Not Modified" for you, and you don't need to serve the file.
+     * Checks any "If-None-Match" or "If-Modified-Since" header from the request against an entity tag calculated from
+     * the resource's content and against the plugin's loading time.  The tag is calculated once per loaded plugin, and
+     * is the same on every node and after every restart for as long as the content is, so clients don't download the
+     * resource again just because the plugin was reloaded.  If the tag can't be calculated, only the plugin's loading
+     * time is used; since plugins can't be modified after they've been loaded this is still a good way to determine if
+     * a plugin resource has been modified or not.
+     * <p/>
+     * If this method returns true, don't do any more processing on the request -- the response code has already been
+     * set to "304 Not Modified" for you, and you don't need to serve the file.
      */
     public boolean isResourceModified(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse) {
         final Date resourceLastModifiedDate = (plugin.getDateLoaded() == null) ? new Date() : plugin.getDateLoaded();
+        final String etag = getContentEtag();
+        if (etag != null) {
+            return LastModifiedHandler.checkRequest(httpServletRequest, httpServletResponse, resourceLastModifiedDate, etag);
+        }
         final LastModifiedHandler lastModifiedHandler = new LastModifiedHandler(resourceLastModifiedDate);
         return lastModifiedHandler.checkRequest(httpServletRequest, httpServletResponse);
     }
 
+    /**
+     * @return the entity tag of the content served for this resource, or null if there is no stable tag for it
+     */
+    private String getContentEtag() {
+        if (plugin.getDateLoaded() == null) {
+            return null;
+        }
+        final String location = getLocation();
+        final String key = plugin.getKey() + '|' + plugin.getDateLoaded().getTime() + '|' + location + '|' + minificationStrategyInPlay(location);
+        String etag = contentEtags.get(key);
+        if (etag == null) {
+            final InputStream resourceStream = getResourceAsStreamViaMinificationStrategy();
+            if (resourceStream == null) {
+                return null;
+            }
+            try {
+                etag = LastModifiedHandler.calculateContentEtag(resourceStream);
+            }
+            catch (final IOException e) {
+                log.debug("Unable to read " + this + " to calculate its entity tag", e);
+                return null;
+            }
+            finally {
+                IOUtils.closeQuietly(resourceStream);
+            }
+            contentEtags.put(key, etag);
+        }
+        return etag;
+    }
+
     public String getContentType() {
         return resourceLocation.getContentType();
     }
@@ -2,6 +2,10 @@ package org.maera.plugin.servlet.util;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
 /**
@@ -64,6 +68,124 @@ public class LastModifiedHandler {
         return checkRequest(request, response, lastModified, calculateEtag(lastModified));
     }
 
+    /**
+     * This static method is used when the resource being served has a strong entity tag calculated from its content,
+     * for example by {@link #calculateContentEtag(byte[])}.  Unlike a date, the tag is the same on every node and after
+     * every restart for as long as the content is the same.
+     * <p/>
+     * As HTTP requires, an "If-None-Match" header takes precedence over any "If-Modified-Since" header, so a client that
+     * already has the content gets a 304 even if the resource has been reloaded since.
+     *
+     * @param lastModifiedDate the last modified date of the resource, or null if it has none
+     * @param etag             the quoted entity tag of the resource's content
+     * @return true if we don't need to provide any data to satisfy this request
+     * @since 0.1
+     */
+    public static boolean checkRequest(HttpServletRequest request, HttpServletResponse response, Date lastModifiedDate, String etag) {
+        if ("true".equals(System.getProperty("maera.disable.caches", "false")))
+            return false;
+
+        response.setHeader("ETag", etag);
+        long lastModified = -1;
+        if (lastModifiedDate != null) {
+            lastModified = calculateLastModifiedDate(lastModifiedDate);
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (!etagListMatches(ifNoneMatch, etag)) {
+                return false;
+            }
+        } else {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            if (ifModifiedSince == -1 || lastModified == -1 || isContentModifiedSince(ifModifiedSince, lastModified)) {
+                return false;
+            }
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Sets the entity tag of content that is being served, for resources whose tag is only known once their content has
+     * been produced.  Nothing is set if caching has been disabled.
+     *
+     * @param etag the quoted entity tag of the content
+     * @since 0.1
+     */
+    public static void setEtag(HttpServletResponse response, String etag) {
+        if (!"true".equals(System.getProperty("maera.disable.caches", "false"))) {
+            response.setHeader("ETag", etag);
+        }
+    }
+
+    /**
+     * Calculates a strong entity tag from the content of a resource
+     *
+     * @param content the content
+     * @return the quoted entity tag
+     * @since 0.1
+     */
+    public static String calculateContentEtag(byte[] content) {
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        return toEtag(digest);
+    }
+
+    /**
+     * Calculates a strong entity tag from the content of a resource.  The stream is read to the end but not closed.
+     *
+     * @param content the content
+     * @return the quoted entity tag
+     * @throws IOException if the content cannot be read
+     * @since 0.1
+     */
+    public static String calculateContentEtag(InputStream content) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toEtag(digest);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toEtag(MessageDigest digest) {
+        StringBuilder etag = new StringBuilder(42).append('"');
+        for (byte b : digest.digest()) {
+            etag.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Compares an "If-None-Match" header, which may list several tags or be "*", with a tag.  As HTTP requires for
+     * this header, weak tags match their strong equivalents.
+     */
+    private static boolean etagListMatches(String ifNoneMatch, String etagString) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || candidate.equals(etagString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static boolean checkRequest(HttpServletRequest request, HttpServletResponse response, long lastModified, String etagString) {
         if ("true".equals(System.getProperty("maera.disable.caches", "false")))
             return false;
@@ -0,0 +1,203 @@
+package org.maera.plugin.webresource;
+
+import org.maera.plugin.servlet.DownloadException;
+import org.maera.plugin.servlet.util.LastModifiedHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers the assembled content of batch and super batch resources, so a batch is only read from its member
+ * resources once rather than on every request.
+ * <p/>
+ * The content is held as immutable byte arrays, together with a gzipped copy that is compressed as soon as the batch is
+ * assembled, and an entity tag calculated from the content.  The gzipped copy is a different representation, so it
+ * has its own tag.  Entries are keyed by the identity of the batch and the versions of the plugins it was assembled from, so
+ * upgrading a plugin moves its batches to new keys.
+ * <p/>
+ * The cache is bounded both by the number of entries and by the total size of their plain and gzipped content, by
+ * default {@value #DEFAULT_MAX_ENTRIES} entries and {@value #DEFAULT_MAX_BYTES} bytes.  The least recently used entries
+ * are dropped once either limit is exceeded, and content that is larger than the size limit on its own is never cached.
+ *
+ * @since 0.1
+ */
+class BatchContentCache {
+    static final int DEFAULT_MAX_ENTRIES = 100;
+    static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<String, BatchContent> contents = new LinkedHashMap<String, BatchContent>(16, 0.75f, true);
+    private long totalBytes;
+
+    BatchContentCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxEntries the maximum number of batches to remember
+     * @param maxBytes   the maximum total size of the plain and gzipped content of the batches
+     */
+    BatchContentCache(final int maxEntries, final long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the content of a batch, assembling it from the batch's members if it isn't cached yet.
+     *
+     * @param key   the key identifying the batch and the versions of its members
+     * @param batch the batch, used to stream the content of its members
+     * @return the content of the batch
+     * @throws DownloadException if the members cannot be read
+     */
+    BatchContent getContent(final String key, final BatchPluginResource batch) throws DownloadException {
+        BatchContent content;
+        synchronized (contents) {
+            content = contents.get(key);
+        }
+        if (content == null) {
+            // assembled outside the lock, so one slow batch doesn't hold up the others
+            content = BatchContent.assemble(batch);
+            content.getGzippedBytes();
+            if (content.size() <= maxBytes) {
+                synchronized (contents) {
+                    put(key, content);
+                }
+            }
+        }
+        return content;
+    }
+
+    private void put(final String key, final BatchContent content) {
+        final BatchContent replaced = contents.put(key, content);
+        if (replaced != null) {
+            totalBytes -= replaced.size();
+        }
+        totalBytes += content.size();
+
+        final Iterator<BatchContent> eldest = contents.values().iterator();
+        while (contents.size() > maxEntries || totalBytes > maxBytes) {
+            totalBytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    int size() {
+        synchronized (contents) {
+            return contents.size();
+        }
+    }
+
+    long sizeInBytes() {
+        synchronized (contents) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * The assembled content of a batch, plain and gzipped, with an entity tag calculated from it
+     */
+    static final class BatchContent {
+        private final byte[] bytes;
+        private final String etag;
+        private volatile byte[] gzippedBytes;
+
+        private BatchContent(final byte[] bytes) {
+            this.bytes = bytes;
+            this.etag = LastModifiedHandler.calculateContentEtag(bytes);
+        }
+
+        static BatchContent assemble(final BatchPluginResource batch) throws DownloadException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            batch.streamMembers(out);
+            return new BatchContent(out.toByteArray());
+        }
+
+        /**
+         * The returned array is shared and must not be modified
+         */
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * The returned array is shared and must not be modified
+         */
+        byte[] getGzippedBytes() throws DownloadException {
+            byte[] gzipped = gzippedBytes;
+            if (gzipped == null) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+                try {
+                    final GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+                    gzipOut.write(bytes);
+                    gzipOut.close();
+                }
+                catch (final IOException e) {
+                    // never thrown by a ByteArrayOutputStream
+                    throw new DownloadException(e);
+                }
+                gzipped = out.toByteArray();
+                gzippedBytes = gzipped;
+            }
+            return gzipped;
+        }
+
+        /**
+         * @return the number of bytes held for the plain and gzipped content
+         */
+        long size() {
+            final byte[] gzipped = gzippedBytes;
+            return bytes.length + (gzipped != null ? gzipped.length : 0);
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the entity tag of the gzipped content, which is the tag of the content with a "-gzip" suffix, as the
+         *         gzipped bytes are always compressed the same way from the same content
+         */
+        String getGzippedEtag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+    }
+
+    /**
+     * @param acceptEncoding the value of an Accept-Encoding header, may be null
+     * @return true if the header accepts gzip, without a zero quality
+     */
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+                for (int x = 1; x < parts.length; x++) {
+                    final String param = parts[x].trim();
+                    if (param.startsWith("q=") && isZero(param.substring(2))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZero(final String quality) {
+        try {
+            return Float.parseFloat(quality.trim()) == 0f;
+        }
+        catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+}
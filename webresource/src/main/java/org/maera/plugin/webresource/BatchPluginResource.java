@@ -3,6 +3,7 @@ package org.maera.plugin.webresource;
 import org.maera.plugin.Plugin;
 import org.maera.plugin.servlet.DownloadException;
 import org.maera.plugin.servlet.DownloadableResource;
+import org.maera.plugin.servlet.util.LastModifiedHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +43,10 @@ public class BatchPluginResource implements DownloadableResource, PluginResource
     final private String resourceName;
     final private List<DownloadableResource> resources;
 
+    private BatchContentCache contentCache;
+    private String contentKey;
+    private BatchContentCache.BatchContent content;
+
     /**
      * A constructor that creates a default resource name for the batch in the format: moduleCompleteKey.type
      * For example: test.plugin:resources.js
@@ -75,48 +80,121 @@ public class BatchPluginResource implements DownloadableResource, PluginResource
         resources.add(resource);
     }
 
+    /**
+     * Serves the content of this batch from the given cache, where it is stored under the given key.  The key must
+     * change whenever the content of any member of the batch could have changed.
+     *
+     * @param contentCache the cache of assembled batches
+     * @param contentKey   the key of this batch in the cache
+     * @since 0.1
+     */
+    void setContentCache(final BatchContentCache contentCache, final String contentKey) {
+        this.contentCache = contentCache;
+        this.contentKey = contentKey;
+    }
+
+    /**
+     * Checks the request against an entity tag calculated from the content of the whole batch, for the representation
+     * the request accepts.  The content is assembled here if it isn't cached, and kept to serve the request; a batch
+     * that can't be cached is only assembled here if the request has a tag to check, and is otherwise tagged once it
+     * is served.
+     */
     public boolean isResourceModified(final HttpServletRequest request, final HttpServletResponse response) {
-        for (final DownloadableResource resource : resources) {
-            if (resource.isResourceModified(request, response)) {
-                return true;
-            }
+        response.setHeader("Vary", "Accept-Encoding");
+        if (contentCache == null && content == null && request.getHeader("If-None-Match") == null) {
+            return false;
+        }
+
+        final String etag;
+        try {
+            etag = getEtag(getContent(), acceptsGzip(request));
+        }
+        catch (final DownloadException e) {
+            log.warn("Unable to assemble batch " + toString() + " to check whether it was modified", e);
+            return false;
         }
-        return false;
+        return LastModifiedHandler.checkRequest(request, response, null, etag);
     }
 
     public void serveResource(final HttpServletRequest request, final HttpServletResponse response) throws DownloadException {
         log.debug("Start to serve batch " + toString());
-        for (final DownloadableResource resource : resources) {
-            resource.serveResource(request, response);
-            writeNewLine(response);
+        final BatchContentCache.BatchContent batchContent = getContent();
+        final boolean gzip = acceptsGzip(request);
+        final byte[] bytes;
+        response.setHeader("Vary", "Accept-Encoding");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            bytes = batchContent.getGzippedBytes();
+        } else {
+            bytes = batchContent.getBytes();
         }
+        LastModifiedHandler.setEtag(response, getEtag(batchContent, gzip));
+        response.setContentLength(bytes.length);
+        try {
+            write(bytes, response.getOutputStream());
+        }
+        catch (final IOException e) {
+            throw new DownloadException(e);
+        }
+    }
+
+    private static boolean acceptsGzip(final HttpServletRequest request) {
+        return (request != null) && BatchContentCache.acceptsGzip(request.getHeader("Accept-Encoding"));
+    }
+
+    private static String getEtag(final BatchContentCache.BatchContent batchContent, final boolean gzip) {
+        return gzip ? batchContent.getGzippedEtag() : batchContent.getEtag();
     }
 
     public void streamResource(final OutputStream out) throws DownloadException {
+        if (contentCache == null) {
+            streamMembers(out);
+            return;
+        }
+        write(getContent().getBytes(), out);
+    }
+
+    /**
+     * @return the content of this batch, from the content cache if there is one
+     */
+    private BatchContentCache.BatchContent getContent() throws DownloadException {
+        if (content == null) {
+            content = (contentCache != null) ? contentCache.getContent(contentKey, this) : BatchContentCache.BatchContent.assemble(this);
+        }
+        return content;
+    }
+
+    /**
+     * Streams the content of each resource in this batch, bypassing any content cache
+     *
+     * @param out the stream to write to
+     * @throws DownloadException if a resource cannot be streamed
+     */
+    void streamMembers(final OutputStream out) throws DownloadException {
         for (final DownloadableResource resource : resources) {
             resource.streamResource(out);
             writeNewLine(out);
         }
     }
 
+    private void write(final byte[] bytes, final OutputStream out) throws DownloadException {
+        try {
+            out.write(bytes);
+        }
+        catch (final IOException e) {
+            throw new DownloadException(e);
+        }
+    }
+
     /**
      * If a minified files follows another file and the former does not have a free floating carriage return AND ends in
      * a // comment then the one line minified file will in fact be lost from view in a batched send.  So we need
      * to put a new line between files
      *
-     * @param response the HTTP response
+     * @param out the stream to write to
      * @throws org.maera.plugin.servlet.DownloadException
      *          wraps an IOException (probably client abort)
      */
-    private void writeNewLine(final HttpServletResponse response) throws DownloadException {
-        try {
-            writeNewLine(response.getOutputStream());
-        }
-        catch (final IOException e) {
-            throw new DownloadException(e);
-        }
-    }
-
     private void writeNewLine(final OutputStream out) throws DownloadException {
         try {
             out.write('\n');
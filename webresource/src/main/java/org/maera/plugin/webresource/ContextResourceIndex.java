@@ -0,0 +1,180 @@
+package org.maera.plugin.webresource;
+
+import org.maera.plugin.ModuleDescriptor;
+import org.maera.plugin.event.PluginEventListener;
+import org.maera.plugin.event.events.PluginModuleDisabledEvent;
+import org.maera.plugin.event.events.PluginModuleEnabledEvent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of the enabled web resource modules by the contexts they are registered for, kept up to date from module
+ * enabled and disabled events.
+ * <p/>
+ * The index is built from the plugin accessor the first time it is used, and from then on each event replaces it with
+ * an updated copy.  Each copy also remembers, for each context, the context's modules and all their dependencies in
+ * the order they need to be included, so requiring a context that has been required before is a map lookup.  The
+ * resolved resources are worked out again when a web resource module is enabled or disabled, because that may change
+ * the dependencies, or when the super batch changes.
+ *
+ * @since 0.1
+ */
+final class ContextResourceIndex {
+    private final WebResourceIntegration webResourceIntegration;
+    private final ResourceBatchingConfiguration batchingConfiguration;
+    private final ResourceDependencyResolver dependencyResolver;
+
+    private final Object lock = new Object();
+    private volatile Index index;
+
+    ContextResourceIndex(WebResourceIntegration webResourceIntegration, ResourceBatchingConfiguration batchingConfiguration,
+                         ResourceDependencyResolver dependencyResolver) {
+        this.webResourceIntegration = webResourceIntegration;
+        this.batchingConfiguration = batchingConfiguration;
+        this.dependencyResolver = dependencyResolver;
+    }
+
+    /**
+     * @param context the web resource context
+     * @return the complete keys of the modules registered for the context and their dependencies, in the order they
+     *         should be included.  The returned set is shared and unmodifiable.
+     */
+    Set<String> getResources(String context) {
+        final Index current = getIndex();
+        final boolean excludeSuperBatchedResources = batchingConfiguration.isSuperBatchingEnabled();
+        final String superBatchVersion = excludeSuperBatchedResources ? webResourceIntegration.getSuperBatchVersion() : null;
+
+        ResolvedContexts resolved = current.resolved;
+        if (resolved == null || !resolved.isFor(excludeSuperBatchedResources, superBatchVersion)) {
+            resolved = new ResolvedContexts(excludeSuperBatchedResources, superBatchVersion);
+            current.resolved = resolved;
+        }
+
+        Set<String> resources = resolved.resourcesByContext.get(context);
+        if (resources == null) {
+            final LinkedHashSet<String> orderedResources = new LinkedHashSet<String>();
+            for (String moduleKey : current.getModuleKeys(context)) {
+                orderedResources.addAll(dependencyResolver.getDependencies(moduleKey, excludeSuperBatchedResources));
+            }
+            resources = Collections.unmodifiableSet(orderedResources);
+            resolved.resourcesByContext.put(context, resources);
+        }
+        return resources;
+    }
+
+    @PluginEventListener
+    public void pluginModuleEnabled(PluginModuleEnabledEvent event) {
+        final ModuleDescriptor<?> module = event.getModule();
+        if (!(module instanceof WebResourceModuleDescriptor)) {
+            return;
+        }
+
+        synchronized (lock) {
+            if (index != null) {
+                index = index.withModule((WebResourceModuleDescriptor) module);
+            }
+        }
+    }
+
+    @PluginEventListener
+    public void pluginModuleDisabled(PluginModuleDisabledEvent event) {
+        final ModuleDescriptor<?> module = event.getModule();
+        if (!(module instanceof WebResourceModuleDescriptor)) {
+            return;
+        }
+
+        synchronized (lock) {
+            if (index != null) {
+                index = index.withoutModule(module.getCompleteKey());
+            }
+        }
+    }
+
+    private Index getIndex() {
+        Index current = index;
+        if (current == null) {
+            synchronized (lock) {
+                current = index;
+                if (current == null) {
+                    // until the index is first used, the events are ignored and the accessor is the source of truth
+                    current = Index.EMPTY;
+                    for (WebResourceModuleDescriptor descriptor : webResourceIntegration.getPluginAccessor().getEnabledModuleDescriptorsByClass(WebResourceModuleDescriptor.class)) {
+                        current = current.withModule(descriptor);
+                    }
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The complete keys of the enabled web resource modules by context, which is never modified once created, and the
+     * resources resolved from it.
+     */
+    private static final class Index {
+        static final Index EMPTY = new Index(Collections.<String, List<String>>emptyMap());
+
+        private final Map<String, List<String>> moduleKeysByContext;
+        volatile ResolvedContexts resolved;
+
+        private Index(Map<String, List<String>> moduleKeysByContext) {
+            this.moduleKeysByContext = moduleKeysByContext;
+        }
+
+        List<String> getModuleKeys(String context) {
+            final List<String> moduleKeys = moduleKeysByContext.get(context);
+            return moduleKeys == null ? Collections.<String>emptyList() : moduleKeys;
+        }
+
+        Index withModule(WebResourceModuleDescriptor descriptor) {
+            final String completeKey = descriptor.getCompleteKey();
+            final Map<String, List<String>> updated = new HashMap<String, List<String>>(moduleKeysByContext);
+            for (String context : descriptor.getContexts()) {
+                final List<String> moduleKeys = new ArrayList<String>(getModuleKeys(context));
+                if (!moduleKeys.contains(completeKey)) {
+                    moduleKeys.add(completeKey);
+                }
+                updated.put(context, Collections.unmodifiableList(moduleKeys));
+            }
+            return new Index(updated);
+        }
+
+        Index withoutModule(String completeKey) {
+            final Map<String, List<String>> updated = new HashMap<String, List<String>>(moduleKeysByContext.size());
+            for (Map.Entry<String, List<String>> entry : moduleKeysByContext.entrySet()) {
+                if (entry.getValue().contains(completeKey)) {
+                    final List<String> moduleKeys = new ArrayList<String>(entry.getValue());
+                    moduleKeys.remove(completeKey);
+                    if (!moduleKeys.isEmpty()) {
+                        updated.put(entry.getKey(), Collections.unmodifiableList(moduleKeys));
+                    }
+                } else {
+                    updated.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return new Index(updated);
+        }
+    }
+
+    /**
+     * The resolved resources for each context, for one super batch
+     */
+    private static final class ResolvedContexts {
+        private final boolean excludeSuperBatchedResources;
+        private final String superBatchVersion;
+        private final ConcurrentMap<String, Set<String>> resourcesByContext = new ConcurrentHashMap<String, Set<String>>();
+
+        ResolvedContexts(boolean excludeSuperBatchedResources, String superBatchVersion) {
+            this.excludeSuperBatchedResources = excludeSuperBatchedResources;
+            this.superBatchVersion = superBatchVersion;
+        }
+
+        boolean isFor(boolean otherExcludeSuperBatchedResources, String otherSuperBatchVersion) {
+            return excludeSuperBatchedResources == otherExcludeSuperBatchedResources
+                    && (superBatchVersion == null ? otherSuperBatchVersion == null : superBatchVersion.equals(otherSuperBatchVersion));
+        }
+    }
+}
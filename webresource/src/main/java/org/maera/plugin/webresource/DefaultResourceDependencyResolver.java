@@ -1,78 +1,176 @@
 package org.maera.plugin.webresource;
 
 import org.maera.plugin.ModuleDescriptor;
+import org.maera.plugin.event.PluginEventListener;
+import org.maera.plugin.event.PluginEventManager;
+import org.maera.plugin.event.events.PluginModuleDisabledEvent;
+import org.maera.plugin.event.events.PluginModuleEnabledEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Resolves web resource dependencies from the enabled web resource modules.
+ * <p/>
+ * When created with a {@link PluginEventManager}, the dependencies of each module are only resolved once: they are
+ * kept until a module that was looked up while resolving them is enabled or disabled, and then only the affected
+ * modules are resolved again.  Cyclic dependencies are reported when the module that completes the cycle is enabled.
+ * The returned sets are shared and unmodifiable.
+ */
 class DefaultResourceDependencyResolver implements ResourceDependencyResolver {
     private static final Logger log = LoggerFactory.getLogger(DefaultResourceDependencyResolver.class);
 
     private final WebResourceIntegration webResourceIntegration;
     private final ResourceBatchingConfiguration batchingConfiguration;
+    private final boolean memoizeDependencies;
 
     private String superBatchVersion;
-    private LinkedHashSet<String> superBatchResources;
+    private Set<String> superBatchResources;
+
+    private final ConcurrentMap<String, Dependencies> dependenciesByModule = new ConcurrentHashMap<String, Dependencies>();
+    // the modules whose dependencies were resolved using each module key, so they can be forgotten when it changes
+    private final ConcurrentMap<String, Set<String>> dependentsByModule = new ConcurrentHashMap<String, Set<String>>();
+    private final AtomicLong changeCount = new AtomicLong();
 
     public DefaultResourceDependencyResolver(WebResourceIntegration webResourceIntegration, ResourceBatchingConfiguration batchingConfiguration) {
         this.webResourceIntegration = webResourceIntegration;
         this.batchingConfiguration = batchingConfiguration;
+        this.memoizeDependencies = false;
+    }
+
+    /**
+     * @param pluginEventManager the event manager broadcasting the module events that the resolved dependencies are
+     *                           kept up to date from
+     * @since 0.1
+     */
+    public DefaultResourceDependencyResolver(WebResourceIntegration webResourceIntegration, ResourceBatchingConfiguration batchingConfiguration,
+                                             PluginEventManager pluginEventManager) {
+        this.webResourceIntegration = webResourceIntegration;
+        this.batchingConfiguration = batchingConfiguration;
+        this.memoizeDependencies = true;
+        pluginEventManager.register(this);
     }
 
-    public LinkedHashSet<String> getSuperBatchDependencies() {
+    public Set<String> getSuperBatchDependencies() {
         if (!batchingConfiguration.isSuperBatchingEnabled()) {
             log.warn("Super batching not enabled, but getSuperBatchDependencies() called. Returning empty set.");
-            return new LinkedHashSet<String>();
+            return Collections.emptySet();
         }
 
         String version = webResourceIntegration.getSuperBatchVersion();
-        if (superBatchVersion == null || !superBatchVersion.equals(version)) {
-            LinkedHashSet<String> webResourceNames = new LinkedHashSet<String>();
-            if (batchingConfiguration.getSuperBatchModuleCompleteKeys() != null) {
-                for (String moduleKey : batchingConfiguration.getSuperBatchModuleCompleteKeys()) {
-                    resolveDependencies(moduleKey, webResourceNames, Collections.emptySet(), new Stack<String>());
-                }
+        synchronized (this) {
+            if (superBatchVersion != null && superBatchVersion.equals(version)) {
+                return superBatchResources;
             }
-            synchronized (this) {
-                superBatchResources = webResourceNames;
-                superBatchVersion = version;
+        }
+
+        LinkedHashSet<String> webResourceNames = new LinkedHashSet<String>();
+        if (batchingConfiguration.getSuperBatchModuleCompleteKeys() != null) {
+            for (String moduleKey : batchingConfiguration.getSuperBatchModuleCompleteKeys()) {
+                resolveDependencies(moduleKey, webResourceNames, new HashSet<String>(), new LinkedHashSet<String>());
             }
         }
-        return new LinkedHashSet(superBatchResources);
+        final Set<String> resources = Collections.unmodifiableSet(webResourceNames);
+        synchronized (this) {
+            superBatchResources = resources;
+            superBatchVersion = version;
+        }
+        return resources;
+    }
+
+    public Set<String> getDependencies(String moduleKey, boolean excludeSuperBatchedResources) {
+        final Dependencies dependencies = memoizeDependencies ? getMemoizedDependencies(moduleKey) : resolveDependencies(moduleKey);
+        if (!excludeSuperBatchedResources) {
+            return dependencies.all;
+        }
+        return dependencies.excluding(getSuperBatchDependencies());
     }
 
-    public LinkedHashSet<String> getDependencies(String moduleKey, boolean excludeSuperBatchedResources) {
-        LinkedHashSet<String> orderedResourceKeys = new LinkedHashSet<String>();
-        Set<String> superBatchResources = excludeSuperBatchedResources ? getSuperBatchDependencies() : Collections.<String>emptySet();
-        resolveDependencies(moduleKey, orderedResourceKeys, superBatchResources, new Stack<String>());
-        return orderedResourceKeys;
+    @PluginEventListener
+    public void pluginModuleEnabled(PluginModuleEnabledEvent event) {
+        final ModuleDescriptor<?> module = event.getModule();
+        if (module instanceof WebResourceModuleDescriptor) {
+            forgetDependents(module.getCompleteKey());
+            checkForCycles((WebResourceModuleDescriptor) module);
+        }
+    }
+
+    @PluginEventListener
+    public void pluginModuleDisabled(PluginModuleDisabledEvent event) {
+        final ModuleDescriptor<?> module = event.getModule();
+        if (module instanceof WebResourceModuleDescriptor) {
+            forgetDependents(module.getCompleteKey());
+        }
+    }
+
+    private Dependencies getMemoizedDependencies(String moduleKey) {
+        Dependencies dependencies = dependenciesByModule.get(moduleKey);
+        if (dependencies == null) {
+            final long changeCountBefore = changeCount.get();
+            dependencies = resolveDependencies(moduleKey);
+            for (String usedModuleKey : dependencies.usedModuleKeys) {
+                dependentsFor(usedModuleKey).add(moduleKey);
+            }
+            dependenciesByModule.put(moduleKey, dependencies);
+            // a module may have changed while resolving, in which case the dependencies may already be out of date
+            if (changeCount.get() != changeCountBefore) {
+                dependenciesByModule.remove(moduleKey, dependencies);
+            }
+        }
+        return dependencies;
+    }
+
+    private Set<String> dependentsFor(String moduleKey) {
+        Set<String> dependents = dependentsByModule.get(moduleKey);
+        if (dependents == null) {
+            dependents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            final Set<String> existing = dependentsByModule.putIfAbsent(moduleKey, dependents);
+            if (existing != null) {
+                dependents = existing;
+            }
+        }
+        return dependents;
+    }
+
+    private void forgetDependents(String moduleKey) {
+        changeCount.incrementAndGet();
+        final Set<String> dependents = dependentsByModule.remove(moduleKey);
+        if (dependents != null) {
+            for (String dependent : dependents) {
+                dependenciesByModule.remove(dependent);
+            }
+        }
+    }
+
+    private Dependencies resolveDependencies(String moduleKey) {
+        final LinkedHashSet<String> orderedResourceKeys = new LinkedHashSet<String>();
+        final Set<String> usedModuleKeys = new HashSet<String>();
+        resolveDependencies(moduleKey, orderedResourceKeys, usedModuleKeys, new LinkedHashSet<String>());
+        return new Dependencies(Collections.unmodifiableSet(orderedResourceKeys), usedModuleKeys);
     }
 
     /**
      * Adds the resources as well as its dependencies in order to the given ordered set. This method uses recursion
-     * to add a resouce's dependent resources also to the set. You should call this method with a new stack
+     * to add a resouce's dependent resources also to the set. You should call this method with a new, empty path
      * passed to the last parameter.
-     * <p/>
-     * Note that resources already in the given super batch will be exluded when resolving dependencies. You
-     * should pass in an empty set for the super batch to include super batch resources.
      *
      * @param moduleKey           the module complete key to add as well as its dependencies
      * @param orderedResourceKeys an ordered list set where the resources are added in order
-     * @param superBatchResources the set of super batch resources to exclude when resolving dependencies
-     * @param stack               where we are in the dependency tree
+     * @param usedModuleKeys      where the keys of all the modules looked up, including missing ones, are added
+     * @param path                where we are in the dependency tree
      */
     private void resolveDependencies(final String moduleKey, final LinkedHashSet<String> orderedResourceKeys,
-                                     final Set superBatchResources, final Stack<String> stack) {
-        if (superBatchResources.contains(moduleKey)) {
-            log.debug("Not requiring resource: " + moduleKey + " because it is part of a super-batch");
-            return;
-        }
-        if (stack.contains(moduleKey)) {
-            log.warn("Cyclic plugin resource dependency has been detected with: " + moduleKey + "\n" + "Stack trace: " + stack);
+                                     final Set<String> usedModuleKeys, final LinkedHashSet<String> path) {
+        if (path.contains(moduleKey)) {
+            log.warn("Cyclic plugin resource dependency has been detected with: " + moduleKey + "\n" + "Stack trace: " + path);
             return;
         }
 
+        usedModuleKeys.add(moduleKey);
         final ModuleDescriptor<?> moduleDescriptor = webResourceIntegration.getPluginAccessor().getEnabledPluginModule(moduleKey);
         if (!(moduleDescriptor instanceof WebResourceModuleDescriptor)) {
             if (webResourceIntegration.getPluginAccessor().getPluginModule(moduleKey) != null)
@@ -86,17 +184,94 @@ class DefaultResourceDependencyResolver implements ResourceDependencyResolver {
         if (log.isDebugEnabled()) {
             log.debug("About to add resource [" + moduleKey + "] and its dependencies: " + dependencies);
         }
-        stack.push(moduleKey);
+        path.add(moduleKey);
         try {
             for (final String dependency : dependencies) {
                 if (!orderedResourceKeys.contains(dependency)) {
-                    resolveDependencies(dependency, orderedResourceKeys, superBatchResources, stack);
+                    resolveDependencies(dependency, orderedResourceKeys, usedModuleKeys, path);
                 }
             }
         }
         finally {
-            stack.pop();
+            path.remove(moduleKey);
         }
         orderedResourceKeys.add(moduleKey);
     }
+
+    /**
+     * Warns about any dependency cycle through a newly enabled module.  Any new cycle must pass through it, and modules
+     * that aren't enabled yet are skipped quietly, as they will be checked when they are enabled.
+     */
+    private void checkForCycles(WebResourceModuleDescriptor module) {
+        final LinkedHashSet<String> path = new LinkedHashSet<String>();
+        path.add(module.getCompleteKey());
+        if (leadsTo(module.getCompleteKey(), module.getDependencies(), path, new HashSet<String>())) {
+            log.warn("Cyclic plugin resource dependency has been detected with: " + module.getCompleteKey() + "\n" + "Stack trace: " + path);
+        }
+    }
+
+    private boolean leadsTo(String moduleKey, List<String> dependencies, LinkedHashSet<String> path, Set<String> visited) {
+        for (String dependency : dependencies) {
+            if (dependency.equals(moduleKey)) {
+                return true;
+            }
+            if (!visited.add(dependency)) {
+                continue;
+            }
+            final ModuleDescriptor<?> descriptor = webResourceIntegration.getPluginAccessor().getEnabledPluginModule(dependency);
+            if (descriptor instanceof WebResourceModuleDescriptor) {
+                path.add(dependency);
+                if (leadsTo(moduleKey, ((WebResourceModuleDescriptor) descriptor).getDependencies(), path, visited)) {
+                    return true;
+                }
+                path.remove(dependency);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The resolved dependencies of a module, which are never modified once created
+     */
+    private static final class Dependencies {
+        final Set<String> all;
+        final Set<String> usedModuleKeys;
+        private volatile ExcludedDependencies excluded;
+
+        Dependencies(Set<String> all, Set<String> usedModuleKeys) {
+            this.all = all;
+            this.usedModuleKeys = usedModuleKeys;
+        }
+
+        /**
+         * The super batch is closed over its own dependencies, so leaving out its resources gives the same, ordered,
+         * result as not following the dependencies into it.
+         */
+        Set<String> excluding(Set<String> superBatchResources) {
+            ExcludedDependencies current = excluded;
+            if (current == null || current.superBatchResources != superBatchResources) {
+                final LinkedHashSet<String> remaining = new LinkedHashSet<String>();
+                for (String resource : all) {
+                    if (superBatchResources.contains(resource)) {
+                        log.debug("Not requiring resource: " + resource + " because it is part of a super-batch");
+                    } else {
+                        remaining.add(resource);
+                    }
+                }
+                current = new ExcludedDependencies(superBatchResources, Collections.unmodifiableSet(remaining));
+                excluded = current;
+            }
+            return current.resources;
+        }
+    }
+
+    private static final class ExcludedDependencies {
+        final Set<String> superBatchResources;
+        final Set<String> resources;
+
+        ExcludedDependencies(Set<String> superBatchResources, Set<String> resources) {
+            this.superBatchResources = superBatchResources;
+            this.resources = resources;
+        }
+    }
 }
@@ -34,6 +34,7 @@ public class PluginResourceLocatorImpl implements PluginResourceLocator {
     final private PluginAccessor pluginAccessor;
     final private ServletContextFactory servletContextFactory;
     final private ResourceDependencyResolver dependencyResolver;
+    final private BatchContentCache batchContentCache = new BatchContentCache();
 
     private static final String RESOURCE_SOURCE_PARAM = "source";
     private static final String RESOURCE_BATCH_PARAM = "batch";
@@ -87,6 +88,7 @@ public class PluginResourceLocatorImpl implements PluginResourceLocator {
             log.debug(batchResource.toString());
         }
 
+        final List<ModuleDescriptor<?>> members = new ArrayList<ModuleDescriptor<?>>();
         for (final String moduleKey : dependencyResolver.getSuperBatchDependencies()) {
             final ModuleDescriptor<?> moduleDescriptor = pluginAccessor.getEnabledPluginModule(moduleKey);
             if (moduleDescriptor == null) {
@@ -99,10 +101,18 @@ public class PluginResourceLocatorImpl implements PluginResourceLocator {
                 for (final ResourceDescriptor resourceDescriptor : filter(moduleDescriptor.getResourceDescriptors(), new Resources.TypeFilter(DOWNLOAD_TYPE))) {
                     if (isResourceInBatch(resourceDescriptor, batchResource)) {
                         batchResource.add(locatePluginResource(moduleDescriptor.getCompleteKey(), resourceDescriptor.getName()));
+                        if (!members.contains(moduleDescriptor)) {
+                            members.add(moduleDescriptor);
+                        }
                     }
                 }
             }
         }
+
+        final String contentKey = getBatchContentKey("superbatch", batchResource, members);
+        if (contentKey != null) {
+            batchResource.setContentCache(batchContentCache, contentKey);
+        }
         return batchResource;
     }
 
@@ -131,11 +141,50 @@ public class PluginResourceLocatorImpl implements PluginResourceLocator {
             if (resource != null) {
                 return resource;
             }
+        } else {
+            final String contentKey = getBatchContentKey("batch", batchResource, Collections.<ModuleDescriptor<?>>singletonList(moduleDescriptor));
+            if (contentKey != null) {
+                batchResource.setContentCache(batchContentCache, contentKey);
+            }
         }
 
         return batchResource;
     }
 
+    /**
+     * Builds the key that the assembled content of a batch is cached under.  As plugins can't be modified once they are
+     * loaded, the key identifies the content by the batch's type and parameters, and the version and load time of
+     * each plugin that contributes resources to it.
+     * <p/>
+     * Batches with transformed resources are not cached, as a transformer may produce different content for different
+     * requests.
+     *
+     * @param prefix  distinguishes super batches from module batches
+     * @param batch   the batch
+     * @param members the modules contributing resources to the batch, in order
+     * @return the key, or null if the content of the batch shouldn't be cached
+     */
+    private String getBatchContentKey(final String prefix, final BatchResource batch, final List<ModuleDescriptor<?>> members) {
+        final StringBuilder key = new StringBuilder(prefix).append('|').append(batch.getType());
+        for (final String param : BATCH_PARAMS) {
+            key.append('|').append(batch.getParams().get(param));
+        }
+        for (final ModuleDescriptor<?> member : members) {
+            if ((member instanceof WebResourceModuleDescriptor) && !((WebResourceModuleDescriptor) member).getTransformations().isEmpty()) {
+                return null;
+            }
+            final Plugin plugin = member.getPlugin();
+            key.append('|').append(member.getCompleteKey());
+            if (plugin != null) {
+                key.append('@').append(plugin.getPluginInformation().getVersion());
+                if (plugin.getDateLoaded() != null) {
+                    key.append('@').append(plugin.getDateLoaded().getTime());
+                }
+            }
+        }
+        return key.toString();
+    }
+
     private boolean isResourceInBatch(final ResourceDescriptor resourceDescriptor, final BatchResource batchResource) {
         if (!descriptorTypeMatchesResourceType(resourceDescriptor, batchResource.getType())) {
             return false;
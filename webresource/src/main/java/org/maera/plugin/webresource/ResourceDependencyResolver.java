@@ -1,13 +1,14 @@
 package org.maera.plugin.webresource;
 
-import java.util.LinkedHashSet;
+import java.util.Set;
 
 interface ResourceDependencyResolver {
     /**
      * Returns an ordered set of the super batch resources and its dependencies.
      * Implementations are expected to use the {@link ResourceBatchingConfiguration} provided.
+     * The returned set may be shared and must not be modified.
      */
-    public LinkedHashSet<String> getSuperBatchDependencies();
+    public Set<String> getSuperBatchDependencies();
 
     /**
      * Returns an ordered set of the given resource and its dependencies. To exclude resource dependencies
@@ -15,6 +16,7 @@ interface ResourceDependencyResolver {
      *
      * @param moduleKey                    the complete module key of the web resource to retrieve dependencies for
      * @param excludeSuperBatchedResources whether or not to exclude resources that are part of the super batch.
+     * @return the ordered set of resources, which may be shared and must not be modified
      */
-    public LinkedHashSet<String> getDependencies(String moduleKey, boolean excludeSuperBatchedResources);
+    public Set<String> getDependencies(String moduleKey, boolean excludeSuperBatchedResources);
 }
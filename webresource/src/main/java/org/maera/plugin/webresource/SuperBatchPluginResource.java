@@ -62,6 +62,10 @@ public class SuperBatchPluginResource implements DownloadableResource, BatchReso
         return delegate.isResourceModified(request, response);
     }
 
+    void setContentCache(BatchContentCache contentCache, String contentKey) {
+        delegate.setContentCache(contentCache, contentKey);
+    }
+
     public void serveResource(HttpServletRequest request, HttpServletResponse response) throws DownloadException {
         delegate.serveResource(request, response);
     }
@@ -1,6 +1,8 @@
 package org.maera.plugin.webresource;
 
+import com.google.common.collect.MapMaker;
 import org.maera.plugin.ModuleDescriptor;
+import org.maera.plugin.event.PluginEventManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -8,6 +10,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A handy super-class that handles most of the resource management.
@@ -39,6 +42,9 @@ public class WebResourceManagerImpl implements WebResourceManager {
 
     private static final boolean IGNORE_SUPERBATCHING = false;
 
+    private final ContextResourceIndex contextIndex;
+    private volatile SuperBatchResources superBatchResources;
+
     public WebResourceManagerImpl(PluginResourceLocator pluginResourceLocator, WebResourceIntegration webResourceIntegration) {
         this(pluginResourceLocator, webResourceIntegration, new DefaultResourceBatchingConfiguration());
     }
@@ -47,12 +53,41 @@ public class WebResourceManagerImpl implements WebResourceManager {
         this(pluginResourceLocator, webResourceIntegration, batchingConfiguration, new DefaultResourceDependencyResolver(webResourceIntegration, batchingConfiguration));
     }
 
+    /**
+     * Creates a web resource manager that keeps an index of the web resource modules by context, and the resolved
+     * dependencies of each module, up to date from the module events broadcast by the given event manager.
+     *
+     * @since 0.1
+     */
+    public WebResourceManagerImpl(PluginResourceLocator pluginResourceLocator, WebResourceIntegration webResourceIntegration,
+                                  ResourceBatchingConfiguration batchingConfiguration, PluginEventManager pluginEventManager) {
+        this(pluginResourceLocator, webResourceIntegration, batchingConfiguration,
+                new DefaultResourceDependencyResolver(webResourceIntegration, batchingConfiguration, pluginEventManager), pluginEventManager);
+    }
+
     public WebResourceManagerImpl(PluginResourceLocator pluginResourceLocator, WebResourceIntegration webResourceIntegration,
                                   ResourceBatchingConfiguration batchingConfiguration, ResourceDependencyResolver dependencyResolver) {
+        this(pluginResourceLocator, webResourceIntegration, batchingConfiguration, dependencyResolver, null);
+    }
+
+    /**
+     * @param pluginEventManager the event manager to keep the index of web resource modules by context up to date
+     *                           from, or null to look for the modules of a context each time it is required
+     * @since 0.1
+     */
+    public WebResourceManagerImpl(PluginResourceLocator pluginResourceLocator, WebResourceIntegration webResourceIntegration,
+                                  ResourceBatchingConfiguration batchingConfiguration, ResourceDependencyResolver dependencyResolver,
+                                  PluginEventManager pluginEventManager) {
         this.pluginResourceLocator = pluginResourceLocator;
         this.webResourceIntegration = webResourceIntegration;
         this.batchingConfiguration = batchingConfiguration;
         this.dependencyResolver = dependencyResolver;
+        if (pluginEventManager != null) {
+            contextIndex = new ContextResourceIndex(webResourceIntegration, batchingConfiguration, dependencyResolver);
+            pluginEventManager.register(contextIndex);
+        } else {
+            contextIndex = null;
+        }
     }
 
     public void requireResource(String moduleCompleteKey) {
@@ -61,6 +96,12 @@ public class WebResourceManagerImpl implements WebResourceManager {
     }
 
     public void requireResourcesForContext(String context) {
+        if (contextIndex != null) {
+            log.debug("Requiring resources for context: " + context);
+            getIncludedResourceNames().addAll(contextIndex.getResources(context));
+            return;
+        }
+
         final List<WebResourceModuleDescriptor> webResourceModuleDescriptors =
                 webResourceIntegration.getPluginAccessor().getEnabledModuleDescriptorsByClass(WebResourceModuleDescriptor.class);
 
@@ -182,13 +223,32 @@ public class WebResourceManagerImpl implements WebResourceManager {
      * Get all super-batch resources that match the given filter. If superbatching is disabled this will just
      * return the empty list.
      * <p/>
+     * The resources are remembered for each filter until the super batch version changes, so the returned list is
+     * shared and unmodifiable.
+     * <p/>
      * Package private so it can be tested independently.
      */
     List<PluginResource> getSuperBatchResources(WebResourceFilter filter) {
         if (!batchingConfiguration.isSuperBatchingEnabled())
             return Collections.emptyList();
 
-        LinkedHashSet<String> superBatchModuleKeys = dependencyResolver.getSuperBatchDependencies();
+        final String version = webResourceIntegration.getSuperBatchVersion();
+        SuperBatchResources cached = superBatchResources;
+        if (cached == null || !cached.isVersion(version)) {
+            cached = new SuperBatchResources(version);
+            superBatchResources = cached;
+        }
+
+        List<PluginResource> resources = cached.resourcesByFilter.get(filter);
+        if (resources == null) {
+            resources = Collections.unmodifiableList(findSuperBatchResources(filter));
+            cached.resourcesByFilter.put(filter, resources);
+        }
+        return resources;
+    }
+
+    private List<PluginResource> findSuperBatchResources(WebResourceFilter filter) {
+        Set<String> superBatchModuleKeys = dependencyResolver.getSuperBatchDependencies();
         List<PluginResource> resources = new ArrayList<PluginResource>();
 
         // This is necessarily quite complicated. We need distinct superbatch resources for each combination of
@@ -216,7 +276,7 @@ public class WebResourceManagerImpl implements WebResourceManager {
         return resources;
     }
 
-    private List<PluginResource> getModuleResources(LinkedHashSet<String> webResourcePluginModuleKeys, WebResourceFilter filter) {
+    private List<PluginResource> getModuleResources(Set<String> webResourcePluginModuleKeys, WebResourceFilter filter) {
         List<PluginResource> includedResources = new ArrayList<PluginResource>();
         for (String moduleKey : webResourcePluginModuleKeys) {
             List<PluginResource> moduleResources = pluginResourceLocator.getPluginResources(moduleKey);
@@ -266,7 +326,7 @@ public class WebResourceManagerImpl implements WebResourceManager {
     }
 
     public void requireResource(String moduleCompleteKey, Writer writer, UrlMode urlMode) {
-        LinkedHashSet<String> allDependentModuleKeys = dependencyResolver.getDependencies(moduleCompleteKey, IGNORE_SUPERBATCHING);
+        Set<String> allDependentModuleKeys = dependencyResolver.getDependencies(moduleCompleteKey, IGNORE_SUPERBATCHING);
         List<PluginResource> resourcesToInclude = getModuleResources(allDependentModuleKeys, DefaultWebResourceFilter.INSTANCE);
         writeResourceTags(resourcesToInclude, writer, urlMode);
     }
@@ -366,4 +426,21 @@ public class WebResourceManagerImpl implements WebResourceManager {
     public void setIncludeMode(final IncludeMode includeMode) {
         webResourceIntegration.getRequestCache().put(REQUEST_CACHE_MODE_KEY, includeMode);
     }
+
+    /**
+     * The super batch resources for each filter, for one version of the super batch
+     */
+    private static final class SuperBatchResources {
+        private final String version;
+        // weak keys, so filters created for a single render don't accumulate
+        private final ConcurrentMap<WebResourceFilter, List<PluginResource>> resourcesByFilter = new MapMaker().weakKeys().makeMap();
+
+        SuperBatchResources(String version) {
+            this.version = version;
+        }
+
+        boolean isVersion(String otherVersion) {
+            return version == null ? otherVersion == null : version.equals(otherVersion);
+        }
+    }
 }
@@ -3,9 +3,13 @@ package org.maera.plugin.webresource.transformer;
 import org.apache.commons.lang.StringUtils;
 import org.maera.plugin.servlet.DownloadException;
 import org.maera.plugin.servlet.DownloadableResource;
+import org.maera.plugin.servlet.util.LastModifiedHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -13,18 +17,38 @@ import java.io.OutputStream;
  * Abstract class for implementing downloadable resources that are wrapping an underlying resource as part of a
  * {@link WebResourceTransformer} implementation.  Subclasses are expected to implement {@link #streamResource(OutputStream)},
  * while the other methods are delegated by default.
+ * <p/>
+ * The transformed content is tagged with a strong entity tag calculated from the transformed bytes, rather than from
+ * the original resource, so a client is never told that its copy is current when the transformation has changed.  A
+ * transformer may transform the same resource differently for different requests, so the tag isn't remembered across
+ * requests: the content is transformed once for each request, and kept to check the request's tag and to serve it.
  *
  * @since 2.5.0
  */
 public abstract class AbstractTransformedDownloadableResource implements DownloadableResource {
+    private static final Logger log = LoggerFactory.getLogger(AbstractTransformedDownloadableResource.class);
+
     private final DownloadableResource originalResource;
+    private byte[] transformedContent;
 
     public AbstractTransformedDownloadableResource(DownloadableResource originalResource) {
         this.originalResource = originalResource;
     }
 
     public boolean isResourceModified(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
-        return originalResource.isResourceModified(httpServletRequest, httpServletResponse);
+        if (httpServletRequest.getHeader("If-None-Match") == null) {
+            // there's nothing to check, and the tag is set when the content is served
+            return false;
+        }
+        final byte[] content;
+        try {
+            content = getTransformedContent();
+        }
+        catch (final DownloadException e) {
+            log.warn("Unable to transform " + this + " to check whether it was modified", e);
+            return false;
+        }
+        return LastModifiedHandler.checkRequest(httpServletRequest, httpServletResponse, null, LastModifiedHandler.calculateContentEtag(content));
     }
 
     public void serveResource(HttpServletRequest httpServletRequest, HttpServletResponse response) throws DownloadException {
@@ -34,15 +58,26 @@ public abstract class AbstractTransformedDownloadableResource implements Downloa
             response.setContentType(contentType);
         }
 
-        OutputStream out;
+        final byte[] content = getTransformedContent();
+        LastModifiedHandler.setEtag(response, LastModifiedHandler.calculateContentEtag(content));
         try {
-            out = response.getOutputStream();
+            response.getOutputStream().write(content);
         }
         catch (final IOException e) {
             throw new DownloadException(e);
         }
+    }
 
-        streamResource(out);
+    /**
+     * @return the transformed content, which is only transformed once for this resource
+     */
+    private byte[] getTransformedContent() throws DownloadException {
+        if (transformedContent == null) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            streamResource(out);
+            transformedContent = out.toByteArray();
+        }
+        return transformedContent;
     }
 
     public String getContentType() {
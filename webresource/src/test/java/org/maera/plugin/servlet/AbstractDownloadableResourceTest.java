@@ -2,16 +2,26 @@ package org.maera.plugin.servlet;
 
 import junit.framework.AssertionFailedError;
 import org.junit.Test;
+import org.maera.plugin.Plugin;
 import org.maera.plugin.elements.ResourceLocation;
 import org.maera.plugin.servlet.util.CapturingHttpServletResponse;
+import org.maera.plugin.servlet.util.LastModifiedHandler;
 import org.maera.plugin.util.PluginUtils;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * A test for AbstractDownloadableResource
@@ -120,6 +130,35 @@ public class AbstractDownloadableResourceTest {
 
     }
 
+    @Test
+    public void testContentEtagIsCalculatedOncePerLoadedPlugin() {
+        final Plugin plugin = mock(Plugin.class);
+        when(plugin.getKey()).thenReturn("test.plugin.etag");
+        when(plugin.getDateLoaded()).thenReturn(new Date(1000));
+        final String etag = LastModifiedHandler.calculateContentEtag(PLAIN_CONTENT.getBytes());
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(etag);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+
+        final CountingDownloadableResource first = new CountingDownloadableResource(plugin);
+        final HttpServletResponse firstResponse = mock(HttpServletResponse.class);
+        assertTrue(first.isResourceModified(request, firstResponse));
+        verify(firstResponse).setHeader("ETag", etag);
+        assertEquals(1, first.opened);
+
+        final CountingDownloadableResource second = new CountingDownloadableResource(plugin);
+        assertTrue(second.isResourceModified(request, mock(HttpServletResponse.class)));
+        assertEquals(0, second.opened);
+
+        // a reloaded plugin may have different content
+        when(plugin.getDateLoaded()).thenReturn(new Date(2000));
+        final CountingDownloadableResource reloaded = new CountingDownloadableResource(plugin);
+        reloaded.content = "changed content";
+        assertFalse(reloaded.isResourceModified(request, mock(HttpServletResponse.class)));
+        assertEquals(1, reloaded.opened);
+    }
+
     private void assertContent(final AbstractDownloadableResource downloadableResource, final String content) throws DownloadException {
         final CapturingHttpServletResponse httpServletResponse = new CapturingHttpServletResponse();
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -294,4 +333,19 @@ public class AbstractDownloadableResourceTest {
             return new ByteArrayInputStream(s.getBytes());
         }
     }
+
+    private static class CountingDownloadableResource extends AbstractDownloadableResource {
+        private String content = PLAIN_CONTENT;
+        private int opened = 0;
+
+        public CountingDownloadableResource(final Plugin plugin) {
+            super(plugin, new ResourceLocation("/flintstone/fred.png", "fred.png", "stuff", "stuff", "stuff", null), null);
+        }
+
+        @Override
+        protected InputStream getResourceAsStream(final String resourceLocation) {
+            opened++;
+            return new ByteArrayInputStream(content.getBytes());
+        }
+    }
 }
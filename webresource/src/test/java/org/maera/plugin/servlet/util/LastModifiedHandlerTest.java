@@ -0,0 +1,68 @@
+package org.maera.plugin.servlet.util;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class LastModifiedHandlerTest {
+
+    private static final String ETAG = LastModifiedHandler.calculateContentEtag("content".getBytes());
+
+    @Test
+    public void testCalculateContentEtag() throws Exception {
+        assertEquals("\"040f06fd774092478d450774f5ba30c5da78acc8\"", ETAG);
+        assertEquals(ETAG, LastModifiedHandler.calculateContentEtag(new ByteArrayInputStream("content".getBytes())));
+        assertFalse(ETAG.equals(LastModifiedHandler.calculateContentEtag("other content".getBytes())));
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModifiedEvenIfReloaded() {
+        final HttpServletRequest request = mockRequest(ETAG, 1000);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+
+        assertTrue(LastModifiedHandler.checkRequest(request, response, new Date(5000), ETAG));
+        verify(response).setHeader("ETag", ETAG);
+        verify(response).setDateHeader("Last-Modified", 5000);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testDifferentEtagIsModifiedEvenIfNotReloaded() {
+        final HttpServletRequest request = mockRequest("\"other\"", 5000);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+
+        assertFalse(LastModifiedHandler.checkRequest(request, response, new Date(1000), ETAG));
+        verify(response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void testEtagLists() {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertTrue(LastModifiedHandler.checkRequest(mockRequest("\"other\", " + ETAG, -1), response, null, ETAG));
+        assertTrue(LastModifiedHandler.checkRequest(mockRequest("W/" + ETAG, -1), response, null, ETAG));
+        assertTrue(LastModifiedHandler.checkRequest(mockRequest("*", -1), response, null, ETAG));
+        assertFalse(LastModifiedHandler.checkRequest(mockRequest("\"other\", \"another\"", -1), response, null, ETAG));
+    }
+
+    @Test
+    public void testIfModifiedSinceWithoutEtag() {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertTrue(LastModifiedHandler.checkRequest(mockRequest(null, 5000), response, new Date(5000), ETAG));
+        assertFalse(LastModifiedHandler.checkRequest(mockRequest(null, 1000), response, new Date(5000), ETAG));
+        assertFalse(LastModifiedHandler.checkRequest(mockRequest(null, 5000), response, null, ETAG));
+        assertFalse(LastModifiedHandler.checkRequest(mockRequest(null, -1), response, new Date(5000), ETAG));
+    }
+
+    private static HttpServletRequest mockRequest(final String ifNoneMatch, final long ifModifiedSince) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(ifModifiedSince);
+        return request;
+    }
+}
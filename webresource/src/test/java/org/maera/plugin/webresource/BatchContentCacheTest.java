@@ -0,0 +1,114 @@
+package org.maera.plugin.webresource;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.maera.plugin.webresource.util.DownloadableResourceTestImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class BatchContentCacheTest {
+
+    @Test
+    public void testContentIsAssembledOnce() throws Exception {
+        final BatchContentCache cache = new BatchContentCache();
+        final CountingResource resource = new CountingResource("Test1");
+        final BatchPluginResource batch = new BatchPluginResource("test.plugin:webresources", "js", Collections.<String, String>emptyMap());
+        batch.add(resource);
+
+        final BatchContentCache.BatchContent first = cache.getContent("key", batch);
+        final BatchContentCache.BatchContent second = cache.getContent("key", batch);
+
+        assertSame(first, second);
+        assertEquals(1, resource.streamed);
+        assertEquals("Test1\n", new String(first.getBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testGzippedContent() throws Exception {
+        final BatchPluginResource batch = new BatchPluginResource("test.plugin:webresources", "js", Collections.<String, String>emptyMap());
+        batch.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        batch.add(new DownloadableResourceTestImpl("text/js", "Test2"));
+
+        final BatchContentCache.BatchContent content = new BatchContentCache().getContent("key", batch);
+        final byte[] gunzipped = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(content.getGzippedBytes())));
+        assertEquals("Test1\nTest2\n", new String(gunzipped, "UTF-8"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedContentIsEvicted() throws Exception {
+        final BatchContentCache cache = new BatchContentCache(2, BatchContentCache.DEFAULT_MAX_BYTES);
+        final BatchPluginResource batch = new BatchPluginResource("test.plugin:webresources", "js", Collections.<String, String>emptyMap());
+        batch.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+
+        final BatchContentCache.BatchContent first = cache.getContent("first", batch);
+        cache.getContent("second", batch);
+        cache.getContent("first", batch);
+        cache.getContent("third", batch);
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.getContent("first", batch));
+    }
+
+    @Test
+    public void testCacheIsBoundedByTotalSize() throws Exception {
+        final BatchPluginResource batch = new BatchPluginResource("test.plugin:webresources", "js", Collections.<String, String>emptyMap());
+        batch.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        final long contentSize = new BatchContentCache().getContent("key", batch).size();
+        final BatchContentCache cache = new BatchContentCache(10, contentSize * 2);
+
+        final BatchContentCache.BatchContent first = cache.getContent("first", batch);
+        cache.getContent("second", batch);
+        cache.getContent("first", batch);
+        cache.getContent("third", batch);
+
+        assertEquals(2, cache.size());
+        assertEquals(contentSize * 2, cache.sizeInBytes());
+        assertSame(first, cache.getContent("first", batch));
+    }
+
+    @Test
+    public void testContentLargerThanTheCacheIsNotCached() throws Exception {
+        final BatchContentCache cache = new BatchContentCache(10, 8);
+        final CountingResource resource = new CountingResource("Test1");
+        final BatchPluginResource batch = new BatchPluginResource("test.plugin:webresources", "js", Collections.<String, String>emptyMap());
+        batch.add(resource);
+
+        assertEquals("Test1\n", new String(cache.getContent("key", batch).getBytes(), "UTF-8"));
+        cache.getContent("key", batch);
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+        assertEquals(2, resource.streamed);
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(BatchContentCache.acceptsGzip("gzip, deflate"));
+        assertTrue(BatchContentCache.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(BatchContentCache.acceptsGzip("x-gzip"));
+        assertTrue(BatchContentCache.acceptsGzip("*"));
+        assertFalse(BatchContentCache.acceptsGzip(null));
+        assertFalse(BatchContentCache.acceptsGzip("deflate"));
+        assertFalse(BatchContentCache.acceptsGzip("gzip;q=0"));
+        assertFalse(BatchContentCache.acceptsGzip("gzip; q=0.0, deflate"));
+    }
+
+    private static class CountingResource extends DownloadableResourceTestImpl {
+        int streamed = 0;
+
+        CountingResource(final String content) {
+            super("text/js", content);
+        }
+
+        @Override
+        public void streamResource(final OutputStream out) {
+            streamed++;
+            super.streamResource(out);
+        }
+    }
+}
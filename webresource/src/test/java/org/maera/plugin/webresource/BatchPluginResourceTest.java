@@ -6,12 +6,18 @@ import org.maera.plugin.servlet.DownloadableResource;
 import org.maera.plugin.servlet.util.CapturingHttpServletResponse;
 import org.maera.plugin.webresource.util.DownloadableResourceTestImpl;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 public class BatchPluginResourceTest {
 
@@ -100,6 +106,100 @@ public class BatchPluginResourceTest {
         assertEquals("Test1\nTest2\n", actualResponse);
     }
 
+    @Test
+    public void testServeCachedContent() throws Exception {
+        final BatchContentCache cache = new BatchContentCache();
+        final BatchPluginResource batchResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        batchResource.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        batchResource.setContentCache(cache, "key");
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final HttpServletResponse response = mockResponse(out);
+        batchResource.serveResource(request, response);
+
+        assertEquals("Test1\n", out.toString());
+        verify(response).setContentLength(6);
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testServeCachedContentGzipped() throws Exception {
+        final BatchContentCache cache = new BatchContentCache();
+        final BatchPluginResource batchResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        batchResource.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        batchResource.setContentCache(cache, "key");
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final HttpServletResponse response = mockResponse(out);
+        batchResource.serveResource(request, response);
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        assertArrayEquals(cache.getContent("key", batchResource).getGzippedBytes(), out.toByteArray());
+    }
+
+    @Test
+    public void testNotModifiedWhenBatchContentIsUnchanged() throws Exception {
+        final BatchContentCache cache = new BatchContentCache();
+        final BatchPluginResource batchResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        batchResource.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        batchResource.add(new DownloadableResourceTestImpl("text/js", "Test2"));
+        batchResource.setContentCache(cache, "key");
+        final String etag = cache.getContent("key", batchResource).getEtag();
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(etag);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertTrue(batchResource.isResourceModified(request, response));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+        // the tag of a single member doesn't match the whole batch
+        final BatchPluginResource changedResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        changedResource.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        changedResource.add(new DownloadableResourceTestImpl("text/js", "Test3"));
+        assertFalse(changedResource.isResourceModified(request, mock(HttpServletResponse.class)));
+    }
+
+    @Test
+    public void testGzippedContentHasItsOwnEtag() throws Exception {
+        final BatchContentCache cache = new BatchContentCache();
+        final BatchPluginResource batchResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        batchResource.add(new DownloadableResourceTestImpl("text/js", "Test1"));
+        batchResource.setContentCache(cache, "key");
+        final BatchContentCache.BatchContent content = cache.getContent("key", batchResource);
+        assertFalse(content.getEtag().equals(content.getGzippedEtag()));
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        when(request.getHeader("If-None-Match")).thenReturn(content.getEtag());
+        assertFalse(batchResource.isResourceModified(request, mock(HttpServletResponse.class)));
+
+        when(request.getHeader("If-None-Match")).thenReturn(content.getGzippedEtag());
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertTrue(batchResource.isResourceModified(request, response));
+        verify(response).setHeader("ETag", content.getGzippedEtag());
+        verify(response).setHeader("Vary", "Accept-Encoding");
+
+        final HttpServletResponse servedResponse = mockResponse(new ByteArrayOutputStream());
+        batchResource.serveResource(request, servedResponse);
+        verify(servedResponse).setHeader("ETag", content.getGzippedEtag());
+    }
+
+    @Test
+    public void testUncachedBatchIsOnlyAssembledToCheckATag() throws Exception {
+        final DownloadableResource member = mock(DownloadableResource.class);
+        final BatchPluginResource batchResource = new BatchPluginResource("test.plugin:webresources", "js", null);
+        batchResource.add(member);
+
+        assertFalse(batchResource.isResourceModified(mock(HttpServletRequest.class), mock(HttpServletResponse.class)));
+        verify(member, never()).streamResource(any(OutputStream.class));
+    }
+
     @Test
     public void testParse() throws Exception {
         final BatchPluginResource resource = BatchPluginResource.parse("/download/batch/test.plugin:webresources/test.plugin:webresources.css",
@@ -186,4 +286,15 @@ public class BatchPluginResourceTest {
         assertEquals(resource.getParams(), parsedResource.getParams());
         assertEquals(moduleKey + ".js", resource.getResourceName());
     }
+
+    private static HttpServletResponse mockResponse(final ByteArrayOutputStream out) throws IOException {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                out.write(b);
+            }
+        });
+        return response;
+    }
 }
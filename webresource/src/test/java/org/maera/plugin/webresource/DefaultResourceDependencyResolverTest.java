@@ -4,13 +4,18 @@ import com.mockobjects.dynamic.C;
 import com.mockobjects.dynamic.Mock;
 import org.junit.Before;
 import org.junit.Test;
+import org.maera.plugin.ModuleDescriptor;
 import org.maera.plugin.Plugin;
 import org.maera.plugin.PluginAccessor;
 import org.maera.plugin.elements.ResourceDescriptor;
+import org.maera.plugin.event.impl.DefaultPluginEventManager;
+import org.maera.plugin.event.events.PluginModuleDisabledEvent;
+import org.maera.plugin.event.events.PluginModuleEnabledEvent;
 
 import java.util.*;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 public class DefaultResourceDependencyResolverTest {
 
@@ -59,7 +64,7 @@ public class DefaultResourceDependencyResolverTest {
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(superBatchResource2)),
                 TestUtils.createWebResourceModuleDescriptor(superBatchResource2, testPlugin));
 
-        LinkedHashSet<String> resources = dependencyResolver.getDependencies(moduleKey, true);
+        Set<String> resources = dependencyResolver.getDependencies(moduleKey, true);
         assertNotNull(resources);
         assertOrder(resources, moduleKey);
     }
@@ -82,7 +87,7 @@ public class DefaultResourceDependencyResolverTest {
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(superBatchResource2)),
                 TestUtils.createWebResourceModuleDescriptor(superBatchResource2, testPlugin));
 
-        LinkedHashSet<String> resources = dependencyResolver.getDependencies(moduleKey, false);
+        Set<String> resources = dependencyResolver.getDependencies(moduleKey, false);
         assertNotNull(resources);
         assertOrder(resources, superBatchResource1, moduleKey);
     }
@@ -106,7 +111,7 @@ public class DefaultResourceDependencyResolverTest {
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(superBatchResource3)),
                 TestUtils.createWebResourceModuleDescriptor(superBatchResource3, testPlugin));
 
-        LinkedHashSet<String> resources = dependencyResolver.getSuperBatchDependencies();
+        Set<String> resources = dependencyResolver.getSuperBatchDependencies();
         assertNotNull(resources);
         assertOrder(resources, superBatchResource1, superBatchResource2, superBatchResource3);
     }
@@ -126,7 +131,7 @@ public class DefaultResourceDependencyResolverTest {
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(superBatchResource2)),
                 TestUtils.createWebResourceModuleDescriptor(superBatchResource2, testPlugin, Collections.<ResourceDescriptor>emptyList(), Arrays.asList(superBatchResource1)));
 
-        LinkedHashSet<String> resources = dependencyResolver.getSuperBatchDependencies();
+        Set<String> resources = dependencyResolver.getSuperBatchDependencies();
         assertNotNull(resources);
         assertOrder(resources, superBatchResource2, superBatchResource1);
     }
@@ -162,11 +167,59 @@ public class DefaultResourceDependencyResolverTest {
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(superBatchResource2)),
                 TestUtils.createWebResourceModuleDescriptor(superBatchResource2, testPlugin, Collections.<ResourceDescriptor>emptyList(), Collections.singletonList(resourceC)));
 
-        LinkedHashSet<String> resources = dependencyResolver.getSuperBatchDependencies();
+        Set<String> resources = dependencyResolver.getSuperBatchDependencies();
         assertNotNull(resources);
         assertOrder(resources, resourceA, resourceB, superBatchResource1, resourceD, resourceC, superBatchResource2);
     }
 
+    @Test
+    public void testDependenciesAreRememberedUntilAffectedModulesChange() {
+        String resourceA = "test.maera:a";
+        String resourceB = "test.maera:b";
+        String resourceC = "test.maera:c";
+        String resourceD = "test.maera:d";
+
+        final WebResourceModuleDescriptor descriptorA = TestUtils.createWebResourceModuleDescriptor(resourceA, testPlugin);
+        final WebResourceModuleDescriptor descriptorB = TestUtils.createWebResourceModuleDescriptor(resourceB, testPlugin, Collections.<ResourceDescriptor>emptyList(), Arrays.asList(resourceA));
+        final WebResourceModuleDescriptor descriptorC = TestUtils.createWebResourceModuleDescriptor(resourceC, testPlugin);
+        final WebResourceModuleDescriptor descriptorD = TestUtils.createWebResourceModuleDescriptor(resourceD, testPlugin, Collections.<ResourceDescriptor>emptyList(), Arrays.asList(resourceC));
+
+        final PluginAccessor pluginAccessor = mock(PluginAccessor.class);
+        when(pluginAccessor.getEnabledPluginModule(resourceA)).thenReturn((ModuleDescriptor) descriptorA);
+        when(pluginAccessor.getEnabledPluginModule(resourceB)).thenReturn((ModuleDescriptor) descriptorB);
+        when(pluginAccessor.getEnabledPluginModule(resourceC)).thenReturn((ModuleDescriptor) descriptorC);
+        when(pluginAccessor.getEnabledPluginModule(resourceD)).thenReturn((ModuleDescriptor) descriptorD);
+        final WebResourceIntegration webResourceIntegration = mock(WebResourceIntegration.class);
+        when(webResourceIntegration.getPluginAccessor()).thenReturn(pluginAccessor);
+
+        final DefaultPluginEventManager pluginEventManager = new DefaultPluginEventManager();
+        dependencyResolver = new DefaultResourceDependencyResolver(webResourceIntegration, batchingConfiguration, pluginEventManager);
+
+        final Set<String> dependenciesOfB = dependencyResolver.getDependencies(resourceB, false);
+        final Set<String> dependenciesOfD = dependencyResolver.getDependencies(resourceD, false);
+        assertOrder(dependenciesOfB, resourceA, resourceB);
+        assertSame(dependenciesOfB, dependencyResolver.getDependencies(resourceB, false));
+        verify(pluginAccessor, times(1)).getEnabledPluginModule(resourceA);
+
+        when(pluginAccessor.getEnabledPluginModule(resourceA)).thenReturn(null);
+        pluginEventManager.broadcast(new PluginModuleDisabledEvent(descriptorA));
+        assertOrder(dependencyResolver.getDependencies(resourceB, false), resourceB);
+        assertSame(dependenciesOfD, dependencyResolver.getDependencies(resourceD, false));
+
+        when(pluginAccessor.getEnabledPluginModule(resourceA)).thenReturn((ModuleDescriptor) descriptorA);
+        pluginEventManager.broadcast(new PluginModuleEnabledEvent(descriptorA));
+        assertOrder(dependencyResolver.getDependencies(resourceB, false), resourceA, resourceB);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDependenciesAreUnmodifiable() {
+        String moduleKey = "test.maera:foo";
+        mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(moduleKey)),
+                TestUtils.createWebResourceModuleDescriptor(moduleKey, testPlugin));
+
+        dependencyResolver.getDependencies(moduleKey, false).add("test.maera:bar");
+    }
+
     @Test
     public void testSuperBatchingNotEnabled() {
         dependencyResolver = new DefaultResourceDependencyResolver((WebResourceIntegration) mockWebResourceIntegration.proxy(), new ResourceBatchingConfiguration() {
@@ -183,7 +236,7 @@ public class DefaultResourceDependencyResolverTest {
         assertTrue(dependencyResolver.getSuperBatchDependencies().isEmpty());
     }
 
-    private void assertOrder(LinkedHashSet<String> resources, String... expectedResources) {
+    private void assertOrder(Set<String> resources, String... expectedResources) {
         assertEquals(resources.size(), expectedResources.length);
 
         int i = 0;
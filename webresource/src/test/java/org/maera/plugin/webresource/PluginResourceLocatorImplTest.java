@@ -74,18 +74,19 @@ public class PluginResourceLocatorImplTest {
 
         final List<ResourceDescriptor> resourceDescriptors = TestUtils.createResourceDescriptors(ieResourceName, "master.css");
 
-        final Mock mockPlugin = new Mock(Plugin.class);
+        final Plugin testPlugin = TestUtils.createTestPlugin(TEST_PLUGIN_KEY, "1");
         final Mock mockModuleDescriptor = new Mock(ModuleDescriptor.class);
         mockModuleDescriptor.expectAndReturn("getPluginKey", TEST_PLUGIN_KEY);
-        mockModuleDescriptor.expectAndReturn("getCompleteKey", TEST_MODULE_COMPLETE_KEY);
+        mockModuleDescriptor.matchAndReturn("getCompleteKey", TEST_MODULE_COMPLETE_KEY);
         mockModuleDescriptor.expectAndReturn("getResourceDescriptors", resourceDescriptors);
+        mockModuleDescriptor.matchAndReturn("getPlugin", testPlugin);
         mockModuleDescriptor.expectAndReturn("getResourceLocation", C.args(C.eq("download"), C.eq(ieResourceName)), new ResourceLocation("", ieResourceName, "download",
                 "text/css", "", Collections.<String, String>emptyMap()));
 
         mockPluginAccessor.matchAndReturn("isPluginModuleEnabled", C.args(C.eq(TEST_MODULE_COMPLETE_KEY)), Boolean.TRUE);
         mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(TEST_MODULE_COMPLETE_KEY)), mockModuleDescriptor.proxy());
         mockPluginAccessor.matchAndReturn("getPluginModule", C.args(C.eq(TEST_MODULE_COMPLETE_KEY)), mockModuleDescriptor.proxy());
-        mockPluginAccessor.matchAndReturn("getPlugin", C.args(C.eq(TEST_PLUGIN_KEY)), mockPlugin.proxy());
+        mockPluginAccessor.matchAndReturn("getPlugin", C.args(C.eq(TEST_PLUGIN_KEY)), testPlugin);
 
         final DownloadableResource resource = pluginResourceLocator.getDownloadableResource(url, params);
 
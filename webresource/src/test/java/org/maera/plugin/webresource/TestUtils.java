@@ -53,6 +53,7 @@ public class TestUtils {
         pluginInfo.setVersion(version);
         mockPlugin.matchAndReturn("getPluginInformation", pluginInfo);
         mockPlugin.matchAndReturn("getKey", pluginKey);
+        mockPlugin.matchAndReturn("getDateLoaded", new Date(0));
 
         return (Plugin) mockPlugin.proxy();
     }
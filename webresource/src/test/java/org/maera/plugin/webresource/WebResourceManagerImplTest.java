@@ -8,6 +8,9 @@ import org.junit.Test;
 import org.maera.plugin.Plugin;
 import org.maera.plugin.PluginAccessor;
 import org.maera.plugin.elements.ResourceDescriptor;
+import org.maera.plugin.event.impl.DefaultPluginEventManager;
+import org.maera.plugin.event.events.PluginModuleDisabledEvent;
+import org.maera.plugin.event.events.PluginModuleEnabledEvent;
 import org.maera.plugin.impl.StaticPlugin;
 import org.maera.plugin.servlet.AbstractFileServerServlet;
 
@@ -233,6 +236,61 @@ public class WebResourceManagerImplTest {
         assertTrue(resources.contains(resourceC + ".css"));
     }
 
+    @Test
+    public void testGetResourceContextFromIndex() throws Exception {
+        final String resourceA = "test.maera:a";
+        final String resourceB = "test.maera:b";
+        final String resourceC = "test.maera:c";
+        final String resourceD = "test.maera:d";
+
+        final WebResourceModuleDescriptor descriptor1 = TestUtils.createWebResourceModuleDescriptor(
+                resourceA, testPlugin, TestUtils.createResourceDescriptors("resourceA.css"), Collections.<String>emptyList(), Collections.<String>emptySet());
+        final WebResourceModuleDescriptor descriptor2 = TestUtils.createWebResourceModuleDescriptor(
+                resourceB, testPlugin, TestUtils.createResourceDescriptors("resourceB.css"), Arrays.asList(resourceA), Collections.singleton("foo"));
+        final WebResourceModuleDescriptor descriptor3 = TestUtils.createWebResourceModuleDescriptor(
+                resourceC, testPlugin, TestUtils.createResourceDescriptors("resourceC.css"), Collections.<String>emptyList(), new HashSet<String>(Arrays.asList("foo", "bar")));
+        final WebResourceModuleDescriptor descriptor4 = TestUtils.createWebResourceModuleDescriptor(
+                resourceD, testPlugin, TestUtils.createResourceDescriptors("resourceD.css"), Collections.<String>emptyList(), Collections.singleton("foo"));
+
+        // the enabled modules are only looked up once, when the index is built
+        mockPluginAccessor.expectAndReturn("getEnabledModuleDescriptorsByClass", C.args(C.eq(WebResourceModuleDescriptor.class)),
+                Arrays.asList(descriptor1, descriptor2, descriptor3));
+        mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(resourceA)), descriptor1);
+        mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(resourceB)), descriptor2);
+        mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(resourceC)), descriptor3);
+        mockPluginAccessor.matchAndReturn("getEnabledPluginModule", C.args(C.eq(resourceD)), descriptor4);
+
+        final DefaultPluginEventManager pluginEventManager = new DefaultPluginEventManager();
+        webResourceManager = new WebResourceManagerImpl(pluginResourceLocator, (WebResourceIntegration) mockWebResourceIntegration.proxy(),
+                resourceBatchingConfiguration, pluginEventManager);
+        final Map requestCache = setupRequestCache();
+
+        webResourceManager.requireResourcesForContext("foo");
+        assertEquals(Arrays.asList(resourceA, resourceB, resourceC), new ArrayList<String>(getRequiredResourceNames(requestCache)));
+        webResourceManager.includeResources(new StringWriter());
+
+        webResourceManager.requireResourcesForContext("bar");
+        assertEquals(Arrays.asList(resourceC), new ArrayList<String>(getRequiredResourceNames(requestCache)));
+        webResourceManager.includeResources(new StringWriter());
+
+        pluginEventManager.broadcast(new PluginModuleDisabledEvent(descriptor3));
+        pluginEventManager.broadcast(new PluginModuleEnabledEvent(descriptor4));
+
+        webResourceManager.requireResourcesForContext("foo");
+        assertEquals(Arrays.asList(resourceA, resourceB, resourceD), new ArrayList<String>(getRequiredResourceNames(requestCache)));
+        webResourceManager.includeResources(new StringWriter());
+
+        webResourceManager.requireResourcesForContext("bar");
+        assertTrue(getRequiredResourceNames(requestCache).isEmpty());
+
+        mockPluginAccessor.verify();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> getRequiredResourceNames(Map requestCache) {
+        return (Set<String>) requestCache.get(WebResourceManagerImpl.REQUEST_CACHE_RESOURCE_KEY);
+    }
+
     @Test
     public void testGetStaticPluginResourcePrefix() {
         final String moduleKey = "confluence.extra.animal:animal";
@@ -692,6 +750,16 @@ public class WebResourceManagerImplTest {
         assertEquals(0, jsResources.get(0).getParams().size());
     }
 
+    @Test
+    public void testSuperBatchResolutionIsRemembered() throws DocumentException {
+        TestUtils.setupSuperbatchTestContent(resourceBatchingConfiguration, mockPluginAccessor, testPlugin);
+        mockOutSuperbatchPluginAccesses();
+
+        List<PluginResource> cssResources = webResourceManager.getSuperBatchResources(CssWebResource.FORMATTER);
+        assertSame(cssResources, webResourceManager.getSuperBatchResources(CssWebResource.FORMATTER));
+        assertNotSame(cssResources, webResourceManager.getSuperBatchResources(JavascriptWebResource.FORMATTER));
+    }
+
     private void mockOutPluginModule(String moduleKey) {
         Plugin p = TestUtils.createTestPlugin();
         WebResourceModuleDescriptor module = TestUtils.createWebResourceModuleDescriptor(moduleKey, p);
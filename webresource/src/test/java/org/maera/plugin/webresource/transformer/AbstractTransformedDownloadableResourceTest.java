@@ -0,0 +1,72 @@
+package org.maera.plugin.webresource.transformer;
+
+import org.junit.Test;
+import org.maera.plugin.servlet.DownloadableResource;
+import org.maera.plugin.servlet.util.LastModifiedHandler;
+import org.maera.plugin.webresource.util.DownloadableResourceTestImpl;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AbstractTransformedDownloadableResourceTest {
+
+    @Test
+    public void testEtagIsCalculatedFromTheTransformedContent() throws Exception {
+        final DownloadableResource original = new DownloadableResourceTestImpl("text/js", "content");
+        final String transformedEtag = LastModifiedHandler.calculateContentEtag("prefix: content".getBytes("UTF-8"));
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(LastModifiedHandler.calculateContentEtag("content".getBytes("UTF-8")));
+        assertFalse(prefix(original, "prefix: ").isResourceModified(request, mock(HttpServletResponse.class)));
+
+        when(request.getHeader("If-None-Match")).thenReturn(transformedEtag);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertTrue(prefix(original, "prefix: ").isResourceModified(request, response));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+        // a changed transformation no longer matches
+        assertFalse(prefix(original, "other: ").isResourceModified(request, mock(HttpServletResponse.class)));
+    }
+
+    @Test
+    public void testContentIsTransformedOnceToCheckAndServe() throws Exception {
+        final int[] transformations = new int[1];
+        final DownloadableResource resource = new AbstractStringTransformedDownloadableResource(new DownloadableResourceTestImpl("text/js", "content")) {
+            protected String transform(String originalContent) {
+                transformations[0]++;
+                return "prefix: " + originalContent;
+            }
+        };
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        assertFalse(resource.isResourceModified(request, mock(HttpServletResponse.class)));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                out.write(b);
+            }
+        });
+        resource.serveResource(request, response);
+
+        assertEquals("prefix: content", out.toString("UTF-8"));
+        verify(response).setHeader("ETag", LastModifiedHandler.calculateContentEtag("prefix: content".getBytes("UTF-8")));
+        assertEquals(1, transformations[0]);
+    }
+
+    private static DownloadableResource prefix(final DownloadableResource original, final String prefix) {
+        return new AbstractStringTransformedDownloadableResource(original) {
+            protected String transform(String originalContent) {
+                return prefix + originalContent;
+            }
+        };
+    }
+}